@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.bench;
+
+import java.util.UUID;
+
+import de.huberlin.cuneiform.compiler.noop.NoopDispatcher;
+
+/** Builds synthetic workflows for the benchmarks.
+ * 
+ * A workflow consists of a number of parallel chains. Each chain starts
+ * with a file literal and applies the task 'step' depth times. The ends of
+ * the chains are merged in groups of fan-in chains by the reducing task
+ * 'merge'.
+ */
+public class BenchWorkflow {
+	
+	private BenchWorkflow() {}
+	
+	/** Parses a workflow script into a workflow whose invocations can be
+	 * completed without running them.
+	 */
+	public static NoopDispatcher parse( String script ) {
+		
+		NoopDispatcher dag;
+		
+		dag = new NoopDispatcher( UUID.randomUUID().toString() );
+		dag.addInputString( script );
+		
+		return dag;
+	}
+	
+	/** Generates a workflow script.
+	 * 
+	 * @param width The number of parallel chains.
+	 * @param depth The number of steps in each chain.
+	 * @param fanIn The number of chains merged by one invocation.
+	 * @param lang The language of the task bodies.
+	 * @return The script.
+	 */
+	public static String toScript( int width, int depth, int fanIn, String lang ) {
+		
+		StringBuffer buf;
+		int i, j, k;
+		
+		buf = new StringBuffer();
+		
+		buf.append( "declare bench;\n\n" );
+		buf.append( "deftask step in " ).append( lang ).append( "( out : inp ) *{\n" );
+		buf.append( "  " ).append( getAssignment( lang ) ).append( "\n}*\n\n" );
+		
+		buf.append( "deftask merge in " ).append( lang ).append( "( out : <inp> ) *{\n" );
+		buf.append( "  " ).append( getAssignment( lang ) ).append( "\n}*\n\n" );
+		
+		for( j = 0; j < width; j++ ) {
+			
+			buf.append( "c" ).append( j ).append( "_0 = 'in_" ).append( j ).append( ".txt';\n" );
+			
+			for( i = 1; i <= depth; i++ )
+				buf.append( "c" ).append( j ).append( '_' ).append( i )
+					.append( " = step( inp: c" ).append( j ).append( '_' ).append( i-1 ).append( " );\n" );
+		}
+		
+		for( k = 0; k*fanIn < width; k++ ) {
+			
+			buf.append( "m" ).append( k ).append( " = merge( inp:" );
+			
+			for( j = k*fanIn; j < Math.min( width, ( k+1 )*fanIn ); j++ )
+				buf.append( " c" ).append( j ).append( '_' ).append( depth );
+			
+			buf.append( " );\n" );
+		}
+		
+		buf.append( "target" );
+		
+		for( k = 0; k*fanIn < width; k++ )
+			buf.append( " m" ).append( k );
+		
+		buf.append( ";\n" );
+		
+		return buf.toString();
+	}
+	
+	private static String getAssignment( String lang ) {
+		
+		switch( lang ) {
+			
+			case "bash"   : return "out=out.txt";
+			case "lisp"   : return "(setf out \"out.txt\")";
+			case "octave" : return "out = 'out.txt';";
+			case "r"      : return "out <- 'out.txt'";
+			case "python" : return "out = 'out.txt'";
+			case "perl"   : return "$out = 'out.txt';";
+			case "scala"  : return "val out = \"out.txt\"";
+			default       : throw new RuntimeException( "Language '"+lang+"' not recognized." );
+		}
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.huberlin.cuneiform.common.Constant;
+import de.huberlin.cuneiform.dag.CombiTable;
+import de.huberlin.cuneiform.dag.ExecDag;
+import de.huberlin.cuneiform.language.DefTask;
+
+/** Enumerating parameter combinations through CombiTable.
+ * 
+ * The cross task combines each value of a with each value of b while the
+ * dot task pairs them up.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class CombiTableBenchmark {
+	
+	@Param( { "1", "16", "256" } )
+	public int width;
+	
+	@Param( { "cross", "dot" } )
+	public String shape;
+	
+	private DefTask defTask;
+	
+	@Setup
+	public void setup() {
+		
+		ExecDag dag;
+		
+		dag = BenchWorkflow.parse(
+			"declare bench;\n"
+			+"deftask cross( out : a b ) *{\n  out=out.txt\n}*\n"
+			+"deftask dot( out : [a b] ) *{\n  out=out.txt\n}*\n" );
+		
+		defTask = dag.getDefTask( shape );
+	}
+	
+	@Benchmark
+	public int enumerate() {
+		
+		CombiTable combiTable;
+		int i, n, sum;
+		
+		combiTable = new CombiTable();
+		combiTable.addDefTaskParam( defTask.getParamSet() );
+		combiTable.setSize( Constant.TOKEN_TASK, 1 );
+		combiTable.setSize( "a", width );
+		combiTable.setSize( "b", width );
+		
+		sum = 0;
+		n = combiTable.size();
+		for( i = 0; i < n; i++ )
+			sum += combiTable.indexOf( "a", i )
+				+combiTable.indexOf( "b", i )
+				+combiTable.indexOfTaskParam( i );
+		
+		return sum;
+	}
+}
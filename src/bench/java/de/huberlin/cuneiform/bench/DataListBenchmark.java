@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.huberlin.cuneiform.compiler.noop.NoopDispatcher;
+import de.huberlin.cuneiform.dag.DataList;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** Resolving DataList items through DataList.get() and toStringList().
+ * 
+ * The list concatenates the ends of all chains of a completed workflow, so
+ * each item is resolved through the invocations of its chain.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class DataListBenchmark {
+	
+	@Param( { "1", "16", "256" } )
+	public int width;
+	
+	@Param( { "1", "8" } )
+	public int depth;
+	
+	@Param( { "1", "16" } )
+	public int fanIn;
+	
+	private DataList dataList;
+	
+	@Setup
+	public void setup() throws NotDerivableException, JSONException {
+		
+		NoopDispatcher dag;
+		int j;
+		
+		dag = BenchWorkflow.parse( BenchWorkflow.toScript( width, depth, fanIn, "bash" ) );
+		dag.drain();
+		
+		dataList = new DataList();
+		for( j = 0; j < width; j++ )
+			dataList.add( dag.getNamedJunction( "c"+j+"_"+depth ).getDataList( 0 ) );
+	}
+	
+	@Benchmark
+	public void get( Blackhole bh ) throws NotDerivableException {
+		
+		int i, n;
+		
+		n = dataList.size();
+		for( i = 0; i < n; i++ )
+			bh.consume( dataList.get( i ) );
+	}
+	
+	@Benchmark
+	public List<String> toStringList() throws NotDerivableException {
+		return dataList.toStringList();
+	}
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.bench;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.huberlin.cuneiform.compiler.noop.NoopDispatcher;
+import de.huberlin.cuneiform.dag.ExecDag;
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** Enumerating invocations through ExecDag.getReadyInvocationSet().
+ * 
+ * The enumerate and drain benchmarks work on a freshly parsed workflow for
+ * every call. Parsing is not measured.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class ExecDagBenchmark {
+	
+	@State( Scope.Benchmark )
+	public static class Shape {
+		
+		@Param( { "1", "16", "256" } )
+		public int width;
+		
+		@Param( { "1", "8" } )
+		public int depth;
+		
+		@Param( { "1", "16" } )
+		public int fanIn;
+		
+		public String script;
+		
+		@Setup
+		public void setup() {
+			script = BenchWorkflow.toScript( width, depth, fanIn, "bash" );
+		}
+	}
+	
+	@State( Scope.Thread )
+	public static class FreshDag {
+		
+		public NoopDispatcher dag;
+		
+		@Setup( Level.Invocation )
+		public void setup( Shape shape ) {
+			dag = BenchWorkflow.parse( shape.script );
+		}
+	}
+	
+	@State( Scope.Thread )
+	public static class EnumeratedDag {
+		
+		public ExecDag dag;
+		
+		@Setup
+		public void setup( Shape shape ) {
+			
+			dag = BenchWorkflow.parse( shape.script );
+			dag.getReadyInvocationSet();
+		}
+	}
+	
+	/** Finds the ready invocations of a workflow for the first time.
+	 */
+	@Benchmark
+	public Set<Invocation> enumerate( FreshDag state ) {
+		return state.dag.getReadyInvocationSet();
+	}
+	
+	/** Finds the ready invocations of a workflow that has been enumerated
+	 * before.
+	 */
+	@Benchmark
+	public Set<Invocation> ready( EnumeratedDag state ) {
+		return state.dag.getReadyInvocationSet();
+	}
+	
+	/** Completes all invocations of a workflow without running them.
+	 */
+	@Benchmark
+	public int drain( FreshDag state ) throws NotDerivableException, JSONException {
+		return state.dag.drain();
+	}
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** Deriving signatures and generating scripts for the ready invocations
+ * of a workflow in each foreign language.
+ * 
+ * An invocation caches its signature once it can no longer change, and
+ * finding the ready invocations already derives it. Signatures are
+ * therefore derived on invocations freshly enumerated for every call.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class InvocationBenchmark {
+	
+	@Param( { "1", "16", "256" } )
+	public int width;
+	
+	@Param( { "1", "16" } )
+	public int fanIn;
+	
+	@Param( { "bash", "lisp", "octave", "r", "python", "perl", "scala" } )
+	public String lang;
+	
+	private String script;
+	private List<Invocation> invocationList;
+	
+	@State( Scope.Thread )
+	public static class FreshInvocations {
+		
+		private List<Invocation> invocationList;
+		
+		/** Enumerates the invocations without checking whether they are
+		 * ready, so none of them has derived its signature yet. Only
+		 * invocations without parents are kept, i.e., the ones ready at the
+		 * start.
+		 */
+		@Setup( Level.Invocation )
+		public void setup( InvocationBenchmark bench ) {
+			
+			invocationList = new ArrayList<>();
+			
+			for( Invocation invocation : BenchWorkflow.parse( bench.script ).getInvocationSet() )
+				if( invocation.getParentInvocationSet().isEmpty() )
+					invocationList.add( invocation );
+		}
+	}
+	
+	@Setup
+	public void setup() {
+		
+		script = BenchWorkflow.toScript( width, 1, fanIn, lang );
+		invocationList = new ArrayList<>( BenchWorkflow.parse( script ).getReadyInvocationSet() );
+	}
+	
+	@Benchmark
+	public void signature( FreshInvocations state, Blackhole bh ) throws NotDerivableException {
+		
+		for( Invocation invocation : state.invocationList )
+			bh.consume( invocation.getSignature() );
+	}
+	
+	@Benchmark
+	public void toScript( Blackhole bh ) throws NotDerivableException {
+		
+		for( Invocation invocation : invocationList )
+			bh.consume( invocation.toScript() );
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+
+/** Parsing report lines as written to __report__.txt and the log.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+public class ReportBenchmark {
+	
+	private static final String PREFIX =
+		"{timestamp:1400000000000,runId:\"5c0e9d9c-1111-4222-8333-944455556666\","
+		+"taskId:10,taskname:\"upper\",lang:\"bash\",invocId:1712471908,";
+	
+	@Param( { "invoc-time", "invoc-output", "file-size-stageout", "invoc-stdout" } )
+	public String key;
+	
+	private String raw;
+	
+	@Setup
+	public void setup() {
+		
+		switch( key ) {
+			
+			case JsonReportEntry.KEY_INVOC_TIME :
+				raw = PREFIX+"key:\"invoc-time\",value:{\"realTime\":0.02,\"userTime\":0,"
+					+"\"sysTime\":0,\"maxResidentSetSize\":3456,\"avgResidentSetSize\":0,"
+					+"\"avgDataSize\":0,\"avgStackSize\":0,\"avgTextSize\":0,"
+					+"\"nMajPageFault\":0,\"nMinPageFault\":120,\"nSwapOutMainMem\":0,"
+					+"\"nForcedContextSwitch\":1,\"nWaitContextSwitch\":2,\"nIoRead\":0,"
+					+"\"nIoWrite\":8,\"nSocketRead\":0,\"nSocketWrite\":0,\"nSignal\":0}}";
+				break;
+				
+			case JsonReportEntry.KEY_INVOC_OUTPUT :
+				raw = PREFIX+"key:\"invoc-output\",value:{\"out\":[\"1712471908_0_up.txt\"]}}";
+				break;
+				
+			case JsonReportEntry.KEY_FILE_SIZE_STAGEOUT :
+				raw = PREFIX+"key:\"file-size-stageout\",value:{\"1712471908_0_up.txt\":12}}";
+				break;
+				
+			case JsonReportEntry.KEY_INVOC_STDOUT :
+				raw = PREFIX+"key:\"invoc-stdout\",value:\"hello world\\n\"}";
+				break;
+				
+			default :
+				throw new RuntimeException( "Key '"+key+"' not recognized." );
+		}
+	}
+	
+	@Benchmark
+	public JsonReportEntry parse() throws JSONException {
+		return new JsonReportEntry( raw );
+	}
+}
@@ -93,10 +93,12 @@ correlParam returns [CorrelParam p]
              
 outvar returns [DefTaskOutput v]
            :                           { int type = 0; }
-             ( QUOTE                   { type = 2; }
+             ( ( QUOTE                 { type = 2; }
              | TILDE                   { type = 1; }
              )?( LTAG i=ID RTAG        { $v = new ReduceOutput( $i, type ); }
              | j=ID                    { $v = new SingleOutput( $j, type ); }
+             )
+             | PIPE k=ID               { $v = new SingleOutput( $k, 0, true ); }
              ) ;
 
 extend     : EXTEND                    { addExtend(); }
@@ -193,6 +195,7 @@ LPAREN     : '(' ;
 LSQUAREBR  : '[' ;
 LTAG       : '<' ;
 OUTPUT     : 'output' ;
+PIPE       : '|' ;
 PREFIX     : 'prefix' ;
 QUOTE      : '`' ;
 TARGET     : 'target' ;
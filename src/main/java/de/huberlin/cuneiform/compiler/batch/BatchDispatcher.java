@@ -0,0 +1,543 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.batch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONException;
+
+import de.huberlin.cuneiform.compiler.local.LocalDispatcher;
+import de.huberlin.cuneiform.compiler.local.PreparedInvocation;
+import de.huberlin.cuneiform.compiler.local.ScriptProcess;
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** Runs invocations as array jobs of a batch scheduler.
+ * 
+ * Ready invocations are prepared in their sandboxes and handed to the
+ * scheduler in array jobs of up to a configurable number of elements,
+ * saving the scheduler's per-job overhead for short tasks. Each array
+ * element looks up its sandbox by its index, runs the invocation script,
+ * and leaves its exit value in the sandbox. The dispatcher harvests the
+ * reports of finished elements while the array job is still running.
+ * 
+ * The scheduler is driven through three command templates run by
+ * /bin/sh. The submit template may refer to {first}, {last}, {size}, and
+ * {script} and must print the job id as the last word of its output. A
+ * cluster name appended after a semicolon, as by sbatch --parsable, is
+ * dropped. The poll and cancel templates may refer to {job}. The poll
+ * template must print something while the job is queued or running and
+ * nothing once it is gone. A poll exiting with a non-zero value counts as
+ * gone, since schedulers reject ids of jobs they have forgotten. Array
+ * indices start at 1. For Slurm this could be
+ * 
+ *   submit: sbatch --parsable --array={first}-{last} {script}
+ *   poll:   squeue -h -j {job}
+ *   cancel: scancel {job}
+ * 
+ * Without templates, a bundled shell script emulates the queue on the
+ * local host. The build directory must be shared with all compute nodes
+ * under the same path.
+ */
+public class BatchDispatcher extends LocalDispatcher {
+	
+	public static final int DEFAULT_ARRAY_SIZE = 1000;
+	public static final long DEFAULT_POLL_INTERVAL = 2000;
+	public static final String BATCH_DIRNAME = "__batch__";
+	public static final String LAUNCH_FILENAME = "__launch__";
+	public static final String EXIT_FILENAME = "__exit__";
+	public static final String STDOUT_FILENAME = "__stdout__";
+	public static final String STDERR_FILENAME = "__stderr__";
+	
+	private static final String QUEUE_RESOURCE = "cf-queue.sh";
+	private static final String VAR_FIRST = "{first}";
+	private static final String VAR_LAST = "{last}";
+	private static final String VAR_SIZE = "{size}";
+	private static final String VAR_SCRIPT = "{script}";
+	private static final String VAR_JOB = "{job}";
+	
+	private String submitTemplate;
+	private String pollTemplate;
+	private String cancelTemplate;
+	private int nLocalSlot;
+	private int maxArraySize;
+	private long pollInterval;
+	private int nSubmitted;
+	private File batchDir;
+	private List<ArrayJob> jobList;
+	private Map<Long,PreparedInvocation> inFlightMap;
+	
+	public BatchDispatcher( File buildDir, File logFile, String dagid ) {
+		
+		super( buildDir, logFile, dagid );
+		
+		nLocalSlot = Runtime.getRuntime().availableProcessors();
+		maxArraySize = DEFAULT_ARRAY_SIZE;
+		pollInterval = DEFAULT_POLL_INTERVAL;
+		jobList = new LinkedList<>();
+		inFlightMap = new HashMap<>();
+	}
+	
+	@Override
+	public void run()
+	throws IOException, InterruptedException, NotDerivableException, JSONException {
+		
+		boolean progress;
+		
+		openRun();
+		
+		try {
+			
+			batchDir = new File( getStorage().getBuildDir().getAbsoluteFile(), BATCH_DIRNAME );
+			if( !batchDir.exists() )
+				if( !batchDir.mkdirs() )
+					throw new IOException(
+						"Unable to create batch folder '"
+						+batchDir.getAbsolutePath()+"'." );
+			
+			if( submitTemplate == null )
+				useLocalQueue();
+			
+			while( true ) {
+				
+				progress = dispatchReady();
+				progress |= harvest();
+				
+				if( jobList.isEmpty() && !progress )
+					break;
+				
+				if( progress )
+					collect();
+				else
+					Thread.sleep( pollInterval );
+			}
+		}
+		finally {
+			
+			for( ArrayJob job : jobList )
+				cancel( job );
+			
+			closeRun();
+		}
+	}
+	
+	/** Sets the number of array elements the bundled local queue runs at
+	 * once.
+	 * 
+	 * @param nLocalSlot The number of slots.
+	 */
+	public void setLocalSlots( int nLocalSlot ) {
+		
+		if( nLocalSlot <= 0 )
+			throw new RuntimeException( "Number of slots must be a positive number." );
+		
+		this.nLocalSlot = nLocalSlot;
+	}
+	
+	public void setMaxArraySize( int maxArraySize ) {
+		
+		if( maxArraySize <= 0 )
+			throw new RuntimeException( "Array size must be a positive number." );
+		
+		this.maxArraySize = maxArraySize;
+	}
+	
+	public void setPollInterval( long pollInterval ) {
+		
+		if( pollInterval <= 0 )
+			throw new RuntimeException( "Poll interval must be a positive number." );
+		
+		this.pollInterval = pollInterval;
+	}
+	
+	/** Sets the commands driving the batch scheduler.
+	 * 
+	 * @param submitTemplate The command submitting an array job.
+	 * @param pollTemplate The command telling whether a job is still queued
+	 *                     or running.
+	 * @param cancelTemplate The command cancelling a job.
+	 */
+	public void setTemplates( String submitTemplate, String pollTemplate, String cancelTemplate ) {
+		
+		if( submitTemplate == null )
+			throw new NullPointerException( "Submit template must not be null." );
+		
+		if( pollTemplate == null )
+			throw new NullPointerException( "Poll template must not be null." );
+		
+		if( cancelTemplate == null )
+			throw new NullPointerException( "Cancel template must not be null." );
+		
+		this.submitTemplate = submitTemplate;
+		this.pollTemplate = pollTemplate;
+		this.cancelTemplate = cancelTemplate;
+	}
+	
+	private void cancel( ArrayJob job ) {
+		
+		try {
+			exec( cancelTemplate.replace( VAR_JOB, job.getId() ) );
+			System.err.println( "[batch] Cancelled array job "+job.getId()+"." );
+		}
+		catch( IOException|InterruptedException e ) {
+			System.err.println( "[batch] Could not cancel array job "+job.getId()+": "+e.getMessage() );
+		}
+	}
+	
+	/** Prepares the sandboxes of ready invocations and submits them.
+	 * 
+	 * @return True if any invocation has been completed without a job.
+	 */
+	private boolean dispatchReady()
+	throws IOException, InterruptedException, NotDerivableException, JSONException {
+		
+		Set<JsonReportEntry> report;
+		List<Invocation> batch;
+		PreparedInvocation prepared;
+		File location;
+		File scriptFile;
+		boolean progress;
+		long signature;
+		Invocation leader;
+		
+		progress = false;
+		batch = new LinkedList<>();
+		
+		for( Invocation invocation : getReadyInvocationSet() ) {
+			
+			signature = invocation.getSignature();
+			
+			// an identical invocation has been dispatched in this run
+			leader = getLeader( invocation );
+			if( leader != null ) {
+				
+				if( leader.isComputed() ) {
+					
+					evalReport( follow( invocation, leader ) );
+					progress = true;
+				}
+				
+				continue;
+			}
+			
+			if( inFlightMap.containsKey( signature ) )
+				continue;
+			
+			// bind outputs right away if the invocation has been journaled
+			report = readJournal( invocation );
+			if( report != null ) {
+				
+				getMonitor().addCacheHit();
+				getMonitor().addCompleted();
+				evalReport( report );
+				progress = true;
+				continue;
+			}
+			
+			location = getStorage().place( signature, invocation.getStageInList() );
+			
+			if( new File( location, SUCCESS_FILENAME ).exists() ) {
+				
+				getMonitor().addCacheHit();
+				evalReport( complete( invocation, location, PreparedInvocation.readReport( location ) ) );
+				progress = true;
+				continue;
+			}
+			
+			prepared = prepare( invocation );
+			scriptFile = prepared.writeSandbox( location );
+			writeLaunch( location, prepared.getCommand( location, scriptFile ) );
+			
+			inFlightMap.put( signature, prepared );
+			getMonitor().noteSpawn( signature );
+			batch.add( invocation );
+			
+			if( batch.size() == maxArraySize ) {
+				
+				submit( batch );
+				batch = new LinkedList<>();
+			}
+		}
+		
+		if( !batch.isEmpty() )
+			submit( batch );
+		
+		return progress;
+	}
+	
+	/** Runs a shell command and returns its standard output.
+	 * 
+	 * @throws IOException if the command exits with a non-zero value.
+	 */
+	private String exec( String command ) throws IOException, InterruptedException {
+		
+		ScriptProcess process;
+		int exitValue;
+		
+		process = new ScriptProcess( new String[] { "/bin/sh", "-c", command }, batchDir );
+		exitValue = process.waitFor();
+		
+		if( exitValue != 0 )
+			throw new IOException(
+				"Command '"+command+"' terminated with exit value "
+				+exitValue+": "+process.getErrContent().trim() );
+		
+		return process.getStdoutContent();
+	}
+	
+	/** Completes the invocations of finished array elements.
+	 * 
+	 * @return True if any invocation has been completed.
+	 */
+	private boolean harvest()
+	throws IOException, InterruptedException, NotDerivableException, JSONException {
+		
+		boolean progress;
+		boolean queued;
+		File location;
+		File exitFile;
+		PreparedInvocation prepared;
+		Set<JsonReportEntry> report;
+		
+		progress = false;
+		
+		for( ArrayJob job : new LinkedList<>( jobList ) ) {
+			
+			// ask the scheduler first so that elements finishing in between are not missed
+			queued = isQueued( job );
+			
+			for( Invocation invocation : new LinkedList<>( job.getInvocationList() ) ) {
+				
+				location = getStorage().locate( invocation.getSignature() );
+				exitFile = new File( location, EXIT_FILENAME );
+				
+				if( !exitFile.exists() )
+					continue;
+				
+				prepared = inFlightMap.remove( invocation.getSignature() );
+				getMonitor().noteExit();
+				job.remove( invocation );
+				
+				prepared.finish(
+					location,
+					Integer.parseInt( FileUtils.readFileToString( exitFile ).trim() ),
+					FileUtils.readFileToString( new File( location, STDOUT_FILENAME ) ),
+					FileUtils.readFileToString( new File( location, STDERR_FILENAME ) ) );
+				
+				report = PreparedInvocation.readReport( location );
+				evalReport( complete( invocation, location, report ) );
+				progress = true;
+			}
+			
+			if( job.getInvocationList().isEmpty() ) {
+				
+				jobList.remove( job );
+				continue;
+			}
+			
+			if( !queued )
+				throw new RuntimeException(
+					"Array job "+job.getId()+" has left the queue, but "
+					+job.getInvocationList().size()
+					+" of its invocation(s) did not report an exit value." );
+		}
+		
+		return progress;
+	}
+	
+	private boolean isQueued( ArrayJob job ) throws IOException, InterruptedException {
+		
+		ScriptProcess process;
+		
+		process = new ScriptProcess(
+			new String[] { "/bin/sh", "-c", pollTemplate.replace( VAR_JOB, job.getId() ) }, batchDir );
+		
+		// e.g., squeue fails once a finished job has been purged
+		if( process.waitFor() != 0 )
+			return false;
+		
+		return !process.getStdoutContent().trim().isEmpty();
+	}
+	
+	/** Writes an array job script and submits it to the scheduler.
+	 */
+	private void submit( List<Invocation> batch )
+	throws IOException, InterruptedException, NotDerivableException {
+		
+		File listFile;
+		File scriptFile;
+		String output;
+		String jobId;
+		
+		listFile = new File( batchDir, "array_"+nSubmitted+".txt" );
+		scriptFile = new File( batchDir, "array_"+nSubmitted+".sh" );
+		nSubmitted++;
+		
+		try( BufferedWriter writer = new BufferedWriter( new FileWriter( listFile, false ) ) ) {
+			
+			for( Invocation invocation : batch )
+				writer.write( getStorage().locate( invocation.getSignature() ).getAbsolutePath()+"\n" );
+		}
+		
+		try( BufferedWriter writer = new BufferedWriter( new FileWriter( scriptFile, false ) ) ) {
+			
+			writer.write( "#!/bin/sh\n" );
+			
+			// index variables of common schedulers
+			writer.write( "i=${CF_ARRAY_INDEX:-${SLURM_ARRAY_TASK_ID:-${PBS_ARRAYID:-${SGE_TASK_ID:-$LSB_JOBINDEX}}}}\n" );
+			writer.write( "d=`sed -n \"${i}p\" "+quote( listFile.getAbsolutePath() )+"`\n" );
+			writer.write( "cd \"$d\" || exit 1\n" );
+			writer.write( "sh ./"+LAUNCH_FILENAME+" > "+STDOUT_FILENAME+" 2> "+STDERR_FILENAME+"\n" );
+			writer.write( "echo $? > "+EXIT_FILENAME+".tmp\n" );
+			writer.write( "mv "+EXIT_FILENAME+".tmp "+EXIT_FILENAME+"\n" );
+		}
+		
+		scriptFile.setExecutable( true );
+		
+		output = exec(
+			submitTemplate
+				.replace( VAR_FIRST, "1" )
+				.replace( VAR_LAST, String.valueOf( batch.size() ) )
+				.replace( VAR_SIZE, String.valueOf( batch.size() ) )
+				.replace( VAR_SCRIPT, scriptFile.getAbsolutePath() ) ).trim();
+		
+		jobId = parseJobId( output );
+		jobList.add( new ArrayJob( jobId, batch ) );
+		
+		System.err.println( "[batch] Submitted array job "+jobId+" with "+batch.size()+" invocation(s)." );
+	}
+	
+	/** Extracts the bundled queue emulation and drives it instead of a batch
+	 * scheduler.
+	 */
+	private void useLocalQueue() throws IOException {
+		
+		File queueFile;
+		String queue;
+		
+		queueFile = new File( batchDir, QUEUE_RESOURCE );
+		
+		try( InputStream in = BatchDispatcher.class.getResourceAsStream( QUEUE_RESOURCE ) ) {
+			
+			if( in == null )
+				throw new IOException( "Bundled queue script '"+QUEUE_RESOURCE+"' not found." );
+			
+			FileUtils.copyInputStreamToFile( in, queueFile );
+		}
+		
+		queue = "CF_QUEUE_SLOTS="+nLocalSlot+" sh "+quote( queueFile.getAbsolutePath() );
+		
+		setTemplates(
+			queue+" submit "+VAR_FIRST+" "+VAR_LAST+" "+VAR_SCRIPT,
+			queue+" poll "+VAR_JOB,
+			queue+" cancel "+VAR_JOB );
+	}
+	
+	/** Extracts the job id from the output of the submit command.
+	 * 
+	 * @param output The output of the submit command.
+	 * @return The last word of the output without a cluster name.
+	 */
+	private static String parseJobId( String output ) {
+		
+		String[] word;
+		String jobId;
+		
+		word = output.trim().split( "\\s+" );
+		jobId = word[ word.length-1 ];
+		
+		if( jobId.indexOf( ';' ) >= 0 )
+			jobId = jobId.substring( 0, jobId.indexOf( ';' ) );
+		
+		if( jobId.isEmpty() )
+			throw new RuntimeException( "Submit command did not print a job id." );
+		
+		return jobId;
+	}
+	
+	/** Writes the command line running an invocation script to a shell file.
+	 */
+	private static void writeLaunch( File location, String[] command ) throws IOException {
+		
+		StringBuffer buf;
+		File launchFile;
+		
+		buf = new StringBuffer();
+		buf.append( "exec" );
+		for( String arg : command )
+			buf.append( ' ' ).append( quote( arg ) );
+		buf.append( '\n' );
+		
+		launchFile = new File( location, LAUNCH_FILENAME );
+		FileUtils.writeStringToFile( launchFile, buf.toString() );
+	}
+	
+	private static String quote( String s ) {
+		return "'"+s.replace( "'", "'\\''" )+"'";
+	}
+	
+	private static class ArrayJob {
+		
+		private String id;
+		private List<Invocation> invocationList;
+		
+		public ArrayJob( String id, List<Invocation> invocationList ) {
+			
+			this.id = id;
+			this.invocationList = new LinkedList<>( invocationList );
+		}
+		
+		public String getId() {
+			return id;
+		}
+		
+		public List<Invocation> getInvocationList() {
+			return invocationList;
+		}
+		
+		public void remove( Invocation invocation ) {
+			invocationList.remove( invocation );
+		}
+	}
+}
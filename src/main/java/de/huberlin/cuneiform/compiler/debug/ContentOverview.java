@@ -33,7 +33,8 @@
 package de.huberlin.cuneiform.compiler.debug;
 
 import java.awt.BorderLayout;
-import java.util.Set;
+import java.io.IOException;
+import java.util.Collection;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -72,7 +73,13 @@ public class ContentOverview extends JPanel {
 		srcContentTab.addInputFile( filename );
 	}
 	
-	public void addReport( Set<JsonReportEntry> report ) {
+	public void addReport( Collection<JsonReportEntry> report ) {
 		logContentTab.addReport( report );
 	}
+	
+	/** Releases the disk space held by the log.
+	 */
+	public void close() throws IOException {
+		logContentTab.close();
+	}
 }
@@ -35,10 +35,20 @@ package de.huberlin.cuneiform.compiler.debug;
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import javax.swing.JFrame;
 import javax.swing.JMenu;
@@ -51,17 +61,23 @@ import javax.swing.WindowConstants;
 import org.json.JSONException;
 
 import de.huberlin.cuneiform.compiler.local.LocalDispatcher;
+import de.huberlin.cuneiform.compiler.local.PreparedInvocation;
 import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.InvocationListener;
 import de.huberlin.cuneiform.dag.NotDerivableException;
 import de.huberlin.cuneiform.dag.JsonReportEntry;
 
-public class DebugDispatcher extends LocalDispatcher implements ActionListener {
+public class DebugDispatcher extends LocalDispatcher implements ActionListener, InvocationListener {
 	
 	private InvocOverview invocOverview;
 	private ContentOverview contentOverview;
 	private JMenuItem exitItem;
 	private JFrame frame;
 	private JMenuItem openItem;
+	private Map<Integer,Invocation> invocationMap;
+	private Map<Integer,List<Invocation>> childMap;
+	private Map<Integer,InvocWorker> workerMap;
+	private ExecutorService pool;
 
 	public DebugDispatcher( File buildDir, File logFile, String dagid ) {
 		
@@ -72,6 +88,13 @@ public class DebugDispatcher extends LocalDispatcher implements ActionListener {
 		frame = new JFrame( "Cuneiform Debug Interface" );
 		frame.setSize( 700, 500 );
 		frame.setDefaultCloseOperation( WindowConstants.DISPOSE_ON_CLOSE );
+		frame.addWindowListener( new WindowAdapter() {
+			
+			@Override
+			public void windowClosed( WindowEvent e ) {
+				shutdown();
+			}
+		} );
 		frame.setLayout( new BorderLayout() );
 		
 		addMenu();
@@ -86,14 +109,17 @@ public class DebugDispatcher extends LocalDispatcher implements ActionListener {
 		
 		frame.add( splitPane, BorderLayout.CENTER );
 		
+		invocationMap = new HashMap<>();
+		childMap = new HashMap<>();
+		workerMap = new HashMap<>();
+		addInvocationListener( this );
 	}
 	
 	@Override
 	public void actionPerformed( ActionEvent e ) {
 		
-		List<Integer> signatureList;
-		Set<Invocation> readyInvocationSet;
-		Set<JsonReportEntry> report;
+		List<Integer> idList;
+		Invocation invoc;
 		
 		
 		if( e.getSource() == exitItem ) {
@@ -102,98 +128,63 @@ public class DebugDispatcher extends LocalDispatcher implements ActionListener {
 			return;
 		}
 		
+		if( e.getActionCommand().equals( RunInvocView.LABEL_CANCEL ) ) {
+			
+			for( InvocWorker worker : invocOverview.getSelectedRunWorkerList() )
+				worker.abort();
+			
+			return;
+		}
+		
 		if( e.getActionCommand().equals( PreInvocView.LABEL_STEP ) ) {
 						
-			signatureList = invocOverview.getSelectedPreInvocSignatureList();
-			readyInvocationSet = getReadyInvocationSet();
+			idList = invocOverview.getSelectedPreInvocIdList();
 			
-			if( signatureList == null )
-				throw new NullPointerException( "Signature list must not be null." );
+			if( idList == null )
+				throw new NullPointerException( "Id list must not be null." );
 
-			if( signatureList.isEmpty() )
-				throw new RuntimeException( "Signature list must not be empty." );
+			if( idList.isEmpty() )
+				throw new RuntimeException( "Id list must not be empty." );
 
 			invocOverview.setContentOld();
 
 			try {
 				
-				for( Integer i : signatureList ) {
+				for( Integer id : idList ) {
 					
-					if( i == null )
-						throw new NullPointerException( "Signature must not be null." );
+					if( id == null )
+						throw new NullPointerException( "Invocation id must not be null." );
 					
-					for( Invocation invoc : readyInvocationSet )
-						
-						if( invoc.getSignature() == i ) {
-							
-							report = dispatch( invoc );
-							
-							if( !invoc.isComputed() )
-								throw new RuntimeException(
-									"Expected the invocation to be computed." );
-							
-							evalReport( report );
-							
-							readyInvocationSet.remove( invoc );
-	
-							invocOverview.removePreInvocation( invoc );
-							invocOverview.insertPostInvocation( invoc );
-							
-							
-							break;
-						}
+					invoc = invocationMap.get( id );
+					
+					if( invoc == null )
+						throw new RuntimeException( "An invocation with the id "+id+" is not registered." );
+					
+					if( !invoc.isReady() || workerMap.containsKey( id ) )
+						continue;
 					
-					updateView();
+					submit( invoc );
 				}
-			}
-			catch( NotDerivableException e1 ) {
-				
-				e1.printStackTrace();
 				
-				JOptionPane.showMessageDialog(
-						frame,
-					    e1.getMessage(),
-					    "NotDerivableException",
-					    JOptionPane.ERROR_MESSAGE );
-
+				// enumerate invocations that became derivable
+				update();
 			}
-			catch( IOException e1 ) {
-
-				e1.printStackTrace();
-				
-				JOptionPane.showMessageDialog(
-						frame,
-					    e1.getMessage(),
-					    "IOException",
-					    JOptionPane.ERROR_MESSAGE );
-
-			}
-			catch( InterruptedException e1 ) {
-
-				e1.printStackTrace();
-				
-				JOptionPane.showMessageDialog(
-						frame,
-					    e1.getMessage(),
-					    "InterruptedException",
-					    JOptionPane.ERROR_MESSAGE );
-
-			} catch ( JSONException e1 ) {
-				
-				e1.printStackTrace();
-				
-				JOptionPane.showMessageDialog(
-						frame,
-					    e1.getMessage(),
-					    "JSONException",
-					    JOptionPane.ERROR_MESSAGE );
+			catch( NotDerivableException | IOException | JSONException e1 ) {
+				showError( e1 );
 			}
 			
-			
 			return;
 		}
 	}
 	
+	/** Adds output lines of running scripts to the log.
+	 * 
+	 * @param entryList The output lines as report entries.
+	 */
+	public void addOutput( List<JsonReportEntry> entryList ) {
+		contentOverview.addReport( entryList );
+	}
+	
 	@Override
 	public void addInputFile( String filename ) throws IOException {
 		
@@ -202,14 +193,119 @@ public class DebugDispatcher extends LocalDispatcher implements ActionListener {
 	}
 	
 	@Override
-	public void run() throws NotDerivableException {
+	public void invocationAdded( Invocation invocation ) {
+		
+		List<Invocation> childList;
 		
+		invocationMap.put( invocation.getId(), invocation );
 		
-		updateView();
+		// remember consumers to refresh their state once a producer is done
+		for( Invocation parent : invocation.getParentInvocationSet() ) {
+			
+			childList = childMap.get( parent.getId() );
+			if( childList == null ) {
+				
+				childList = new LinkedList<>();
+				childMap.put( parent.getId(), childList );
+			}
+			
+			childList.add( invocation );
+		}
+		
+		try {
+			invocOverview.insertPreInvocation( invocation );
+		}
+		catch( NotDerivableException e ) {
+			throw new RuntimeException( e );
+		}
+	}
+	
+	@Override
+	public void invocationComputed( Invocation invocation ) {
+		
+		List<Invocation> childList;
+		
+		try {
+			
+			invocOverview.removePreInvocation( invocation );
+			invocOverview.insertPostInvocation( invocation );
+			
+			childList = childMap.remove( invocation.getId() );
+			if( childList != null )
+				for( Invocation child : childList )
+					if( !child.isComputed() )
+						invocOverview.insertPreInvocation( child );
+		}
+		catch( NotDerivableException e ) {
+			throw new RuntimeException( e );
+		}
+	}
+	
+	@Override
+	public void run() {
+		
+		update();
 		frame.setVisible( true );
 		
 	}
 	
+	/** Sets the number of invocations run in the background at once.
+	 * 
+	 * @param nThread The number of threads.
+	 */
+	public void setThreads( int nThread ) {
+		
+		if( nThread < 1 )
+			throw new RuntimeException( "Number of threads must be positive." );
+		
+		if( pool != null )
+			pool.shutdown();
+		
+		pool = Executors.newFixedThreadPool( nThread );
+	}
+	
+	/** Binds the result of a background invocation.
+	 * 
+	 * Called on the event dispatch thread once the worker is done, cancelled,
+	 * or failed.
+	 * 
+	 * @param worker The worker.
+	 */
+	public void workerDone( InvocWorker worker ) {
+		
+		Invocation invoc;
+		Set<JsonReportEntry> report;
+		
+		invoc = worker.getInvocation();
+		
+		workerMap.remove( invoc.getId() );
+		invocOverview.removeRunWorker( worker );
+		getMonitor().noteExit();
+		
+		if( worker.isCancelled() )
+			return;
+		
+		try {
+			
+			report = complete( invoc, worker.getLocation(), worker.get() );
+			
+			// output lines have been shown while the script ran
+			evalReport( withoutOutput( report ) );
+			
+			update();
+		}
+		catch( ExecutionException e ) {
+			
+			if( e.getCause() instanceof Exception )
+				showError( ( Exception )e.getCause() );
+			else
+				showError( e );
+		}
+		catch( NotDerivableException | IOException | JSONException | InterruptedException e ) {
+			showError( e );
+		}
+	}
+	
 	private void addMenu() {
 		
 		JMenuBar menuBar;
@@ -238,17 +334,106 @@ public class DebugDispatcher extends LocalDispatcher implements ActionListener {
 		helpMenu.add( aboutItem );
 	}
 
-	private void updateView() throws NotDerivableException {
-		
-		Set<Invocation> preSet;
-		
-		preSet = getNonComputedInvocationSet();
-		invocOverview.insertPreInvocation( preSet );
-	}
-
 	@Override
 	protected void evalReport( Set<JsonReportEntry> report ) {
 		contentOverview.addReport( report );
 	}
+	
+	/** Kills all background invocations, stops the pool, and removes the log
+	 * store.
+	 */
+	private void shutdown() {
+		
+		for( InvocWorker worker : new ArrayList<>( workerMap.values() ) )
+			worker.abort();
+		
+		if( pool != null )
+			pool.shutdown();
+		
+		try {
+			contentOverview.close();
+		}
+		catch( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void showError( Exception e ) {
+		
+		e.printStackTrace();
+		
+		JOptionPane.showMessageDialog(
+				frame,
+			    e.getMessage(),
+			    e.getClass().getSimpleName(),
+			    JOptionPane.ERROR_MESSAGE );
+	}
+	
+	/** Binds an invocation right away if it is known from this or an earlier
+	 * run. Otherwise its script is handed to the background pool.
+	 */
+	private void submit( Invocation invoc ) throws NotDerivableException, IOException, JSONException {
+		
+		Set<JsonReportEntry> report;
+		Invocation leader;
+		File location;
+		InvocWorker worker;
+		long signature;
+		
+		signature = invoc.getSignature();
+		
+		// an identical invocation has been dispatched in this run
+		leader = getLeader( invoc );
+		if( leader != null ) {
+			
+			// otherwise it is bound once the leader completes
+			if( leader.isComputed() )
+				evalReport( follow( invoc, leader ) );
+			
+			return;
+		}
+		
+		report = readJournal( invoc );
+		if( report != null ) {
+			
+			getMonitor().addCacheHit();
+			getMonitor().addCompleted();
+			evalReport( report );
+			return;
+		}
+		
+		location = getStorage().place( signature, invoc.getStageInList() );
+		
+		if( new File( location, SUCCESS_FILENAME ).exists() ) {
+			
+			getMonitor().addCacheHit();
+			evalReport( complete( invoc, location, PreparedInvocation.readReport( location ) ) );
+			return;
+		}
+		
+		if( pool == null )
+			setThreads( Runtime.getRuntime().availableProcessors() );
+		
+		worker = new InvocWorker( this, invoc, prepare( invoc ), location );
+		workerMap.put( invoc.getId(), worker );
+		invocOverview.addRunWorker( worker );
+		getMonitor().noteSpawn( signature );
+		
+		pool.execute( worker );
+	}
+	
+	private static Set<JsonReportEntry> withoutOutput( Set<JsonReportEntry> report ) {
+		
+		Set<JsonReportEntry> set;
+		
+		set = new HashSet<>();
+		
+		for( JsonReportEntry entry : report )
+			if( !entry.getKey().equals( JsonReportEntry.KEY_INVOC_STDOUT )
+				&& !entry.getKey().equals( JsonReportEntry.KEY_INVOC_STDERR ) )
+				set.add( entry );
+		
+		return set;
+	}
 
 }
@@ -48,27 +48,44 @@ public class InvocOverview extends JPanel {
 	
 	private PreInvocView preInvocView;
 	private PostInvocView postInvocView;
+	private RunInvocView runInvocView;
 	
 	public InvocOverview( DebugDispatcher dispatcher ) {
 		
 		JSplitPane splitPane;
+		JSplitPane lowerPane;
 		
 		setLayout( new BorderLayout() );
 		
 		preInvocView = new PreInvocView( dispatcher );
+		runInvocView = new RunInvocView( dispatcher );
 		postInvocView = new PostInvocView();
 		
+		lowerPane = new JSplitPane(
+			JSplitPane.VERTICAL_SPLIT,
+			runInvocView,
+			postInvocView );
+		
 		splitPane = new JSplitPane(
 			JSplitPane.VERTICAL_SPLIT,
 			preInvocView,
-			postInvocView );
+			lowerPane );
 		add( splitPane );
 		
-		splitPane.setResizeWeight( .5 );
+		splitPane.setResizeWeight( .4 );
+		lowerPane.setResizeWeight( .3 );
+	}
+	
+	public void addRunWorker( InvocWorker worker ) {
+		runInvocView.addWorker( worker );
+	}
+	
+	public List<Integer> getSelectedPreInvocIdList() {
+		return preInvocView.getSelectedReadyInvocIdList();
 	}
 	
-	public List<Integer> getSelectedPreInvocSignatureList() {
-		return preInvocView.getSelectedInvocSignatureList();
+	public List<InvocWorker> getSelectedRunWorkerList() {
+		return runInvocView.getSelectedWorkerList();
 	}
 	
 	public void insertPostInvocation( Invocation invoc ) throws NotDerivableException {
@@ -100,6 +117,10 @@ public class InvocOverview extends JPanel {
 		preInvocView.removeInvocation( invoc );
 	}
 	
+	public void removeRunWorker( InvocWorker worker ) {
+		runInvocView.removeWorker( worker );
+	}
+	
 	public void setContentOld() {
 		preInvocView.setContentOld();
 		postInvocView.setContentOld();
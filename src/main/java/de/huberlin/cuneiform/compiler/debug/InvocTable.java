@@ -50,34 +50,32 @@ public class InvocTable extends JTable {
 		this.setDefaultRenderer( Object.class, new InvocTableCellRenderer() );
 	}
 	
-	/** Returns the signatures of all selected invocations.
+	/** Returns the ids of all selected invocations that are ready.
 	 * 
-	 * @return The signature list.
+	 * @return The id list.
 	 */
-	public List<Integer> getSelectedInvocSignatureList() {
+	public List<Integer> getSelectedReadyInvocIdList() {
 		
-		List<Integer> signatureList;
+		List<Integer> idList;
 		int[] idxArray;
 		InvocTableModel model;
-		Integer signature;
 		
 		model = getInvocTableModel();
 		
-		signatureList = new LinkedList<>();
+		idList = new LinkedList<>();
 		
 		idxArray = getSelectedRows();
 		for( int idx : idxArray ) {
 			
-			signature = model.getSignatureInRow( idx );
-			
-			if( signature == null )
+			if( !model.isRowReady( idx ) )
 				continue;
 			
-			signatureList.add( signature );
+			idList.add( model.getIdInRow( idx ) );
 		}
 		
-		return signatureList;
+		return idList;
 	}
+	
 	public void insertInvocation( Invocation invoc ) throws NotDerivableException {
 		getInvocTableModel().insertInvocation( invoc );
 	}
@@ -32,21 +32,39 @@
 
 package de.huberlin.cuneiform.compiler.debug;
 
-import java.util.LinkedList;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 
 import de.huberlin.cuneiform.dag.Invocation;
 import de.huberlin.cuneiform.dag.NotDerivableException;
 
-public class InvocTableModel extends AbstractTableModel {
+/** Holds the rows of an invocation table, the most recent row on top.
+ * 
+ * Insertions and removals may be posted from any thread. They are queued and
+ * applied on the event dispatch thread at most once per frame so that a busy
+ * engine does not flood the table with events. Rows are found through an
+ * index on the invocation id.
+ */
+public class InvocTableModel extends AbstractTableModel implements ActionListener {
 
 	private static final long serialVersionUID = -3610028326945533777L;
 	private static final String[] COL_NAME = { "Signature", "Task", "Language", "State" };
 	private static final String TOKEN_NEW = "new";
 	private static final String TOKEN_OLD = "old";
 	
+	private static final int FRAME_INTERVAL = 40;
+	private static final int MAX_ROW_EVENT = 100;
+	
 	private static final int NCOL_FULL = 7;
 	
 	private static final int COLID_SIGNATURE = 0;
@@ -57,16 +75,30 @@ public class InvocTableModel extends AbstractTableModel {
 	private static final int COLID_STATEID = 5;
 	private static final int COLID_GENERATION = 6;
 	
-	private LinkedList<String[]> data;
+	private List<String[]> data;
+	private Map<Integer,Integer> indexMap;
+	private Map<Integer,String[]> pendingMap;
+	private Set<Integer> pendingRemoveSet;
+	private Timer timer;
 	
 	public InvocTableModel() {
-		data = new LinkedList<>();
-	}
-
-	public boolean containsInvocationWithSignature( int signature ) {
-		return getInvocationRowById( signature ) >= 0;
+		
+		data = new ArrayList<>();
+		indexMap = new HashMap<>();
+		pendingMap = new LinkedHashMap<>();
+		pendingRemoveSet = new HashSet<>();
+		
+		timer = new Timer( FRAME_INTERVAL, this );
+		timer.setRepeats( false );
 	}
 	
+	/** Applies the queued insertions and removals.
+	 */
+	@Override
+	public void actionPerformed( ActionEvent e ) {
+		flush();
+	}
+
 	@Override
 	public int findColumn( String columnName ) {
 		
@@ -79,6 +111,84 @@ public class InvocTableModel extends AbstractTableModel {
 		return -1;
 	}
 	
+	/** Applies the queued insertions and removals and notifies the table.
+	 * 
+	 * Must be called on the event dispatch thread.
+	 */
+	public void flush() {
+		
+		Map<Integer,String[]> insertMap;
+		Set<Integer> removeSet;
+		Integer idx;
+		String[] tuple0;
+		int n0, i;
+		List<Integer> updateList;
+		List<String[]> keepList;
+		
+		synchronized( pendingMap ) {
+			
+			if( pendingMap.isEmpty() && pendingRemoveSet.isEmpty() )
+				return;
+			
+			insertMap = new LinkedHashMap<>( pendingMap );
+			removeSet = new HashSet<>( pendingRemoveSet );
+			pendingMap.clear();
+			pendingRemoveSet.clear();
+		}
+		
+		// remove rows in a single pass and rebuild the index
+		if( !removeSet.isEmpty() ) {
+			
+			keepList = new ArrayList<>( data.size() );
+			for( String[] tuple : data )
+				if( !removeSet.contains( Integer.valueOf( tuple[ COLID_ID ] ) ) )
+					keepList.add( tuple );
+			
+			data = keepList;
+			
+			indexMap.clear();
+			for( i = 0; i < data.size(); i++ )
+				indexMap.put( Integer.valueOf( data.get( i )[ COLID_ID ] ), i );
+		}
+		
+		n0 = data.size();
+		updateList = new ArrayList<>();
+		
+		for( Map.Entry<Integer,String[]> entry : insertMap.entrySet() ) {
+			
+			idx = indexMap.get( entry.getKey() );
+			
+			if( idx == null ) {
+				
+				entry.getValue()[ COLID_GENERATION ] = TOKEN_NEW;
+				indexMap.put( entry.getKey(), data.size() );
+				data.add( entry.getValue() );
+				continue;
+			}
+			
+			tuple0 = data.get( idx );
+			if( !tuple0[ COLID_STATEID ].equals( entry.getValue()[ COLID_STATEID ] ) )
+				entry.getValue()[ COLID_GENERATION ] = TOKEN_NEW;
+			else
+				entry.getValue()[ COLID_GENERATION ] = tuple0[ COLID_GENERATION ];
+			
+			data.set( idx, entry.getValue() );
+			updateList.add( idx );
+		}
+		
+		if( !removeSet.isEmpty() || updateList.size() > MAX_ROW_EVENT ) {
+			fireTableDataChanged();
+			return;
+		}
+		
+		// new rows appear on top
+		if( data.size() > n0 )
+			fireTableRowsInserted( 0, data.size()-n0-1 );
+		
+		for( int j : updateList )
+			fireTableRowsUpdated( toRow( j ), toRow( j ) );
+	}
+	
 	@Override
 	public int getColumnCount() {
 		return COL_NAME.length;
@@ -95,13 +205,18 @@ public class InvocTableModel extends AbstractTableModel {
 	
 	public int getInvocationRowById( int id ) {
 		
-		int i;
+		Integer idx;
 		
-		for( i = 0; i < data.size(); i++ )
-			if( data.get( i )[ COLID_ID ].equals( String.valueOf( id ) ) )
-				return i;
+		idx = indexMap.get( id );
 		
-		return -1;
+		if( idx == null )
+			return -1;
+		
+		return toRow( idx );
+	}
+	
+	public Integer getIdInRow( int row ) {
+		return Integer.valueOf( getTuple( row )[ COLID_ID ] );
 	}
 	
 	@Override
@@ -109,12 +224,12 @@ public class InvocTableModel extends AbstractTableModel {
 		return data.size();
 	}
 	
-	public Integer getSignatureInRow( int idx ) {
+	public Integer getSignatureInRow( int row ) {
 		
 		int signature;
 		
 		try {
-			signature = Integer.valueOf( data.get( idx )[ COLID_SIGNATURE ] );
+			signature = Integer.valueOf( getTuple( row )[ COLID_SIGNATURE ] );
 		}
 		catch( NumberFormatException e ) {
 			return null;
@@ -125,22 +240,29 @@ public class InvocTableModel extends AbstractTableModel {
 
 	@Override
 	public Object getValueAt( int row, int col ) {
-		return data.get( row )[ col ];
+		return getTuple( row )[ col ];
 	}
 	
+	/** Queues an invocation to be added to the table or, if it is already
+	 * present, to have its row refreshed.
+	 * 
+	 * @param invoc The invocation.
+	 */
 	public void insertInvocation( Invocation invoc ) throws NotDerivableException {
 		
-		int i;
+		String[] tuple;
 		
 		if( invoc == null )
 			throw new NullPointerException( "Invocation must not be null." );
 		
-		i = getInvocationRow( invoc );
+		// read the invocation on the calling thread
+		tuple = invocationToTuple( invoc );
 		
-		if( i < 0 )
-			pushInvocation( invoc );
-		else {
-			setInvocationInRow( i, invoc );
+		synchronized( pendingMap ) {
+			
+			pendingRemoveSet.remove( invoc.getId() );
+			pendingMap.put( invoc.getId(), tuple );
+			schedule();
 		}
 	}
 	
@@ -154,64 +276,44 @@ public class InvocTableModel extends AbstractTableModel {
 	}
 	
 	public boolean isRowNew( int row ) {
-		return data.get( row )[ COLID_GENERATION ].equals( TOKEN_NEW );
+		return getTuple( row )[ COLID_GENERATION ].equals( TOKEN_NEW );
 	}
 	
 	public boolean isRowReady( int row ) {
-		return data.get( row )[ COLID_STATEID ].equals( String.valueOf( Invocation.STATEID_READY ) );
+		return getTuple( row )[ COLID_STATEID ].equals( String.valueOf( Invocation.STATEID_READY ) );
 	}
 	
-	public void pushInvocation( Invocation invoc ) throws NotDerivableException {
-		
-		String[] tuple;
+	public void removeInvocation( Invocation invoc ) {
 		
-		tuple = invocationToTuple( invoc );
-		tuple[ COLID_GENERATION ] = TOKEN_NEW;
+		if( invoc == null )
+			throw new NullPointerException( "Invocation must not be null." );
 		
-		data.push( tuple );
-		fireTableDataChanged();
-	}
-	
-	public void removeInvocation( Invocation invoc ) {
 		removeInvocationById( invoc.getId() );
 	}
 	
+	/** Queues the row of an invocation to be removed.
+	 * 
+	 * @param id The invocation id.
+	 */
 	public void removeInvocationById( int id ) {
 		
-		int i, n;
-		String idString;
-		
-		n = data.size();
-		idString = String.valueOf( id );
-		
-		for( i = 0; i < n; i++ )
-			if( data.get( i )[ COLID_ID ].equals( idString ) ) {
-				
-				data.remove( i );
-				fireTableDataChanged();
-				return;
-			}
-		
-		throw new RuntimeException( "An invocation with the id "+id+" is not registered." );
-	}
-	
-	public void setInvocationInRow( int idx, Invocation invoc ) throws NotDerivableException {
-		
-		String[] tuple;
-		String[] tuple0;
-		
-		tuple0 = data.get( idx );
-		tuple = invocationToTuple( invoc );
-		
-		if( !tuple0[ COLID_STATEID ].equals( tuple[ COLID_STATEID ] ) )
-			tuple[ COLID_GENERATION ] = TOKEN_NEW;
-		
-		data.set( idx, tuple );
-		fireTableRowsUpdated( idx, idx );
+		synchronized( pendingMap ) {
+			
+			pendingMap.remove( id );
+			pendingRemoveSet.add( id );
+			schedule();
+		}
 	}
 	
+	/** Marks all rows as old.
+	 * 
+	 * Queued changes are applied first. Must be called on the event dispatch
+	 * thread.
+	 */
 	public void setContentOld() {
 		
+		flush();
+		
 		for( String[] tuple : data )
 			tuple[ COLID_GENERATION ] = TOKEN_OLD;
 		
@@ -221,30 +323,55 @@ public class InvocTableModel extends AbstractTableModel {
 	@Override
 	public void setValueAt( Object aValue, int rowIndex, int columnIndex ) {
 		
-		String[] tuple;
-		
-		tuple = data.get( rowIndex );
-		tuple[ columnIndex ] = aValue.toString();
+		getTuple( rowIndex )[ columnIndex ] = aValue.toString();
 		fireTableCellUpdated( rowIndex, columnIndex );
 	}
 	
+	private String[] getTuple( int row ) {
+		return data.get( toRow( row ) );
+	}
+	
+	private void schedule() {
+		
+		if( !timer.isRunning() )
+			timer.start();
+	}
+	
+	/** Converts between table rows and positions in the data list. The
+	 * conversion is its own inverse.
+	 */
+	private int toRow( int idx ) {
+		return data.size()-1-idx;
+	}
+	
 	private static String[] invocationToTuple( Invocation invoc ) throws NotDerivableException {
 		
 		String[] tuple;
+		int stateId;
 		
 		tuple = new String[ NCOL_FULL ];
-
+		
+		// deriving the signature is expensive, do it once and infer the state
 		try {
+			
 			tuple[ COLID_SIGNATURE ] = String.valueOf( invoc.getSignature() );
+			
+			if( invoc.isComputed() )
+				stateId = Invocation.STATEID_SUCCESS;
+			else
+				stateId = Invocation.STATEID_READY;
 		}
 		catch( NotDerivableException e ) {
+			
 			tuple[ COLID_SIGNATURE ] = "[nil]";
+			stateId = Invocation.STATEID_ENUMERABLE;
 		}
+		
 		tuple[ COLID_TASK ] = invoc.getTaskName();
 		tuple[ COLID_LANGUAGE ] = invoc.getLangLabel();
-		tuple[ COLID_STATE ] = invoc.getStateLabel();
+		tuple[ COLID_STATE ] = Invocation.getStateLabel( stateId );
 		tuple[ COLID_ID ] = String.valueOf( invoc.getId() );
-		tuple[ COLID_STATEID ] = String.valueOf( invoc.getStateId() );
+		tuple[ COLID_STATEID ] = String.valueOf( stateId );
 		tuple[ COLID_GENERATION ] = TOKEN_OLD;
 		
 		return tuple;
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.debug;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.swing.SwingWorker;
+
+import de.huberlin.cuneiform.compiler.local.OutputListener;
+import de.huberlin.cuneiform.compiler.local.PreparedInvocation;
+import de.huberlin.cuneiform.compiler.local.ScriptProcess;
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+
+/** Runs the script of a prepared invocation off the event dispatch thread.
+ * 
+ * Only the sandbox and the script are touched in the background. Output
+ * lines are published as report entries while the script runs. Binding the
+ * result is left to the dispatcher, which is told on the event dispatch
+ * thread once the worker is done.
+ */
+public class InvocWorker extends SwingWorker<Set<JsonReportEntry>,JsonReportEntry>
+implements OutputListener {
+	
+	private DebugDispatcher dispatcher;
+	private Invocation invocation;
+	private PreparedInvocation prepared;
+	private File location;
+	private volatile ScriptProcess process;
+	private volatile long startTime;
+	private AtomicInteger nLine;
+	private volatile boolean aborted;
+	
+	public InvocWorker( DebugDispatcher dispatcher, Invocation invocation, PreparedInvocation prepared, File location ) {
+		
+		if( dispatcher == null )
+			throw new NullPointerException( "Dispatcher must not be null." );
+		
+		if( invocation == null )
+			throw new NullPointerException( "Invocation must not be null." );
+		
+		if( prepared == null )
+			throw new NullPointerException( "Prepared invocation must not be null." );
+		
+		if( location == null )
+			throw new NullPointerException( "Location must not be null." );
+		
+		this.dispatcher = dispatcher;
+		this.invocation = invocation;
+		this.prepared = prepared;
+		this.location = location;
+		
+		nLine = new AtomicInteger();
+	}
+	
+	/** Cancels the worker and kills its script if it has been started.
+	 */
+	public void abort() {
+		
+		ScriptProcess p;
+		
+		aborted = true;
+		
+		p = process;
+		if( p != null )
+			p.destroyTree();
+		
+		cancel( true );
+	}
+	
+	public Invocation getInvocation() {
+		return invocation;
+	}
+	
+	public File getLocation() {
+		return location;
+	}
+	
+	public int getLineCount() {
+		return nLine.get();
+	}
+	
+	public PreparedInvocation getPreparedInvocation() {
+		return prepared;
+	}
+	
+	/** Returns the time the script was started.
+	 * 
+	 * @return The start time in milliseconds or 0 if the script has not been
+	 *         started yet.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	public boolean isAborted() {
+		return aborted;
+	}
+	
+	@Override
+	public void outputLine( String key, String line ) {
+		
+		nLine.incrementAndGet();
+		publish( prepared.createReportEntry( key, line ) );
+	}
+	
+	@Override
+	protected Set<JsonReportEntry> doInBackground() throws Exception {
+		
+		File scriptFile;
+		
+		scriptFile = prepared.writeSandbox( location );
+		
+		startTime = System.currentTimeMillis();
+		process = prepared.launch( location, scriptFile, this );
+		
+		// the script may have been aborted before it was assigned
+		if( aborted )
+			process.destroyTree();
+		
+		prepared.finish( location, process );
+		
+		return PreparedInvocation.readReport( location );
+	}
+	
+	@Override
+	protected void done() {
+		dispatcher.workerDone( this );
+	}
+	
+	@Override
+	protected void process( List<JsonReportEntry> chunks ) {
+		dispatcher.addOutput( chunks );
+	}
+}
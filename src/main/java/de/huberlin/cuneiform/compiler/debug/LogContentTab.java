@@ -33,29 +33,138 @@
 package de.huberlin.cuneiform.compiler.debug;
 
 import java.awt.BorderLayout;
-import java.util.Set;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.Collection;
 
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTextField;
 
 import de.huberlin.cuneiform.dag.JsonReportEntry;
 
-public class LogContentTab extends JPanel {
+public class LogContentTab extends JPanel implements ActionListener, AutoCloseable {
 
 	private static final long serialVersionUID = -1222208009876184204L;
+	private static final String LABEL_FILTER = "Filter";
+	private static final String LABEL_CLEAR = "Clear";
 	
 	private LogTable logTable;
+	private JTextField invocField;
+	private JTextField taskField;
+	private JTextField keyField;
 	
 	public LogContentTab() {
 		
+		JPanel panel;
+		JButton filterButton;
+		JButton clearButton;
+		
 		setLayout( new BorderLayout() );
 		
 		logTable = new LogTable();
 		add( new JScrollPane( logTable ), BorderLayout.CENTER );
+		
+		panel = new JPanel();
+		panel.setLayout( new BoxLayout( panel, BoxLayout.X_AXIS ) );
+		add( panel, BorderLayout.NORTH );
+		
+		invocField = new JTextField( 10 );
+		taskField = new JTextField( 8 );
+		keyField = new JTextField( 8 );
+		
+		filterButton = new JButton( LABEL_FILTER );
+		filterButton.addActionListener( this );
+		invocField.addActionListener( this );
+		taskField.addActionListener( this );
+		keyField.addActionListener( this );
+		
+		clearButton = new JButton( LABEL_CLEAR );
+		clearButton.addActionListener( this );
+		
+		panel.add( new JLabel( "Invoc. " ) );
+		panel.add( invocField );
+		panel.add( new JLabel( " Task " ) );
+		panel.add( taskField );
+		panel.add( new JLabel( " Type " ) );
+		panel.add( keyField );
+		panel.add( filterButton );
+		panel.add( clearButton );
 	}
 	
-	public void addReport( Set<JsonReportEntry> report ) {
+	@Override
+	public void actionPerformed( ActionEvent e ) {
+		
+		LogTableModel model;
+		String invoc;
+		
+		model = logTable.getLogTableModel();
+		
+		if( LABEL_CLEAR.equals( e.getActionCommand() ) ) {
+			
+			invocField.setText( "" );
+			taskField.setText( "" );
+			keyField.setText( "" );
+			model.clearFilter();
+			return;
+		}
+		
+		invoc = invocField.getText().trim();
+		
+		try {
+			
+			if( invoc.isEmpty() && getText( taskField ) == null && getText( keyField ) == null )
+				model.clearFilter();
+			else
+				model.setFilter(
+					invoc.isEmpty() ? null : Long.valueOf( invoc ),
+					getText( taskField ),
+					getText( keyField ) );
+		}
+		catch( NumberFormatException e1 ) {
+			
+			JOptionPane.showMessageDialog(
+				this,
+				"Invocation signature must be a number.",
+				"NumberFormatException",
+				JOptionPane.ERROR_MESSAGE );
+		}
+		catch( IOException e1 ) {
+			
+			e1.printStackTrace();
+			
+			JOptionPane.showMessageDialog(
+				this,
+				e1.getMessage(),
+				"IOException",
+				JOptionPane.ERROR_MESSAGE );
+		}
+	}
+	
+	public void addReport( Collection<JsonReportEntry> report ) {
 		logTable.addReport( report );
 	}
+	
+	@Override
+	public void close() throws IOException {
+		logTable.getLogTableModel().close();
+	}
+	
+	private static String getText( JTextField field ) {
+		
+		String text;
+		
+		text = field.getText().trim();
+		
+		if( text.isEmpty() )
+			return null;
+		
+		return text;
+	}
 
 }
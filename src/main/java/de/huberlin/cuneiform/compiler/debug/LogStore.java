@@ -0,0 +1,426 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Keeps log rows on disk so the debug log does not grow the heap.
+ * 
+ * Rows are appended to a data file. A fixed-width index file holds each
+ * row's offset and length in the data file together with its invocation id,
+ * task name, and key. Task names and keys are replaced by small integers
+ * whose dictionaries stay in memory.
+ * 
+ * A filter selects rows by invocation id, task name, and key. Applying it
+ * scans the index file and writes the numbers of all matching rows to a
+ * filter file. Rows appended later are added to the filter file if they
+ * match.
+ */
+public class LogStore implements AutoCloseable {
+	
+	public static final long NO_INVOCID = -1;
+	
+	private static final int INDEX_RECORD_SIZE = 28;
+	private static final int FILTER_RECORD_SIZE = 4;
+	private static final int SCAN_BUFFER_SIZE = 1 << 16;
+	private static final int MAX_FIELD_LENGTH = 4096;
+	private static final int ANY = -1;
+	private static final int UNKNOWN = -2;
+	
+	private File dataFile;
+	private File indexFile;
+	private File filterFile;
+	private FileChannel data;
+	private FileChannel index;
+	private FileChannel filter;
+	private long dataSize;
+	private int nRow;
+	private int nFiltered;
+	private Map<String,Integer> taskNameMap;
+	private Map<String,Integer> keyMap;
+	private boolean filtered;
+	private long filterInvocId;
+	private int filterTaskNameId;
+	private int filterKeyId;
+	
+	public LogStore() throws IOException {
+		
+		dataFile = createTempFile( ".dat" );
+		indexFile = createTempFile( ".idx" );
+		filterFile = createTempFile( ".flt" );
+		
+		data = open( dataFile );
+		index = open( indexFile );
+		filter = open( filterFile );
+		
+		taskNameMap = new HashMap<>();
+		keyMap = new HashMap<>();
+	}
+	
+	/** Appends a row.
+	 * 
+	 * @param tuple The row's fields. Fields may be null.
+	 * @param invocId The invocation id or NO_INVOCID.
+	 * @param taskName The task name or null.
+	 * @param key The key.
+	 */
+	public void add( String[] tuple, long invocId, String taskName, String key ) throws IOException {
+		
+		List<byte[]> fieldList;
+		ByteBuffer buf;
+		byte[] b;
+		int length, taskNameId, keyId;
+		
+		if( tuple == null )
+			throw new NullPointerException( "Tuple must not be null." );
+		
+		if( key == null )
+			throw new NullPointerException( "Key must not be null." );
+		
+		fieldList = new ArrayList<>( tuple.length );
+		length = 4;
+		for( String field : tuple ) {
+			
+			b = field == null ? null : field.getBytes( StandardCharsets.UTF_8 );
+			fieldList.add( b );
+			length += 4+( b == null ? 0 : b.length );
+		}
+		
+		buf = ByteBuffer.allocate( length );
+		buf.putInt( tuple.length );
+		for( byte[] field : fieldList )
+			if( field == null )
+				buf.putInt( -1 );
+			else {
+				buf.putInt( field.length );
+				buf.put( field );
+			}
+		
+		buf.flip();
+		writeFully( data, buf, dataSize );
+		
+		taskNameId = intern( taskNameMap, taskName );
+		keyId = intern( keyMap, key );
+		
+		buf = ByteBuffer.allocate( INDEX_RECORD_SIZE );
+		buf.putLong( dataSize );
+		buf.putInt( length );
+		buf.putLong( invocId );
+		buf.putInt( taskNameId );
+		buf.putInt( keyId );
+		buf.flip();
+		writeFully( index, buf, ( long )nRow*INDEX_RECORD_SIZE );
+		
+		if( filtered && matches( invocId, taskNameId, keyId ) )
+			addFiltered( nRow );
+		
+		dataSize += length;
+		nRow++;
+	}
+	
+	/** Removes the filter so that all rows are visible.
+	 */
+	public void clearFilter() {
+		filtered = false;
+	}
+	
+	/** Closes the store and deletes its files.
+	 */
+	@Override
+	public void close() throws IOException {
+		
+		try {
+			data.close();
+			index.close();
+			filter.close();
+		}
+		finally {
+			dataFile.delete();
+			indexFile.delete();
+			filterFile.delete();
+		}
+	}
+	
+	/** Reads a range of visible rows.
+	 * 
+	 * Fields longer than MAX_FIELD_LENGTH bytes are cut.
+	 * 
+	 * @param fromRow The first visible row.
+	 * @param n The maximum number of rows to read.
+	 * @return The rows.
+	 */
+	public List<String[]> get( int fromRow, int n ) throws IOException {
+		
+		List<String[]> result;
+		ByteBuffer buf;
+		int i, row;
+		
+		if( fromRow < 0 || fromRow > size() )
+			throw new IndexOutOfBoundsException( "Row "+fromRow+" out of range." );
+		
+		n = Math.min( n, size()-fromRow );
+		result = new ArrayList<>( n );
+		
+		if( n == 0 )
+			return result;
+		
+		if( !filtered ) {
+			
+			buf = ByteBuffer.allocate( n*INDEX_RECORD_SIZE );
+			readFully( index, buf, ( long )fromRow*INDEX_RECORD_SIZE );
+			
+			for( i = 0; i < n; i++ )
+				result.add( readRecord( buf.getLong( i*INDEX_RECORD_SIZE ), buf.getInt( i*INDEX_RECORD_SIZE+8 ) ) );
+			
+			return result;
+		}
+		
+		buf = ByteBuffer.allocate( n*FILTER_RECORD_SIZE );
+		readFully( filter, buf, ( long )fromRow*FILTER_RECORD_SIZE );
+		
+		for( i = 0; i < n; i++ ) {
+			
+			row = buf.getInt( i*FILTER_RECORD_SIZE );
+			result.add( readRow( row ) );
+		}
+		
+		return result;
+	}
+	
+	public Set<String> getKeySet() {
+		return Collections.unmodifiableSet( keyMap.keySet() );
+	}
+	
+	public Set<String> getTaskNameSet() {
+		return Collections.unmodifiableSet( taskNameMap.keySet() );
+	}
+	
+	public boolean isFiltered() {
+		return filtered;
+	}
+	
+	/** Shows only rows matching all given criteria.
+	 * 
+	 * @param invocId The invocation id or null to match any.
+	 * @param taskName The task name or null to match any.
+	 * @param key The key or null to match any.
+	 */
+	public void setFilter( Long invocId, String taskName, String key ) throws IOException {
+		
+		ByteBuffer buf;
+		int row, i, n;
+		
+		filterInvocId = invocId == null ? ANY : invocId;
+		filterTaskNameId = lookup( taskNameMap, taskName );
+		filterKeyId = lookup( keyMap, key );
+		
+		filtered = true;
+		nFiltered = 0;
+		filter.truncate( 0 );
+		
+		// an unknown task name or key matches nothing
+		if( filterTaskNameId == UNKNOWN || filterKeyId == UNKNOWN )
+			return;
+		
+		buf = ByteBuffer.allocate( SCAN_BUFFER_SIZE/INDEX_RECORD_SIZE*INDEX_RECORD_SIZE );
+		
+		for( row = 0; row < nRow; row += n ) {
+			
+			n = Math.min( buf.capacity()/INDEX_RECORD_SIZE, nRow-row );
+			
+			buf.clear();
+			buf.limit( n*INDEX_RECORD_SIZE );
+			readFully( index, buf, ( long )row*INDEX_RECORD_SIZE );
+			
+			for( i = 0; i < n; i++ )
+				if( matches(
+					buf.getLong( i*INDEX_RECORD_SIZE+12 ),
+					buf.getInt( i*INDEX_RECORD_SIZE+20 ),
+					buf.getInt( i*INDEX_RECORD_SIZE+24 ) ) )
+					addFiltered( row+i );
+		}
+	}
+	
+	/** Returns the number of visible rows.
+	 * 
+	 * @return The number of rows matching the filter or the number of all rows
+	 *         if there is no filter.
+	 */
+	public int size() {
+		
+		if( filtered )
+			return nFiltered;
+		
+		return nRow;
+	}
+	
+	private void addFiltered( int row ) throws IOException {
+		
+		ByteBuffer buf;
+		
+		buf = ByteBuffer.allocate( FILTER_RECORD_SIZE );
+		buf.putInt( row );
+		buf.flip();
+		writeFully( filter, buf, ( long )nFiltered*FILTER_RECORD_SIZE );
+		
+		nFiltered++;
+	}
+	
+	private boolean matches( long invocId, int taskNameId, int keyId ) {
+		
+		if( filterInvocId != ANY && invocId != filterInvocId )
+			return false;
+		
+		if( filterTaskNameId != ANY && taskNameId != filterTaskNameId )
+			return false;
+		
+		if( filterKeyId != ANY && keyId != filterKeyId )
+			return false;
+		
+		return true;
+	}
+	
+	private String[] readRecord( long offset, int length ) throws IOException {
+		
+		ByteBuffer buf;
+		String[] tuple;
+		int i, n;
+		
+		buf = ByteBuffer.allocate( length );
+		readFully( data, buf, offset );
+		buf.flip();
+		
+		tuple = new String[ buf.getInt() ];
+		
+		for( i = 0; i < tuple.length; i++ ) {
+			
+			n = buf.getInt();
+			if( n < 0 )
+				continue;
+			
+			tuple[ i ] = new String( buf.array(), buf.position(), Math.min( n, MAX_FIELD_LENGTH ), StandardCharsets.UTF_8 );
+			buf.position( buf.position()+n );
+		}
+		
+		return tuple;
+	}
+	
+	private String[] readRow( int row ) throws IOException {
+		
+		ByteBuffer buf;
+		
+		buf = ByteBuffer.allocate( INDEX_RECORD_SIZE );
+		readFully( index, buf, ( long )row*INDEX_RECORD_SIZE );
+		
+		return readRecord( buf.getLong( 0 ), buf.getInt( 8 ) );
+	}
+	
+	private static File createTempFile( String suffix ) throws IOException {
+		
+		File f;
+		
+		f = File.createTempFile( "cf-log", suffix );
+		f.deleteOnExit();
+		
+		return f;
+	}
+	
+	private static int intern( Map<String,Integer> map, String s ) {
+		
+		Integer id;
+		
+		if( s == null )
+			return ANY;
+		
+		id = map.get( s );
+		if( id == null ) {
+			
+			id = map.size();
+			map.put( s, id );
+		}
+		
+		return id;
+	}
+	
+	private static int lookup( Map<String,Integer> map, String s ) {
+		
+		Integer id;
+		
+		if( s == null )
+			return ANY;
+		
+		id = map.get( s );
+		if( id == null )
+			return UNKNOWN;
+		
+		return id;
+	}
+	
+	private static FileChannel open( File f ) throws IOException {
+		
+		return FileChannel.open( f.toPath(),
+			StandardOpenOption.READ, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING );
+	}
+	
+	private static void readFully( FileChannel channel, ByteBuffer buf, long position ) throws IOException {
+		
+		int n;
+		
+		while( buf.hasRemaining() ) {
+			
+			n = channel.read( buf, position );
+			if( n < 0 )
+				throw new IOException( "Unexpected end of log store." );
+			
+			position += n;
+		}
+	}
+	
+	private static void writeFully( FileChannel channel, ByteBuffer buf, long position ) throws IOException {
+		
+		while( buf.hasRemaining() )
+			position += channel.write( buf, position );
+	}
+}
@@ -32,7 +32,7 @@
 
 package de.huberlin.cuneiform.compiler.debug;
 
-import java.util.Set;
+import java.util.Collection;
 
 import javax.swing.JTable;
 
@@ -46,7 +46,7 @@ public class LogTable extends JTable {
 		super( new LogTableModel() );
 	}
 	
-	public void addReport( Set<JsonReportEntry> report ) {
+	public void addReport( Collection<JsonReportEntry> report ) {
 		getLogTableModel().addReport( report );
 	}
 	
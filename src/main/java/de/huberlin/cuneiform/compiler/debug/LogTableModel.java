@@ -32,21 +32,31 @@
 
 package de.huberlin.cuneiform.compiler.debug;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.swing.table.AbstractTableModel;
 
 import de.huberlin.cuneiform.dag.JsonReportEntry;
 
-public class LogTableModel extends AbstractTableModel {
+/** Shows the rows of a log store, reading them page by page as the table
+ * asks for them. Only a fixed number of pages is held in memory.
+ */
+public class LogTableModel extends AbstractTableModel implements AutoCloseable {
 
 	private static final long serialVersionUID = -1851606433233178678L;
 	private static final String[] COL_NAME =
 		{ "Timestamp", "Session UUID", "Task Sign.",
 		  "Invoc. Sign.", "Task Name", "Msg. Type", "Msg Content" };
 	
+	private static final int PAGE_SIZE = 128;
+	private static final int MAX_PAGE = 16;
+	
 	private static final int COLID_TIMESTAMP = 0;
 	private static final int COLID_SESSIONUUID = 1;
 	private static final int COLID_TASKSIGNATURE = 2;
@@ -55,32 +65,79 @@ public class LogTableModel extends AbstractTableModel {
 	private static final int COLID_KEY = 5;
 	private static final int COLID_PAYLOAD = 6;
 	
-	private List<String[]> data;
+	private LogStore store;
+	private Map<Integer,List<String[]>> pageMap;
 	
 	public LogTableModel() {
-		data = new LinkedList<>();
+		
+		try {
+			store = new LogStore();
+		}
+		catch( IOException e ) {
+			throw new RuntimeException( e );
+		}
+		
+		pageMap = new LinkedHashMap<Integer,List<String[]>>( MAX_PAGE, .75f, true ) {
+
+			private static final long serialVersionUID = 2484315569036553373L;
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<Integer,List<String[]>> eldest ) {
+				return size() > MAX_PAGE;
+			}
+		};
 	}
 
-	public void addReport( Set<JsonReportEntry> entrySet ) {
+	public void addReport( Collection<JsonReportEntry> entrySet ) {
+		
+		int n;
 		
 		if( entrySet == null )
 			throw new NullPointerException( "Report entry set must not be null." );
 		
-		for( JsonReportEntry entry : entrySet )
-			addReport( entry );
+		if( entrySet.isEmpty() )
+			return;
+		
+		n = store.size();
 		
+		try {
+			
+			for( JsonReportEntry entry : entrySet )
+				store.add(
+					reportEntryToTuple( entry ),
+					entry.hasInvocId() ? entry.getInvocId() : LogStore.NO_INVOCID,
+					entry.getTaskName(),
+					entry.getKey() );
+		}
+		catch( IOException e ) {
+			throw new RuntimeException( e );
+		}
+		
+		// the last page may have been read while it was incomplete
+		pageMap.remove( n/PAGE_SIZE );
+		
+		if( store.size() > n )
+			fireTableRowsInserted( n, store.size()-1 );
 	}
 	
 	public void addReport( JsonReportEntry entry ) {
 		
-		int n;
-		
 		if( entry == null )
 			throw new NullPointerException( "Report entry must not be null." );
 		
-		n = data.size();
-		data.add( reportEntryToTuple( entry ) );
-		fireTableRowsInserted( n, n );
+		addReport( Collections.singleton( entry ) );
+	}
+	
+	public void clearFilter() {
+		
+		store.clearFilter();
+		pageMap.clear();
+		fireTableDataChanged();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		store.close();
 	}
 	
 	@Override
@@ -92,15 +149,55 @@ public class LogTableModel extends AbstractTableModel {
 	public String getColumnName( int col ) {
 		return COL_NAME[ col ];
 	}
+	
+	public Set<String> getKeySet() {
+		return store.getKeySet();
+	}
 
 	@Override
 	public int getRowCount() {
-		return data.size();
+		return store.size();
+	}
+	
+	public Set<String> getTaskNameSet() {
+		return store.getTaskNameSet();
 	}
 
 	@Override
 	public Object getValueAt( int row, int col ) {
-		return data.get( row )[ col ];
+		
+		List<String[]> page;
+		int pageId;
+		
+		pageId = row/PAGE_SIZE;
+		page = pageMap.get( pageId );
+		
+		if( page == null ) {
+			
+			try {
+				page = store.get( pageId*PAGE_SIZE, PAGE_SIZE );
+			}
+			catch( IOException e ) {
+				throw new RuntimeException( e );
+			}
+			
+			pageMap.put( pageId, page );
+		}
+		
+		return page.get( row-pageId*PAGE_SIZE )[ col ];
+	}
+	
+	/** Shows only the entries matching all given criteria.
+	 * 
+	 * @param invocId The invocation signature or null to match any.
+	 * @param taskName The task name or null to match any.
+	 * @param key The message type or null to match any.
+	 */
+	public void setFilter( Long invocId, String taskName, String key ) throws IOException {
+		
+		store.setFilter( invocId, taskName, key );
+		pageMap.clear();
+		fireTableDataChanged();
 	}
 
 	private static String[] reportEntryToTuple( JsonReportEntry entry ) {
@@ -111,7 +208,8 @@ public class LogTableModel extends AbstractTableModel {
 		tuple[ COLID_TIMESTAMP ] = String.valueOf( entry.getTimestamp() );
 		tuple[ COLID_SESSIONUUID ] = entry.getRunId().toString();
 		tuple[ COLID_TASKSIGNATURE ] = String.valueOf( entry.getTaskId() );
-		tuple[ COLID_INVOCSIGNATURE ] = String.valueOf( entry.getInvocId() );
+		if( entry.hasInvocId() )
+			tuple[ COLID_INVOCSIGNATURE ] = String.valueOf( entry.getInvocId() );
 		tuple[ COLID_TASKNAME ] = entry.getTaskName();
 		tuple[ COLID_KEY ] = entry.getKey();
 		tuple[ COLID_PAYLOAD ] = entry.getValue();
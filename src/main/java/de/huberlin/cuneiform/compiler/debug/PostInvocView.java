@@ -65,8 +65,8 @@ public class PostInvocView extends JPanel {
 		return invocTable.getSelectionModel();
 	}
 	
-	public List<Integer> getSelectedInvocSignatureList() {
-		return invocTable.getSelectedInvocSignatureList();
+	public List<Integer> getSelectedReadyInvocIdList() {
+		return invocTable.getSelectedReadyInvocIdList();
 	}
 	
 	public void insertInvocation( Invocation invoc ) throws NotDerivableException {
@@ -81,11 +81,11 @@ public class PreInvocView extends PostInvocView implements ListSelectionListener
 	@Override
 	public void valueChanged( ListSelectionEvent e ) {
 		
-		List<Integer> signatureList;
+		List<Integer> idList;
 		
-		signatureList = getSelectedInvocSignatureList();
+		idList = getSelectedReadyInvocIdList();
 		
-		if( signatureList.isEmpty() )
+		if( idList.isEmpty() )
 			stepButton.setEnabled( false );
 		else
 			stepButton.setEnabled( true );
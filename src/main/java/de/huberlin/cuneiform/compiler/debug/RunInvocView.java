@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.debug;
+
+import java.awt.BorderLayout;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+
+public class RunInvocView extends JPanel implements ListSelectionListener {
+
+	public static final String LABEL_CANCEL = "Cancel";
+	private static final long serialVersionUID = -5802553981430265177L;
+	
+	private JTable runTable;
+	private RunTableModel model;
+	private JButton cancelButton;
+	
+	public RunInvocView( DebugDispatcher dispatcher ) {
+		
+		JPanel panel;
+		
+		setLayout( new BorderLayout() );
+		setBorder( BorderFactory.createTitledBorder( "Running" ) );
+		
+		model = new RunTableModel();
+		runTable = new JTable( model );
+		runTable.getSelectionModel().addListSelectionListener( this );
+		add( new JScrollPane( runTable ), BorderLayout.CENTER );
+		
+		panel = new JPanel();
+		add( panel, BorderLayout.SOUTH );
+		
+		panel.setLayout( new BoxLayout( panel, BoxLayout.X_AXIS ) );
+		
+		cancelButton = new JButton( LABEL_CANCEL );
+		cancelButton.setEnabled( false );
+		cancelButton.addActionListener( dispatcher );
+		
+		panel.add( cancelButton );
+	}
+	
+	public void addWorker( InvocWorker worker ) {
+		model.addWorker( worker );
+	}
+	
+	public List<InvocWorker> getSelectedWorkerList() {
+		
+		List<InvocWorker> workerList;
+		
+		workerList = new LinkedList<>();
+		
+		for( int row : runTable.getSelectedRows() )
+			workerList.add( model.getWorkerInRow( row ) );
+		
+		return workerList;
+	}
+	
+	public void removeWorker( InvocWorker worker ) {
+		model.removeWorker( worker );
+	}
+
+	@Override
+	public void valueChanged( ListSelectionEvent e ) {
+		cancelButton.setEnabled( runTable.getSelectedRowCount() > 0 );
+	}
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.debug;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingWorker.StateValue;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+
+/** Holds the invocations currently queued or running in the background.
+ * 
+ * The elapsed time and the number of output lines of each row are refreshed
+ * once a second. All methods must be called on the event dispatch thread.
+ */
+public class RunTableModel extends AbstractTableModel implements ActionListener {
+
+	private static final long serialVersionUID = 1893327475361734521L;
+	private static final String[] COL_NAME = { "Signature", "Task", "State", "Time", "Lines" };
+	private static final String LABEL_QUEUED = "Queued";
+	private static final String LABEL_RUNNING = "Running";
+	private static final String LABEL_CANCELLING = "Cancelling";
+	
+	private static final int REFRESH_INTERVAL = 1000;
+	
+	private static final int COLID_SIGNATURE = 0;
+	private static final int COLID_TASK = 1;
+	private static final int COLID_STATE = 2;
+	private static final int COLID_TIME = 3;
+	private static final int COLID_LINES = 4;
+	
+	private List<InvocWorker> data;
+	private Timer timer;
+	
+	public RunTableModel() {
+		
+		data = new ArrayList<>();
+		timer = new Timer( REFRESH_INTERVAL, this );
+	}
+	
+	/** Refreshes elapsed times and line counts.
+	 */
+	@Override
+	public void actionPerformed( ActionEvent e ) {
+		
+		if( !data.isEmpty() )
+			fireTableRowsUpdated( 0, data.size()-1 );
+	}
+	
+	public void addWorker( InvocWorker worker ) {
+		
+		int n;
+		
+		if( worker == null )
+			throw new NullPointerException( "Worker must not be null." );
+		
+		n = data.size();
+		data.add( worker );
+		fireTableRowsInserted( n, n );
+		
+		if( !timer.isRunning() )
+			timer.start();
+	}
+	
+	@Override
+	public int getColumnCount() {
+		return COL_NAME.length;
+	}
+
+	@Override
+	public String getColumnName( int col ) {
+		return COL_NAME[ col ];
+	}
+	
+	@Override
+	public int getRowCount() {
+		return data.size();
+	}
+
+	@Override
+	public Object getValueAt( int row, int col ) {
+		
+		InvocWorker worker;
+		long startTime;
+		
+		worker = data.get( row );
+		
+		switch( col ) {
+		
+			case COLID_SIGNATURE :
+				return String.valueOf( worker.getPreparedInvocation().getSignature() );
+				
+			case COLID_TASK :
+				return worker.getPreparedInvocation().getTaskName();
+				
+			case COLID_STATE :
+				
+				if( worker.isAborted() )
+					return LABEL_CANCELLING;
+				
+				if( worker.getState() == StateValue.PENDING )
+					return LABEL_QUEUED;
+				
+				return LABEL_RUNNING;
+				
+			case COLID_TIME :
+				
+				startTime = worker.getStartTime();
+				if( startTime == 0 )
+					return "";
+				
+				return String.format( "%ds", ( System.currentTimeMillis()-startTime )/1000 );
+				
+			case COLID_LINES :
+				return String.valueOf( worker.getLineCount() );
+				
+			default :
+				throw new RuntimeException( "Column "+col+" not recognized." );
+		}
+	}
+	
+	public InvocWorker getWorkerInRow( int row ) {
+		return data.get( row );
+	}
+	
+	public void removeWorker( InvocWorker worker ) {
+		
+		int i;
+		
+		if( worker == null )
+			throw new NullPointerException( "Worker must not be null." );
+		
+		i = data.indexOf( worker );
+		if( i < 0 )
+			return;
+		
+		data.remove( i );
+		fireTableRowsDeleted( i, i );
+		
+		if( data.isEmpty() )
+			timer.stop();
+	}
+}
@@ -0,0 +1,341 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+
+/** Claims on invocation signatures shared by cooperating dispatchers.
+ * 
+ * Several dispatcher processes may run the same workflow on a shared build
+ * directory. Before an invocation is run, its signature is claimed by
+ * creating a claim file. The file is written under a name unique to the
+ * process and hard-linked to its final name, which fails atomically if
+ * another process holds the claim.
+ * 
+ * Claims are leases. The holder renews them by touching the claim file,
+ * and a claim not renewed within the lease time is considered abandoned.
+ * An abandoned claim is taken over by renaming it aside, which only one
+ * process can succeed in. Hosts sharing the build directory must agree on
+ * the time within a small fraction of the lease.
+ * 
+ * A process that fails to renew its claim in time, e.g., because it has been
+ * suspended, loses it to the process taking over. The script it runs under
+ * the lost claim is killed, so it does not write into a sandbox in use by
+ * its new owner.
+ */
+public class ClaimRegistry {
+	
+	public static final String CLAIM_DIRNAME = "__claim__";
+	public static final long DEFAULT_LEASE = 60000;
+	
+	private File claimDir;
+	private String owner;
+	private long lease;
+	private Set<Long> heldSet;
+	private Map<Long,ScriptProcess> processMap;
+	private Thread renewer;
+	
+	public ClaimRegistry( File claimDir ) {
+		
+		if( claimDir == null )
+			throw new NullPointerException( "Claim directory must not be null." );
+		
+		this.claimDir = claimDir;
+		
+		owner = ManagementFactory.getRuntimeMXBean().getName()+"-"+UUID.randomUUID();
+		lease = DEFAULT_LEASE;
+		heldSet = new HashSet<>();
+		processMap = new HashMap<>();
+	}
+	
+	/** Associates the script running an invocation with its claim.
+	 * 
+	 * If the claim is lost, the script is killed.
+	 * 
+	 * @param signature The invocation signature.
+	 * @param process The script.
+	 * @return False if the claim has been lost already. The script has been
+	 *         killed then.
+	 */
+	public synchronized boolean attach( long signature, ScriptProcess process ) {
+		
+		if( process == null )
+			throw new NullPointerException( "Process must not be null." );
+		
+		if( !heldSet.contains( signature ) ) {
+			
+			process.destroyTree();
+			return false;
+		}
+		
+		processMap.put( signature, process );
+		return true;
+	}
+	
+	/** Tries to claim an invocation signature.
+	 * 
+	 * @param signature The invocation signature.
+	 * @return True if this process holds the claim now.
+	 */
+	public synchronized boolean claim( long signature ) throws IOException {
+		
+		File claimFile;
+		File tmp;
+		File stale;
+		
+		if( heldSet.contains( signature ) )
+			return true;
+		
+		if( !claimDir.exists() && !claimDir.mkdirs() && !claimDir.exists() )
+			throw new IOException(
+				"Unable to create claim folder '"+claimDir.getAbsolutePath()+"'." );
+		
+		claimFile = new File( claimDir, String.valueOf( signature ) );
+		tmp = new File( claimDir, signature+"."+owner );
+		
+		FileUtils.writeStringToFile( tmp, owner );
+		
+		try {
+			
+			try {
+				Files.createLink( claimFile.toPath(), tmp.toPath() );
+			}
+			catch( FileAlreadyExistsException e ) {
+				
+				if( !isExpired( claimFile ) )
+					return false;
+				
+				// move the abandoned claim aside, only one process can do so
+				stale = new File( claimDir, signature+".stale."+owner );
+				
+				try {
+					Files.move( claimFile.toPath(), stale.toPath(), StandardCopyOption.ATOMIC_MOVE );
+				}
+				catch( NoSuchFileException e1 ) {
+					return false;
+				}
+				
+				try {
+				
+					// somebody else took over in between, put the claim back
+					if( !isExpired( stale ) ) {
+						
+						try {
+							Files.createLink( claimFile.toPath(), stale.toPath() );
+						}
+						catch( FileAlreadyExistsException e1 ) {
+							// claimed again already
+						}
+						
+						return false;
+					}
+					
+					System.err.println(
+						"[claim] Taking over abandoned claim on "+signature
+						+" held by "+FileUtils.readFileToString( stale ).trim()+"." );
+				}
+				finally {
+					Files.deleteIfExists( stale.toPath() );
+				}
+				
+				try {
+					Files.createLink( claimFile.toPath(), tmp.toPath() );
+				}
+				catch( FileAlreadyExistsException e1 ) {
+					return false;
+				}
+			}
+		}
+		finally {
+			Files.deleteIfExists( tmp.toPath() );
+		}
+		
+		heldSet.add( signature );
+		
+		if( renewer == null )
+			startRenewer();
+		
+		return true;
+	}
+	
+	/** Releases all claims and stops renewing them.
+	 */
+	public void close() throws IOException {
+		
+		Thread t;
+		
+		synchronized( this ) {
+			
+			t = renewer;
+			renewer = null;
+		}
+		
+		if( t != null )
+			t.interrupt();
+		
+		for( Long signature : getHeldSet() )
+			release( signature );
+	}
+	
+	public String getOwner() {
+		return owner;
+	}
+	
+	public synchronized Set<Long> getHeldSet() {
+		return new HashSet<>( heldSet );
+	}
+	
+	public synchronized boolean isHeld( long signature ) {
+		return heldSet.contains( signature );
+	}
+	
+	/** Releases a claim held by this process.
+	 * 
+	 * @param signature The invocation signature.
+	 */
+	public synchronized void release( long signature ) throws IOException {
+		
+		File claimFile;
+		
+		processMap.remove( signature );
+		
+		if( !heldSet.remove( signature ) )
+			return;
+		
+		claimFile = new File( claimDir, String.valueOf( signature ) );
+		
+		if( isOwn( claimFile ) )
+			Files.deleteIfExists( claimFile.toPath() );
+	}
+	
+	public void setLease( long lease ) {
+		
+		if( lease <= 0 )
+			throw new RuntimeException( "Lease must be a positive number." );
+		
+		this.lease = lease;
+	}
+	
+	private boolean isExpired( File claimFile ) {
+		return System.currentTimeMillis()-claimFile.lastModified() > lease;
+	}
+	
+	private boolean isOwn( File claimFile ) throws IOException {
+		
+		try {
+			return FileUtils.readFileToString( claimFile ).equals( owner );
+		}
+		catch( IOException e ) {
+			
+			if( !claimFile.exists() )
+				return false;
+			
+			throw e;
+		}
+	}
+	
+	/** Touches all claims held by this process.
+	 */
+	private synchronized void renew() throws IOException {
+		
+		File claimFile;
+		ScriptProcess process;
+		
+		for( Long signature : new HashSet<>( heldSet ) ) {
+			
+			claimFile = new File( claimDir, String.valueOf( signature ) );
+			
+			if( !isOwn( claimFile ) ) {
+				
+				heldSet.remove( signature );
+				process = processMap.remove( signature );
+				
+				if( process == null ) {
+					
+					System.err.println( "[claim] Lost claim on "+signature+"." );
+					continue;
+				}
+				
+				System.err.println( "[claim] Lost claim on "+signature+". Killing its script." );
+				process.destroyTree();
+				continue;
+			}
+			
+			claimFile.setLastModified( System.currentTimeMillis() );
+		}
+	}
+	
+	private void startRenewer() {
+		
+		renewer = new Thread( new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				try {
+					
+					while( true ) {
+						
+						Thread.sleep( lease/3 );
+						
+						try {
+							renew();
+						}
+						catch( IOException e ) {
+							System.err.println( "[claim] Could not renew claims: "+e.getMessage() );
+						}
+					}
+				}
+				catch( InterruptedException e ) {
+					// closed
+				}
+			}
+		} );
+		
+		renewer.setDaemon( true );
+		renewer.start();
+	}
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+import de.huberlin.cuneiform.dag.TaskNode;
+
+/** Removes intermediate files as soon as no consumer needs them anymore.
+ * 
+ * For every producer signature the collector counts the consuming
+ * invocations that have not been computed yet. Consumers are found by
+ * reversing each invocation's parent invocation set. Identical producers
+ * share a sandbox and are counted together. A producer's stage-out files are
+ * collected once its count reaches zero, all task nodes consuming its outputs
+ * have enumerated their invocations, and its outputs are not kept by the
+ * dispatcher. Collection either deletes the files or replaces them by a gzip
+ * compressed copy and happens in the background.
+ * 
+ * Before its files are touched, the producer is withdrawn from the
+ * dispatcher: its success marker, journal record, and cached outputs are
+ * removed. A later run needing the producer computes it again.
+ */
+public class IntermediateCollector {
+	
+	public static final int MODE_DELETE = 0;
+	public static final int MODE_COMPRESS = 1;
+	
+	private static final String SUFFIX_COMPRESS = ".gz";
+	private static final int BUF_SIZE = 65536;
+	
+	private LocalDispatcher dispatcher;
+	private int mode;
+	private Map<Long,Integer> refMap;
+	private Set<Invocation> registeredSet;
+	private Set<Invocation> releasedSet;
+	private Set<Invocation> collectedSet;
+	private Map<TaskNode,Set<TaskNode>> consumerMap;
+	private ExecutorService collector;
+	private List<Future<?>> collectionList;
+	private Map<Long,Future<?>> pendingMap;
+	
+	public IntermediateCollector( LocalDispatcher dispatcher, int mode ) {
+		
+		if( dispatcher == null )
+			throw new NullPointerException( "Dispatcher must not be null." );
+		
+		if( mode != MODE_DELETE && mode != MODE_COMPRESS )
+			throw new RuntimeException( "Collection mode "+mode+" not recognized." );
+		
+		this.dispatcher = dispatcher;
+		this.mode = mode;
+		
+		refMap = new HashMap<>();
+		registeredSet = new HashSet<>();
+		releasedSet = new HashSet<>();
+		collectedSet = new HashSet<>();
+		consumerMap = new HashMap<>();
+		collectionList = new LinkedList<>();
+		pendingMap = new HashMap<>();
+	}
+	
+	/** Waits for all pending collections to finish.
+	 * 
+	 * @throws IOException if any of the collections failed.
+	 */
+	public void awaitCollection() throws IOException, InterruptedException {
+		
+		if( collector == null )
+			return;
+		
+		collector.shutdown();
+		while( !collector.awaitTermination( 1, TimeUnit.MINUTES ) )
+			System.err.println( "[collect] Waiting for collection of intermediates to finish." );
+		
+		collector = null;
+		
+		try {
+			
+			for( Future<?> f : collectionList )
+				f.get();
+		}
+		catch( ExecutionException e ) {
+			throw new IOException( "Collection of intermediates failed.", e.getCause() );
+		}
+		finally {
+			collectionList.clear();
+			pendingMap.clear();
+		}
+	}
+	
+	/** Waits for the collection of a producer's files to finish.
+	 * 
+	 * An identical invocation must not be run in the producer's sandbox
+	 * while the producer's files are still being collected.
+	 * 
+	 * @param signature The producer's signature.
+	 * @throws IOException if the collection failed.
+	 */
+	public void awaitCollection( long signature ) throws IOException, InterruptedException {
+		
+		Future<?> f;
+		
+		synchronized( this ) {
+			f = pendingMap.remove( signature );
+		}
+		
+		if( f == null )
+			return;
+		
+		try {
+			f.get();
+		}
+		catch( ExecutionException e ) {
+			throw new IOException( "Collection of intermediates failed.", e.getCause() );
+		}
+	}
+	
+	public int getMode() {
+		return mode;
+	}
+	
+	/** Updates reference counts and collects all producers no longer needed.
+	 * 
+	 * @param invocationSet All invocations enumerated so far.
+	 */
+	public void update( Collection<Invocation> invocationSet )
+	throws NotDerivableException, IOException {
+		
+		Integer n;
+		long signature;
+		Map<Long,List<Invocation>> groupMap;
+		List<Invocation> group;
+		Invocation producer;
+		File location;
+		boolean collectable;
+		
+		if( invocationSet == null )
+			throw new NullPointerException( "Invocation set must not be null." );
+		
+		// count newly enumerated consumers
+		for( Invocation consumer : invocationSet ) {
+			
+			if( !registeredSet.add( consumer ) )
+				continue;
+			
+			for( Invocation p : consumer.getParentInvocationSet() ) {
+				
+				signature = p.getSignature();
+				n = refMap.get( signature );
+				refMap.put( signature, n == null ? 1 : n+1 );
+			}
+		}
+		
+		// release producers of computed consumers
+		for( Invocation consumer : invocationSet ) {
+			
+			if( !consumer.isComputed() || !releasedSet.add( consumer ) )
+				continue;
+			
+			for( Invocation p : consumer.getParentInvocationSet() ) {
+				
+				signature = p.getSignature();
+				refMap.put( signature, refMap.get( signature )-1 );
+			}
+		}
+		
+		// identical producers share their stage-out files
+		groupMap = new HashMap<>();
+		for( Invocation p : invocationSet ) {
+			
+			if( !p.isComputed() || collectedSet.contains( p ) )
+				continue;
+			
+			signature = p.getSignature();
+			group = groupMap.get( signature );
+			if( group == null ) {
+				
+				group = new LinkedList<>();
+				groupMap.put( signature, group );
+			}
+			
+			group.add( p );
+		}
+		
+		// collect unreferenced producers
+		for( List<Invocation> g : groupMap.values() ) {
+			
+			producer = g.get( 0 );
+			signature = producer.getSignature();
+			
+			n = refMap.get( signature );
+			if( n != null && n > 0 )
+				continue;
+			
+			collectable = true;
+			for( Invocation p : g )
+				if( !isSealed( p.getTaskNode() ) || dispatcher.isKept( p ) ) {
+					collectable = false;
+					break;
+				}
+			
+			if( !collectable )
+				continue;
+			
+			collectedSet.addAll( g );
+			
+			location = dispatcher.getStorage().locate( signature );
+			dispatcher.forget( producer, location );
+			collect( signature, location, producer.getStageOutList() );
+		}
+	}
+	
+	private synchronized void collect( long signature, final File location, List<String> fileList ) {
+		
+		final List<String> fl;
+		Future<?> f;
+		
+		if( fileList.isEmpty() )
+			return;
+		
+		fl = new LinkedList<>( fileList );
+		
+		if( collector == null )
+			collector = Executors.newSingleThreadExecutor();
+		
+		f = collector.submit( new Runnable() {
+
+			@Override
+			public void run() {
+				
+				try {
+					
+					for( String filename : fl )
+						collectFile( location.toPath(), filename );
+				}
+				catch( IOException e ) {
+					throw new RuntimeException( e );
+				}
+			}
+		} );
+		
+		collectionList.add( f );
+		pendingMap.put( signature, f );
+	}
+	
+	private void collectFile( Path location, String filename ) throws IOException {
+		
+		Path path, target;
+		
+		path = location.resolve( filename );
+		
+		if( !Files.exists( path, LinkOption.NOFOLLOW_LINKS ) )
+			return;
+		
+		target = path;
+		
+		// stage-out files usually link to the file the script produced
+		if( Files.isSymbolicLink( path ) ) {
+			
+			target = location.resolve( Files.readSymbolicLink( path ) ).normalize();
+			
+			// never touch files outside of the producer's sandbox
+			if( !target.startsWith( location ) || Files.isSymbolicLink( target ) )
+				target = null;
+		}
+		
+		if( target != null && Files.isRegularFile( target ) && mode == MODE_COMPRESS )
+			compress( target, location.resolve( filename+SUFFIX_COMPRESS ) );
+		
+		Files.delete( path );
+		
+		if( target != null && !target.equals( path ) )
+			Files.deleteIfExists( target );
+	}
+	
+	private static void compress( Path src, Path dest ) throws IOException {
+		
+		try( OutputStream out = new GZIPOutputStream( new FileOutputStream( dest.toFile() ), BUF_SIZE ) ) {
+			Files.copy( src, out );
+		}
+	}
+	
+	/** Tells whether all task nodes consuming a task node's outputs have
+	 * enumerated their invocations.
+	 * 
+	 * Only then the reference count of the task node's invocations is final.
+	 */
+	private boolean isSealed( TaskNode producer ) {
+		
+		Set<TaskNode> consumerSet;
+		
+		consumerSet = consumerMap.get( producer );
+		if( consumerSet == null ) {
+			
+			consumerSet = dispatcher.getConsumerTaskNodeSet( producer );
+			consumerMap.put( producer, consumerSet );
+		}
+		
+		for( TaskNode consumer : consumerSet )
+			if( !consumer.hasInvocationList() )
+				return false;
+		
+		return true;
+	}
+}
@@ -32,52 +32,107 @@
 
 package de.huberlin.cuneiform.compiler.local;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.io.FileUtils;
+import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
+import de.huberlin.cuneiform.dag.DataList;
 import de.huberlin.cuneiform.dag.ExecDag;
 import de.huberlin.cuneiform.dag.Invocation;
 import de.huberlin.cuneiform.dag.JsonReportEntry;
 import de.huberlin.cuneiform.dag.NotDerivableException;
+import de.huberlin.cuneiform.dag.TaskNode;
 
 public class LocalDispatcher extends ExecDag {
 	
 	private File buildDir;
 	private File logFile;
+	private RunJournal journal;
+	private TieredStorage storage;
+	private Set<String> pinnedTaskSet;
+	private IntermediateCollector collector;
+	private boolean shared;
+	private ClaimRegistry claimRegistry;
+	private Map<Long,Map<String,List<String>>> outputCache;
+	private Map<Long,Invocation> leaderMap;
+	private Map<Long,List<Invocation>> followerMap;
 	
 	public static final String SCRIPT_FILENAME = "__script__";
 	public static final String SUCCESS_FILENAME = "__success__";
+	private static final long PIPELINE_POLL_INTERVAL = 50;
+	private static final long CLAIM_POLL_INTERVAL = 1000;
 	// private static final int NTHREADS = 4;
 	
 	public LocalDispatcher( File buildDir ) {
 		setBuildDir( buildDir );
+		pinnedTaskSet = new HashSet<>();
+		leaderMap = new HashMap<>();
+		followerMap = new HashMap<>();
 	}
 
 	public LocalDispatcher( File buildDir, File logFile ) {
 		setBuildDir( buildDir );		
 		setLogFile( logFile );
+		pinnedTaskSet = new HashSet<>();
+		leaderMap = new HashMap<>();
+		followerMap = new HashMap<>();
 	}
 
 	public LocalDispatcher( File buildDir, File logFile, String dagid ) {
 		super( dagid );
 		setBuildDir( buildDir );
 		setLogFile( logFile );
+		pinnedTaskSet = new HashSet<>();
+		leaderMap = new HashMap<>();
+		followerMap = new HashMap<>();
+	}
+	
+	/** Adds a further build root, e.g., on a separate disk.
+	 * 
+	 * New sandboxes are placed on the build root already holding most of
+	 * their input data.
+	 * 
+	 * @param root The build root directory.
+	 */
+	public void addBuildRoot( File root ) {
+		getStorage().addRoot( root );
+	}
+	
+	/** Marks a task whose outputs are kept.
+	 * 
+	 * Outputs of pinned tasks are promoted from the scratch directory to the
+	 * build directory and are never collected. Outputs of tasks producing
+	 * the workflow's results are always kept.
+	 * 
+	 * @param taskName The name of the task to pin.
+	 */
+	public void addPinnedTask( String taskName ) {
+		
+		if( taskName == null )
+			throw new NullPointerException( "Task name must not be null." );
+		
+		pinnedTaskSet.add( taskName );
+	}
+	
+	public File getBuildDir() {
+		return buildDir;
 	}
 	
 	public File getLogFile() {
@@ -92,6 +147,48 @@ public class LocalDispatcher extends ExecDag {
 	throws IOException, InterruptedException, NotDerivableException, JSONException {
 		
 		Set<Invocation> invocationSet;
+		Set<JsonReportEntry> report;
+		boolean progress;
+		
+		openRun();
+		
+		try {
+			
+			do {
+				
+				invocationSet = getReadyInvocationSet();
+				progress = false;
+				
+				for( Invocation invoc : invocationSet ) {
+					
+					report = dispatch( invoc );
+					
+					// claimed by a cooperating process
+					if( report == null )
+						continue;
+					
+					evalReport( report );
+					progress = true;
+				}
+				
+				collect();
+				
+				if( !progress && !invocationSet.isEmpty() )
+					Thread.sleep( CLAIM_POLL_INTERVAL );
+				
+			} while( !invocationSet.isEmpty() );
+		}
+		finally {
+			closeRun();
+		}
+	}
+	
+	/** Creates the build, build root, and scratch directories before a run.
+	 */
+	protected void openRun() throws IOException {
+		
+		File scratchDir;
+		
 		if( buildDir == null )
 			throw new NullPointerException( "Build directory must not be null." );
 		
@@ -101,14 +198,68 @@ public class LocalDispatcher extends ExecDag {
 					"Unable to create sandbox folder '"
 					+buildDir.getAbsolutePath()+"'." );
 		
-		do {
-			
-			invocationSet = getReadyInvocationSet();
+		for( File root : getStorage().getRootList() )
+			if( !root.exists() )
+				if( !root.mkdirs() )
+					throw new IOException(
+						"Unable to create build root '"
+						+root.getAbsolutePath()+"'." );
+		
+		scratchDir = getStorage().getScratchDir();
+		if( scratchDir != null && !scratchDir.exists() )
+			if( !scratchDir.mkdirs() )
+				throw new IOException(
+					"Unable to create scratch folder '"
+					+scratchDir.getAbsolutePath()+"'." );
+		
+		if( shared )
+			claimRegistry = new ClaimRegistry(
+				new File( buildDir.getAbsoluteFile(), ClaimRegistry.CLAIM_DIRNAME ) );
+		
+		getMonitor().register();
+	}
+	
+	/** Waits for background work to finish, closes the journal, and
+	 * unregisters the monitor after a run.
+	 */
+	protected void closeRun() throws IOException, InterruptedException {
+		
+		try {
 			
-			for( Invocation invoc : invocationSet )				
-				evalReport( dispatch( invoc ) );
+			try {
+				
+				if( collector != null )
+					collector.awaitCollection();
+			}
+			finally {
+				
+				if( storage != null )
+					storage.awaitPromotion();
+			}
+		}
+		finally {
 			
-		} while( !invocationSet.isEmpty() );		
+			try {
+				
+				if( claimRegistry != null )
+					claimRegistry.close();
+			}
+			finally {
+				
+				getMonitor().unregister();
+				
+				if( journal != null )
+					journal.close();
+			}
+		}
+	}
+	
+	/** Collects intermediate files no longer needed, if enabled.
+	 */
+	protected void collect() throws NotDerivableException, IOException {
+		
+		if( collector != null )
+			collector.update( getInvocationSet() );
 	}
 	
 	public void setBuildDir( File buildDir ) {
@@ -117,31 +268,71 @@ public class LocalDispatcher extends ExecDag {
 			throw new NullPointerException( "Build directory must not be null." );
 		
 		this.buildDir = buildDir;
+		if( storage != null )
+			storage.setBuildDir( buildDir );
 	}
 	
 	public void setLogFile( File logFile ) {
 		this.logFile = logFile;
 	}
 	
+	/** Sets a map of bound outputs to share with later dispatchers.
+	 * 
+	 * Completed invocations are recorded in the map by their signature.
+	 * Invocations found in the map are bound right away without consulting
+	 * the journal or their sandbox. This lets a long-lived process reuse
+	 * everything computed for a workflow after the workflow is edited.
+	 * 
+	 * @param outputCache The map from signatures to output bindings or null.
+	 */
+	public void setOutputCache( Map<Long,Map<String,List<String>>> outputCache ) {
+		this.outputCache = outputCache;
+	}
+	
+	/** Enables collection of intermediate files during the run.
+	 * 
+	 * @param mode One of IntermediateCollector.MODE_DELETE and
+	 *             IntermediateCollector.MODE_COMPRESS.
+	 */
+	public void setCollectMode( int mode ) {
+		collector = new IntermediateCollector( this, mode );
+	}
+	
+	/** Lets this dispatcher share a workflow's invocations with other
+	 * processes running the same workflow on the same build directory.
+	 * 
+	 * Each invocation is claimed before it is run. Invocations claimed by
+	 * another process are adopted once their sandbox has been marked
+	 * successful. Streamed outputs end up in regular files. A scratch
+	 * directory must be shared as well.
+	 * 
+	 * @param shared True to cooperate with other processes.
+	 */
+	public void setShared( boolean shared ) {
+		this.shared = shared;
+	}
+	
+	/** Sets a fast scratch directory for intermediate sandboxes.
+	 * 
+	 * @param scratchDir The scratch directory or null to place all sandboxes
+	 *                   in the build directory.
+	 */
+	public void setScratchDir( File scratchDir ) {
+		getStorage().setScratchDir( scratchDir );
+	}
+	
+	/** Runs an invocation or binds its outputs from a previous run.
+	 * 
+	 * @return The report or null if the invocation is claimed by a
+	 *         cooperating process.
+	 */
 	protected Set<JsonReportEntry> dispatch( Invocation invocation )
 	throws IOException, InterruptedException, NotDerivableException, JSONException {
 		
-		File scriptFile;
-		Process process;
-		int exitValue;
 		Set<JsonReportEntry> report;
-		String line;
-		String[] arg;
-		String value;
-		int i;
-		StringBuffer buf;
 		File location;
-		File reportFile;
-		StreamConsumer stdoutConsumer, errConsumer;
-		ExecutorService executor;
-		String signature;
-		Path srcPath, destPath;
-		File successMarker;
+		List<Invocation> pipeline;
+		Invocation leader;
 		
 		if( invocation == null )
 			throw new NullPointerException( "Invocation must not be null." );
@@ -149,182 +340,787 @@ public class LocalDispatcher extends ExecDag {
 		if( !invocation.isReady() )
 			throw new RuntimeException( "Cannot dispatch invocation that is not ready." );
 		
-		location = new File( buildDir.getAbsolutePath()+"/"+invocation.getSignature() );
-		successMarker = new File( location.getAbsolutePath()+"/"+SUCCESS_FILENAME );
-		reportFile = new File( location.getAbsolutePath()+"/"+Invocation.REPORT_FILENAME );
+		// an identical invocation has been dispatched in this run
+		leader = getLeader( invocation );
+		if( leader != null ) {
+			
+			if( !leader.isComputed() )
+				return null;
+			
+			return follow( invocation, leader );
+		}
+		
+		// bind outputs right away if the invocation has been computed before
+		report = readOutputCache( invocation );
+		if( report == null )
+			report = readJournal( invocation );
 		
-		if( !successMarker.exists() ) {
+		if( report != null ) {
+			
+			if( outputCache != null )
+				outputCache.put( invocation.getSignature(), RunJournal.toOutputMap( invocation ) );
 			
-			if( location.exists() )
-				FileUtils.deleteDirectory( location );
+			getMonitor().addCacheHit();
+			getMonitor().addCompleted();
+			return report;
+		}
 		
-			if( !location.mkdirs() )
-				throw new IOException( "Could not create invocation location." );
+		// cooperating processes do not stream across claims
+		if( claimRegistry == null ) {
 			
-			scriptFile = new File( location.getAbsolutePath()+"/"+SCRIPT_FILENAME );
+			// run streaming producers together with their consumers
+			pipeline = getPipeline( invocation );
+			if( pipeline.size() > 1 )
+				return dispatchPipeline( pipeline );
+		}
+		
+		if( !claim( invocation ) )
+			return null;
+		
+		try {
 			
-			try( BufferedWriter writer = new BufferedWriter( new FileWriter( scriptFile, false ) ) ) {
-				
-				// write away script
-				writer.write( invocation.toScript() );
-				
+			location = place( invocation );
+			
+			if( new File( location, SUCCESS_FILENAME ).exists() ) {
 				
+				report = PreparedInvocation.readReport( location );
+				getMonitor().addCacheHit();
 			}
-			
-			scriptFile.setExecutable( true );
-			
-			for( String filename : invocation.getStageInList() ) {
+			else {
 				
+				getMonitor().noteSpawn( invocation.getSignature() );
 				
-
-				if( filename.charAt( 0 ) != '/' && filename.indexOf( '_' ) >= 0 ) {
-
-					signature = filename.substring( 0, filename.indexOf( '_' ) );
-					
-					srcPath = FileSystems.getDefault().getPath( buildDir.getAbsolutePath()+"/"+signature+"/"+filename );				
-					destPath = FileSystems.getDefault().getPath( buildDir.getAbsolutePath()+"/"+invocation.getSignature()+"/"+filename );
-					Files.createSymbolicLink( destPath, srcPath );
+				try {
+					report = run( invocation, location );
+				}
+				finally {
+					getMonitor().noteExit();
 				}
+				
+				// taken over by a cooperating process, adopted once it succeeds
+				if( report == null )
+					return null;
 			}
-	
-			
-			arg = new String[] {
-					"/usr/bin/time",
-					"-a",
-					"-o",
-					location.getAbsolutePath()+"/"+Invocation.REPORT_FILENAME,
-					"-f",
-					"{"
-					+JsonReportEntry.ATT_TIMESTAMP+":"+System.currentTimeMillis()+","
-					+JsonReportEntry.ATT_RUNID+":\""+invocation.getDagId()+"\","
-					+JsonReportEntry.ATT_TASKID+":"+invocation.getTaskNodeId()+","
-					+JsonReportEntry.ATT_TASKNAME+":\""+invocation.getTaskName()+"\","
-					+JsonReportEntry.ATT_LANG+":\""+invocation.getLangLabel()+"\","
-					+JsonReportEntry.ATT_INVOCID+":"+invocation.getSignature()+","
-					+JsonReportEntry.ATT_KEY+":\""+JsonReportEntry.KEY_INVOC_TIME+"\","
-					+JsonReportEntry.ATT_VALUE+":"
-					+"{\"realTime\":%e,\"userTime\":%U,\"sysTime\":%S,"
-					+"\"maxResidentSetSize\":%M,\"avgResidentSetSize\":%t,"
-					+"\"avgDataSize\":%D,\"avgStackSize\":%p,\"avgTextSize\":%X,"
-					+"\"nMajPageFault\":%F,\"nMinPageFault\":%R,"
-					+"\"nSwapOutMainMem\":%W,\"nForcedContextSwitch\":%c,"
-					+"\"nWaitContextSwitch\":%w,\"nIoRead\":%I,\"nIoWrite\":%O,"
-					+"\"nSocketRead\":%r,\"nSocketWrite\":%s,\"nSignal\":%k}}",
-					scriptFile.getAbsolutePath() };
 			
+			return complete( invocation, location, report );
+		}
+		finally {
+			release( invocation );
+		}
+	}
+	
+	/** Runs an invocation in its sandbox.
+	 * 
+	 * In shared mode, the script is killed if the invocation's claim is lost
+	 * while it runs.
+	 * 
+	 * @return The report or null if the claim has been lost.
+	 */
+	private Set<JsonReportEntry> run( Invocation invocation, File location )
+	throws IOException, InterruptedException, NotDerivableException, JSONException {
+		
+		PreparedInvocation prepared;
+		ScriptProcess process;
+		int exitValue;
+		
+		prepared = prepare( invocation );
+		
+		if( claimRegistry == null )
+			return prepared.run( location );
+		
+		process = prepared.launch( location, prepared.writeSandbox( location ) );
+		
+		if( !claimRegistry.attach( invocation.getSignature(), process ) )
+			return null;
+		
+		exitValue = process.waitFor();
+		
+		if( !claimRegistry.isHeld( invocation.getSignature() ) )
+			return null;
+		
+		prepared.finish( location, exitValue, process.getStdoutContent(), process.getErrContent() );
+		
+		return PreparedInvocation.readReport( location );
+	}
+	
+	/** Finds a sandbox for an invocation about to be run.
+	 * 
+	 * If an identical invocation's files are being collected, waits for the
+	 * collection to finish first.
+	 */
+	private File place( Invocation invocation )
+	throws IOException, InterruptedException, NotDerivableException {
+		
+		if( collector != null )
+			collector.awaitCollection( invocation.getSignature() );
+		
+		return getStorage().place( invocation.getSignature(), invocation.getStageInList() );
+	}
+	
+	/** Withdraws a computed invocation whose stage-out files are about to be
+	 * collected.
+	 * 
+	 * The invocation's success marker, journal record, and cached outputs are
+	 * removed. Identical invocations dispatched later in this run or in a
+	 * later run compute it again instead of binding files that are gone.
+	 * 
+	 * @param invocation The computed invocation.
+	 * @param location The invocation's sandbox.
+	 */
+	protected void forget( Invocation invocation, File location )
+	throws IOException, NotDerivableException {
+		
+		long signature;
+		
+		signature = invocation.getSignature();
+		
+		Files.deleteIfExists( new File( location, SUCCESS_FILENAME ).toPath() );
+		
+		if( !getStorage().isScratch( location ) )
+			getJournal().remove( signature );
+		
+		if( outputCache != null )
+			outputCache.remove( signature );
+		
+		leaderMap.remove( signature );
+	}
+	
+	/** Registers an invocation as the first of its signature dispatched in
+	 * this run unless an identical invocation has been dispatched before.
+	 * 
+	 * If there is such an invocation, the given invocation follows it: its
+	 * outputs are bound as soon as the first invocation completes. Until
+	 * then, it must not be dispatched.
+	 * 
+	 * @param invocation The invocation about to be dispatched.
+	 * @return The identical invocation dispatched first or null if the given
+	 *         invocation is the first.
+	 */
+	protected Invocation getLeader( Invocation invocation ) throws NotDerivableException {
+		
+		Invocation leader;
+		List<Invocation> followerList;
+		long signature;
+		
+		signature = invocation.getSignature();
+		
+		leader = leaderMap.get( signature );
+		if( leader == null ) {
 			
+			leaderMap.put( signature, invocation );
+			return null;
+		}
+		
+		if( leader == invocation )
+			return null;
+		
+		if( !leader.isComputed() ) {
 			
-			// run script
-			process = Runtime.getRuntime().exec( arg, null, location );
-			
-			executor = Executors.newCachedThreadPool();
-			
-			stdoutConsumer = new StreamConsumer( process.getInputStream() );
-			executor.execute( stdoutConsumer );
-			
-			errConsumer = new StreamConsumer( process.getErrorStream() );
-			executor.execute( errConsumer );
+			followerList = followerMap.get( signature );
+			if( followerList == null ) {
+				
+				followerList = new LinkedList<>();
+				followerMap.put( signature, followerList );
+			}
 			
-			executor.shutdown();
+			if( !followerList.contains( invocation ) )
+				followerList.add( invocation );
+		}
+		
+		return leader;
+	}
+	
+	/** Binds the outputs of an invocation to the outputs of an identical,
+	 * computed invocation.
+	 * 
+	 * @param follower The invocation to bind.
+	 * @param leader The computed invocation with the same signature.
+	 * @return The report binding the follower's outputs.
+	 */
+	protected Set<JsonReportEntry> follow( Invocation follower, Invocation leader )
+	throws NotDerivableException, JSONException {
+		
+		follower.evalOutputMap( RunJournal.toOutputMap( leader ) );
+		getMonitor().addCacheHit();
+		getMonitor().addCompleted();
+		
+		return toReport( follower );
+	}
+	
+	/** Tries to claim an invocation for this process.
+	 * 
+	 * @return True if the invocation can be run by this process.
+	 */
+	protected boolean claim( Invocation invocation ) throws IOException, NotDerivableException {
+		
+		if( claimRegistry == null )
+			return true;
+		
+		return claimRegistry.claim( invocation.getSignature() );
+	}
+	
+	protected void release( Invocation invocation ) throws IOException, NotDerivableException {
+		
+		if( claimRegistry != null )
+			claimRegistry.release( invocation.getSignature() );
+	}
+	
+	/** Runs a chain of invocations connected through named pipes.
+	 * 
+	 * All members of the chain are started at once. A member's streamed
+	 * outputs are backed by named pipes its successor reads from. The chain
+	 * succeeds or fails as a whole: no member is completed before every member
+	 * has exited successfully and written its streamed outputs to their pipes.
+	 * Members whose outputs went through a pipe are neither marked successful
+	 * nor journaled nor cached, since their outputs cannot be read again.
+	 * 
+	 * @param pipeline The chain of invocations, producer first.
+	 * @return The report of the first invocation in the chain.
+	 */
+	private Set<JsonReportEntry> dispatchPipeline( List<Invocation> pipeline )
+	throws IOException, InterruptedException, NotDerivableException, JSONException {
+		
+		List<File> locationList;
+		List<ScriptProcess> processList;
+		List<File> scriptList;
+		List<PreparedInvocation> preparedList;
+		List<Set<JsonReportEntry>> reportList;
+		File location;
+		Invocation invocation;
+		int i, n;
+		boolean[] unblocked;
+		boolean alive;
+		Set<JsonReportEntry> report, result;
+		
+		n = pipeline.size();
+		locationList = new ArrayList<>( n );
+		processList = new ArrayList<>( n );
+		scriptList = new ArrayList<>( n );
+		preparedList = new ArrayList<>( n );
+		reportList = new ArrayList<>( n );
+		result = null;
+		
+		try {
 			
-			exitValue = process.waitFor();
-			if( !executor.awaitTermination( 4, TimeUnit.SECONDS ) )
-				throw new RuntimeException(
-					"Consumer threads did not finish orderly." );
+			// prepare sandboxes, producers first so that consumers can link pipes
+			for( i = 0; i < n; i++ ) {
+				
+				invocation = pipeline.get( i );
+				location = place( invocation );
+				locationList.add( location );
+				
+				preparedList.add( prepare( invocation ) );
+				scriptList.add( preparedList.get( i ).writeSandbox( location ) );
+				
+				if( i < n-1 )
+					for( String outputName : invocation.getStreamOutputNameSet() ) {
+						
+						mkfifo( new File( location, outputName ) );
+						Files.createSymbolicLink(
+							new File( location, invocation.getStreamFilename( outputName ) ).toPath(),
+							FileSystems.getDefault().getPath( outputName ) );
+					}
+			}
 			
+			// later invocations in the chain are not dispatched on their own
+			for( i = 1; i < n; i++ )
+				getLeader( pipeline.get( i ) );
 			
-			try( BufferedWriter reportWriter = new BufferedWriter( new FileWriter( reportFile, true ) ) ) {
-	
+			for( i = 0; i < n; i++ ) {
+				
+				processList.add( preparedList.get( i ).launch( locationList.get( i ), scriptList.get( i ) ) );
+				getMonitor().noteSpawn( pipeline.get( i ).getSignature() );
+			}
 			
-				if( exitValue != 0 ) {
-					
-					System.err.println( "[script]" );
+			// make sure nobody blocks on a pipe whose other end is gone
+			unblocked = new boolean[ 2*n ];
+			do {
+				
+				alive = false;
+				
+				for( i = 0; i < n; i++ ) {
 					
-					try( BufferedReader reader = new BufferedReader( new StringReader( invocation.toScript() ) ) ) {
-						
-						i = 0;
-						while( ( line = reader.readLine() ) != null )
-							System.err.println( String.format( "%02d  %s", ++i, line ) );
+					if( processList.get( i ).isAlive() ) {
+						alive = true;
+						continue;
 					}
 					
-					System.err.println( "[out]" );
-					try( BufferedReader reader = new BufferedReader( new StringReader( stdoutConsumer.getContent() ) ) ) {
+					// a consumer is gone, drain the pipes its producer writes to
+					if( i > 0 && !unblocked[ 2*i ] && processList.get( i-1 ).isAlive() ) {
 						
-						while( ( line = reader.readLine() ) != null )
-							System.err.println( line );
+						unblocked[ 2*i ] = true;
+						unblockPipe( pipeline.get( i-1 ), locationList.get( i-1 ), false );
 					}
 					
-					System.err.println( "[err]" );
-					try( BufferedReader reader = new BufferedReader( new StringReader( errConsumer.getContent() ) ) ) {
+					// a producer is gone, make sure its consumer sees the end
+					if( i < n-1 && !unblocked[ 2*i+1 ] && processList.get( i+1 ).isAlive() ) {
 						
-						while( ( line = reader.readLine() ) != null )
-							System.err.println( line );
+						unblocked[ 2*i+1 ] = true;
+						unblockPipe( pipeline.get( i ), locationList.get( i ), true );
 					}
-					
-					System.err.println( "[end]" );
-					
-					throw new RuntimeException(
-						"Invocation of task '"+invocation.getTaskName()
-						+"' with signature "+invocation.getSignature()
-						+" terminated with non-zero exit value. Exit value was "
-						+exitValue+"." );
 				}
 				
+				if( alive )
+					Thread.sleep( PIPELINE_POLL_INTERVAL );
 				
-				try( BufferedReader reader = new BufferedReader( new StringReader( stdoutConsumer.getContent() ) ) ) {
-					
-					buf = new StringBuffer();
-					while( ( line = reader.readLine() ) != null )
-						buf.append( line.replaceAll( "\\\\", "\\\\\\\\" ).replaceAll( "\"", "\\\"" ) ).append( '\n' );
-					
-					
-					value = buf.toString();
-					if( !value.isEmpty() )
+			} while( alive );
+			
+			for( i = 0; i < n; i++ )
+				preparedList.get( i ).finish( locationList.get( i ), processList.get( i ) );
+			
+			// check every member before completing any
+			for( i = 0; i < n; i++ ) {
+				
+				report = PreparedInvocation.readReport( locationList.get( i ) );
+				
+				if( i < n-1 )
+					checkStreamOutput( pipeline.get( i ), report );
+				
+				reportList.add( report );
+			}
+			
+			for( i = 0; i < n; i++ ) {
+				
+				report = complete( pipeline.get( i ), locationList.get( i ), reportList.get( i ), i < n-1 );
+				
+				if( i == 0 )
+					result = report;
+				else
+					evalReport( report );
+			}
+		}
+		finally {
+			
+			for( i = 0; i < processList.size(); i++ )
+				getMonitor().noteExit();
+			
+			// withdraw pipe bindings of a failed chain
+			for( Invocation member : pipeline )
+				for( String outputName : member.getStreamOutputNameSet() )
+					member.unbindStream( outputName );
+		}
+		
+		return result;
+	}
+	
+	/** Makes sure a piped member of a chain has written each streamed output
+	 * to the file preset in its output variable, i.e., to its pipe.
+	 */
+	private static void checkStreamOutput( Invocation invocation, Set<JsonReportEntry> report )
+	throws NotDerivableException, JSONException {
+		
+		JSONObject payload;
+		JSONArray array;
+		
+		for( JsonReportEntry entry : report ) {
+			
+			if( !entry.getKey().equals( JsonReportEntry.KEY_INVOC_OUTPUT ) )
+				continue;
+			
+			payload = entry.getValueJsonObj();
+			
+			for( String outputName : invocation.getStreamOutputNameSet() ) {
+				
+				array = payload.optJSONArray( outputName );
+				
+				if( array == null || array.length() != 1
+					|| !invocation.getStreamFilename( outputName ).equals( array.optString( 0 ) ) )
+					throw new RuntimeException(
+						"Streamed output '"+outputName+"' of task '"
+						+invocation.getTaskName()+"' must be written to the file"
+						+" preset in the output variable." );
+			}
+		}
+	}
+	
+	/** Determines the chain of invocations that can run together with an
+	 * invocation by streaming its outputs.
+	 * 
+	 * @param invocation The first invocation in the chain.
+	 * @return The chain, starting with the given invocation.
+	 */
+	private List<Invocation> getPipeline( Invocation invocation )
+	throws IOException, NotDerivableException {
+		
+		List<Invocation> pipeline;
+		Invocation consumer;
+		
+		pipeline = new ArrayList<>();
+		pipeline.add( invocation );
+		
+		consumer = getStreamConsumer( invocation );
+		while( consumer != null ) {
+			
+			pipeline.add( consumer );
+			consumer = getStreamConsumer( consumer );
+		}
+		
+		return pipeline;
+	}
+	
+	/** Finds the single consumer of an invocation's streamed outputs.
+	 * 
+	 * If such a consumer exists, the streamed outputs are bound to their
+	 * named pipes. If the outputs fan out to more than one consumer, are kept,
+	 * or if the consumer needs anything else not yet computed, the outputs are
+	 * not streamed and end up in regular files.
+	 * 
+	 * @param producer The producing invocation.
+	 * @return The consumer or null if the outputs are not streamed.
+	 */
+	private Invocation getStreamConsumer( Invocation producer )
+	throws IOException, NotDerivableException {
+		
+		Set<String> streamSet;
+		Invocation consumer;
+		List<String> stageInList;
+		
+		streamSet = producer.getStreamOutputNameSet();
+		
+		if( streamSet.isEmpty() || isKept( producer ) || isDone( producer ) )
+			return null;
+		
+		// fan-out is only final if all consuming task nodes are enumerated
+		for( TaskNode taskNode : getConsumerTaskNodeSet( producer.getTaskNode() ) )
+			if( !taskNode.hasInvocationList() )
+				return null;
+		
+		consumer = null;
+		for( Invocation candidate : getInvocationSet() )
+			if( candidate.getParentInvocationSet().contains( producer ) ) {
+				
+				if( consumer != null )
+					return null;
+				
+				consumer = candidate;
+			}
+		
+		if( consumer == null )
+			return null;
+		
+		for( String outputName : streamSet )
+			producer.bindStream( outputName );
+		
+		if( consumer.isReady() && !isDone( consumer )
+			&& !leaderMap.containsKey( consumer.getSignature() ) ) {
+			
+			// each pipe can be read exactly once
+			stageInList = consumer.getStageInList();
+			for( String outputName : streamSet )
+				if( stageInList.indexOf( producer.getStreamFilename( outputName ) ) < 0
+					|| stageInList.indexOf( producer.getStreamFilename( outputName ) )
+					!= stageInList.lastIndexOf( producer.getStreamFilename( outputName ) ) ) {
 					
-					reportWriter.write( new JsonReportEntry( invocation, JsonReportEntry.KEY_INVOC_STDOUT, value ).toString() );
+					consumer = null;
+					break;
 				}
-				try( BufferedReader reader = new BufferedReader( new StringReader( errConsumer.getContent() ) ) ) {
-					
-					buf = new StringBuffer();
-					while( ( line = reader.readLine() ) != null )
-						buf.append( line.replaceAll( "\\\\", "\\\\\\\\" ).replaceAll( "\"", "\\\"" ) ).append( '\n' );
+		}
+		else
+			consumer = null;
+		
+		if( consumer == null )
+			for( String outputName : streamSet )
+				producer.unbindStream( outputName );
+		
+		return consumer;
+	}
+	
+	/** Tells whether an invocation has been computed in an earlier run.
+	 */
+	private boolean isDone( Invocation invocation ) throws IOException, NotDerivableException {
+		
+		if( outputCache != null && outputCache.containsKey( invocation.getSignature() ) )
+			return true;
+		
+		if( getJournal().containsSignature( invocation.getSignature() ) )
+			return true;
+		
+		return new File( getStorage().locate( invocation.getSignature() ), SUCCESS_FILENAME ).exists();
+	}
+	
+	/** Opens the far end of a producer's pipes so its peer does not block.
+	 * 
+	 * Opening happens on a daemon thread since it blocks until the peer opens
+	 * its end, which it might never do.
+	 * 
+	 * @param producer The producer owning the pipes.
+	 * @param location The producer's sandbox.
+	 * @param write If true, the pipes are opened for writing to release a
+	 *              waiting consumer. Otherwise they are drained to release a
+	 *              waiting producer.
+	 */
+	private static void unblockPipe( Invocation producer, File location, final boolean write )
+	throws NotDerivableException {
+		
+		Thread thread;
+		
+		for( String outputName : producer.getStreamOutputNameSet() ) {
+			
+			final File fifo;
+			
+			fifo = new File( location, outputName );
+			
+			thread = new Thread( new Runnable() {
+				
+				@Override
+				public void run() {
 					
-					value = buf.toString();
-					if( !value.isEmpty() )
+					byte[] buf;
 					
-					reportWriter.write( new JsonReportEntry( invocation, JsonReportEntry.KEY_INVOC_STDERR, value ).toString() );
+					try {
+						
+						if( write ) {
+							new FileOutputStream( fifo ).close();
+							return;
+						}
+						
+						buf = new byte[ 8192 ];
+						try( InputStream in = new FileInputStream( fifo ) ) {
+							while( in.read( buf ) >= 0 ) {
+								// discard
+							}
+						}
+					}
+					catch( IOException e ) {
+						// nothing left to unblock
+					}
 				}
-		
-			}			
+			} );
+			
+			thread.setDaemon( true );
+			thread.start();
 		}
+	}
+	
+	private static void mkfifo( File fifo ) throws IOException, InterruptedException {
 		
-		// gather report
-		report = new HashSet<>();
-		try(
-			BufferedReader reader =
-				new BufferedReader( new FileReader( reportFile ) ) ) {
+		Process process;
+		
+		process = Runtime.getRuntime().exec( new String[] { "mkfifo", fifo.getAbsolutePath() } );
+		
+		if( process.waitFor() != 0 )
+			throw new IOException(
+				"Could not create named pipe '"+fifo.getAbsolutePath()+"'." );
+	}
+	
+	/** Generates an invocation's script and stage-in manifest.
+	 * 
+	 * @param invocation The ready invocation.
+	 * @return The prepared invocation.
+	 */
+	protected PreparedInvocation prepare( Invocation invocation )
+	throws NotDerivableException {
+		
+		PreparedInvocation prepared;
+		String producer;
+		
+		prepared = new PreparedInvocation(
+			invocation.getSignature(), invocation.getDagId(),
+			invocation.getTaskNodeId(), invocation.getTaskName(),
+			invocation.getLangLabel(), invocation.toScript() );
+		
+		for( String filename : invocation.getStageInList() )
 			
-			while( ( line = reader.readLine() ) != null ) {
-				
-				line = line.trim();
-				
-				if( line.isEmpty() )
-					continue;
+			if( filename.charAt( 0 ) != '/' && filename.indexOf( '_' ) >= 0 ) {
+
+				producer = filename.substring( 0, filename.indexOf( '_' ) );
 				
-				report.add( new JsonReportEntry( line ) );
+				prepared.addStageIn(
+					filename,
+					getStorage().locate( Long.parseLong( producer ) ).getAbsolutePath()+"/"+filename );
 			}
+		
+		return prepared;
+	}
+	
+	/** Binds an invocation's outputs from its report and marks its sandbox
+	 * successful.
+	 * 
+	 * @return The report.
+	 */
+	protected Set<JsonReportEntry> complete( Invocation invocation, File location, Set<JsonReportEntry> report )
+	throws IOException, NotDerivableException, JSONException {
+		return complete( invocation, location, report, false );
+	}
+	
+	/** Binds an invocation's outputs from its report.
+	 * 
+	 * @param piped True if the invocation's streamed outputs went through
+	 *              named pipes. Such an invocation is not recorded anywhere:
+	 *              identical invocations and later runs compute it again.
+	 * @return The report.
+	 */
+	private Set<JsonReportEntry> complete( Invocation invocation, File location, Set<JsonReportEntry> report, boolean piped )
+	throws IOException, NotDerivableException, JSONException {
+		
+		File successMarker;
+		List<String> promoteList;
+		JSONObject sizeObj;
+		List<Invocation> followerList;
+		
+		successMarker = new File( location.getAbsolutePath()+"/"+SUCCESS_FILENAME );
+		
+		invocation.evalReport( report );
+		getMonitor().addCompleted();
+		
+		if( piped ) {
 			
+			// waiting identical invocations are dispatched again
+			followerMap.remove( invocation.getSignature() );
+			leaderMap.remove( invocation.getSignature() );
+			return report;
 		}
 		
-		invocation.evalReport( report );
+		if( outputCache != null )
+			outputCache.put( invocation.getSignature(), RunJournal.toOutputMap( invocation ) );
+		
+		// share the outputs with identical invocations waiting for this one
+		followerList = followerMap.remove( invocation.getSignature() );
+		if( followerList != null )
+			for( Invocation follower : followerList )
+				if( !follower.isComputed() )
+					evalReport( follow( follower, invocation ) );
+		
+		// remember output sizes for placing consumers
+		for( JsonReportEntry entry : report )
+			if( entry.getKey().equals( JsonReportEntry.KEY_FILE_SIZE_STAGEOUT ) && entry.isValueJson() ) {
+				
+				sizeObj = entry.getValueJsonObj();
+				if( sizeObj.length() > 0 )
+					for( String filename : JSONObject.getNames( sizeObj ) )
+						getStorage().addStageOutSize( filename, sizeObj.getLong( filename ) );
+			}
 
 		if( !successMarker.exists() )
 			if( !successMarker.createNewFile() )
 				throw new IOException( "Could not create success marker." );
 		
+		if( !getStorage().isScratch( location ) ) {
+			
+			getJournal().append( invocation );
+			return report;
+		}
+		
+		// results and pinned outputs must survive the scratch directory
+		if( isKept( invocation ) ) {
+			
+			promoteList = new LinkedList<>();
+			promoteList.add( SCRIPT_FILENAME );
+			promoteList.add( Invocation.REPORT_FILENAME );
+			promoteList.addAll( invocation.getStageOutList() );
+			
+			getStorage().promote(
+				invocation.getSignature(), promoteList,
+				RunJournal.toOutputMap( invocation ), getJournal() );
+		}
+		
 		return report; 
 	}
 	
+	protected RunJournal getJournal() throws IOException {
+		
+		if( journal == null )
+			journal = new RunJournal(
+				new File( buildDir.getAbsolutePath()+"/"+RunJournal.JOURNAL_FILENAME ), shared );
+		
+		return journal;
+	}
+	
+	/** Tells whether the outputs of an invocation must be kept.
+	 * 
+	 * @param invocation The invocation.
+	 * @return True if the invocation produces results or belongs to a
+	 *         pinned task.
+	 */
+	protected boolean isKept( Invocation invocation ) throws NotDerivableException {
+		
+		return getResultTaskNodeSet().contains( invocation.getTaskNode() )
+			|| pinnedTaskSet.contains( invocation.getTaskName() );
+	}
+	
+	protected TieredStorage getStorage() {
+		
+		if( storage == null )
+			storage = new TieredStorage( buildDir );
+		
+		return storage;
+	}
+	
+	/** Binds the outputs of an invocation recorded in the journal.
+	 * 
+	 * This suffices to complete the invocation without touching its sandbox.
+	 * 
+	 * @param invocation The invocation to look up.
+	 * @return A report to log or null if the invocation is not journaled.
+	 */
+	protected Set<JsonReportEntry> readJournal( Invocation invocation )
+	throws IOException, NotDerivableException, JSONException {
+		
+		Map<String,List<String>> outputMap;
+		
+		outputMap = getJournal().getOutputMap( invocation.getSignature() );
+		
+		if( outputMap == null )
+			return null;
+		
+		invocation.evalOutputMap( outputMap );
+		
+		return toReport( invocation );
+	}
+	
+	/** Binds the outputs of an invocation held in the output cache.
+	 * 
+	 * @param invocation The invocation to look up.
+	 * @return A report to log or null if the invocation is not cached.
+	 */
+	protected Set<JsonReportEntry> readOutputCache( Invocation invocation )
+	throws NotDerivableException, JSONException {
+		
+		Map<String,List<String>> outputMap;
+		
+		if( outputCache == null )
+			return null;
+		
+		outputMap = outputCache.get( invocation.getSignature() );
+		
+		if( outputMap == null )
+			return null;
+		
+		invocation.evalOutputMap( outputMap );
+		
+		return toReport( invocation );
+	}
+	
+	/** Reconstructs the report of an invocation bound without running it.
+	 * 
+	 * The report contains only the output entry. Spilled outputs are left
+	 * out, so logging the report copies none of their values to the heap.
+	 * 
+	 * @param invocation The computed invocation.
+	 * @return The report.
+	 */
+	private static Set<JsonReportEntry> toReport( Invocation invocation )
+	throws NotDerivableException, JSONException {
+		
+		JSONObject payload;
+		Set<JsonReportEntry> report;
+		DataList dataList;
+		
+		payload = new JSONObject();
+		for( String outputName : invocation.getOutputNameList() ) {
+			
+			dataList = invocation.getDataList( invocation.getOutputChannel( outputName ) );
+			
+			if( !dataList.isSpilled() )
+				payload.put( outputName, new JSONArray( dataList.asStringList() ) );
+		}
+		
+		report = new HashSet<>();
+		report.add( new JsonReportEntry( invocation, JsonReportEntry.KEY_INVOC_OUTPUT, payload ) );
+		
+		return report;
+	}
+	
 	protected void evalReport( Set<JsonReportEntry> report ) throws IOException {
 		
 		try( BufferedWriter writer = new BufferedWriter( new FileWriter( getLogFile(), true ) ) ) {
@@ -0,0 +1,424 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+import de.huberlin.cuneiform.monitor.Probe;
+
+/** Everything needed to run an invocation in a sandbox.
+ * 
+ * A prepared invocation holds the generated script and the stage-in
+ * manifest, mapping each stage-in file name to the absolute path of the file
+ * it links to. It does not depend on the workflow graph, so it can be run by
+ * anyone with access to the stage-in files.
+ */
+public class PreparedInvocation {
+	
+	private static final String ATT_SIGNATURE = "signature";
+	private static final String ATT_DAGID = "dagId";
+	private static final String ATT_TASKNODEID = "taskNodeId";
+	private static final String ATT_TASKNAME = "taskName";
+	private static final String ATT_LANG = "lang";
+	private static final String ATT_SCRIPT = "script";
+	private static final String ATT_STAGEIN = "stageIn";
+
+	private long signature;
+	private String dagId;
+	private int taskNodeId;
+	private String taskName;
+	private String langLabel;
+	private String script;
+	private Map<String,String> stageInMap;
+	
+	public PreparedInvocation(
+		long signature, String dagId, int taskNodeId, String taskName,
+		String langLabel, String script ) {
+		
+		if( dagId == null )
+			throw new NullPointerException( "DAG id must not be null." );
+		
+		if( taskName == null )
+			throw new NullPointerException( "Task name must not be null." );
+		
+		if( langLabel == null )
+			throw new NullPointerException( "Language label must not be null." );
+		
+		if( script == null )
+			throw new NullPointerException( "Script must not be null." );
+		
+		this.signature = signature;
+		this.dagId = dagId;
+		this.taskNodeId = taskNodeId;
+		this.taskName = taskName;
+		this.langLabel = langLabel;
+		this.script = script;
+		
+		stageInMap = new LinkedHashMap<>();
+	}
+	
+	public PreparedInvocation( JSONObject obj ) throws JSONException {
+		
+		this(
+			obj.getLong( ATT_SIGNATURE ),
+			obj.getString( ATT_DAGID ),
+			obj.getInt( ATT_TASKNODEID ),
+			obj.getString( ATT_TASKNAME ),
+			obj.getString( ATT_LANG ),
+			obj.getString( ATT_SCRIPT ) );
+		
+		JSONObject stageIn;
+		Iterator<?> it;
+		String filename;
+		
+		stageIn = obj.getJSONObject( ATT_STAGEIN );
+		it = stageIn.keys();
+		while( it.hasNext() ) {
+			
+			filename = ( String )it.next();
+			addStageIn( filename, stageIn.getString( filename ) );
+		}
+	}
+	
+	public void addStageIn( String filename, String src ) {
+		
+		if( filename == null )
+			throw new NullPointerException( "File name must not be null." );
+		
+		if( src == null )
+			throw new NullPointerException( "Source path must not be null." );
+		
+		stageInMap.put( filename, src );
+	}
+	
+	public JsonReportEntry createReportEntry( String key, String value ) {
+		
+		return new JsonReportEntry(
+			UUID.fromString( dagId ), ( long )taskNodeId, taskName,
+			langLabel, signature, key, value );
+	}
+	
+	public String getDagId() {
+		return dagId;
+	}
+	
+	public String getLangLabel() {
+		return langLabel;
+	}
+	
+	public String getScript() {
+		return script;
+	}
+	
+	public long getSignature() {
+		return signature;
+	}
+	
+	public Map<String,String> getStageInMap() {
+		return Collections.unmodifiableMap( stageInMap );
+	}
+	
+	public String getTaskName() {
+		return taskName;
+	}
+	
+	public int getTaskNodeId() {
+		return taskNodeId;
+	}
+	
+	/** Creates a fresh sandbox holding the script and links to all stage-in
+	 * files.
+	 * 
+	 * @param location The sandbox directory.
+	 * @return The script file.
+	 */
+	public File writeSandbox( File location ) throws IOException {
+		
+		File scriptFile;
+		Path srcPath;
+		
+		if( location.exists() )
+			FileUtils.deleteDirectory( location );
+	
+		if( !location.mkdirs() )
+			throw new IOException( "Could not create invocation location." );
+		
+		scriptFile = new File( location.getAbsolutePath()+"/"+LocalDispatcher.SCRIPT_FILENAME );
+		
+		try( BufferedWriter writer = new BufferedWriter( new FileWriter( scriptFile, false ) ) ) {
+			
+			// write away script
+			writer.write( script );
+		}
+		
+		scriptFile.setExecutable( true );
+		
+		for( String filename : stageInMap.keySet() ) {
+			
+			srcPath = new File( stageInMap.get( filename ) ).toPath();
+			
+			if( !Files.exists( srcPath ) )
+				throw new IOException(
+					"Stage-in file '"+srcPath+"' does not exist. It may have"
+					+" been removed after a previous run. Try a clean run." );
+			
+			Files.createSymbolicLink( new File( location, filename ).toPath(), srcPath );
+		}
+		
+		return scriptFile;
+	}
+	
+	/** Returns the command line running the script under /usr/bin/time.
+	 * 
+	 * @param location The sandbox directory.
+	 * @param scriptFile The script file.
+	 * @return The command line.
+	 */
+	public String[] getCommand( File location, File scriptFile ) {
+		
+		return new String[] {
+				"/usr/bin/time",
+				"-a",
+				"-o",
+				location.getAbsolutePath()+"/"+Invocation.REPORT_FILENAME,
+				"-f",
+				"{"
+				+JsonReportEntry.ATT_TIMESTAMP+":"+System.currentTimeMillis()+","
+				+JsonReportEntry.ATT_RUNID+":\""+dagId+"\","
+				+JsonReportEntry.ATT_TASKID+":"+taskNodeId+","
+				+JsonReportEntry.ATT_TASKNAME+":\""+taskName+"\","
+				+JsonReportEntry.ATT_LANG+":\""+langLabel+"\","
+				+JsonReportEntry.ATT_INVOCID+":"+signature+","
+				+JsonReportEntry.ATT_KEY+":\""+JsonReportEntry.KEY_INVOC_TIME+"\","
+				+JsonReportEntry.ATT_VALUE+":"
+				+"{\"realTime\":%e,\"userTime\":%U,\"sysTime\":%S,"
+				+"\"maxResidentSetSize\":%M,\"avgResidentSetSize\":%t,"
+				+"\"avgDataSize\":%D,\"avgStackSize\":%p,\"avgTextSize\":%X,"
+				+"\"nMajPageFault\":%F,\"nMinPageFault\":%R,"
+				+"\"nSwapOutMainMem\":%W,\"nForcedContextSwitch\":%c,"
+				+"\"nWaitContextSwitch\":%w,\"nIoRead\":%I,\"nIoWrite\":%O,"
+				+"\"nSocketRead\":%r,\"nSocketWrite\":%s,\"nSignal\":%k}}",
+				scriptFile.getAbsolutePath() };
+	}
+	
+	public ScriptProcess launch( File location, File scriptFile ) throws IOException {
+		return launch( location, scriptFile, null );
+	}
+	
+	public ScriptProcess launch( File location, File scriptFile, OutputListener listener ) throws IOException {
+		
+		// run script
+		return new ScriptProcess( getCommand( location, scriptFile ), location, listener );
+	}
+	
+	/** Waits for a script to exit and appends its output to the report.
+	 * 
+	 * @throws RuntimeException if the script exited with a non-zero value.
+	 */
+	public void finish( File location, ScriptProcess process )
+	throws IOException, InterruptedException {
+		
+		int exitValue;
+		
+		exitValue = process.waitFor();
+		finish( location, exitValue, process.getStdoutContent(), process.getErrContent() );
+	}
+	
+	/** Appends the output of a script that has already exited to the report.
+	 * 
+	 * @param location The sandbox directory.
+	 * @param exitValue The script's exit value.
+	 * @param stdout The script's standard output.
+	 * @param stderr The script's standard error.
+	 * @throws RuntimeException if the script exited with a non-zero value.
+	 */
+	public void finish( File location, int exitValue, String stdout, String stderr )
+	throws IOException {
+		
+		String line;
+		String value;
+		int i;
+		StringBuffer buf;
+		File reportFile;
+		
+		reportFile = new File( location.getAbsolutePath()+"/"+Invocation.REPORT_FILENAME );
+		
+		try( BufferedWriter reportWriter = new BufferedWriter( new FileWriter( reportFile, true ) ) ) {
+
+		
+			if( exitValue != 0 ) {
+				
+				System.err.println( "[script]" );
+				
+				try( BufferedReader reader = new BufferedReader( new StringReader( script ) ) ) {
+					
+					i = 0;
+					while( ( line = reader.readLine() ) != null )
+						System.err.println( String.format( "%02d  %s", ++i, line ) );
+				}
+				
+				System.err.println( "[out]" );
+				try( BufferedReader reader = new BufferedReader( new StringReader( stdout ) ) ) {
+					
+					while( ( line = reader.readLine() ) != null )
+						System.err.println( line );
+				}
+				
+				System.err.println( "[err]" );
+				try( BufferedReader reader = new BufferedReader( new StringReader( stderr ) ) ) {
+					
+					while( ( line = reader.readLine() ) != null )
+						System.err.println( line );
+				}
+				
+				System.err.println( "[end]" );
+				
+				throw new RuntimeException(
+					"Invocation of task '"+taskName
+					+"' with signature "+signature
+					+" terminated with non-zero exit value. Exit value was "
+					+exitValue+"." );
+			}
+			
+			
+			try( BufferedReader reader = new BufferedReader( new StringReader( stdout ) ) ) {
+				
+				buf = new StringBuffer();
+				while( ( line = reader.readLine() ) != null )
+					buf.append( line.replaceAll( "\\\\", "\\\\\\\\" ).replaceAll( "\"", "\\\"" ) ).append( '\n' );
+				
+				
+				value = buf.toString();
+				if( !value.isEmpty() )
+				
+				reportWriter.write( createReportEntry( JsonReportEntry.KEY_INVOC_STDOUT, value ).toString() );
+			}
+			try( BufferedReader reader = new BufferedReader( new StringReader( stderr ) ) ) {
+				
+				buf = new StringBuffer();
+				while( ( line = reader.readLine() ) != null )
+					buf.append( line.replaceAll( "\\\\", "\\\\\\\\" ).replaceAll( "\"", "\\\"" ) ).append( '\n' );
+				
+				value = buf.toString();
+				if( !value.isEmpty() )
+				
+				reportWriter.write( createReportEntry( JsonReportEntry.KEY_INVOC_STDERR, value ).toString() );
+			}
+	
+		}			
+	}
+	
+	/** Runs the invocation in a fresh sandbox and returns its report.
+	 * 
+	 * @param location The sandbox directory.
+	 * @return The report.
+	 */
+	public Set<JsonReportEntry> run( File location )
+	throws IOException, InterruptedException, JSONException {
+		
+		finish( location, launch( location, writeSandbox( location ) ) );
+		return readReport( location );
+	}
+	
+	public JSONObject toJsonObject() throws JSONException {
+		
+		JSONObject obj;
+		
+		obj = new JSONObject();
+		
+		obj.put( ATT_SIGNATURE, signature );
+		obj.put( ATT_DAGID, dagId );
+		obj.put( ATT_TASKNODEID, taskNodeId );
+		obj.put( ATT_TASKNAME, taskName );
+		obj.put( ATT_LANG, langLabel );
+		obj.put( ATT_SCRIPT, script );
+		obj.put( ATT_STAGEIN, new JSONObject( stageInMap ) );
+		
+		return obj;
+	}
+	
+	public static Set<JsonReportEntry> readReport( File location )
+	throws IOException, JSONException {
+		
+		Set<JsonReportEntry> report;
+		String line;
+		File reportFile;
+		Object span;
+		
+		reportFile = new File( location.getAbsolutePath()+"/"+Invocation.REPORT_FILENAME );
+		span = Probe.begin( Probe.PHASE_REPORT_PARSE );
+		
+		// gather report
+		report = new HashSet<>();
+		try(
+			BufferedReader reader =
+				new BufferedReader( new FileReader( reportFile ) ) ) {
+			
+			while( ( line = reader.readLine() ) != null ) {
+				
+				line = line.trim();
+				
+				if( line.isEmpty() )
+					continue;
+				
+				report.add( new JsonReportEntry( line ) );
+			}
+			
+		}
+		
+		Probe.end( span, location.getName() );
+		
+		return report;
+	}
+}
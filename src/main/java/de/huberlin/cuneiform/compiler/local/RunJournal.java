@@ -0,0 +1,691 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.MappedDataList;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** An append-only journal of completed invocations.
+ * 
+ * For every invocation that completed successfully the journal records its
+ * signature together with the values bound to each of its outputs. On
+ * restart, the whole journal is replayed in a single sequential read so that
+ * cached invocations can be bound without visiting their sandboxes. Only the
+ * offset of each record is kept in memory; the bound values are read back
+ * when an invocation is looked up. Lists of values above the spill threshold
+ * are not read back but mapped right where the record holds them.
+ * 
+ * Records are streamed to the end of the journal, their CRC32 checksum
+ * computed on the way, so a record is never held in memory as a whole. In a
+ * shared journal, cooperating processes append one record at a time under a
+ * file lock. A record torn by a crash is detected on replay and cut off. A
+ * shared journal is never cut off, since what looks torn may be a
+ * cooperating process's append still in progress. Replay skips such a
+ * record and resumes at the next intact one.
+ * 
+ * An invocation whose outputs have been collected is withdrawn by appending
+ * a tombstone record, i.e., a record with a negative output count.
+ */
+public class RunJournal {
+	
+	public static final String JOURNAL_FILENAME = "__journal__";
+	
+	private static final int MAGIC = 0x43464a31; // "CFJ1"
+	private static final int TOMBSTONE = -1;
+	private static final long OFFSET_UNKNOWN = -1;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+	private File journalFile;
+	private boolean shared;
+	private Map<Long,Long> offsetMap;
+	private FileOutputStream out;
+	private RandomAccessFile in;
+	
+	public RunJournal( File journalFile ) throws IOException {
+		this( journalFile, false );
+	}
+	
+	/** Opens a journal and replays its records.
+	 * 
+	 * @param journalFile The journal file.
+	 * @param shared True if cooperating processes append to the journal.
+	 */
+	public RunJournal( File journalFile, boolean shared ) throws IOException {
+		
+		setJournalFile( journalFile );
+		this.shared = shared;
+		offsetMap = new HashMap<>();
+		
+		replay();
+	}
+	
+	public synchronized void append( Invocation invocation )
+	throws IOException, NotDerivableException {
+		
+		if( invocation == null )
+			throw new NullPointerException( "Invocation must not be null." );
+		
+		append( invocation.getSignature(), toOutputMap( invocation ) );
+	}
+	
+	public synchronized void append( long signature, Map<String,List<String>> map )
+	throws IOException {
+		
+		if( map == null )
+			throw new NullPointerException( "Output map must not be null." );
+		
+		if( offsetMap.containsKey( signature ) )
+			return;
+		
+		offsetMap.put( signature, write( signature, map ) );
+	}
+	
+	/** Withdraws the record of an invocation whose outputs are gone.
+	 * 
+	 * A later run does not bind the invocation from the journal but computes
+	 * it again.
+	 * 
+	 * @param signature The signature of the invocation.
+	 */
+	public synchronized void remove( long signature ) throws IOException {
+		
+		write( signature, null );
+		
+		offsetMap.remove( signature );
+	}
+	
+	/** Appends a record.
+	 * 
+	 * The payload's length is determined before it is written, so the
+	 * record can be streamed to a journal opened in append mode.
+	 * 
+	 * @param signature The signature of the invocation.
+	 * @param map The output bindings or null for a tombstone.
+	 * @return The record's offset or OFFSET_UNKNOWN if a process appended at
+	 *         the same time without taking the lock.
+	 */
+	private long write( long signature, Map<String,List<String>> map ) throws IOException {
+		
+		FileChannel channel;
+		FileLock lock;
+		DataOutputStream record, payload;
+		CRC32 crc;
+		long length, offset;
+		
+		length = 12;
+		
+		if( map != null )
+			for( String outputName : map.keySet() ) {
+				
+				length += 8+utf8Length( outputName );
+				
+				for( String value : map.get( outputName ) )
+					length += 4+utf8Length( value );
+			}
+		
+		if( length > Integer.MAX_VALUE )
+			throw new IOException(
+				"Outputs of invocation "+signature+" are too large to be journaled." );
+		
+		channel = getOutputStream().getChannel();
+		
+		// cooperating processes append one record at a time
+		lock = shared ? channel.lock() : null;
+		
+		try {
+			
+			offset = channel.size();
+			
+			crc = new CRC32();
+			record = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( channel ), BUFFER_SIZE ) );
+			payload = new DataOutputStream( new CheckedOutputStream( record, crc ) );
+			
+			record.writeInt( ( int )length );
+			
+			payload.writeLong( signature );
+			
+			if( map == null )
+				payload.writeInt( TOMBSTONE );
+			else {
+				
+				payload.writeInt( map.size() );
+				
+				for( String outputName : map.keySet() ) {
+					
+					writeString( payload, outputName );
+					payload.writeInt( map.get( outputName ).size() );
+					
+					for( String value : map.get( outputName ) )
+						writeString( payload, value );
+				}
+			}
+			
+			payload.flush();
+			record.writeLong( crc.getValue() );
+			record.flush();
+			
+			if( channel.size() != offset+length+12 )
+				return OFFSET_UNKNOWN;
+			
+			return offset;
+		}
+		finally {
+			
+			if( lock != null )
+				lock.release();
+		}
+	}
+	
+	public synchronized void close() throws IOException {
+		
+		try {
+			
+			if( in != null )
+				in.close();
+		}
+		finally {
+			
+			in = null;
+			
+			if( out != null )
+				out.close();
+			
+			out = null;
+		}
+	}
+	
+	public synchronized boolean containsSignature( long signature ) {
+		return offsetMap.containsKey( signature );
+	}
+	
+	public File getJournalFile() {
+		return journalFile;
+	}
+	
+	/** Returns the output bindings recorded for a given signature.
+	 * 
+	 * @param signature The signature of the invocation.
+	 * @return A map from output names to bound values or null if the
+	 *         invocation has not been journaled.
+	 */
+	public synchronized Map<String,List<String>> getOutputMap( long signature )
+	throws IOException {
+		
+		Long offset;
+		
+		offset = offsetMap.get( signature );
+		
+		if( offset == null )
+			return null;
+		
+		if( offset == OFFSET_UNKNOWN ) {
+			
+			offset = find( signature );
+			
+			// torn by an append at the same time
+			if( offset == OFFSET_UNKNOWN ) {
+				
+				offsetMap.remove( signature );
+				return null;
+			}
+			
+			offsetMap.put( signature, offset );
+		}
+		
+		return readRecord( signature, offset );
+	}
+	
+	public void setJournalFile( File journalFile ) {
+		
+		if( journalFile == null )
+			throw new NullPointerException( "Journal file must not be null." );
+		
+		this.journalFile = journalFile;
+	}
+	
+	public synchronized int size() {
+		return offsetMap.size();
+	}
+	
+	/** Collects the values bound to each output of a computed invocation.
+	 * 
+	 * The values are not copied: each list is a view of the invocation's
+	 * bound data list.
+	 * 
+	 * @param invocation The computed invocation.
+	 * @return A map from output names to bound values.
+	 */
+	public static Map<String,List<String>> toOutputMap( Invocation invocation )
+	throws NotDerivableException {
+		
+		Map<String,List<String>> map;
+		
+		if( invocation == null )
+			throw new NullPointerException( "Invocation must not be null." );
+		
+		if( !invocation.isComputed() )
+			throw new RuntimeException(
+				"Cannot journal an invocation that has not been computed." );
+		
+		map = new LinkedHashMap<>();
+		for( String outputName : invocation.getOutputNameList() )
+			map.put(
+				outputName,
+				invocation.getDataList(
+					invocation.getOutputChannel( outputName ) ).asStringList() );
+		
+		return map;
+	}
+	
+	private FileOutputStream getOutputStream() throws IOException {
+		
+		File tmp;
+		
+		if( out == null ) {
+			
+			// create the journal together with its header in one step so that
+			// cooperating processes never append to a journal without header
+			if( !journalFile.exists() ) {
+				
+				tmp = File.createTempFile( JOURNAL_FILENAME, null, journalFile.getAbsoluteFile().getParentFile() );
+				
+				try {
+					
+					try( FileOutputStream header = new FileOutputStream( tmp ) ) {
+						
+						header.write( new byte[] {
+							( byte )( MAGIC >>> 24 ), ( byte )( MAGIC >>> 16 ),
+							( byte )( MAGIC >>> 8 ), ( byte )MAGIC } );
+					}
+					
+					Files.createLink( journalFile.toPath(), tmp.toPath() );
+				}
+				catch( FileAlreadyExistsException e ) {
+					// created by another process
+				}
+				finally {
+					Files.deleteIfExists( tmp.toPath() );
+				}
+			}
+			
+			out = new FileOutputStream( journalFile, true );
+		}
+		
+		return out;
+	}
+	
+	private void replay() throws IOException {
+		
+		long offset;
+		
+		if( !journalFile.exists() )
+			return;
+		
+		if( journalFile.length() < 4 ) {
+			
+			if( !shared )
+				Files.deleteIfExists( journalFile.toPath() );
+			
+			return;
+		}
+		
+		try( DataInputStream in = new DataInputStream( new FileInputStream( journalFile ) ) ) {
+			
+			if( in.readInt() != MAGIC )
+				throw new IOException(
+					"File '"+journalFile.getAbsolutePath()
+					+"' is not a Cuneiform run journal." );
+		}
+		
+		offset = scan( offsetMap );
+		
+		// cut off a record that has been torn by a crash
+		if( offset != OFFSET_UNKNOWN )
+			truncate( offset );
+	}
+	
+	/** Reads the offsets of all records not withdrawn.
+	 * 
+	 * In a shared journal, records not intact are skipped since a
+	 * cooperating process may still be appending them.
+	 * 
+	 * @param map The map from signatures to record offsets to fill.
+	 * @return The offset of the first record not intact in a journal that is
+	 *         not shared, OFFSET_UNKNOWN otherwise.
+	 */
+	private long scan( Map<Long,Long> map ) throws IOException {
+		
+		long offset;
+		
+		offset = scan( map, 4 );
+		
+		if( offset >= journalFile.length() )
+			return OFFSET_UNKNOWN;
+		
+		if( !shared )
+			return offset;
+		
+		while( ( offset = resync( offset+1 ) ) != OFFSET_UNKNOWN )
+			offset = scan( map, offset );
+		
+		return OFFSET_UNKNOWN;
+	}
+	
+	/** Reads records in a single sequential read.
+	 * 
+	 * @param map The map from signatures to record offsets to fill.
+	 * @param offset The offset of the first record.
+	 * @return The offset of the first record not intact or the journal's
+	 *         length.
+	 */
+	private long scan( Map<Long,Long> map, long offset ) throws IOException {
+		
+		int n, nOutput;
+		byte[] head, buf;
+		CRC32 crc;
+		long signature;
+		ByteBuffer headBuf;
+		FileInputStream file;
+		
+		head = new byte[ 12 ];
+		buf = new byte[ BUFFER_SIZE ];
+		file = new FileInputStream( journalFile );
+		
+		try( DataInputStream in = new DataInputStream( new BufferedInputStream( file, BUFFER_SIZE ) ) ) {
+			
+			file.getChannel().position( offset );
+			
+			while( true ) {
+			
+				try {
+					
+					n = in.readInt();
+					
+					if( n < 12 || n > journalFile.length() )
+						break;
+					
+					in.readFully( head );
+					
+					crc = new CRC32();
+					crc.update( head );
+					update( crc, in, n-12, buf );
+					
+					if( in.readLong() != crc.getValue() )
+						break;
+				}
+				catch( EOFException e ) {
+					break;
+				}
+				
+				headBuf = ByteBuffer.wrap( head );
+				signature = headBuf.getLong();
+				nOutput = headBuf.getInt();
+				
+				if( nOutput == TOMBSTONE )
+					map.remove( signature );
+				else
+					map.put( signature, offset );
+				
+				offset += n+12;
+			}
+		}
+		
+		return offset;
+	}
+	
+	/** Looks for the next intact record.
+	 * 
+	 * @param offset The offset to start looking at.
+	 * @return The offset of the next intact record or OFFSET_UNKNOWN if there
+	 *         is none.
+	 */
+	private long resync( long offset ) throws IOException {
+		
+		long length;
+		int n;
+		byte[] buf;
+		CRC32 crc;
+		
+		buf = new byte[ BUFFER_SIZE ];
+		
+		try( RandomAccessFile raf = new RandomAccessFile( journalFile, "r" ) ) {
+			
+			length = raf.length();
+			
+			for( ; offset+24 <= length; offset++ ) {
+				
+				raf.seek( offset );
+				n = raf.readInt();
+				
+				if( n < 12 || offset+n+12 > length )
+					continue;
+				
+				crc = new CRC32();
+				update( crc, raf, n, buf );
+				
+				if( raf.readLong() == crc.getValue() )
+					return offset;
+			}
+		}
+		
+		return OFFSET_UNKNOWN;
+	}
+	
+	/** Scans the journal for the latest record of a signature.
+	 * 
+	 * @return The record's offset or OFFSET_UNKNOWN if there is no intact
+	 *         record.
+	 */
+	private long find( long signature ) throws IOException {
+		
+		Map<Long,Long> map;
+		Long offset;
+		
+		map = new HashMap<>();
+		scan( map );
+		
+		offset = map.get( signature );
+		if( offset == null )
+			return OFFSET_UNKNOWN;
+		
+		return offset;
+	}
+	
+	/** Reads the output bindings of the record at a given offset.
+	 * 
+	 * Lists above the spill threshold are mapped where the record holds
+	 * them instead of being read.
+	 */
+	private Map<String,List<String>> readRecord( long signature, long offset )
+	throws IOException {
+		
+		FileChannel channel;
+		DataInputStream record;
+		Map<String,List<String>> map;
+		List<String> valueList;
+		MappedDataList mappedList;
+		String outputName;
+		byte[] b;
+		long pos;
+		int nOutput, nValue, i, j;
+		
+		if( in == null )
+			in = new RandomAccessFile( journalFile, "r" );
+		
+		channel = in.getChannel();
+		channel.position( offset+4 );
+		record = new DataInputStream( new BufferedInputStream( Channels.newInputStream( channel ), BUFFER_SIZE ) );
+		
+		if( record.readLong() != signature )
+			throw new IOException(
+				"Record of invocation "+signature+" at offset "+offset
+				+" of journal '"+journalFile.getAbsolutePath()+"' is corrupt." );
+		
+		nOutput = record.readInt();
+		map = new LinkedHashMap<>();
+		pos = offset+16;
+		
+		for( i = 0; i < nOutput; i++ ) {
+			
+			b = readBytes( record );
+			outputName = new String( b, UTF8 );
+			nValue = record.readInt();
+			pos += 8+b.length;
+			
+			if( nValue > Invocation.getSpillThreshold() ) {
+				
+				mappedList = MappedDataList.map( journalFile, pos, nValue );
+				map.put( outputName, mappedList.asStringList() );
+				
+				// go on reading behind the mapped values
+				pos = mappedList.getEnd();
+				channel.position( pos );
+				record = new DataInputStream( new BufferedInputStream( Channels.newInputStream( channel ), BUFFER_SIZE ) );
+				continue;
+			}
+			
+			valueList = new ArrayList<>( nValue );
+			
+			for( j = 0; j < nValue; j++ ) {
+				
+				b = readBytes( record );
+				valueList.add( new String( b, UTF8 ) );
+				pos += 4+b.length;
+			}
+			
+			map.put( outputName, valueList );
+		}
+		
+		return map;
+	}
+	
+	private void truncate( long length ) throws IOException {
+		
+		try( RandomAccessFile raf = new RandomAccessFile( journalFile, "rw" ) ) {
+			raf.setLength( length );
+		}
+	}
+
+	private static byte[] readBytes( DataInputStream in ) throws IOException {
+		
+		byte[] b;
+		
+		b = new byte[ in.readInt() ];
+		in.readFully( b );
+		
+		return b;
+	}
+	
+	/** Feeds a given number of bytes to a checksum.
+	 */
+	private static void update( CRC32 crc, DataInput in, long n, byte[] buf ) throws IOException {
+		
+		int k;
+		
+		while( n > 0 ) {
+			
+			k = ( int )Math.min( n, buf.length );
+			in.readFully( buf, 0, k );
+			crc.update( buf, 0, k );
+			n -= k;
+		}
+	}
+	
+	/** Returns the number of bytes a string takes up in UTF-8.
+	 */
+	private static int utf8Length( String s ) {
+		
+		int i, n;
+		char c;
+		
+		n = 0;
+		
+		for( i = 0; i < s.length(); i++ ) {
+			
+			c = s.charAt( i );
+			
+			if( c < 0x80 )
+				n++;
+			else if( c < 0x800 )
+				n += 2;
+			else if( !Character.isSurrogate( c ) )
+				n += 3;
+			else if( Character.isHighSurrogate( c ) && i+1 < s.length() && Character.isLowSurrogate( s.charAt( i+1 ) ) ) {
+				n += 4;
+				i++;
+			}
+			else
+				// the encoder replaces a lone surrogate by '?'
+				n++;
+		}
+		
+		return n;
+	}
+	
+	private static void writeString( DataOutputStream out, String s ) throws IOException {
+		
+		byte[] b;
+		
+		b = s.getBytes( UTF8 );
+		out.writeInt( b.length );
+		out.write( b );
+	}
+}
@@ -0,0 +1,266 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+import de.huberlin.cuneiform.monitor.Probe;
+
+/** A running invocation script together with its output consumers.
+ */
+public class ScriptProcess {
+
+	private Process process;
+	private ExecutorService executor;
+	private StreamConsumer stdoutConsumer;
+	private StreamConsumer errConsumer;
+	private String name;
+	
+	public ScriptProcess( String[] arg, File location ) throws IOException {
+		this( arg, location, null );
+	}
+	
+	/** Starts a script whose output is handed to a listener as it arrives.
+	 * 
+	 * @param arg The command line.
+	 * @param location The working directory.
+	 * @param listener The output listener or null.
+	 */
+	public ScriptProcess( String[] arg, File location, OutputListener listener ) throws IOException {
+		
+		Object span;
+		
+		if( arg == null )
+			throw new NullPointerException( "Argument vector must not be null." );
+		
+		if( location == null )
+			throw new NullPointerException( "Location must not be null." );
+		
+		name = location.getName();
+		span = Probe.begin( Probe.PHASE_SPAWN );
+		
+		process = Runtime.getRuntime().exec( arg, null, location );
+		
+		executor = Executors.newCachedThreadPool();
+		
+		stdoutConsumer = new StreamConsumer(
+			process.getInputStream(), JsonReportEntry.KEY_INVOC_STDOUT, listener );
+		executor.execute( stdoutConsumer );
+		
+		errConsumer = new StreamConsumer(
+			process.getErrorStream(), JsonReportEntry.KEY_INVOC_STDERR, listener );
+		executor.execute( errConsumer );
+		
+		executor.shutdown();
+		
+		Probe.end( span, name );
+	}
+	
+	/** Kills the script.
+	 */
+	public void destroy() {
+		process.destroy();
+	}
+	
+	/** Kills the script together with all processes it started.
+	 * 
+	 * The script runs under /usr/bin/time which does not pass on signals, so
+	 * destroying the process alone leaves the script running. If the process
+	 * id cannot be determined, only the process itself is destroyed.
+	 */
+	public void destroyTree() {
+		
+		long pid;
+		List<Long> pidList;
+		StringBuffer buf;
+		
+		pid = getPid();
+		
+		if( pid > 0 )
+			try {
+				
+				pidList = getDescendantList( pid );
+				
+				if( !pidList.isEmpty() ) {
+					
+					buf = new StringBuffer( "kill -TERM" );
+					for( Long p : pidList )
+						buf.append( ' ' ).append( p );
+					
+					Runtime.getRuntime().exec( buf.toString() ).waitFor();
+				}
+			}
+			catch( IOException e ) {
+				System.err.println( "[script] Could not kill processes started by "+name+": "+e.getMessage() );
+			}
+			catch( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		
+		process.destroy();
+	}
+	
+	/** Returns the ids of all processes descending from a process.
+	 */
+	private static List<Long> getDescendantList( long pid ) throws IOException, InterruptedException {
+		
+		Map<Long,List<Long>> childMap;
+		List<Long> childList, result;
+		Process ps;
+		String line;
+		String[] field;
+		long child, parent;
+		int i;
+		
+		childMap = new HashMap<>();
+		ps = Runtime.getRuntime().exec( new String[] { "ps", "-e", "-o", "pid=", "-o", "ppid=" } );
+		
+		try( BufferedReader reader = new BufferedReader( new InputStreamReader( ps.getInputStream() ) ) ) {
+			
+			while( ( line = reader.readLine() ) != null ) {
+				
+				field = line.trim().split( "\\s+" );
+				if( field.length != 2 )
+					continue;
+				
+				child = Long.parseLong( field[ 0 ] );
+				parent = Long.parseLong( field[ 1 ] );
+				
+				childList = childMap.get( parent );
+				if( childList == null ) {
+					
+					childList = new LinkedList<>();
+					childMap.put( parent, childList );
+				}
+				
+				childList.add( child );
+			}
+		}
+		
+		ps.waitFor();
+		
+		result = new ArrayList<>();
+		childList = childMap.get( pid );
+		if( childList != null )
+			result.addAll( childList );
+		
+		for( i = 0; i < result.size(); i++ ) {
+			
+			childList = childMap.get( result.get( i ) );
+			if( childList != null )
+				result.addAll( childList );
+		}
+		
+		return result;
+	}
+	
+	public String getErrContent() {
+		return errConsumer.getContent();
+	}
+	
+	public String getStdoutContent() {
+		return stdoutConsumer.getContent();
+	}
+	
+	/** Returns the operating system's id of the process or -1 if it cannot
+	 * be determined.
+	 */
+	private long getPid() {
+		
+		Field field;
+		
+		// Process.pid() exists as of Java 9, before that there is a field
+		try {
+			return ( ( Number )Process.class.getMethod( "pid" ).invoke( process ) ).longValue();
+		}
+		catch( ReflectiveOperationException e ) {
+			// fall back to the field
+		}
+		
+		try {
+			
+			field = process.getClass().getDeclaredField( "pid" );
+			field.setAccessible( true );
+			
+			return field.getInt( process );
+		}
+		catch( ReflectiveOperationException | RuntimeException e ) {
+			return -1;
+		}
+	}
+	
+	public boolean isAlive() {
+		
+		try {
+			process.exitValue();
+			return false;
+		}
+		catch( IllegalThreadStateException e ) {
+			return true;
+		}
+	}
+	
+	/** Waits for the script and its output consumers to finish.
+	 * 
+	 * @return The script's exit value.
+	 */
+	public int waitFor() throws InterruptedException {
+		
+		int exitValue;
+		Object span;
+		
+		span = Probe.begin( Probe.PHASE_WAIT );
+		
+		exitValue = process.waitFor();
+		if( !executor.awaitTermination( 4, TimeUnit.SECONDS ) )
+			throw new RuntimeException(
+				"Consumer threads did not finish orderly." );
+		
+		Probe.end( span, name );
+		
+		return exitValue;
+	}
+}
@@ -42,10 +42,24 @@ public class StreamConsumer implements Runnable {
 	private InputStream instream;
 	private boolean corrupt;
 	private StringBuffer buf;
+	private String key;
+	private OutputListener listener;
 	
 	public StreamConsumer( InputStream instream ) {
+		this( instream, null, null );
+	}
+	
+	/** Creates a consumer handing each line to a listener as it arrives.
+	 * 
+	 * @param instream The stream to consume.
+	 * @param key The report key passed on to the listener.
+	 * @param listener The listener or null.
+	 */
+	public StreamConsumer( InputStream instream, String key, OutputListener listener ) {
 		setInputStream( instream );
 		corrupt = false;
+		this.key = key;
+		this.listener = listener;
 	}
 	
 	public String getContent() {
@@ -78,7 +92,11 @@ public class StreamConsumer implements Runnable {
 		try( BufferedReader reader = new BufferedReader( new InputStreamReader( instream ) ) ) {
 			
 			while( ( line = reader.readLine() ) != null ) {
+				
 				buf.append( line ).append( '\n' );
+				
+				if( listener != null )
+					listener.outputLine( key, line );
 			}
 		}
 		catch( IOException e ) {
@@ -0,0 +1,436 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+
+/** Decides where invocation sandboxes live.
+ * 
+ * Without a scratch directory every sandbox is placed in one of the durable
+ * build roots. With a scratch directory, sandboxes are placed on scratch as
+ * long as it has more than the reserved amount of usable space left and
+ * spill to the durable build roots otherwise. Sandboxes holding results
+ * worth keeping are promoted to the build directory asynchronously.
+ * 
+ * The build directory is the first build root. If there are further roots,
+ * e.g., on separate disks, a sandbox goes to the root already holding the
+ * largest share of its stage-in bytes. Ties go to the root with the fewest
+ * sandboxes placed so far.
+ */
+public class TieredStorage {
+	
+	public static final long DEFAULT_SCRATCH_RESERVE = 1L << 30;
+	
+	private static final String SUFFIX_PROMOTE = ".promote";
+	
+	private File buildDir;
+	private List<File> extraRootList;
+	private Map<File,Integer> loadMap;
+	private Map<String,Long> stageOutSizeMap;
+	private File scratchDir;
+	private long scratchReserve;
+	private Map<Long,File> locationMap;
+	private ExecutorService promoter;
+	private List<Future<?>> promotionList;
+
+	public TieredStorage( File buildDir ) {
+		
+		setBuildDir( buildDir );
+		setScratchReserve( DEFAULT_SCRATCH_RESERVE );
+		
+		locationMap = Collections.synchronizedMap( new HashMap<Long,File>() );
+		promotionList = new LinkedList<>();
+		extraRootList = new LinkedList<>();
+		loadMap = new HashMap<>();
+		stageOutSizeMap = Collections.synchronizedMap( new HashMap<String,Long>() );
+	}
+	
+	/** Adds a further durable build root.
+	 * 
+	 * @param root The build root directory.
+	 */
+	public void addRoot( File root ) {
+		
+		if( root == null )
+			throw new NullPointerException( "Build root must not be null." );
+		
+		extraRootList.add( root.getAbsoluteFile() );
+	}
+	
+	/** Records the size of a stage-out file as reported by its producer.
+	 * 
+	 * @param filename The normalized stage-out file name.
+	 * @param size The size in bytes.
+	 */
+	public void addStageOutSize( String filename, long size ) {
+		
+		if( filename == null )
+			throw new NullPointerException( "File name must not be null." );
+		
+		stageOutSizeMap.put( filename, size );
+	}
+	
+	/** Waits for all pending promotions to finish.
+	 * 
+	 * @throws IOException if any of the promotions failed.
+	 */
+	public synchronized void awaitPromotion() throws IOException, InterruptedException {
+		
+		if( promoter == null )
+			return;
+		
+		promoter.shutdown();
+		while( !promoter.awaitTermination( 1, TimeUnit.MINUTES ) )
+			System.err.println( "[storage] Waiting for promotion of results to finish." );
+		
+		promoter = null;
+		
+		try {
+			
+			for( Future<?> f : promotionList )
+				f.get();
+		}
+		catch( ExecutionException e ) {
+			throw new IOException( "Promotion of results failed.", e.getCause() );
+		}
+		finally {
+			promotionList.clear();
+		}
+	}
+	
+	public File getBuildDir() {
+		return buildDir;
+	}
+	
+	/** Returns all durable build roots, the build directory first.
+	 * 
+	 * @return The list of build roots.
+	 */
+	public List<File> getRootList() {
+		
+		List<File> rootList;
+		
+		rootList = new LinkedList<>();
+		rootList.add( buildDir.getAbsoluteFile() );
+		rootList.addAll( extraRootList );
+		
+		return rootList;
+	}
+	
+	public File getScratchDir() {
+		return scratchDir;
+	}
+	
+	public boolean hasScratchDir() {
+		return scratchDir != null;
+	}
+	
+	public boolean isScratch( File location ) {
+		
+		if( location == null )
+			throw new NullPointerException( "Location must not be null." );
+		
+		if( scratchDir == null )
+			return false;
+		
+		return location.getParentFile().equals( scratchDir.getAbsoluteFile() );
+	}
+	
+	/** Returns the sandbox location for an invocation signature.
+	 * 
+	 * Returns the location the sandbox has been placed at or, if it has not
+	 * been placed in this run, the location it exists at in a build root or
+	 * on scratch. Otherwise, the sandbox's location in the build directory is
+	 * returned. Unlike placing, locating a sandbox reserves nothing.
+	 * 
+	 * @param signature The invocation signature.
+	 * @return The sandbox location.
+	 */
+	public File locate( long signature ) {
+		
+		File location;
+		String name;
+		
+		location = locationMap.get( signature );
+		if( location != null )
+			return location;
+		
+		name = String.valueOf( signature );
+		
+		location = find( name );
+		if( location != null )
+			return location;
+		
+		return new File( buildDir.getAbsoluteFile(), name );
+	}
+	
+	/** Returns the sandbox location for an invocation signature, taking the
+	 * invocation's stage-in files into account when choosing a new location.
+	 * 
+	 * @param signature The invocation signature.
+	 * @param stageInList The stage-in file names of the invocation.
+	 * @return The sandbox location.
+	 */
+	public synchronized File place( long signature, List<String> stageInList ) {
+		
+		File location;
+		String name;
+		
+		if( stageInList == null )
+			throw new NullPointerException( "Stage-in list must not be null." );
+		
+		location = locationMap.get( signature );
+		if( location != null )
+			return location;
+		
+		name = String.valueOf( signature );
+		
+		// reuse existing sandboxes
+		location = find( name );
+		
+		// spill to durable storage if scratch fills up
+		if( location == null && scratchDir != null && scratchDir.getUsableSpace() >= scratchReserve )
+			location = new File( scratchDir.getAbsoluteFile(), name );
+		
+		if( location == null )
+			location = new File( chooseRoot( stageInList ), name );
+
+		locationMap.put( signature, location );
+		
+		return location;
+	}
+	
+	/** Copies a scratch sandbox to the durable build directory.
+	 * 
+	 * Only the given files are copied, following symbolic links. The copy is
+	 * assembled in a temporary directory, marked successful, and then moved
+	 * into place. Once the sandbox is durable it is added to the journal.
+	 * 
+	 * @param signature The invocation signature.
+	 * @param fileList The names of the files to copy relative to the sandbox.
+	 * @param outputMap The output bindings to journal.
+	 * @param journal The journal to append to after promotion.
+	 */
+	public synchronized void promote(
+		final long signature, List<String> fileList,
+		final Map<String,List<String>> outputMap, final RunJournal journal ) {
+		
+		final File src;
+		final File dest;
+		final List<String> fl;
+		
+		if( fileList == null )
+			throw new NullPointerException( "File list must not be null." );
+		
+		if( outputMap == null )
+			throw new NullPointerException( "Output map must not be null." );
+		
+		if( journal == null )
+			throw new NullPointerException( "Journal must not be null." );
+		
+		src = locate( signature );
+		if( !isScratch( src ) )
+			throw new RuntimeException(
+				"Only sandboxes on scratch can be promoted." );
+		
+		dest = new File( buildDir.getAbsoluteFile(), String.valueOf( signature ) );
+		fl = new LinkedList<>( fileList );
+		
+		if( promoter == null )
+			promoter = Executors.newSingleThreadExecutor();
+		
+		promotionList.add( promoter.submit( new Runnable() {
+
+			@Override
+			public void run() {
+				
+				File tmp;
+				
+				tmp = new File( dest.getAbsolutePath()+SUFFIX_PROMOTE );
+				
+				try {
+					
+					if( tmp.exists() )
+						FileUtils.deleteDirectory( tmp );
+					
+					if( !tmp.mkdirs() )
+						throw new IOException(
+							"Could not create promotion directory '"
+							+tmp.getAbsolutePath()+"'." );
+					
+					for( String filename : fl )
+						Files.copy(
+							new File( src, filename ).toPath(),
+							new File( tmp, filename ).toPath(),
+							StandardCopyOption.REPLACE_EXISTING );
+					
+					if( !new File( tmp, LocalDispatcher.SUCCESS_FILENAME ).createNewFile() )
+						throw new IOException( "Could not create success marker." );
+					
+					if( dest.exists() )
+						FileUtils.deleteDirectory( dest );
+					
+					Files.move( tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE );
+					
+					journal.append( signature, outputMap );
+				}
+				catch( IOException e ) {
+					throw new RuntimeException( e );
+				}
+			}
+		} ) );
+	}
+	
+	/** Chooses the build root holding the largest share of stage-in bytes.
+	 */
+	private File chooseRoot( List<String> stageInList ) {
+		
+		Map<File,Long> byteMap;
+		File producerLocation, best;
+		Long size, bytes;
+		Integer load;
+		long bestBytes;
+		int bestLoad;
+		
+		byteMap = new HashMap<>();
+		
+		if( !extraRootList.isEmpty() )
+			for( String filename : stageInList ) {
+				
+				if( filename.charAt( 0 ) == '/' || filename.indexOf( '_' ) < 0 )
+					continue;
+				
+				try {
+					producerLocation = locate( Long.parseLong( filename.substring( 0, filename.indexOf( '_' ) ) ) );
+				}
+				catch( NumberFormatException e ) {
+					// workflow inputs are not produced by any invocation
+					continue;
+				}
+				
+				size = stageOutSizeMap.get( filename );
+				if( size == null )
+					size = new File( producerLocation, filename ).length();
+				
+				bytes = byteMap.get( producerLocation.getParentFile() );
+				byteMap.put( producerLocation.getParentFile(), bytes == null ? size : bytes+size );
+			}
+		
+		best = null;
+		bestBytes = 0;
+		bestLoad = 0;
+		
+		for( File root : getRootList() ) {
+			
+			bytes = byteMap.get( root );
+			if( bytes == null )
+				bytes = 0L;
+			
+			load = loadMap.get( root );
+			if( load == null )
+				load = 0;
+			
+			if( best == null || bytes > bestBytes || ( bytes == bestBytes && load < bestLoad ) ) {
+				
+				best = root;
+				bestBytes = bytes;
+				bestLoad = load;
+			}
+		}
+		
+		loadMap.put( best, bestLoad+1 );
+		
+		return best;
+	}
+	
+	/** Looks for an existing sandbox in the build roots and on scratch.
+	 * 
+	 * @param name The sandbox's name.
+	 * @return The sandbox location or null if there is none.
+	 */
+	private File find( String name ) {
+		
+		File location;
+		
+		for( File root : getRootList() ) {
+			
+			location = new File( root, name );
+			if( location.exists() )
+				return location;
+		}
+		
+		if( scratchDir != null ) {
+			
+			location = new File( scratchDir.getAbsoluteFile(), name );
+			if( location.exists() )
+				return location;
+		}
+		
+		return null;
+	}
+	
+	public void setBuildDir( File buildDir ) {
+		
+		if( buildDir == null )
+			throw new NullPointerException( "Build directory must not be null." );
+		
+		this.buildDir = buildDir;
+	}
+	
+	public void setScratchDir( File scratchDir ) {
+		this.scratchDir = scratchDir;
+	}
+	
+	public void setScratchReserve( long scratchReserve ) {
+		
+		if( scratchReserve < 0 )
+			throw new RuntimeException( "Scratch reserve must not be negative." );
+		
+		this.scratchReserve = scratchReserve;
+	}
+}
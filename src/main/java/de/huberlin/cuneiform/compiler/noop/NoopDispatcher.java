@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.noop;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONException;
+
+import de.huberlin.cuneiform.dag.ExecDag;
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** Completes invocations instantly without running them.
+ * 
+ * Every output of a ready invocation is bound to the file name a real run
+ * would produce. Nothing is forked and nothing is written, so a run
+ * measures the overhead of the engine alone. After the run, the number of
+ * invocations per second and the heap retained per invocation are printed.
+ */
+public class NoopDispatcher extends ExecDag {
+	
+	public NoopDispatcher() {}
+	
+	public NoopDispatcher( String dagid ) {
+		super( dagid );
+	}
+	
+	/** Completes all invocations of the workflow.
+	 * 
+	 * @return The number of invocations completed.
+	 */
+	public int drain() throws NotDerivableException, JSONException {
+		
+		Set<Invocation> invocationSet;
+		int n;
+		
+		n = 0;
+		
+		while( !( invocationSet = getReadyInvocationSet() ).isEmpty() )
+			for( Invocation invocation : invocationSet ) {
+				
+				complete( invocation );
+				n++;
+			}
+		
+		return n;
+	}
+	
+	public void run() throws NotDerivableException, JSONException {
+		
+		long heapBefore, heapAfter;
+		long start, elapsed;
+		int n;
+		
+		heapBefore = getUsedHeap();
+		start = System.nanoTime();
+		
+		n = drain();
+		
+		elapsed = System.nanoTime()-start;
+		heapAfter = getUsedHeap();
+		
+		System.out.println( "[noop] Invocations:             "+n );
+		System.out.println( "[noop] Time:                    "+( elapsed/1000000 )+" ms" );
+		
+		if( n > 0 ) {
+			
+			System.out.println( "[noop] Invocations per second:  "+String.format( "%.1f", n*1e9/elapsed ) );
+			System.out.println( "[noop] Heap per invocation:     "+( ( heapAfter-heapBefore )/n )+" bytes" );
+		}
+		
+		System.out.println( "[noop] Heap retained:           "+( heapAfter/1024 )+" KiB" );
+	}
+	
+	/** Binds each output of an invocation to the normalized file name of its
+	 * default value.
+	 * 
+	 * The outputs are bound the way a dispatcher binds a report, so the
+	 * invocation releases its input bindings just like after a real run.
+	 */
+	protected static void complete( Invocation invocation ) throws NotDerivableException, JSONException {
+		
+		Map<String,List<String>> outputMap;
+		
+		outputMap = new HashMap<>();
+		
+		for( String outputName : invocation.getOutputNameList() )
+			outputMap.put(
+				outputName,
+				Collections.singletonList(
+					invocation.getSignature()+"_"
+					+invocation.getOutputChannel( outputName )+"_"
+					+outputName ) );
+		
+		invocation.evalOutputMap( outputMap );
+	}
+	
+	private static long getUsedHeap() {
+		
+		Runtime runtime;
+		
+		runtime = Runtime.getRuntime();
+		
+		System.gc();
+		
+		return runtime.totalMemory()-runtime.freeMemory();
+	}
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.remote;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** A line-based JSON connection between master and worker.
+ * 
+ * Every message is a single JSON object on its own line. Its "op" attribute
+ * tells what the message is about.
+ */
+public class RemoteConnection implements Closeable {
+	
+	public static final String OP_HELLO = "hello";
+	public static final String OP_HEARTBEAT = "heartbeat";
+	public static final String OP_RUN = "run";
+	public static final String OP_ENTRY = "entry";
+	public static final String OP_DONE = "done";
+	public static final String OP_FAILED = "failed";
+	public static final String OP_SHUTDOWN = "shutdown";
+	
+	public static final String ATT_OP = "op";
+	public static final String ATT_WORKER = "worker";
+	public static final String ATT_SLOTS = "slots";
+	public static final String ATT_SIGNATURE = "signature";
+	public static final String ATT_LOCATION = "location";
+	public static final String ATT_INVOCATION = "invocation";
+	public static final String ATT_ENTRY = "entry";
+	public static final String ATT_MESSAGE = "message";
+	public static final String ATT_TOKEN = "token";
+	
+	private static final int TOKEN_LENGTH = 16;
+	
+	private Socket socket;
+	private BufferedReader reader;
+	private BufferedWriter writer;
+	
+	public RemoteConnection( Socket socket ) throws IOException {
+		
+		if( socket == null )
+			throw new NullPointerException( "Socket must not be null." );
+		
+		this.socket = socket;
+		
+		socket.setTcpNoDelay( true );
+		reader = new BufferedReader( new InputStreamReader( socket.getInputStream(), "UTF-8" ) );
+		writer = new BufferedWriter( new OutputStreamWriter( socket.getOutputStream(), "UTF-8" ) );
+	}
+	
+	@Override
+	public void close() throws IOException {
+		socket.close();
+	}
+	
+	public String getRemoteName() {
+		return socket.getRemoteSocketAddress().toString();
+	}
+	
+	/** Waits for the next message.
+	 * 
+	 * @return The message or null if the connection has been closed.
+	 */
+	public JSONObject receive() throws IOException, JSONException {
+		
+		String line;
+		
+		line = reader.readLine();
+		
+		if( line == null )
+			return null;
+		
+		return new JSONObject( line );
+	}
+	
+	public synchronized void send( JSONObject msg ) throws IOException {
+		
+		if( msg == null )
+			throw new NullPointerException( "Message must not be null." );
+		
+		writer.write( msg.toString() );
+		writer.write( '\n' );
+		writer.flush();
+	}
+	
+	public void send( String op ) throws IOException, JSONException {
+		send( createMessage( op ) );
+	}
+	
+	public static JSONObject createMessage( String op ) throws JSONException {
+		
+		JSONObject msg;
+		
+		if( op == null )
+			throw new NullPointerException( "Operation must not be null." );
+		
+		msg = new JSONObject();
+		msg.put( ATT_OP, op );
+		
+		return msg;
+	}
+	
+	/** Creates a random token and writes it to a file only the owner can read.
+	 * 
+	 * @param tokenFile The token file. An existing file is replaced.
+	 * @return The token.
+	 */
+	public static String createToken( File tokenFile ) throws IOException {
+		
+		byte[] b;
+		StringBuffer buf;
+		
+		if( tokenFile == null )
+			throw new NullPointerException( "Token file must not be null." );
+		
+		b = new byte[ TOKEN_LENGTH ];
+		new SecureRandom().nextBytes( b );
+		
+		buf = new StringBuffer();
+		for( byte x : b )
+			buf.append( String.format( "%02x", x ) );
+		
+		if( !tokenFile.getAbsoluteFile().getParentFile().exists()
+			&& !tokenFile.getAbsoluteFile().getParentFile().mkdirs() )
+			throw new IOException( "Could not create directory '"+tokenFile.getAbsoluteFile().getParent()+"'." );
+		
+		Files.deleteIfExists( tokenFile.toPath() );
+		
+		// restrict access before the token is written
+		if( !tokenFile.createNewFile()
+			|| !tokenFile.setReadable( false, false ) || !tokenFile.setReadable( true, true )
+			|| !tokenFile.setWritable( false, false ) || !tokenFile.setWritable( true, true ) )
+			throw new IOException( "Could not create token file '"+tokenFile.getAbsolutePath()+"'." );
+		
+		try( OutputStream os = new FileOutputStream( tokenFile ) ) {
+			os.write( buf.toString().getBytes( StandardCharsets.UTF_8 ) );
+		}
+		
+		return buf.toString();
+	}
+	
+	public static String readToken( File tokenFile ) throws IOException {
+		
+		if( tokenFile == null )
+			throw new NullPointerException( "Token file must not be null." );
+		
+		return new String( Files.readAllBytes( tokenFile.toPath() ), StandardCharsets.UTF_8 ).trim();
+	}
+}
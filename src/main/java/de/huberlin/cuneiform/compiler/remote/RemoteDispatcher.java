@@ -0,0 +1,716 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.huberlin.cuneiform.compiler.local.LocalDispatcher;
+import de.huberlin.cuneiform.compiler.local.PreparedInvocation;
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** A master handing ready invocations to worker daemons over TCP.
+ * 
+ * Workers connect to the master and announce how many invocations they run
+ * at once. The master sends each ready invocation as a prepared script with
+ * its stage-in manifest to the least loaded worker and binds its outputs
+ * once the worker reports back. The build directory must be shared between
+ * master and workers under the same path. A worker whose heartbeat stays
+ * away or whose connection breaks is dropped, and the invocations it was
+ * running are dispatched again. Every dispatch runs in a fresh attempt
+ * directory, which is moved to the sandbox location once the worker reports
+ * back, so a dropped worker still running cannot spoil the sandbox.
+ * 
+ * The master listens on the loopback address unless told otherwise. On
+ * start, it writes a random token to the build directory, readable only by
+ * its owner. Workers have to present the token when they join.
+ * 
+ * Streamed outputs are not connected through pipes across machines. They
+ * end up in regular files.
+ */
+public class RemoteDispatcher extends LocalDispatcher {
+	
+	public static final int DEFAULT_PORT = 4177;
+	public static final long HEARTBEAT_TIMEOUT = 5*RemoteWorker.HEARTBEAT_INTERVAL;
+	public static final String TOKEN_FILENAME = "__token__";
+	private static final String ATTEMPT_SUFFIX = ".attempt";
+	private static final long POLL_INTERVAL = 1000;
+	private static final int BACKLOG = 16;
+	
+	private int port;
+	private InetAddress bindAddress;
+	private long heartbeatTimeout;
+	private int nLocalWorker;
+	private int nLocalSlot;
+	private volatile ServerSocket serverSocket;
+	private String token;
+	private BlockingQueue<Message> messageQueue;
+	private List<WorkerHandle> workerList;
+	private Map<Long,WorkerHandle> inFlightMap;
+	private Map<Long,File> attemptMap;
+	private List<File> staleList;
+	private int nAttempt;
+	
+	public RemoteDispatcher( File buildDir, File logFile, String dagid ) {
+		
+		super( buildDir, logFile, dagid );
+		
+		port = DEFAULT_PORT;
+		bindAddress = InetAddress.getLoopbackAddress();
+		heartbeatTimeout = HEARTBEAT_TIMEOUT;
+		nLocalSlot = 1;
+		messageQueue = new LinkedBlockingQueue<>();
+		workerList = new LinkedList<>();
+		inFlightMap = new HashMap<>();
+		attemptMap = new HashMap<>();
+		staleList = new LinkedList<>();
+	}
+	
+	/** Returns the port the master listens on.
+	 * 
+	 * If the port has been set to 0, the actual port is known only after
+	 * the run has started.
+	 */
+	public int getPort() {
+		
+		if( serverSocket != null )
+			return serverSocket.getLocalPort();
+		
+		return port;
+	}
+	
+	@Override
+	public void run()
+	throws IOException, InterruptedException, NotDerivableException, JSONException {
+		
+		List<RemoteWorker> localWorkerList;
+		RemoteWorker localWorker;
+		File tokenFile;
+		Thread acceptor;
+		boolean waiting;
+		boolean progress;
+		Set<Invocation> readySet;
+		List<Message> messageList;
+		Message message;
+		int i;
+		
+		openRun();
+		
+		tokenFile = new File( getBuildDir().getAbsoluteFile(), TOKEN_FILENAME );
+		serverSocket = null;
+		localWorkerList = new LinkedList<>();
+		messageList = new LinkedList<>();
+		
+		try {
+			
+			token = RemoteConnection.createToken( tokenFile );
+			serverSocket = new ServerSocket( port, BACKLOG, bindAddress );
+			
+			acceptor = new Thread( new Runnable() {
+				
+				@Override
+				public void run() {
+					accept();
+				}
+			} );
+			acceptor.setDaemon( true );
+			acceptor.start();
+			
+			// start in-process workers on the local host
+			for( i = 0; i < nLocalWorker; i++ ) {
+				
+				localWorker = new RemoteWorker(
+					bindAddress.isAnyLocalAddress() ? "localhost" : bindAddress.getHostAddress(),
+					getPort(), nLocalSlot );
+				localWorker.setToken( token );
+				localWorkerList.add( localWorker );
+				new Thread( localWorker ).start();
+			}
+			
+			waiting = false;
+			
+			while( true ) {
+				
+				do {
+					readySet = getReadyInvocationSet();
+					progress = dispatchReady( readySet );
+				} while( progress );
+				
+				if( inFlightMap.isEmpty() && readySet.isEmpty() )
+					break;
+				
+				if( workerList.isEmpty() && !waiting ) {
+					
+					System.err.println( "[remote] Waiting for workers on port "+getPort()+"." );
+					waiting = true;
+				}
+				
+				message = messageQueue.poll( POLL_INTERVAL, TimeUnit.MILLISECONDS );
+				if( message != null ) {
+					
+					// handle everything that has arrived before looking for
+					// ready invocations again
+					messageList.add( message );
+					messageQueue.drainTo( messageList );
+					
+					for( Message m : messageList )
+						handle( m );
+					
+					messageList.clear();
+					waiting = false;
+				}
+				
+				checkHeartbeat();
+			}
+		}
+		finally {
+			
+			for( WorkerHandle worker : workerList )
+				try {
+					worker.getConnection().send( RemoteConnection.OP_SHUTDOWN );
+					worker.getConnection().close();
+				}
+				catch( IOException e ) {
+					// worker is gone anyway
+				}
+			
+			for( RemoteWorker worker : localWorkerList )
+				worker.shutdown();
+			
+			if( serverSocket != null )
+				serverSocket.close();
+			
+			if( !tokenFile.delete() )
+				tokenFile.deleteOnExit();
+			
+			// attempts of dropped workers and of unfinished invocations
+			staleList.addAll( attemptMap.values() );
+			attemptMap.clear();
+			for( File attempt : staleList )
+				FileUtils.deleteQuietly( attempt );
+			staleList.clear();
+			
+			closeRun();
+		}
+	}
+	
+	/** Sets the address the master listens on for workers.
+	 * 
+	 * @param bindAddress The address. The wildcard address accepts workers
+	 *                    on all interfaces.
+	 */
+	public void setBindAddress( InetAddress bindAddress ) {
+		
+		if( bindAddress == null )
+			throw new NullPointerException( "Bind address must not be null." );
+		
+		this.bindAddress = bindAddress;
+	}
+	
+	/** Sets how long a worker may stay silent before it is dropped.
+	 * 
+	 * @param heartbeatTimeout The timeout in milliseconds.
+	 */
+	public void setHeartbeatTimeout( long heartbeatTimeout ) {
+		
+		if( heartbeatTimeout <= 0 )
+			throw new RuntimeException( "Heartbeat timeout must be a positive number." );
+		
+		this.heartbeatTimeout = heartbeatTimeout;
+	}
+	
+	/** Sets the number of workers to start within this process.
+	 * 
+	 * In-process workers connect to the master via the local host. They are
+	 * meant for testing the master/worker protocol on a single machine.
+	 * 
+	 * @param nLocalWorker The number of local workers.
+	 * @param nLocalSlot The number of invocations each local worker runs at
+	 *                   once.
+	 */
+	public void setLocalWorker( int nLocalWorker, int nLocalSlot ) {
+		
+		if( nLocalWorker < 0 )
+			throw new RuntimeException( "Number of local workers must not be negative." );
+		
+		if( nLocalSlot <= 0 )
+			throw new RuntimeException( "Number of slots must be a positive number." );
+		
+		this.nLocalWorker = nLocalWorker;
+		this.nLocalSlot = nLocalSlot;
+	}
+	
+	public void setPort( int port ) {
+		
+		if( port < 0 )
+			throw new RuntimeException( "Port must not be negative." );
+		
+		this.port = port;
+	}
+	
+	private void accept() {
+		
+		Socket socket;
+		
+		try {
+			
+			while( true ) {
+				
+				socket = serverSocket.accept();
+				listen( new WorkerHandle( new RemoteConnection( socket ) ) );
+			}
+		}
+		catch( SocketException e ) {
+			// server socket has been closed
+		}
+		catch( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Forwards all messages of a worker to the master's message queue.
+	 * 
+	 * A worker counts as alive as soon as a message arrives, however long
+	 * the message then waits in the queue.
+	 */
+	private void listen( final WorkerHandle worker ) {
+		
+		Thread listener;
+		
+		listener = new Thread( new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				JSONObject obj;
+				
+				try {
+					
+					while( ( obj = worker.getConnection().receive() ) != null ) {
+						
+						worker.touch();
+						messageQueue.add( new Message( worker, obj ) );
+					}
+				}
+				catch( IOException|JSONException e ) {
+					// treated like a closed connection
+				}
+				
+				messageQueue.add( new Message( worker, null ) );
+			}
+		} );
+		
+		listener.setDaemon( true );
+		listener.start();
+	}
+	
+	/** Sends ready invocations to workers with free slots.
+	 * 
+	 * @param readySet The invocations ready to run.
+	 * @return True if any invocation has been completed without a worker.
+	 */
+	private boolean dispatchReady( Set<Invocation> readySet )
+	throws IOException, NotDerivableException, JSONException {
+		
+		Set<JsonReportEntry> report;
+		File location;
+		File attempt;
+		WorkerHandle worker;
+		JSONObject msg;
+		boolean progress;
+		long signature;
+		Invocation leader;
+		
+		progress = false;
+		
+		for( Invocation invocation : readySet ) {
+			
+			signature = invocation.getSignature();
+			
+			// an identical invocation has been dispatched in this run
+			leader = getLeader( invocation );
+			if( leader != null ) {
+				
+				if( leader.isComputed() ) {
+					
+					evalReport( follow( invocation, leader ) );
+					progress = true;
+				}
+				
+				continue;
+			}
+			
+			if( inFlightMap.containsKey( signature ) )
+				continue;
+			
+			// bind outputs right away if the invocation has been journaled
+			report = readJournal( invocation );
+			if( report != null ) {
+				
+				getMonitor().addCacheHit();
+				getMonitor().addCompleted();
+				evalReport( report );
+				progress = true;
+				continue;
+			}
+			
+			location = getStorage().place( signature, invocation.getStageInList() );
+			
+			if( new File( location, SUCCESS_FILENAME ).exists() ) {
+				
+				getMonitor().addCacheHit();
+				evalReport( complete( invocation, location, PreparedInvocation.readReport( location ) ) );
+				progress = true;
+				continue;
+			}
+			
+			worker = getLeastLoadedWorker();
+			if( worker == null )
+				break;
+			
+			attempt = new File( location.getAbsolutePath()+ATTEMPT_SUFFIX+( ++nAttempt ) );
+			
+			msg = RemoteConnection.createMessage( RemoteConnection.OP_RUN );
+			msg.put( RemoteConnection.ATT_LOCATION, attempt.getAbsolutePath() );
+			msg.put( RemoteConnection.ATT_INVOCATION, prepare( invocation ).toJsonObject() );
+			
+			try {
+				worker.getConnection().send( msg );
+			}
+			catch( IOException e ) {
+				
+				drop( worker );
+				continue;
+			}
+			
+			worker.addInvocation( invocation );
+			inFlightMap.put( signature, worker );
+			attemptMap.put( signature, attempt );
+			getMonitor().noteSpawn( signature );
+		}
+		
+		if( progress )
+			collect();
+		
+		return progress;
+	}
+	
+	private void checkHeartbeat() throws IOException {
+		
+		long now;
+		
+		now = System.currentTimeMillis();
+		
+		for( WorkerHandle worker : new LinkedList<>( workerList ) )
+			if( now-worker.getLastSeen() > heartbeatTimeout ) {
+				
+				System.err.println( "[remote] No heartbeat from worker "+worker.getName()+"." );
+				drop( worker );
+			}
+	}
+	
+	/** Removes a worker and makes its invocations available for dispatch.
+	 */
+	private void drop( WorkerHandle worker ) {
+		
+		if( !workerList.remove( worker ) )
+			return;
+		
+		try {
+			worker.getConnection().close();
+		}
+		catch( IOException e ) {
+			// already closed
+		}
+		
+		for( Long signature : worker.getSignatureSet() ) {
+			
+			inFlightMap.remove( signature );
+			getMonitor().noteExit();
+			
+			// the worker may still be writing into its attempt directory
+			staleList.add( attemptMap.remove( signature ) );
+		}
+		
+		System.err.println(
+			"[remote] Lost worker "+worker.getName()+". Re-dispatching "
+			+worker.getSignatureSet().size()+" invocation(s)." );
+		
+		worker.clear();
+	}
+	
+	private WorkerHandle getLeastLoadedWorker() {
+		
+		WorkerHandle best;
+		
+		best = null;
+		
+		for( WorkerHandle worker : workerList ) {
+			
+			if( worker.getLoad() >= worker.getSlots() )
+				continue;
+			
+			if( best == null || worker.getLoad()*best.getSlots() < best.getLoad()*worker.getSlots() )
+				best = worker;
+		}
+		
+		return best;
+	}
+	
+	private void handle( Message message )
+	throws IOException, NotDerivableException, JSONException {
+		
+		WorkerHandle worker;
+		JSONObject obj;
+		String op;
+		long signature;
+		Invocation invocation;
+		Set<JsonReportEntry> report;
+		File location;
+		
+		worker = message.getWorker();
+		obj = message.getContent();
+		
+		if( obj == null ) {
+			
+			drop( worker );
+			return;
+		}
+		
+		op = obj.getString( RemoteConnection.ATT_OP );
+		
+		if( op.equals( RemoteConnection.OP_HELLO ) ) {
+			
+			if( !token.equals( obj.optString( RemoteConnection.ATT_TOKEN ) ) ) {
+				
+				System.err.println( "[remote] Rejected worker "+worker.getName()+". Invalid token." );
+				worker.getConnection().close();
+				return;
+			}
+			
+			worker.setName( obj.getString( RemoteConnection.ATT_WORKER )+" ("+worker.getConnection().getRemoteName()+")" );
+			worker.setSlots( obj.getInt( RemoteConnection.ATT_SLOTS ) );
+			workerList.add( worker );
+			
+			System.err.println( "[remote] Worker "+worker.getName()+" joined with "+worker.getSlots()+" slot(s)." );
+			return;
+		}
+		
+		// ignore late messages from dropped workers
+		if( !workerList.contains( worker ) )
+			return;
+		
+		if( op.equals( RemoteConnection.OP_HEARTBEAT ) )
+			return;
+		
+		signature = obj.getLong( RemoteConnection.ATT_SIGNATURE );
+		
+		if( op.equals( RemoteConnection.OP_ENTRY ) ) {
+			
+			worker.addEntry( signature, new JsonReportEntry( obj.getString( RemoteConnection.ATT_ENTRY ) ) );
+			return;
+		}
+		
+		if( op.equals( RemoteConnection.OP_DONE ) ) {
+			
+			invocation = worker.getInvocation( signature );
+			report = worker.removeInvocation( signature );
+			inFlightMap.remove( signature );
+			getMonitor().noteExit();
+			
+			location = getStorage().locate( signature );
+			promote( attemptMap.remove( signature ), location );
+			
+			evalReport( complete( invocation, location, report ) );
+			collect();
+			return;
+		}
+		
+		if( op.equals( RemoteConnection.OP_FAILED ) )
+			throw new RuntimeException(
+				"Invocation with signature "+signature+" failed on worker "
+				+worker.getName()+": "+obj.getString( RemoteConnection.ATT_MESSAGE ) );
+		
+		throw new RuntimeException( "Operation '"+op+"' not recognized." );
+	}
+	
+	/** Moves a finished attempt directory to the invocation's sandbox location.
+	 */
+	private static void promote( File attempt, File location ) throws IOException {
+		
+		if( location.exists() )
+			FileUtils.deleteDirectory( location );
+		
+		Files.move( attempt.toPath(), location.toPath(), StandardCopyOption.ATOMIC_MOVE );
+	}
+	
+	private static class Message {
+		
+		private WorkerHandle worker;
+		private JSONObject content;
+		
+		public Message( WorkerHandle worker, JSONObject content ) {
+			this.worker = worker;
+			this.content = content;
+		}
+		
+		public JSONObject getContent() {
+			return content;
+		}
+		
+		public WorkerHandle getWorker() {
+			return worker;
+		}
+	}
+	
+	/** The master's view of a connected worker.
+	 */
+	private static class WorkerHandle {
+		
+		private RemoteConnection connection;
+		private String name;
+		private int slots;
+		private volatile long lastSeen;
+		private Map<Long,Invocation> invocationMap;
+		private Map<Long,Set<JsonReportEntry>> reportMap;
+		
+		public WorkerHandle( RemoteConnection connection ) {
+			
+			this.connection = connection;
+			name = connection.getRemoteName();
+			invocationMap = new HashMap<>();
+			reportMap = new HashMap<>();
+			
+			touch();
+		}
+		
+		public void addEntry( long signature, JsonReportEntry entry ) {
+			
+			if( !reportMap.containsKey( signature ) )
+				throw new RuntimeException(
+					"Report entry for unknown invocation "+signature+"." );
+			
+			reportMap.get( signature ).add( entry );
+		}
+		
+		public void addInvocation( Invocation invocation ) throws NotDerivableException {
+			
+			invocationMap.put( invocation.getSignature(), invocation );
+			reportMap.put( invocation.getSignature(), new HashSet<JsonReportEntry>() );
+		}
+		
+		public void clear() {
+			invocationMap.clear();
+			reportMap.clear();
+		}
+		
+		public RemoteConnection getConnection() {
+			return connection;
+		}
+		
+		public Invocation getInvocation( long signature ) {
+			
+			Invocation invocation;
+			
+			invocation = invocationMap.get( signature );
+			if( invocation == null )
+				throw new RuntimeException(
+					"Worker "+name+" reported unknown invocation "+signature+"." );
+			
+			return invocation;
+		}
+		
+		public long getLastSeen() {
+			return lastSeen;
+		}
+		
+		public int getLoad() {
+			return invocationMap.size();
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public Set<Long> getSignatureSet() {
+			return new HashSet<>( invocationMap.keySet() );
+		}
+		
+		public int getSlots() {
+			return slots;
+		}
+		
+		public Set<JsonReportEntry> removeInvocation( long signature ) {
+			
+			invocationMap.remove( signature );
+			return reportMap.remove( signature );
+		}
+		
+		public void setName( String name ) {
+			this.name = name;
+		}
+		
+		public void setSlots( int slots ) {
+			
+			if( slots <= 0 )
+				throw new RuntimeException( "Number of slots must be a positive number." );
+			
+			this.slots = slots;
+		}
+		
+		public void touch() {
+			lastSeen = System.currentTimeMillis();
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.remote;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.huberlin.cuneiform.compiler.local.PreparedInvocation;
+import de.huberlin.cuneiform.compiler.local.ScriptProcess;
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+
+/** A worker daemon executing invocations on behalf of a remote master.
+ * 
+ * The worker connects to the master, announces the number of invocations it
+ * runs at once, and sends heartbeats while connected. Invocations arrive as
+ * prepared scripts with stage-in manifests and are run in their sandbox
+ * exactly like the local platform does. The sandbox location must be
+ * accessible under the same path on master and worker. Report entries are
+ * streamed back one by one, followed by a completion message. When the
+ * connection is lost, all running scripts are killed.
+ * 
+ * To join, the worker presents the token the master has written to the
+ * shared build directory.
+ */
+public class RemoteWorker implements Runnable {
+	
+	public static final long HEARTBEAT_INTERVAL = 2000;
+	private static final long CONNECT_RETRY_INTERVAL = 1000;
+	
+	private String host;
+	private int port;
+	private int nSlot;
+	private String token;
+	private File tokenFile;
+	private RemoteConnection connection;
+	private Set<ScriptProcess> processSet;
+	private volatile boolean shutdown;
+	
+	public RemoteWorker( String host, int port, int nSlot ) {
+		
+		if( host == null )
+			throw new NullPointerException( "Host must not be null." );
+		
+		if( port <= 0 )
+			throw new RuntimeException( "Port must be a positive number." );
+		
+		if( nSlot <= 0 )
+			throw new RuntimeException( "Number of slots must be a positive number." );
+		
+		this.host = host;
+		this.port = port;
+		this.nSlot = nSlot;
+		
+		processSet = Collections.synchronizedSet( new HashSet<ScriptProcess>() );
+	}
+	
+	@Override
+	public void run() {
+		
+		ExecutorService executor;
+		Thread heartbeat;
+		JSONObject msg;
+		String op;
+		
+		if( token == null && tokenFile == null )
+			throw new RuntimeException( "A worker needs the master's token." );
+		
+		try {
+			
+			connection = connect();
+			
+			// the master writes its token before it starts listening
+			if( token == null )
+				token = RemoteConnection.readToken( tokenFile );
+			
+			msg = RemoteConnection.createMessage( RemoteConnection.OP_HELLO );
+			msg.put( RemoteConnection.ATT_WORKER, InetAddress.getLocalHost().getHostName() );
+			msg.put( RemoteConnection.ATT_SLOTS, nSlot );
+			msg.put( RemoteConnection.ATT_TOKEN, token );
+			connection.send( msg );
+		}
+		catch( IOException|JSONException|InterruptedException e ) {
+			throw new RuntimeException( e );
+		}
+		
+		executor = Executors.newFixedThreadPool( nSlot );
+		heartbeat = new Thread( new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				try {
+					
+					while( !shutdown ) {
+						
+						connection.send( RemoteConnection.OP_HEARTBEAT );
+						Thread.sleep( HEARTBEAT_INTERVAL );
+					}
+				}
+				catch( IOException|JSONException|InterruptedException e ) {
+					// connection is gone
+				}
+			}
+		} );
+		heartbeat.setDaemon( true );
+		heartbeat.start();
+		
+		try {
+			
+			while( ( msg = connection.receive() ) != null ) {
+				
+				op = msg.getString( RemoteConnection.ATT_OP );
+				
+				if( op.equals( RemoteConnection.OP_SHUTDOWN ) )
+					break;
+				
+				if( op.equals( RemoteConnection.OP_RUN ) ) {
+					
+					executor.execute( createTask(
+						new PreparedInvocation( msg.getJSONObject( RemoteConnection.ATT_INVOCATION ) ),
+						new File( msg.getString( RemoteConnection.ATT_LOCATION ) ) ) );
+					
+					continue;
+				}
+				
+				throw new RuntimeException( "Operation '"+op+"' not recognized." );
+			}
+		}
+		catch( IOException|JSONException e ) {
+			
+			if( !shutdown )
+				System.err.println( "[worker] Connection to master lost: "+e.getMessage() );
+		}
+		finally {
+			
+			shutdown();
+			executor.shutdownNow();
+		}
+	}
+	
+	public void setToken( String token ) {
+		
+		if( token == null )
+			throw new NullPointerException( "Token must not be null." );
+		
+		this.token = token;
+	}
+	
+	/** Sets the file the worker reads the master's token from once connected.
+	 * 
+	 * @param tokenFile The token file in the shared build directory.
+	 */
+	public void setTokenFile( File tokenFile ) {
+		
+		if( tokenFile == null )
+			throw new NullPointerException( "Token file must not be null." );
+		
+		this.tokenFile = tokenFile;
+	}
+	
+	/** Stops the worker and kills all running scripts.
+	 */
+	public void shutdown() {
+		
+		shutdown = true;
+		
+		synchronized( processSet ) {
+			
+			for( ScriptProcess process : processSet )
+				process.destroy();
+		}
+		
+		try {
+			
+			if( connection != null )
+				connection.close();
+		}
+		catch( IOException e ) {
+			// already closed
+		}
+	}
+	
+	private RemoteConnection connect() throws IOException, InterruptedException {
+		
+		boolean waiting;
+		
+		waiting = false;
+		
+		while( true )
+			
+			try {
+				return new RemoteConnection( new Socket( host, port ) );
+			}
+			catch( ConnectException e ) {
+				
+				if( !waiting ) {
+					
+					System.err.println( "[worker] Waiting for master at "+host+":"+port+"." );
+					waiting = true;
+				}
+				
+				Thread.sleep( CONNECT_RETRY_INTERVAL );
+			}
+	}
+	
+	private Runnable createTask( final PreparedInvocation prepared, final File location ) {
+		
+		return new Runnable() {
+			
+			@Override
+			public void run() {
+				
+				ScriptProcess process;
+				JSONObject msg;
+				
+				process = null;
+				
+				try {
+					
+					try {
+						
+						process = prepared.launch( location, prepared.writeSandbox( location ) );
+						processSet.add( process );
+						
+						prepared.finish( location, process );
+						
+						for( JsonReportEntry entry : PreparedInvocation.readReport( location ) ) {
+							
+							msg = RemoteConnection.createMessage( RemoteConnection.OP_ENTRY );
+							msg.put( RemoteConnection.ATT_SIGNATURE, prepared.getSignature() );
+							msg.put( RemoteConnection.ATT_ENTRY, entry.toString() );
+							connection.send( msg );
+						}
+						
+						msg = RemoteConnection.createMessage( RemoteConnection.OP_DONE );
+						msg.put( RemoteConnection.ATT_SIGNATURE, prepared.getSignature() );
+						connection.send( msg );
+					}
+					catch( IOException|InterruptedException|RuntimeException e ) {
+						
+						if( shutdown )
+							return;
+						
+						msg = RemoteConnection.createMessage( RemoteConnection.OP_FAILED );
+						msg.put( RemoteConnection.ATT_SIGNATURE, prepared.getSignature() );
+						msg.put( RemoteConnection.ATT_MESSAGE, String.valueOf( e.getMessage() ) );
+						connection.send( msg );
+					}
+					finally {
+						
+						if( process != null )
+							processSet.remove( process );
+					}
+				}
+				catch( IOException|JSONException e ) {
+					
+					if( !shutdown )
+						System.err.println( "[worker] Could not report back to master: "+e.getMessage() );
+				}
+			}
+		};
+	}
+}
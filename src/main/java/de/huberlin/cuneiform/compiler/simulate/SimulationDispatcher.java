@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.simulate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.json.JSONException;
+
+import de.huberlin.cuneiform.compiler.noop.NoopDispatcher;
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+import de.huberlin.cuneiform.dag.TaskNode;
+
+/** Predicts the makespan of a workflow by replaying it in virtual time.
+ * 
+ * Invocations are enumerated as usual, but instead of running them the
+ * simulator assigns each a duration and a memory demand from a task
+ * profile and schedules it on a fixed number of cores sharing a fixed
+ * amount of memory. An invocation's outputs are bound once its virtual
+ * end time is reached. Ready invocations are started in the order of the
+ * scheduling policy:
+ * 
+ *   fifo      in the order they became ready,
+ *   longest   longest first,
+ *   critical  longest path to the end of the workflow first, estimated
+ *             from the expected durations of the consuming tasks.
+ * 
+ * The report lists the predicted makespan, the utilisation of the cores
+ * over time, and the critical path of the simulated run.
+ */
+public class SimulationDispatcher extends NoopDispatcher {
+	
+	public static final int POLICY_FIFO = 0;
+	public static final int POLICY_LONGEST = 1;
+	public static final int POLICY_CRITICAL = 2;
+	
+	private static final int N_BUCKET = 20;
+	private static final String[] POLICY_LABEL = { "fifo", "longest", "critical" };
+	
+	private int nCore;
+	private double memory;
+	private int policy;
+	private long seed;
+	private TaskProfile profile;
+	private Map<TaskNode,Double> rankMap;
+	
+	public SimulationDispatcher( String dagid ) {
+		
+		super( dagid );
+		
+		nCore = Runtime.getRuntime().availableProcessors();
+		policy = POLICY_FIFO;
+		profile = new TaskProfile();
+		rankMap = new HashMap<>();
+	}
+	
+	public TaskProfile getProfile() {
+		return profile;
+	}
+	
+	@Override
+	public void run() throws NotDerivableException, JSONException {
+		
+		Random random;
+		List<Job> pendingList;
+		PriorityQueue<Job> runningQueue;
+		Map<Invocation,Job> jobMap;
+		List<double[]> usageList;
+		Iterator<Job> it;
+		Job job;
+		double now;
+		double freeMemory;
+		double[] figures;
+		int freeCore;
+		int nJob;
+		
+		random = new Random( seed );
+		pendingList = new ArrayList<>();
+		runningQueue = new PriorityQueue<>( 11, new Comparator<Job>() {
+			
+			@Override
+			public int compare( Job a, Job b ) {
+				return Double.compare( a.end, b.end );
+			}
+		} );
+		jobMap = new HashMap<>();
+		usageList = new ArrayList<>();
+		
+		now = 0;
+		freeCore = nCore;
+		freeMemory = memory;
+		nJob = 0;
+		
+		while( true ) {
+			
+			// register newly ready invocations
+			for( Invocation invocation : getReadyInvocationSet() )
+				if( !jobMap.containsKey( invocation ) ) {
+					
+					figures = profile.getFigures( invocation, random );
+					
+					job = new Job( invocation, nJob++, now, figures[ 0 ], figures[ 1 ] );
+					
+					if( policy == POLICY_CRITICAL )
+						job.priority = job.duration+getRank( invocation.getTaskNode() );
+					
+					jobMap.put( invocation, job );
+					pendingList.add( job );
+				}
+			
+			Collections.sort( pendingList, getComparator() );
+			
+			// start what fits
+			it = pendingList.iterator();
+			while( freeCore > 0 && it.hasNext() ) {
+				
+				job = it.next();
+				
+				if( memory > 0 && job.memory > freeMemory )
+					continue;
+				
+				job.start = now;
+				job.end = now+job.duration;
+				freeCore--;
+				freeMemory -= job.memory;
+				runningQueue.add( job );
+				it.remove();
+			}
+			
+			usageList.add( new double[] { now, nCore-freeCore } );
+			
+			if( runningQueue.isEmpty() ) {
+				
+				if( pendingList.isEmpty() )
+					break;
+				
+				job = pendingList.get( 0 );
+				throw new RuntimeException(
+					"Invocation of task '"+job.invocation.getTaskName()+"' needs "
+					+String.format( "%.1f", job.memory )+" MiB, more than the "
+					+String.format( "%.1f", memory )+" MiB available." );
+			}
+			
+			// advance to the next end time
+			job = runningQueue.poll();
+			now = job.end;
+			
+			while( true ) {
+				
+				complete( job.invocation );
+				freeCore++;
+				freeMemory += job.memory;
+				
+				if( runningQueue.isEmpty() || runningQueue.peek().end > now )
+					break;
+				
+				job = runningQueue.poll();
+			}
+		}
+		
+		report( jobMap, usageList, now );
+	}
+	
+	public void setCoreCount( int nCore ) {
+		
+		if( nCore <= 0 )
+			throw new RuntimeException( "Number of cores must be a positive number." );
+		
+		this.nCore = nCore;
+	}
+	
+	/** Sets the memory shared by all cores.
+	 * 
+	 * @param memory The memory in MiB or 0 for no limit.
+	 */
+	public void setMemory( double memory ) {
+		
+		if( memory < 0 )
+			throw new RuntimeException( "Memory must not be negative." );
+		
+		this.memory = memory;
+	}
+	
+	public void setPolicy( int policy ) {
+		
+		if( policy < POLICY_FIFO || policy > POLICY_CRITICAL )
+			throw new RuntimeException( "Scheduling policy not recognized." );
+		
+		this.policy = policy;
+	}
+	
+	public void setSeed( long seed ) {
+		this.seed = seed;
+	}
+	
+	private Comparator<Job> getComparator() {
+		
+		switch( policy ) {
+		
+			case POLICY_FIFO :
+				return new Comparator<Job>() {
+					
+					@Override
+					public int compare( Job a, Job b ) {
+						
+						if( a.ready != b.ready )
+							return Double.compare( a.ready, b.ready );
+						
+						return Integer.compare( a.seq, b.seq );
+					}
+				};
+				
+			case POLICY_LONGEST :
+				return new Comparator<Job>() {
+					
+					@Override
+					public int compare( Job a, Job b ) {
+						
+						if( a.duration != b.duration )
+							return Double.compare( b.duration, a.duration );
+						
+						return Integer.compare( a.seq, b.seq );
+					}
+				};
+				
+			case POLICY_CRITICAL :
+				return new Comparator<Job>() {
+					
+					@Override
+					public int compare( Job a, Job b ) {
+						
+						if( a.priority != b.priority )
+							return Double.compare( b.priority, a.priority );
+						
+						return Integer.compare( a.seq, b.seq );
+					}
+				};
+				
+			default :
+				throw new RuntimeException( "Scheduling policy not recognized." );
+		}
+	}
+	
+	/** Returns the expected length of the longest path from the end of a task
+	 * node to the end of the workflow.
+	 */
+	private double getRank( TaskNode taskNode ) {
+		
+		Double rank;
+		double best, r, sum;
+		List<String> taskNameList;
+		
+		rank = rankMap.get( taskNode );
+		if( rank != null )
+			return rank;
+		
+		best = 0;
+		
+		for( TaskNode consumer : getConsumerTaskNodeSet( taskNode ) ) {
+			
+			try {
+				
+				taskNameList = consumer.getTaskItemList().toStringList();
+				
+				sum = 0;
+				for( String taskName : taskNameList )
+					sum += profile.getExpectedDuration( taskName );
+				
+				r = sum/Math.max( 1, taskNameList.size() );
+			}
+			catch( NotDerivableException e ) {
+				r = profile.getExpectedDuration( null );
+			}
+			
+			best = Math.max( best, r+getRank( consumer ) );
+		}
+		
+		rankMap.put( taskNode, best );
+		
+		return best;
+	}
+	
+	private void report( Map<Invocation,Job> jobMap, List<double[]> usageList, double makespan )
+	throws NotDerivableException {
+		
+		double busy, width, from, to, t0, t1;
+		double[] bucket;
+		Job job, last, parentJob;
+		LinkedList<Job> path;
+		int i, j;
+		StringBuffer buf;
+		
+		busy = 0;
+		for( Job x : jobMap.values() )
+			busy += x.duration;
+		
+		System.out.println( "[simulate] Invocations:          "+jobMap.size() );
+		System.out.println( "[simulate] Cores:                "+nCore );
+		System.out.println( "[simulate] Memory:               "+( memory > 0 ? String.format( "%.0f MiB", memory ) : "unlimited" ) );
+		System.out.println( "[simulate] Policy:               "+POLICY_LABEL[ policy ] );
+		System.out.println( "[simulate] Predicted makespan:   "+String.format( "%.1f s", makespan ) );
+		
+		if( makespan <= 0 )
+			return;
+		
+		System.out.println( "[simulate] Utilisation:          "+String.format( "%.1f %%", 100*busy/( nCore*makespan ) ) );
+		
+		// integrate the number of busy cores over each bucket
+		bucket = new double[ N_BUCKET ];
+		width = makespan/N_BUCKET;
+		
+		for( i = 0; i < usageList.size(); i++ ) {
+			
+			t0 = usageList.get( i )[ 0 ];
+			t1 = i+1 < usageList.size() ? usageList.get( i+1 )[ 0 ] : makespan;
+			
+			for( j = 0; j < N_BUCKET; j++ ) {
+				
+				from = Math.max( t0, j*width );
+				to = Math.min( t1, ( j+1 )*width );
+				
+				if( to > from )
+					bucket[ j ] += ( to-from )*usageList.get( i )[ 1 ];
+			}
+		}
+		
+		System.out.println( "[simulate] Utilisation over time:" );
+		
+		for( j = 0; j < N_BUCKET; j++ ) {
+			
+			buf = new StringBuffer();
+			for( i = 0; i < Math.round( 40*bucket[ j ]/( width*nCore ) ); i++ )
+				buf.append( '#' );
+			
+			System.out.println( String.format(
+				"[simulate]   %10.1f s  %5.1f %%  %s",
+				j*width, 100*bucket[ j ]/( width*nCore ), buf ) );
+		}
+		
+		// walk back from the last invocation along the latest parents
+		last = null;
+		for( Job x : jobMap.values() )
+			if( last == null || x.end > last.end )
+				last = x;
+		
+		path = new LinkedList<>();
+		job = last;
+		while( job != null ) {
+			
+			path.addFirst( job );
+			
+			parentJob = null;
+			for( Invocation parent : job.invocation.getParentInvocationSet() ) {
+				
+				Job candidate = jobMap.get( parent );
+				if( candidate != null && ( parentJob == null || candidate.end > parentJob.end ) )
+					parentJob = candidate;
+			}
+			
+			job = parentJob;
+		}
+		
+		busy = 0;
+		for( Job x : path )
+			busy += x.duration;
+		
+		System.out.println( "[simulate] Critical path:        "+String.format( "%.1f s in %d invocation(s)", busy, path.size() ) );
+		
+		for( Job x : path )
+			System.out.println( String.format(
+				"[simulate]   %10.1f s  %10.1f s  %-20s %d",
+				x.start, x.duration, x.invocation.getTaskName(), x.invocation.getSignature() ) );
+	}
+	
+	private static class Job {
+		
+		private Invocation invocation;
+		private int seq;
+		private double ready;
+		private double duration;
+		private double memory;
+		private double priority;
+		private double start;
+		private double end;
+		
+		public Job( Invocation invocation, int seq, double ready, double duration, double memory ) {
+			
+			this.invocation = invocation;
+			this.seq = seq;
+			this.ready = ready;
+			this.duration = duration;
+			this.memory = memory;
+		}
+	}
+}
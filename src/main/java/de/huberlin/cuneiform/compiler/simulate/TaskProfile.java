@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.simulate;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+import de.huberlin.cuneiform.dag.NotDerivableException;
+
+/** Durations and memory demands of invocations for the simulator.
+ * 
+ * The figures of an invocation are looked up in this order: the figures
+ * recorded for its signature in a prior log, a distribution set for its
+ * task, a random pick among the figures recorded for its task in a prior
+ * log, and the default distribution. Distributions are given as
+ * 
+ *   const:d          always d seconds,
+ *   uniform:a:b      uniformly between a and b seconds,
+ *   exp:m            exponentially with mean m seconds,
+ *   normal:m:s       normally with mean m and deviation s seconds, cut at 0.
+ * 
+ * Invocations whose duration is drawn from a distribution demand the memory
+ * set for their task, or the default demand of no memory at all.
+ */
+public class TaskProfile {
+	
+	public static final String DEFAULT_DISTRIBUTION = "const:1";
+	
+	private static final String ATT_REALTIME = "realTime";
+	private static final String ATT_MAXRSS = "maxResidentSetSize";
+	
+	private Map<Long,double[]> signatureMap;
+	private Map<String,List<double[]>> sampleMap;
+	private Map<String,String> distributionMap;
+	private String defaultDistribution;
+	private Map<String,Double> demandMap;
+	private double defaultDemand;
+	
+	public TaskProfile() {
+		
+		signatureMap = new HashMap<>();
+		sampleMap = new HashMap<>();
+		distributionMap = new HashMap<>();
+		demandMap = new HashMap<>();
+		
+		setDefaultDistribution( DEFAULT_DISTRIBUTION );
+	}
+	
+	/** Records the figures of an invocation-time entry of a prior run.
+	 * 
+	 * @param entry The report entry. Entries of other kinds are ignored.
+	 */
+	public void addReportEntry( JsonReportEntry entry ) throws JSONException {
+		
+		JSONObject value;
+		double[] figures;
+		List<double[]> sampleList;
+		
+		if( !entry.getKey().equals( JsonReportEntry.KEY_INVOC_TIME ) )
+			return;
+		
+		value = entry.getValueJsonObj();
+		
+		// GNU time reports the resident set size in KiB
+		figures = new double[] {
+			value.getDouble( ATT_REALTIME ),
+			value.optDouble( ATT_MAXRSS, 0 )/1024 };
+		
+		signatureMap.put( entry.getInvocId(), figures );
+		
+		sampleList = sampleMap.get( entry.getTaskName() );
+		if( sampleList == null ) {
+			
+			sampleList = new ArrayList<>();
+			sampleMap.put( entry.getTaskName(), sampleList );
+		}
+		
+		sampleList.add( figures );
+	}
+	
+	/** Returns the mean duration expected for a task.
+	 * 
+	 * @param taskName The task name.
+	 * @return The mean duration in seconds.
+	 */
+	public double getExpectedDuration( String taskName ) {
+		
+		List<double[]> sampleList;
+		String spec;
+		double sum;
+		
+		spec = distributionMap.get( taskName );
+		if( spec != null )
+			return getMean( spec );
+		
+		sampleList = sampleMap.get( taskName );
+		if( sampleList != null ) {
+			
+			sum = 0;
+			for( double[] figures : sampleList )
+				sum += figures[ 0 ];
+			
+			return sum/sampleList.size();
+		}
+		
+		return getMean( defaultDistribution );
+	}
+	
+	/** Returns the duration and the memory demand of an invocation.
+	 * 
+	 * @param invocation The invocation.
+	 * @param random The source of randomness.
+	 * @return The duration in seconds and the memory demand in MiB.
+	 */
+	public double[] getFigures( Invocation invocation, Random random ) throws NotDerivableException {
+		
+		double[] figures;
+		List<double[]> sampleList;
+		String spec;
+		
+		figures = signatureMap.get( invocation.getSignature() );
+		if( figures != null )
+			return figures;
+		
+		spec = distributionMap.get( invocation.getTaskName() );
+		if( spec != null )
+			return new double[] { sample( spec, random ), getDemand( invocation.getTaskName() ) };
+		
+		sampleList = sampleMap.get( invocation.getTaskName() );
+		if( sampleList != null )
+			return sampleList.get( random.nextInt( sampleList.size() ) );
+		
+		return new double[] { sample( defaultDistribution, random ), getDemand( invocation.getTaskName() ) };
+	}
+	
+	/** Reads the invocation-time entries of a log file of a prior run.
+	 * 
+	 * @param logFile The log file.
+	 */
+	public void load( File logFile ) throws IOException {
+		
+		String line;
+		
+		try( BufferedReader reader = new BufferedReader( new FileReader( logFile ) ) ) {
+			
+			while( ( line = reader.readLine() ) != null ) {
+				
+				line = line.trim();
+				if( line.isEmpty() )
+					continue;
+				
+				try {
+					addReportEntry( new JsonReportEntry( line ) );
+				}
+				catch( JSONException e ) {
+					// not a report entry
+				}
+			}
+		}
+	}
+	
+	public void setDefaultDemand( double demand ) {
+		
+		if( demand < 0 )
+			throw new RuntimeException( "Memory demand must not be negative." );
+		
+		defaultDemand = demand;
+	}
+	
+	public void setDefaultDistribution( String spec ) {
+		
+		getMean( spec );
+		defaultDistribution = spec;
+	}
+	
+	/** Sets the memory demand of a task's invocations whose duration is
+	 * drawn from a distribution.
+	 * 
+	 * @param taskName The task name.
+	 * @param demand The memory demand in MiB.
+	 */
+	public void setDemand( String taskName, double demand ) {
+		
+		if( taskName == null )
+			throw new NullPointerException( "Task name must not be null." );
+		
+		if( demand < 0 )
+			throw new RuntimeException( "Memory demand must not be negative." );
+		
+		demandMap.put( taskName, demand );
+	}
+	
+	public void setDistribution( String taskName, String spec ) {
+		
+		if( taskName == null )
+			throw new NullPointerException( "Task name must not be null." );
+		
+		getMean( spec );
+		distributionMap.put( taskName, spec );
+	}
+	
+	private double getDemand( String taskName ) {
+		
+		Double demand;
+		
+		demand = demandMap.get( taskName );
+		if( demand == null )
+			return defaultDemand;
+		
+		return demand;
+	}
+	
+	private static double getMean( String spec ) {
+		
+		String[] part;
+		
+		part = split( spec );
+		
+		switch( part[ 0 ] ) {
+		
+			case "const" :
+			case "exp" :
+				return Double.parseDouble( part[ 1 ] );
+			case "uniform" :
+				return ( Double.parseDouble( part[ 1 ] )+Double.parseDouble( part[ 2 ] ) )/2;
+			case "normal" :
+				return Double.parseDouble( part[ 1 ] );
+			default :
+				throw new RuntimeException( "Distribution '"+spec+"' not recognized." );
+		}
+	}
+	
+	private static double sample( String spec, Random random ) {
+		
+		String[] part;
+		double a, b;
+		
+		part = split( spec );
+		
+		switch( part[ 0 ] ) {
+		
+			case "const" :
+				return Double.parseDouble( part[ 1 ] );
+				
+			case "uniform" :
+				a = Double.parseDouble( part[ 1 ] );
+				b = Double.parseDouble( part[ 2 ] );
+				return a+random.nextDouble()*( b-a );
+				
+			case "exp" :
+				return -Double.parseDouble( part[ 1 ] )*Math.log( 1-random.nextDouble() );
+				
+			case "normal" :
+				a = Double.parseDouble( part[ 1 ] );
+				b = Double.parseDouble( part[ 2 ] );
+				return Math.max( 0, a+b*random.nextGaussian() );
+				
+			default :
+				throw new RuntimeException( "Distribution '"+spec+"' not recognized." );
+		}
+	}
+	
+	private static String[] split( String spec ) {
+		
+		String[] part;
+		int n;
+		
+		if( spec == null )
+			throw new NullPointerException( "Distribution must not be null." );
+		
+		part = spec.split( ":" );
+		
+		switch( part[ 0 ] ) {
+			case "const" :
+			case "exp" : n = 2; break;
+			case "uniform" :
+			case "normal" : n = 3; break;
+			default : throw new RuntimeException( "Distribution '"+spec+"' not recognized." );
+		}
+		
+		if( part.length != n )
+			throw new RuntimeException( "Distribution '"+spec+"' must have "+( n-1 )+" parameter(s)." );
+		
+		return part;
+	}
+}
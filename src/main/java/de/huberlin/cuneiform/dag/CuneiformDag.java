@@ -33,30 +33,34 @@
 package de.huberlin.cuneiform.dag;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import org.antlr.v4.runtime.ANTLRFileStream;
 import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
 
 import de.huberlin.cuneiform.language.ApplyExpression;
 import de.huberlin.cuneiform.language.Assign;
-import de.huberlin.cuneiform.language.CuneiformLexer;
-import de.huberlin.cuneiform.language.CuneiformParser;
 import de.huberlin.cuneiform.language.DefTask;
 import de.huberlin.cuneiform.language.Expression;
 import de.huberlin.cuneiform.language.IdExpression;
 import de.huberlin.cuneiform.language.MacroExpression;
+import de.huberlin.cuneiform.language.ParseCache;
+import de.huberlin.cuneiform.language.ParseResult;
 import de.huberlin.cuneiform.language.StringExpression;
+import de.huberlin.cuneiform.monitor.EngineMonitor;
+import de.huberlin.cuneiform.monitor.Probe;
 
 
 /** A container for all workflow elements, that constitute a workflow DAG.
@@ -75,10 +79,21 @@ public class CuneiformDag implements DotTransformable {
 	
 	public static final String TASK_TOKEN = "task";
 	
+	private static ParseCache defaultParseCache;
+	
 	private Set<WfElement> elementSet;
 	private Set<NamedJunction> terminalSet;
 	private Set<String> wfNameSet;
 	private String dagid;
+	private EngineMonitor monitor;
+	private ParseCache parseCache;
+	private SymbolTable symbolTable;
+	private InvocationStore invocationStore;
+	private Set<String> sourceFileSet;
+	private Map<String,TaskNode> taskNodeMap;
+	private Map<WfElement,Integer> nodeIdMap;
+	private Map<String,Integer> nodeKeyMap;
+	private List<InvocationListener> listenerList;
 
 	/** Constructor for the CuneiformDag class.
 	 * 
@@ -93,7 +108,15 @@ public class CuneiformDag implements DotTransformable {
 		terminalSet = new HashSet<>();
 		elementSet = new HashSet<>();
 		wfNameSet = new HashSet<>();
+		sourceFileSet = new LinkedHashSet<>();
+		taskNodeMap = new HashMap<>();
+		nodeIdMap = new IdentityHashMap<>();
+		nodeKeyMap = new HashMap<>();
+		symbolTable = new SymbolTable();
+		invocationStore = new InvocationStore( symbolTable );
+		listenerList = new LinkedList<>();
 		setDagId( dagId );
+		parseCache = defaultParseCache;
 		
 	}
 	
@@ -142,25 +165,59 @@ public class CuneiformDag implements DotTransformable {
 	 */
 	public void addInputFile( String filename ) throws IOException {
 		
-		ANTLRFileStream stream;
+		Object span;
+		ParseResult result;
 		
 		if( filename == null )
 			throw new NullPointerException( "Filename must not be null." );
 		
 		if( filename.isEmpty() )
 			throw new RuntimeException( "Filename must not be empty." );
+		
+		span = Probe.begin( Probe.PHASE_PARSE );
 
 		// parse input file
-		stream = new ANTLRFileStream( filename );
-		addInputStream( stream );	
+		if( parseCache == null )
+			result = ParseResult.parse( new ANTLRFileStream( filename ) );
+		else
+			result = parseCache.parseFile( filename );
+		
+		addParseResult( result );
+		
+		sourceFileSet.add( filename );
+		sourceFileSet.addAll( result.getImportList() );
+		
+		Probe.end( span, filename );
+	}
+	
+	/** Registers a listener to be told about enumerated and computed
+	 * invocations.
+	 * 
+	 * @param listener The listener.
+	 */
+	public void addInvocationListener( InvocationListener listener ) {
+		
+		if( listener == null )
+			throw new NullPointerException( "Invocation listener must not be null." );
+		
+		listenerList.add( listener );
 	}
 	
 	public void addInputString( String str ) {
 		
-		ANTLRInputStream stream;
+		Object span;
 		
-		stream = new ANTLRInputStream( str );
-		addInputStream( stream );
+		if( str == null )
+			throw new NullPointerException( "Input string must not be null." );
+		
+		span = Probe.begin( Probe.PHASE_PARSE );
+		
+		if( parseCache == null )
+			addParseResult( ParseResult.parse( new ANTLRInputStream( str ) ) );
+		else
+			addParseResult( parseCache.parseString( str ) );
+		
+		Probe.end( span, null );
 	}
 	
 	public void addReport( Collection<JsonReportEntry> report ) {
@@ -206,6 +263,18 @@ public class CuneiformDag implements DotTransformable {
 		terminalSet.add( element );		
 	}
 	
+	public void fireInvocationAdded( Invocation invocation ) {
+		
+		for( InvocationListener listener : listenerList )
+			listener.invocationAdded( invocation );
+	}
+	
+	public void fireInvocationComputed( Invocation invocation ) {
+		
+		for( InvocationListener listener : listenerList )
+			listener.invocationComputed( invocation );
+	}
+	
 	/** Retrieves all junctions that are anonymous.
 	 * 
 	 * @return The set of anonymous junctions.
@@ -227,6 +296,39 @@ public class CuneiformDag implements DotTransformable {
 		return dagid;
 	}
 	
+	/** Returns the table holding the values bound by this DAG's invocations.
+	 */
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+	
+	/** Returns the store holding the state of this DAG's invocations.
+	 */
+	public InvocationStore getInvocationStore() {
+		return invocationStore;
+	}
+
+	/** Returns the Cuneiform files this DAG was assembled from, including
+	 * all files they import.
+	 *
+	 * @return The set of file names.
+	 */
+	public Set<String> getSourceFileSet() {
+		return Collections.unmodifiableSet( sourceFileSet );
+	}
+	
+	/** Returns the monitor accounting for this workflow's scheduling.
+	 * 
+	 * @return The monitor.
+	 */
+	public synchronized EngineMonitor getMonitor() {
+		
+		if( monitor == null )
+			monitor = new EngineMonitor( dagid );
+		
+		return monitor;
+	}
+	
 	/** Retrieves all data nodes.
 	 * 
 	 * @return The set of data nodes.
@@ -396,6 +498,56 @@ public class CuneiformDag implements DotTransformable {
 		
 	}
 	
+	/** Retrieves the task nodes whose outputs are bound to terminal elements.
+	 * 
+	 * These are the task nodes producing the workflow's results. They are
+	 * found by following the parents of each terminal named junction through
+	 * any intermediate junctions.
+	 * 
+	 * @return The set of result producing task nodes.
+	 */
+	public Set<TaskNode> getResultTaskNodeSet() {
+		
+		Set<TaskNode> set;
+		
+		set = new HashSet<>();
+		
+		for( NamedJunction j : terminalSet )
+			collectProducerTaskNode( j, set );
+		
+		return set;
+	}
+	
+	/** Retrieves the relevant task nodes directly consuming a task node's outputs.
+	 * 
+	 * A task node consumes another task node's outputs if it is reachable
+	 * from the consuming task node's parents through junctions only.
+	 * 
+	 * @param producer The producing task node.
+	 * @return The set of consuming task nodes.
+	 */
+	public Set<TaskNode> getConsumerTaskNodeSet( TaskNode producer ) {
+		
+		Set<TaskNode> set;
+		Set<TaskNode> producerSet;
+		
+		if( producer == null )
+			throw new NullPointerException( "Producer task node must not be null." );
+		
+		set = new HashSet<>();
+		
+		for( TaskNode candidate : getRelevantTaskNodeSet() ) {
+			
+			producerSet = new HashSet<>();
+			collectProducerTaskNode( candidate, producerSet );
+			
+			if( producerSet.contains( producer ) )
+				set.add( candidate );
+		}
+		
+		return set;
+	}
+	
 	public Set<WfElement> getRelevantWfElementSet() {
 		
 		Set<WfElement> set;
@@ -583,6 +735,26 @@ public class CuneiformDag implements DotTransformable {
 		return getRelevantWfElementSet().contains( element );
 	}
 	
+	/** Sets the cache parse results of input files are kept in.
+	 * 
+	 * @param parseCache The parse cache or null to always parse.
+	 */
+	public void setParseCache( ParseCache parseCache ) {
+		this.parseCache = parseCache;
+	}
+	
+	public static ParseCache getDefaultParseCache() {
+		return defaultParseCache;
+	}
+	
+	/** Sets the parse cache of workflow graphs created from now on.
+	 * 
+	 * @param parseCache The parse cache or null to always parse.
+	 */
+	public static void setDefaultParseCache( ParseCache parseCache ) {
+		defaultParseCache = parseCache;
+	}
+	
 	public void setDagId( String dagid ) {
 		
 		if( dagid == null )
@@ -605,50 +777,18 @@ public class CuneiformDag implements DotTransformable {
 	@Override
 	public String toDot() {
 		
-		StringBuffer buf;
-		TaskNode taskNode;
-		List<WfElement> parentSet;
-		WfElement taskParent;
-		
-		buf = new StringBuffer();
+		StringWriter writer;
 		
-		buf.append( "digraph {\n" );
-		
-		for( WfElement element : getRelevantWfElementSet() ) {
-			
-			if( element instanceof DataNode )
-				continue;
-			
-			buf.append( element.getDotNode() ).append( "\n" );
-			
-			if( element instanceof TaskNode ) {
-				
-				taskNode = ( TaskNode )element;
-				parentSet = taskNode.getNonTaskParentList();
-				
-				taskParent = taskNode.getTaskParent();
-				buf.append( taskParent.getDotId() );
-				buf.append( " -> " ).append( element.getDotId() );
-				buf.append( "[style=dotted];\n" );
-			}
-			else
-				parentSet = element.getParentList();
-
-			for( WfElement c : parentSet ) {
-				
-				if( c instanceof DataNode )
-					continue;
-				
-				buf.append( c.getDotId() );
-				buf.append( " -> " ).append( element.getDotId() );
-				buf.append( ";\n" );				
-			}
+		writer = new StringWriter();
 		
+		try {
+			new GraphExporter( writer, GraphExporter.FORMAT_DOT ).writeTaskGraph( this );
+		}
+		catch( IOException e ) {
+			throw new RuntimeException( e );
 		}
 		
-		buf.append( "}\n" );
-		
-		return buf.toString();
+		return writer.toString();
 	}
 	
 	/** Tells if there is any task node that depends on a given connectable. 
@@ -702,25 +842,30 @@ public class CuneiformDag implements DotTransformable {
 		return result;
 	}
 	
-	private void addInputStream( CharStream stream ) {
+	private static void collectProducerTaskNode( WfElement element, Set<TaskNode> set ) {
+		
+		for( WfElement parent : element.getParentList() ) {
+			
+			if( parent instanceof TaskNode ) {
+				set.add( ( TaskNode )parent );
+				continue;
+			}
+			
+			if( parent instanceof NamedJunction || parent instanceof AnonymousJunction )
+				collectProducerTaskNode( parent, set );
+		}
+	}
+	
+	/** Assembles the workflow graph from the result of parsing a script.
+	 */
+	private void addParseResult( ParseResult parser ) {
 		
-		CuneiformLexer lexer;
-		CuneiformParser parser;
 		String declare;
 		DefTaskNode defTaskNode;
 		DefTask defTask;
 		
-		if( stream == null )
-			throw new NullPointerException( "Input string must not be null." );
-		
-		// parse input file
-		lexer = new CuneiformLexer( stream );
-		parser = new CuneiformParser( new CommonTokenStream( lexer ) );
-		parser.script();
-		
-		
-		if( parser.hasError() )
-			throw new RuntimeException( "Parser returned with errors." );
+		if( parser == null )
+			throw new NullPointerException( "Parse result must not be null." );
 		
 		declare = parser.getDeclare();
 		if( declare == null )
@@ -767,7 +912,7 @@ public class CuneiformDag implements DotTransformable {
 	}
 	
 	private List<WfElement> resolve(
-		CuneiformParser parser, List<Expression> exprSet ) {
+		ParseResult parser, List<Expression> exprSet ) {
 		
 		List<WfElement> wfElementList;
 		String declare;
@@ -779,9 +924,10 @@ public class CuneiformDag implements DotTransformable {
 		List<Expression> applyExprList;
 		List<WfElement> parentList;
 		StringExpression se;
+		String key;
 		
 		if( parser == null )
-			throw new NullPointerException( "Parser must not be null." );
+			throw new NullPointerException( "Parse result must not be null." );
 		
 		if( exprSet == null )
 			throw new NullPointerException(
@@ -825,17 +971,29 @@ public class CuneiformDag implements DotTransformable {
 						parser.getDefMacroMap(),
 						new HashMap<String,List<Expression>>() ) );
 				
-				return resolve( parser, applyExprList );
+				wfElementList.addAll( resolve( parser, applyExprList ) );
+				
+				continue;
 			}
 			
 			if( expr instanceof ApplyExpression ) {
 				
 				assert !( expr instanceof MacroExpression );
 				
-				taskNode = new TaskNode( this, declare );
-
 				ae = ( ApplyExpression )expr;
 				
+				// structurally identical applications share one task node
+				key = getApplyKey( declare, ae );
+				taskNode = taskNodeMap.get( key );
+				if( taskNode != null ) {
+					
+					wfElementList.add( taskNode );
+					continue;
+				}
+				
+				taskNode = new TaskNode( this, declare );
+				taskNodeMap.put( key, taskNode );
+				
 				for( String paramName : ae.getParamNameSet() ) {
 					
 					applyExprList = ae.getExprForParam( paramName );
@@ -887,7 +1045,140 @@ public class CuneiformDag implements DotTransformable {
 		return wfElementList;
 	}
 	
-	private void resolveAssign( CuneiformParser parser, Assign assign ) {
+	/** Describes an apply expression such that two apply expressions are
+	 * described the same way only if they resolve to the same task node.
+	 * 
+	 * Variables are described by the node they resolve to, so applications
+	 * to different variables bound to the same node share a task node, too.
+	 * Parameters are listed in order of their names and every name and value
+	 * is prefixed with its length.
+	 */
+	private String getApplyKey( String declare, ApplyExpression ae ) {
+		
+		StringBuffer buf;
+		
+		buf = new StringBuffer();
+		appendKey( buf, declare );
+		appendKey( buf, ae );
+		
+		return buf.toString();
+	}
+	
+	private void appendKey( StringBuffer buf, Expression expr ) {
+		
+		ApplyExpression ae;
+		List<Expression> exprList;
+		
+		if( expr instanceof IdExpression ) {
+			
+			buf.append( 'n' ).append( getNodeId(
+				getNamedJunctionOrDefTaskNode( ( ( IdExpression )expr ).getValue() ) ) ).append( ';' );
+			return;
+		}
+		
+		if( expr instanceof StringExpression ) {
+			
+			buf.append( ( ( StringExpression )expr ).isStage() ? 'S' : 's' );
+			appendKey( buf, ( ( StringExpression )expr ).getValue() );
+			return;
+		}
+		
+		if( expr instanceof MacroExpression ) {
+			
+			buf.append( 'm' );
+			appendKey( buf, ( ( MacroExpression )expr ).getMacroName() );
+		}
+		else if( expr instanceof ApplyExpression )
+			buf.append( 'a' );
+		else
+			throw new RuntimeException( "Expression type not recognized." );
+		
+		ae = ( ApplyExpression )expr;
+		
+		buf.append( ae.paramMapSize() ).append( '(' );
+		for( String paramName : new TreeSet<>( ae.getParamNameSet() ) ) {
+			
+			appendKey( buf, paramName );
+			
+			exprList = ae.getExprForParam( paramName );
+			buf.append( exprList.size() ).append( '[' );
+			for( Expression e : exprList )
+				appendKey( buf, e );
+			buf.append( ']' );
+		}
+		buf.append( ')' );
+	}
+	
+	private static void appendKey( StringBuffer buf, String s ) {
+		buf.append( s.length() ).append( ':' ).append( s );
+	}
+	
+	/** Identifies the node a workflow element resolves to.
+	 * 
+	 * Ids are assigned bottom-up: literals are identified by their value,
+	 * named junctions by the ids of their parents, and all other elements,
+	 * e.g., the hash-consed task nodes, by themselves. A variable bound to
+	 * a single expression resolves to the node of that expression.
+	 * 
+	 * @param element The workflow element.
+	 * @return The node id.
+	 */
+	private int getNodeId( WfElement element ) {
+		
+		Integer id;
+		StringBuffer buf;
+		NamedJunction junction;
+		DataNode dataNode;
+		String key;
+		
+		id = nodeIdMap.get( element );
+		if( id != null )
+			return id;
+		
+		buf = new StringBuffer();
+		
+		if( element instanceof DataNode ) {
+			
+			dataNode = ( DataNode )element;
+			
+			buf.append( dataNode.isStage( 0 ) ? 'S' : 's' );
+			appendKey( buf, dataNode.getLiteral() );
+		}
+		else if( element instanceof NamedJunction ) {
+			
+			junction = ( NamedJunction )element;
+			
+			if( junction.getParentOutputChannel() == 0 && junction.parentListSize() == 1 ) {
+				
+				id = getNodeId( junction.getParentList().get( 0 ) );
+				nodeIdMap.put( element, id );
+				
+				return id;
+			}
+			
+			buf.append( 'j' ).append( junction.getParentOutputChannel() ).append( '(' );
+			for( WfElement parent : junction.getParentList() )
+				buf.append( getNodeId( parent ) ).append( ',' );
+			buf.append( ')' );
+		}
+		else
+			buf.append( 'e' ).append( nodeKeyMap.size() );
+		
+		key = buf.toString();
+		
+		id = nodeKeyMap.get( key );
+		if( id == null ) {
+			
+			id = nodeKeyMap.size();
+			nodeKeyMap.put( key, id );
+		}
+		
+		nodeIdMap.put( element, id );
+		
+		return id;
+	}
+	
+	private void resolveAssign( ParseResult parser, Assign assign ) {
 		
 		List<Expression> exprSet;
 		List<String> varList;
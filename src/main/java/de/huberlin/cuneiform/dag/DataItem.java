@@ -35,17 +35,69 @@ package de.huberlin.cuneiform.dag;
 import java.util.HashSet;
 import java.util.Set;
 
+/** A literal value or file name.
+ * 
+ * Values bound by invocations are held as a handle into the symbol table of
+ * their workflow graph. Literals of the graph itself are few and are held
+ * as strings.
+ */
 public class DataItem implements Resolveable {
 	
 	private String value;
+	private SymbolTable symbolTable;
+	private int handle;
 	
 	public DataItem( String value ) {
 		setValue( value );
 	}
 	
+	public DataItem( SymbolTable symbolTable, String value ) {
+		
+		if( symbolTable == null )
+			throw new NullPointerException( "Symbol table must not be null." );
+		
+		if( value == null )
+			throw new NullPointerException( "Value string must not be null." );
+		
+		this.symbolTable = symbolTable;
+		handle = symbolTable.intern( value );
+	}
+
+	/** Wraps a value already held in a symbol table.
+	 */
+	DataItem( SymbolTable symbolTable, int handle ) {
+
+		this.symbolTable = symbolTable;
+		this.handle = handle;
+	}
+	
 	@Override
 	public String getValue() {
-		return value;
+		
+		if( value != null )
+			return value;
+		
+		return symbolTable.get( handle );
+	}
+	
+	/** Returns the hash code of the value without building the value.
+	 */
+	public int getValueHash() {
+		
+		if( value != null )
+			return value.hashCode();
+		
+		return symbolTable.getHash( handle );
+	}
+	
+	/** Returns the length of the value without building the value.
+	 */
+	public int getValueLength() {
+		
+		if( value != null )
+			return value.length();
+		
+		return symbolTable.getLength( handle );
 	}
 	
 	public void setValue( String value ) {
@@ -54,6 +106,8 @@ public class DataItem implements Resolveable {
 			throw new NullPointerException( "Value string must not be null." );
 		
 		this.value = value;
+		symbolTable = null;
+		handle = SymbolTable.NO_HANDLE;
 	}
 
 	@Override
@@ -73,7 +127,7 @@ public class DataItem implements Resolveable {
 	
 	@Override
 	public String toString() {
-		return "'"+value+"'";
+		return "'"+getValue()+"'";
 	}
 
 }
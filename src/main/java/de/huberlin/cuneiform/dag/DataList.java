@@ -32,10 +32,12 @@
 
 package de.huberlin.cuneiform.dag;
 
+import java.util.AbstractList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 public class DataList implements Iterable<DataListContent>, Container {
@@ -60,7 +62,7 @@ public class DataList implements Iterable<DataListContent>, Container {
 	public Resolveable get( int idx ) throws NotDerivableException {
 		
 		int i;
-		TaskReference taskReference;
+		Container container;
 		
 		i = idx;
 		
@@ -76,14 +78,14 @@ public class DataList implements Iterable<DataListContent>, Container {
 				continue;
 			}
 			
-			if( item instanceof TaskReference ) {
+			if( item instanceof Container ) {
 				
-				taskReference = ( TaskReference )item;
+				container = ( Container )item;
 				
-				if( i-taskReference.size() < 0 )
-					return taskReference.get( i );
+				if( i-container.size() < 0 )
+					return container.get( i );
 				
-				i -= taskReference.size();
+				i -= container.size();
 				
 				continue;
 			}
@@ -123,6 +125,17 @@ public class DataList implements Iterable<DataListContent>, Container {
 		return content.isEmpty();
 	}
 	
+	/** Returns true if any part of the list is held in a memory-mapped file.
+	 */
+	public boolean isSpilled() {
+		
+		for( DataListContent item : content )
+			if( item instanceof MappedDataList )
+				return true;
+		
+		return false;
+	}
+	
 	@Override
 	public int size() throws NotDerivableException {
 		
@@ -170,6 +183,51 @@ public class DataList implements Iterable<DataListContent>, Container {
 		return ret;
 	}
 	
+	/** Returns a read-only view of the values in this list.
+	 * 
+	 * Unlike toStringList(), the view copies nothing, so keeping it costs no
+	 * more than keeping the list itself, even if the list has been spilled.
+	 * A list consisting of a single spilled list returns that list's view.
+	 * All values must be derivable.
+	 * 
+	 * @return The view.
+	 */
+	public List<String> asStringList() {
+		
+		if( content.size() == 1 && content.get( 0 ) instanceof MappedDataList )
+			return ( ( MappedDataList )content.get( 0 ) ).asStringList();
+		
+		return new AbstractList<String>() {
+
+			@Override
+			public String get( int idx ) {
+				
+				try {
+					return DataList.this.get( idx ).getValue();
+				}
+				catch( NotDerivableException e ) {
+					throw new RuntimeException( e );
+				}
+			}
+
+			@Override
+			public int size() {
+				
+				try {
+					return DataList.this.size();
+				}
+				catch( NotDerivableException e ) {
+					throw new RuntimeException( e );
+				}
+			}
+			
+			@Override
+			public Iterator<String> iterator() {
+				return new ValueIterator();
+			}
+		};
+	}
+	
 	public List<String> toStringList() throws NotDerivableException {
 		
 		int i;
@@ -183,4 +241,78 @@ public class DataList implements Iterable<DataListContent>, Container {
 		return list;
 		
 	}
+	
+	/** Walks the values of the list in a single pass.
+	 */
+	private class ValueIterator implements Iterator<String> {
+		
+		private Iterator<DataListContent> itemIterator;
+		private Container container;
+		private int idx;
+		private Resolveable next;
+		
+		public ValueIterator() {
+			itemIterator = content.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			
+			DataListContent item;
+			
+			try {
+				
+				while( next == null ) {
+					
+					if( container != null && idx < container.size() ) {
+						next = container.get( idx++ );
+						continue;
+					}
+					
+					container = null;
+					
+					if( !itemIterator.hasNext() )
+						return false;
+					
+					item = itemIterator.next();
+					
+					if( item instanceof Container ) {
+						container = ( Container )item;
+						idx = 0;
+					}
+					else
+						next = ( Resolveable )item;
+				}
+				
+				return true;
+			}
+			catch( NotDerivableException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+
+		@Override
+		public String next() {
+			
+			Resolveable r;
+			
+			if( !hasNext() )
+				throw new NoSuchElementException();
+			
+			r = next;
+			next = null;
+			
+			try {
+				return r.getValue();
+			}
+			catch( NotDerivableException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException( "Data lists are read-only." );
+		}
+	}
 }
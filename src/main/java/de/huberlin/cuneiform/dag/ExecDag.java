@@ -39,6 +39,8 @@ import java.util.Map;
 import java.util.Set;
 
 import de.huberlin.cuneiform.language.DefTask;
+import de.huberlin.cuneiform.monitor.EngineMonitor;
+import de.huberlin.cuneiform.monitor.Probe;
 
 public class ExecDag extends CuneiformDag {
 	
@@ -48,7 +50,11 @@ public class ExecDag extends CuneiformDag {
 		super( dagid );
 	}
 
-	private void update() {
+	/** Enumerates the invocations of all task nodes whose parameter sizes
+	 * have become known. Registered listeners are told about each new
+	 * invocation.
+	 */
+	protected void update() {
 		
 		boolean update;
 		int i;
@@ -59,6 +65,11 @@ public class ExecDag extends CuneiformDag {
 		Invocation invocation;
 		Resolveable resolveable;
 		String taskName;
+		Object span;
+		long start;
+		
+		span = Probe.begin( Probe.PHASE_ENUMERATE );
+		start = System.nanoTime();
 
 		do {
 			
@@ -120,6 +131,7 @@ public class ExecDag extends CuneiformDag {
 						}
 						
 						taskNode.addInvocation( invocation );
+						fireInvocationAdded( invocation );
 						update = true;
 
 
@@ -140,6 +152,8 @@ public class ExecDag extends CuneiformDag {
 			
 		} while( update );
 		
+		getMonitor().addEnumeration( System.nanoTime()-start );
+		Probe.end( span, getDagId() );
 
 	}
 	
@@ -179,6 +193,7 @@ public class ExecDag extends CuneiformDag {
 	public Set<Invocation> getReadyInvocationSet() {
 		
 		Set<Invocation> set;
+		EngineMonitor monitor;
 		
 		set = new HashSet<>();
 		
@@ -186,6 +201,19 @@ public class ExecDag extends CuneiformDag {
 			if( invocation.isReady() )
 				set.add( invocation );
 		
+		monitor = getMonitor();
+		monitor.setReadyQueueLength( set.size() );
+		
+		// remember when invocations became ready to measure dispatch latency
+		if( monitor.isRegistered() )
+			for( Invocation invocation : set )
+				try {
+					monitor.noteReady( invocation.getSignature() );
+				}
+				catch( NotDerivableException e ) {
+					// ignore invocations without signature
+				}
+		
 		return set;
 	}
 	
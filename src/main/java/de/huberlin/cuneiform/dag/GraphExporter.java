@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.dag;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Writes task and invocation graphs as DOT or GraphML.
+ * 
+ * Nodes and edges are written one by one as the graph is traversed, so the
+ * memory needed does not grow with the size of the output. Only the
+ * aggregated invocation graph keeps a counter per task node and per pair
+ * of connected task nodes.
+ * 
+ * The invocation graph contains only invocations that can be enumerated
+ * without running anything, i.e., invocations whose inputs have a known
+ * cardinality.
+ */
+public class GraphExporter {
+	
+	public static final int FORMAT_DOT = 0;
+	public static final int FORMAT_GRAPHML = 1;
+	
+	public static final int VIEW_TASK = 0;
+	public static final int VIEW_INVOCATION = 1;
+	public static final int VIEW_AGGREGATE = 2;
+	
+	private Writer writer;
+	private int format;
+	
+	public GraphExporter( Writer writer, int format ) {
+		
+		if( writer == null )
+			throw new NullPointerException( "Writer must not be null." );
+		
+		if( format != FORMAT_DOT && format != FORMAT_GRAPHML )
+			throw new RuntimeException( "Graph format not recognized." );
+		
+		this.writer = writer;
+		this.format = format;
+	}
+	
+	/** Writes a view of a workflow graph.
+	 * 
+	 * @param dag The workflow graph.
+	 * @param view One of VIEW_TASK, VIEW_INVOCATION, and VIEW_AGGREGATE.
+	 */
+	public void export( ExecDag dag, int view ) throws IOException {
+		
+		switch( view ) {
+		
+			case VIEW_TASK : writeTaskGraph( dag ); break;
+			case VIEW_INVOCATION : writeInvocationGraph( dag ); break;
+			case VIEW_AGGREGATE : writeAggregateGraph( dag ); break;
+			default : throw new RuntimeException( "Graph view not recognized." );
+		}
+	}
+	
+	/** Writes the graph of workflow elements relevant for the targets.
+	 * 
+	 * Data nodes are left out. Edges from the element determining a task
+	 * node's task are dotted.
+	 * 
+	 * @param dag The workflow graph.
+	 */
+	public void writeTaskGraph( CuneiformDag dag ) throws IOException {
+		
+		TaskNode taskNode;
+		List<WfElement> parentList;
+		
+		if( dag == null )
+			throw new NullPointerException( "DAG must not be null." );
+		
+		writeHeader();
+		
+		for( WfElement element : dag.getRelevantWfElementSet() ) {
+			
+			if( element instanceof DataNode )
+				continue;
+			
+			writeElement( element );
+			
+			if( element instanceof TaskNode ) {
+				
+				taskNode = ( TaskNode )element;
+				parentList = taskNode.getNonTaskParentList();
+				
+				writeEdge( taskNode.getTaskParent().getDotId(), element.getDotId(), true, 0 );
+			}
+			else
+				parentList = element.getParentList();
+			
+			for( WfElement parent : parentList ) {
+				
+				if( parent instanceof DataNode )
+					continue;
+				
+				writeEdge( parent.getDotId(), element.getDotId(), false, 0 );
+			}
+		}
+		
+		writeFooter();
+	}
+	
+	/** Writes one node per invocation and an edge from every invocation to
+	 * each invocation consuming its outputs.
+	 * 
+	 * @param dag The workflow graph.
+	 */
+	public void writeInvocationGraph( ExecDag dag ) throws IOException {
+		
+		if( dag == null )
+			throw new NullPointerException( "DAG must not be null." );
+		
+		writeHeader();
+		
+		for( Invocation invocation : dag.getInvocationSet() ) {
+			
+			writeNode( getNodeId( invocation ), getLabel( invocation ), "box", 0 );
+			
+			for( Invocation parent : invocation.getParentInvocationSet() )
+				writeEdge( getNodeId( parent ), getNodeId( invocation ), false, 0 );
+		}
+		
+		writeFooter();
+	}
+	
+	/** Writes one node per task node, labeled with its number of
+	 * invocations, and an edge between two task nodes if any invocation of
+	 * the one consumes outputs of an invocation of the other. Edges are
+	 * labeled with the number of such invocation pairs.
+	 * 
+	 * @param dag The workflow graph.
+	 */
+	public void writeAggregateGraph( ExecDag dag ) throws IOException {
+		
+		Map<TaskNode,int[]> countMap;
+		Map<TaskNode,Map<TaskNode,int[]>> edgeMap;
+		Map<TaskNode,int[]> parentMap;
+		int[] count;
+		String label;
+		
+		if( dag == null )
+			throw new NullPointerException( "DAG must not be null." );
+		
+		countMap = new HashMap<>();
+		edgeMap = new HashMap<>();
+		
+		for( TaskNode taskNode : dag.getRelevantTaskNodeSet() )
+			countMap.put( taskNode, new int[ 1 ] );
+		
+		for( Invocation invocation : dag.getInvocationSet() ) {
+			
+			countMap.get( invocation.getTaskNode() )[ 0 ]++;
+			
+			parentMap = edgeMap.get( invocation.getTaskNode() );
+			if( parentMap == null ) {
+				
+				parentMap = new HashMap<>();
+				edgeMap.put( invocation.getTaskNode(), parentMap );
+			}
+			
+			for( Invocation parent : invocation.getParentInvocationSet() ) {
+				
+				count = parentMap.get( parent.getTaskNode() );
+				if( count == null ) {
+					
+					count = new int[ 1 ];
+					parentMap.put( parent.getTaskNode(), count );
+				}
+				
+				count[ 0 ]++;
+			}
+		}
+		
+		writeHeader();
+		
+		for( TaskNode taskNode : countMap.keySet() ) {
+			
+			try {
+				label = taskNode.getDefTaskExample().getTaskName();
+			}
+			catch( NotDerivableException e ) {
+				label = "?";
+			}
+			
+			writeNode( taskNode.getDotId(), label, "box", countMap.get( taskNode )[ 0 ] );
+		}
+		
+		for( TaskNode taskNode : edgeMap.keySet() ) {
+			
+			parentMap = edgeMap.get( taskNode );
+			
+			for( TaskNode parent : parentMap.keySet() )
+				writeEdge( parent.getDotId(), taskNode.getDotId(), false, parentMap.get( parent )[ 0 ] );
+		}
+		
+		writeFooter();
+	}
+	
+	private void writeElement( WfElement element ) throws IOException {
+		
+		String label, shape;
+		
+		if( format == FORMAT_DOT ) {
+			
+			writer.write( element.getDotNode() );
+			writer.write( '\n' );
+			return;
+		}
+		
+		label = "";
+		shape = "plaintext";
+		
+		if( element instanceof TaskNode )
+			shape = "box";
+		else if( element instanceof AnonymousJunction )
+			shape = "point";
+		else if( element instanceof NamedJunction )
+			label = ( ( NamedJunction )element ).getJunctionName();
+		else if( element instanceof DefTaskNode )
+			label = ( ( DefTaskNode )element ).getTaskName();
+		
+		writeNode( element.getDotId(), label, shape, 0 );
+	}
+	
+	private void writeHeader() throws IOException {
+		
+		if( format == FORMAT_DOT ) {
+			
+			writer.write( "digraph {\n" );
+			return;
+		}
+		
+		writer.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+		writer.write( "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n" );
+		writer.write( "<key id=\"label\" for=\"all\" attr.name=\"label\" attr.type=\"string\"/>\n" );
+		writer.write( "<key id=\"shape\" for=\"node\" attr.name=\"shape\" attr.type=\"string\"/>\n" );
+		writer.write( "<key id=\"count\" for=\"all\" attr.name=\"count\" attr.type=\"int\"/>\n" );
+		writer.write( "<key id=\"style\" for=\"edge\" attr.name=\"style\" attr.type=\"string\"/>\n" );
+		writer.write( "<graph edgedefault=\"directed\">\n" );
+	}
+	
+	private void writeFooter() throws IOException {
+		
+		if( format == FORMAT_DOT ) {
+			
+			writer.write( "}\n" );
+			return;
+		}
+		
+		writer.write( "</graph>\n</graphml>\n" );
+	}
+	
+	/** Writes a node.
+	 * 
+	 * @param count The number of invocations the node stands for or 0 if the
+	 *              node is not aggregated.
+	 */
+	private void writeNode( String id, String label, String shape, int count ) throws IOException {
+		
+		if( format == FORMAT_DOT ) {
+			
+			writer.write( id );
+			writer.write( " [label=\"" );
+			writer.write( escapeDot( label ) );
+			if( count > 0 )
+				writer.write( " ("+count+")" );
+			writer.write( "\",shape=" );
+			writer.write( shape );
+			writer.write( "];\n" );
+			return;
+		}
+		
+		writer.write( "<node id=\"" );
+		writer.write( id );
+		writer.write( "\"><data key=\"label\">" );
+		writer.write( escapeXml( label ) );
+		writer.write( "</data><data key=\"shape\">" );
+		writer.write( shape );
+		writer.write( "</data>" );
+		if( count > 0 )
+			writer.write( "<data key=\"count\">"+count+"</data>" );
+		writer.write( "</node>\n" );
+	}
+	
+	/** Writes an edge.
+	 * 
+	 * @param dotted True if the edge connects a task node with its task.
+	 * @param count The number of invocation pairs the edge stands for or 0 if
+	 *              the edge is not aggregated.
+	 */
+	private void writeEdge( String source, String target, boolean dotted, int count ) throws IOException {
+		
+		if( format == FORMAT_DOT ) {
+			
+			writer.write( source );
+			writer.write( " -> " );
+			writer.write( target );
+			if( dotted )
+				writer.write( "[style=dotted]" );
+			if( count > 0 )
+				writer.write( " [label=\""+count+"\"]" );
+			writer.write( ";\n" );
+			return;
+		}
+		
+		writer.write( "<edge source=\"" );
+		writer.write( source );
+		writer.write( "\" target=\"" );
+		writer.write( target );
+		writer.write( "\">" );
+		if( dotted )
+			writer.write( "<data key=\"style\">dotted</data>" );
+		if( count > 0 )
+			writer.write( "<data key=\"count\">"+count+"</data>" );
+		writer.write( "</edge>\n" );
+	}
+	
+	private static String getLabel( Invocation invocation ) {
+		
+		// the signature is left out since deriving it is expensive
+		try {
+			return invocation.getTaskName();
+		}
+		catch( NotDerivableException e ) {
+			return "?";
+		}
+	}
+	
+	private static String getNodeId( Invocation invocation ) {
+		return "invocation"+invocation.getId();
+	}
+	
+	private static String escapeDot( String s ) {
+		return s.replace( "\\", "\\\\" ).replace( "\"", "\\\"" );
+	}
+	
+	private static String escapeXml( String s ) {
+		return s.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" ).replace( "\"", "&quot;" );
+	}
+}
@@ -32,7 +32,8 @@
 
 package de.huberlin.cuneiform.dag;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -46,11 +47,27 @@ import org.json.JSONObject;
 import de.huberlin.cuneiform.common.Constant;
 import de.huberlin.cuneiform.common.ForeignLangCatalog;
 import de.huberlin.cuneiform.language.DefTask;
+import de.huberlin.cuneiform.monitor.Probe;
 
 
+/** A single application of a task to concrete arguments.
+ * 
+ * Invocations are kept compact since a workflow may enumerate millions of
+ * them. An invocation's id, task name, state, signature, output sizes and
+ * outputs are held in the invocation store of its workflow graph, in which
+ * the invocation occupies a slot. Parameter bindings are held in arrays of
+ * parameter name handles into the symbol table and their values. Once an
+ * invocation is computed, its signature and the set of its parent
+ * invocations are fixed in the store and its input bindings are released.
+ */
 public abstract class Invocation implements Computable {
 	
 	private static int runningId;
+	
+	public static final int DEFAULT_SPILL_THRESHOLD = 100000;
+	
+	private static int spillThreshold = DEFAULT_SPILL_THRESHOLD;
+	private static final int[] NO_ID = {};
 
 		
 	public static final String REPORT_FILENAME = "__report__.txt";
@@ -69,69 +86,131 @@ public abstract class Invocation implements Computable {
 	public static final String FUN_USERLOG = "logmsg";
 
 
-	private int id;
-	private List<Integer> sizeList;
-	private List<DataList> dataListList;
+	private int slot;
+	
+	private volatile Binding binding;
 	
-	private Map<String,Resolveable> singleParamMap;
-	private Map<String,DataList> reduceParamMap;
 	private TaskNode taskNode;
 	
 	protected Invocation( TaskNode taskNode ) throws NotDerivableException {
 		
-		int i;
+		setTaskNode( taskNode );
 		
-		sizeList = new LinkedList<>();
-		dataListList = new LinkedList<>();
+		binding = new Binding();
 		
-		setTaskNode( taskNode );
+		slot = getStore().add( this, nextId(), nOutputChannel() );
+	}
+	
+	public void bindOutput( String outputName, JSONArray array ) throws NotDerivableException, JSONException {
+		
+		int[] handleArray;
+		int i;
+		
+		if( array == null )
+			throw new NullPointerException( "JSON array must not be null." );
 		
-		for( i = 0; i < nOutputChannel(); i++ ) {
+		if( array.length() > spillThreshold ) {
 			
-			sizeList.add( null );
-			dataListList.add( null );
+			try {
+				bindOutput( outputName, MappedDataList.create( array ) );
+			}
+			catch( IOException e ) {
+				throw new RuntimeException( "Could not spill output '"+outputName+"'.", e );
+			}
+			
+			return;
 		}
 		
-		singleParamMap = new HashMap<>();
-		reduceParamMap = new HashMap<>();
-		
-		setId();
+		handleArray = new int[ array.length() ];
+		for( i = 0; i < array.length(); i++ )
+			handleArray[ i ] = getSymbolTable().intern( array.getString( i ) );
 		
+		bindOutput( outputName, handleArray );
 	}
 	
-	public void bindOutput( String outputName, JSONArray array ) throws NotDerivableException, JSONException {
-		
-		DataList dataList;
+	/** Binds an output to a list of values, e.g., read back from a journal
+	 * or taken from an identical invocation.
+	 * 
+	 * A view of a memory-mapped list is bound as it is, so the values are
+	 * neither copied to the heap nor spilled once more.
+	 * 
+	 * @param outputName The name of the output.
+	 * @param valueList The values.
+	 */
+	public void bindOutput( String outputName, List<String> valueList ) throws NotDerivableException {
+		
+		int[] handleArray;
 		int i;
 		
+		if( valueList == null )
+			throw new NullPointerException( "Value list must not be null." );
+		
+		if( valueList.size() > spillThreshold ) {
+			
+			try {
+				bindOutput( outputName, MappedDataList.create( valueList ) );
+			}
+			catch( IOException e ) {
+				throw new RuntimeException( "Could not spill output '"+outputName+"'.", e );
+			}
+			
+			return;
+		}
+		
+		handleArray = new int[ valueList.size() ];
+		i = 0;
+		for( String value : valueList )
+			handleArray[ i++ ] = getSymbolTable().intern( value );
+		
+		bindOutput( outputName, handleArray );
+	}
+	
+	private void bindOutput( String outputName, int[] handleArray ) throws NotDerivableException {
+		getStore().bind( slot, getOutputIndex( outputName ), handleArray );
+	}
+	
+	private void bindOutput( String outputName, MappedDataList list ) throws NotDerivableException {
+		getStore().bind( slot, getOutputIndex( outputName ), list );
+	}
+	
+	private int getOutputIndex( String outputName ) throws NotDerivableException {
+		
 		if( outputName == null )
 			throw new NullPointerException( "Output name must not be null." );
 		
 		if( outputName.isEmpty() )
 			throw new RuntimeException( "Output name must not be empty." );
 		
-		if( array == null )
-			throw new NullPointerException( "JSON array must not be null." );
+		return getDefTask().outputIndexOf( outputName );
+	}
+	
+	/** Binds a streamed output to its named pipe before the invocation runs.
+	 * 
+	 * The binding lets the single consumer of the output become ready, so
+	 * that producer and consumer can run at the same time. The invocation
+	 * is not considered computed until its report binds the output for good.
+	 * 
+	 * @param outputName The name of the streamed output.
+	 */
+	public void bindStream( String outputName ) throws NotDerivableException {
 		
-		dataList = new DataList();
+		int i;
 		
-		for( i = 0; i < array.length(); i++ )
-			dataList.add( new DataItem( array.getString( i ) ) );
+		if( !isOutputStream( outputName ) )
+			throw new RuntimeException( "Output '"+outputName+"' is not streamed." );
 		
-		i = getDefTask().outputIndexOf( outputName );
+		i = getOutputChannel( outputName );
 		
-		dataListList.set( i, dataList );
-		try {
-			sizeList.set( i, dataList.size() );
-		}
-		catch( NotDerivableException e ) {
-			throw new RuntimeException(
-				"Trying to bind data list of unknown size." );
-		}
+		if( getStore().isBound( slot, i ) && !isPending( i ) )
+			throw new RuntimeException( "Output '"+outputName+"' is already bound." );
+		
+		getStore().bindPending( slot, i, getSymbolTable().intern( getStreamFilename( outputName ) ) );
 	}
 	
 	public void bindParam( String paramName, Resolveable content ) {
 		
+		int i;
+		
 		if( content == null )
 			throw new NullPointerException(
 				"Data list content must not be null." );
@@ -143,11 +222,25 @@ public abstract class Invocation implements Computable {
 		if( paramName.isEmpty() )
 			throw new RuntimeException( "Parameter name must not be empty." );
 		
-		singleParamMap.put( paramName, content );
+		checkBound();
+		
+		i = indexOf( binding.singleParamIdArray, internParamName( paramName ) );
+		if( i < 0 ) {
+			
+			i = binding.singleParamIdArray.length;
+			binding.singleParamIdArray = Arrays.copyOf( binding.singleParamIdArray, i+1 );
+			binding.singleParamIdArray[ i ] = internParamName( paramName );
+			binding.singleParamArray = Arrays.copyOf( binding.singleParamArray, i+1 );
+		}
+		
+		binding.singleParamArray[ i ] = content;
+		getStore().clearSignature( slot );
 	}
 	
 	public void bindParam( String paramName, DataList content ) {
 		
+		int i;
+		
 		if( content == null )
 			throw new NullPointerException(
 				"Data list content must not be null." );
@@ -159,10 +252,86 @@ public abstract class Invocation implements Computable {
 		if( paramName.isEmpty() )
 			throw new RuntimeException( "Parameter name must not be empty." );
 		
-		reduceParamMap.put( paramName, content );
+		checkBound();
+		
+		i = indexOf( binding.reduceParamIdArray, internParamName( paramName ) );
+		if( i < 0 ) {
+			
+			i = binding.reduceParamIdArray.length;
+			binding.reduceParamIdArray = Arrays.copyOf( binding.reduceParamIdArray, i+1 );
+			binding.reduceParamIdArray[ i ] = internParamName( paramName );
+			binding.reduceParamArray = Arrays.copyOf( binding.reduceParamArray, i+1 );
+		}
+		
+		binding.reduceParamArray[ i ] = content;
+		getStore().clearSignature( slot );
 	}
 	
 	public void evalReport( Set<JsonReportEntry> report ) throws JSONException, NotDerivableException {
+		
+		Object span;
+		
+		span = Probe.begin( Probe.PHASE_EVAL_REPORT );
+		bindReport( report );
+		Probe.end( span, getTaskName() );
+		
+		checkComputed();
+	}
+	
+	/** Binds all outputs to lists of values without going through a report.
+	 * 
+	 * @param outputMap A map from output names to values.
+	 */
+	public void evalOutputMap( Map<String,List<String>> outputMap ) throws NotDerivableException {
+		
+		Object span;
+		List<String> valueList;
+		
+		if( outputMap == null )
+			throw new NullPointerException( "Output map must not be null." );
+		
+		span = Probe.begin( Probe.PHASE_EVAL_REPORT );
+		
+		for( String outputName : getOutputNameList() ) {
+			
+			valueList = outputMap.get( outputName );
+			if( valueList == null )
+				throw new RuntimeException( "No values given for output '"+outputName+"'." );
+			
+			bindOutput( outputName, valueList );
+		}
+		
+		Probe.end( span, getTaskName() );
+		
+		checkComputed();
+	}
+	
+	private void checkComputed() throws NotDerivableException {
+		
+		if( isComputed() ) {
+			
+			releaseParams();
+			taskNode.getDag().fireInvocationComputed( this );
+		}
+	}
+	
+	/** Drops the input bindings of a computed invocation.
+	 * 
+	 * The signature and the parent invocations are fixed in the store first,
+	 * so both remain available afterwards.
+	 */
+	private void releaseParams() throws NotDerivableException {
+		
+		if( binding == null )
+			return;
+		
+		getStore().setSignature( slot, deriveSignature() );
+		getStore().release( slot, getParentInvocationSet() );
+		
+		binding = null;
+	}
+	
+	private void bindReport( Set<JsonReportEntry> report ) throws JSONException, NotDerivableException {
 
 		JSONObject payload;
 		
@@ -192,6 +361,21 @@ public abstract class Invocation implements Computable {
 		
 	}
 	
+	/** Returns the file name backing a streamed output.
+	 * 
+	 * The name is the normalized form of the output's default value.
+	 * 
+	 * @param outputName The name of the streamed output.
+	 * @return The normalized file name.
+	 */
+	public String getStreamFilename( String outputName ) throws NotDerivableException {
+		return getSignature()+"_"+getOutputChannel( outputName )+"_"+outputName;
+	}
+	
+	public Set<String> getStreamOutputNameSet() throws NotDerivableException {
+		return getDefTask().getStreamOutputNameSet();
+	}
+	
 	public String getBody() throws NotDerivableException {
 		return getDefTask().getBody();
 	}
@@ -219,7 +403,7 @@ public abstract class Invocation implements Computable {
 			throw new IndexOutOfBoundsException(
 				"Output channel must not be smaller than 0." );
 		
-		list = dataListList.get( outputChannel );
+		list = getStore().getDataList( slot, outputChannel );
 		
 		if( list == null )
 			throw new NotDerivableException(
@@ -243,7 +427,7 @@ public abstract class Invocation implements Computable {
 	}
 	
 	public int getId() {
-		return id;
+		return getStore().getId( slot );
 	}
 	
 	public List<String> getOutputNameList() throws NotDerivableException {
@@ -259,6 +443,7 @@ public abstract class Invocation implements Computable {
 	public DataList getDataListBoundToParam( String paramName ) {
 		
 		DataList dataList;
+		int i;
 		
 		if( paramName == null )
 			throw new NullPointerException(
@@ -267,18 +452,22 @@ public abstract class Invocation implements Computable {
 		if( paramName.isEmpty() )
 			throw new RuntimeException( "Parameter name must not be empty." );
 		
+		checkBound();
+		
 		dataList = new DataList();
 		
-		if( singleParamMap.containsKey( paramName ) ) {
+		i = indexOf( binding.singleParamIdArray, getParamId( paramName ) );
+		if( i >= 0 ) {
 			
-			dataList.add( singleParamMap.get( paramName ) );
+			dataList.add( binding.singleParamArray[ i ] );
 			
 			return dataList;
 		}
 		
-		if( reduceParamMap.containsKey( paramName ) ) {
+		i = indexOf( binding.reduceParamIdArray, getParamId( paramName ) );
+		if( i >= 0 ) {
 			
-			dataList.add( reduceParamMap.get( paramName ) );
+			dataList.add( binding.reduceParamArray[ i ] );
 			
 			return dataList;
 		}
@@ -293,8 +482,8 @@ public abstract class Invocation implements Computable {
 		
 		set = new HashSet<>();
 		
-		set.addAll( singleParamMap.keySet() );
-		set.addAll( reduceParamMap.keySet() );
+		set.addAll( getSingleParamNameSet() );
+		set.addAll( getReduceParamNameSet() );
 		
 		return set;
 	}
@@ -304,7 +493,10 @@ public abstract class Invocation implements Computable {
 	}
 	
 	public Set<String> getReduceParamNameSet() {
-		return reduceParamMap.keySet();
+		
+		checkBound();
+		
+		return toParamNameSet( binding.reduceParamIdArray );
 	}
 	
 	public Set<String> getSingleOutputNameSet() throws NotDerivableException {
@@ -312,12 +504,15 @@ public abstract class Invocation implements Computable {
 	}
 	
 	public Set<String> getSingleParamNameSet() {
-		return singleParamMap.keySet();
+		
+		checkBound();
+		
+		return toParamNameSet( binding.singleParamIdArray );
 	}
 	
 	public Resolveable getResolveableBoundToSingleParam( String paramName ) {
 		
-		Resolveable item;
+		int i;
 		
 		if( paramName == null )
 			throw new NullPointerException(
@@ -326,14 +521,16 @@ public abstract class Invocation implements Computable {
 		if( paramName.isEmpty() )
 			throw new RuntimeException( "Parameter name must not be empty." );
 		
-		item = singleParamMap.get( paramName );
+		checkBound();
 		
-		if( item == null )
+		i = indexOf( binding.singleParamIdArray, getParamId( paramName ) );
+		
+		if( i < 0 )
 			throw new NullPointerException(
 				"The parameter with the name '"+paramName
 				+"' has not been bound." );
 		
-		return item;
+		return binding.singleParamArray[ i ];
 	}
 	
 	public int getStateId() {
@@ -348,7 +545,11 @@ public abstract class Invocation implements Computable {
 	}
 	
 	public String getStateLabel() {
-		return STATE_LABEL[ getStateId() ];
+		return getStateLabel( getStateId() );
+	}
+	
+	public static String getStateLabel( int stateId ) {
+		return STATE_LABEL[ stateId ];
 	}
 	
 	public int getOutputChannel( String outputName ) throws NotDerivableException {
@@ -366,14 +567,20 @@ public abstract class Invocation implements Computable {
 	public Set<Invocation> getParentInvocationSet() {
 		
 		Set<Invocation> set;
+		Binding b;
+		
+		// the bindings are dropped only after the parents are fixed
+		b = binding;
+		if( b == null )
+			return getStore().getParentInvocationSet( slot );
 		
 		set = new HashSet<>();
 		
-		for( Resolveable res : singleParamMap.values() )
+		for( Resolveable res : b.singleParamArray )
 			if( res.isInvocation() )
 				set.add( res.getInvocation() );
 		
-		for( DataList dataList : reduceParamMap.values() )
+		for( DataList dataList : b.reduceParamArray )
 			set.addAll( dataList.getInvocationSet() );
 		
 		return set;
@@ -381,7 +588,7 @@ public abstract class Invocation implements Computable {
 	
 	public DataList getReduceParam( String paramName ) {
 		
-		DataList list;
+		int i;
 		
 		if( paramName == null )
 			throw new NullPointerException(
@@ -390,14 +597,16 @@ public abstract class Invocation implements Computable {
 		if( paramName.isEmpty() )
 			throw new RuntimeException( "Parameter name must not be empty." );
 		
-		list = reduceParamMap.get( paramName );
+		checkBound();
 		
-		if( list == null )
+		i = indexOf( binding.reduceParamIdArray, getParamId( paramName ) );
+		
+		if( i < 0 )
 			throw new NullPointerException(
 				"The parameter with the name '"+paramName
 				+"' has not been bound." );
 		
-		return list;
+		return binding.reduceParamArray[ i ];
 		
 	}
 	
@@ -406,24 +615,26 @@ public abstract class Invocation implements Computable {
 		List<String> list;
 		DataList l;
 		Resolveable c;
-		int i;
+		int i, j;
+		
+		checkBound();
 		
 		list = new LinkedList<>();
 		
-		for( String paramName : singleParamMap.keySet() )			
-			if( this.isParamStage( paramName ) ) {
+		for( j = 0; j < binding.singleParamIdArray.length; j++ )
+			if( this.isParamStage( getParamName( binding.singleParamIdArray[ j ] ) ) ) {
 				
-				c = singleParamMap.get( paramName );
+				c = binding.singleParamArray[ j ];
 				if( c == null )
 					throw new NotDerivableException( "Data item has no realization." );
 				
 				list.add( c.getValue() );
 			}
 		
-		for( String paramName : reduceParamMap.keySet() )			
-			if( this.isParamStage( paramName ) ) {
+		for( j = 0; j < binding.reduceParamIdArray.length; j++ )
+			if( this.isParamStage( getParamName( binding.reduceParamIdArray[ j ] ) ) ) {
 				
-				l = reduceParamMap.get( paramName );
+				l = binding.reduceParamArray[ j ];
 				if( l == null )
 					throw new NotDerivableException( "Data item has no realization." );
 				
@@ -445,7 +656,7 @@ public abstract class Invocation implements Computable {
 		
 		for( i = 0; i < taskNode.nOutputChannel(); i++ ) {
 			
-			cur = dataListList.get( i );
+			cur = getStore().getDataList( slot, i );
 			
 			if( cur == null )
 				throw new NotDerivableException(
@@ -460,7 +671,7 @@ public abstract class Invocation implements Computable {
 	}
 	
 	public String getTaskName() throws NotDerivableException {
-		return singleParamMap.get( Constant.TOKEN_TASK ).getValue();
+		return getStore().getTaskName( slot );
 	}
 	
 	public TaskNode getTaskNode() {
@@ -475,11 +686,37 @@ public abstract class Invocation implements Computable {
 		return taskNode.getWfName();
 	}
 	
+	/** Returns the signature identifying the invocation across runs.
+	 * 
+	 * The signature is cached once it is derivable and no parent invocation
+	 * is still running, i.e., once it can no longer change.
+	 * 
+	 * @return The signature.
+	 */
 	public long getSignature() throws NotDerivableException {
 		
+		long h;
+		
+		if( getStore().hasSignature( slot ) )
+			return getStore().getSignature( slot );
+		
+		h = deriveSignature();
+		
+		for( Invocation parent : getParentInvocationSet() )
+			if( !parent.isComputed() )
+				return h;
+		
+		getStore().setSignature( slot, h );
+		
+		return h;
+	}
+	
+	private long deriveSignature() throws NotDerivableException {
+		
 		long hash;
-		int i;
+		int i, j;
 		DataList list;
+		String key;
 		
 		hash = add( add( 0, getTaskName() ), getBody() );
 		
@@ -505,13 +742,16 @@ public abstract class Invocation implements Computable {
 			hash = add( hash, outputName );
 		}
 		
-		for( String key : singleParamMap.keySet() )
-			hash = add( hash, key+singleParamMap.get( key ).getValue() );
+		checkBound();
+		
+		for( j = 0; j < binding.singleParamIdArray.length; j++ )
+			hash = add( hash, getParamName( binding.singleParamIdArray[ j ] ), binding.singleParamArray[ j ] );
 		
-		for( String key : reduceParamMap.keySet() ) {
-			list = reduceParamMap.get( key );
+		for( j = 0; j < binding.reduceParamIdArray.length; j++ ) {
+			key = getParamName( binding.reduceParamIdArray[ j ] );
+			list = binding.reduceParamArray[ j ];
 			for( i = 0; i < list.size(); i++ )
-				hash = add( hash, key+i+list.get( i ).getValue() );
+				hash = add( hash, key+i, list.get( i ) );
 		}
 			
 		
@@ -527,23 +767,60 @@ public abstract class Invocation implements Computable {
 	}
 	
 	private static long add( long a, Object b ) {
+		return add( a, b.hashCode() );
+	}
+	
+	private static long add( long a, int h ) {
 		
 		long hash;
 		
 		hash = a;
-		hash = ( hash+( abs( b.hashCode() )%PRIME ) )%PRIME;
+		hash = ( hash+( abs( h )%PRIME ) )%PRIME;
 		
 		return hash;
 	}
 	
+	/** Adds the concatenation of a key and a bound value to a hash.
+	 * 
+	 * The result equals add( a, key+item.getValue() ). For values held in the
+	 * symbol table, the hash code of the concatenation is derived from the
+	 * hash code and length stored with the handle, so the value is never
+	 * built.
+	 */
+	private static long add( long a, String key, Resolveable item ) throws NotDerivableException {
+		
+		Resolveable r;
+		DataItem dataItem;
+		int h, p, len;
+		
+		r = item;
+		while( r instanceof ResolvedInvocationReference )
+			r = ( ( ResolvedInvocationReference )r ).resolve();
+		
+		if( !( r instanceof DataItem ) )
+			return add( a, key+r.getValue() );
+		
+		dataItem = ( DataItem )r;
+		
+		// ( key+value ).hashCode() == key.hashCode()*31^len+value.hashCode()
+		len = dataItem.getValueLength();
+		h = 31;
+		p = 1;
+		while( len > 0 ) {
+			
+			if( ( len & 1 ) != 0 )
+				p *= h;
+			
+			h *= h;
+			len >>>= 1;
+		}
+		
+		return add( a, key.hashCode()*p+dataItem.getValueHash() );
+	}
+	
 	@Override
 	public boolean isComputed() {
-		
-		for( DataList dataList : dataListList )
-			if( dataList == null )
-				return false;
-		
-		return true;
+		return getStore().isComputed( slot );
 	}
 	
 	public boolean isReady() {
@@ -564,6 +841,10 @@ public abstract class Invocation implements Computable {
 		return getDefTask().isOutputStage( outputName );
 	}
 	
+	public boolean isOutputStream( String outputName ) throws NotDerivableException {
+		return getDefTask().isOutputStream( outputName );
+	}
+	
 	public boolean isOutputReduce( String outputName ) throws NotDerivableException {
 		return getDefTask().isOutputReduce( outputName );
 	}
@@ -584,10 +865,23 @@ public abstract class Invocation implements Computable {
 		return taskNode.nOutputChannel();
 	}
 	
+	/** Withdraws the binding of a streamed output that has not been computed.
+	 * 
+	 * Nothing happens if the output is not bound to a named pipe.
+	 * 
+	 * @param outputName The name of the streamed output.
+	 */
+	public void unbindStream( String outputName ) throws NotDerivableException {
+		
+		int i;
+		
+		getStore().unbindPending( slot, getOutputChannel( outputName ) );
+	}
+	
 	public void setSize( int outputChannel, Integer size ) {
 		
 		if( size == null ) {
-			sizeList.set( outputChannel, null );
+			getStore().setSize( slot, outputChannel, InvocationStore.SIZE_UNKNOWN );
 			return;
 		}
 		
@@ -595,7 +889,24 @@ public abstract class Invocation implements Computable {
 			throw new RuntimeException(
 				"Invocation size must not be less than 0." );
 		
-		sizeList.set( outputChannel, size );
+		getStore().setSize( slot, outputChannel, size );
+	}
+	
+	public static int getSpillThreshold() {
+		return spillThreshold;
+	}
+	
+	/** Sets the number of values above which a bound output list is spilled
+	 * to a memory-mapped file instead of being held on the heap.
+	 * 
+	 * @param threshold The spill threshold.
+	 */
+	public static void setSpillThreshold( int threshold ) {
+		
+		if( threshold < 0 )
+			throw new RuntimeException( "Spill threshold must not be negative." );
+		
+		spillThreshold = threshold;
 	}
 	
 	public void setTaskNode( TaskNode taskNode ) {
@@ -608,11 +919,11 @@ public abstract class Invocation implements Computable {
 	
 	public int size( int outputChannel ) throws NotDerivableException {
 		
-		Integer n;
+		int n;
 		
-		n = sizeList.get( outputChannel );
+		n = getStore().getSize( slot, outputChannel );
 
-		if( n == null )
+		if( n == InvocationStore.SIZE_UNKNOWN )
 			throw new NotDerivableException( "No size information given." );
 		
 		return n;
@@ -620,6 +931,18 @@ public abstract class Invocation implements Computable {
 	
 	public String toScript() throws NotDerivableException {
 		
+		Object span;
+		String script;
+		
+		span = Probe.begin( Probe.PHASE_SCRIPT );
+		script = createScript();
+		Probe.end( span, getTaskName() );
+		
+		return script;
+	}
+	
+	private String createScript() throws NotDerivableException {
+		
 		StringBuffer buf;
 		
 		buf = new StringBuffer();
@@ -698,11 +1021,14 @@ public abstract class Invocation implements Computable {
 			ret = this.getTaskName()+"( ";
 		
 		
-			for( String paramName : singleParamMap.keySet() )
-				ret += paramName+" : "+singleParamMap.get( paramName )+" ";
-			
-			for( String paramName : reduceParamMap.keySet() )
-				ret += paramName+" : "+reduceParamMap.get( paramName )+" ";
+			if( binding != null ) {
+				
+				for( i = 0; i < binding.singleParamIdArray.length; i++ )
+					ret += getParamName( binding.singleParamIdArray[ i ] )+" : "+binding.singleParamArray[ i ]+" ";
+				
+				for( i = 0; i < binding.reduceParamIdArray.length; i++ )
+					ret += getParamName( binding.reduceParamIdArray[ i ] )+" : "+binding.reduceParamArray[ i ]+" ";
+			}
 			
 			ret += ")->[";
 			
@@ -777,7 +1103,8 @@ public abstract class Invocation implements Computable {
 		
 
 		// set task name
-		invoc.bindParam( Constant.TOKEN_TASK, new DataItem( taskName ) );
+		invoc.getStore().setTaskName( invoc.slot, taskName );
+		invoc.bindParam( Constant.TOKEN_TASK, new DataItem( invoc.getSymbolTable(), taskName ) );
 
 		defTaskExample = taskNode.getDefTaskExample();
 		
@@ -797,8 +1124,85 @@ public abstract class Invocation implements Computable {
 		return x;
 	}
 	
-	private synchronized void setId() {
-		id = runningId++;
+	private static synchronized int nextId() {
+		return runningId++;
+	}
+	
+	/** Returns the slot the invocation occupies in the invocation store.
+	 */
+	int getSlot() {
+		return slot;
+	}
+	
+	/** Returns a single value bound to an output channel without building
+	 * the data list.
+	 */
+	Resolveable getOutput( int outputChannel, int idx ) throws NotDerivableException {
+		
+		Resolveable item;
+		
+		item = getStore().get( slot, outputChannel, idx );
+		
+		if( item == null )
+			throw new NotDerivableException(
+				"Data list for output channel "+outputChannel
+				+" not bound for invocation signature="
+				+getSignature()+"." );
+		
+		return item;
+	}
+	
+	private InvocationStore getStore() {
+		return taskNode.getDag().getInvocationStore();
+	}
+	
+	private boolean isPending( int outputChannel ) {
+		return getStore().isPending( slot, outputChannel );
+	}
+	
+	private void checkBound() {
+		
+		if( binding == null )
+			throw new RuntimeException(
+				"The input bindings of a computed invocation have been released." );
+	}
+	
+	private static int indexOf( int[] array, int x ) {
+		
+		int i;
+		
+		for( i = 0; i < array.length; i++ )
+			if( array[ i ] == x )
+				return i;
+		
+		return -1;
+	}
+	
+	private SymbolTable getSymbolTable() {
+		return taskNode.getDag().getSymbolTable();
+	}
+	
+	private int internParamName( String paramName ) {
+		return getSymbolTable().intern( paramName );
+	}
+	
+	private int getParamId( String paramName ) {
+		return getSymbolTable().lookup( paramName );
+	}
+	
+	private String getParamName( int paramId ) {
+		return getSymbolTable().get( paramId );
+	}
+	
+	private Set<String> toParamNameSet( int[] paramIdArray ) {
+		
+		Set<String> set;
+		
+		set = new HashSet<>();
+		for( int paramId : paramIdArray )
+			set.add( getParamName( paramId ) );
+		
+		return set;
 	}
 	
 	public String getStageInCollect() throws NotDerivableException {
@@ -934,10 +1338,19 @@ public abstract class Invocation implements Computable {
 							String.valueOf( getOutputChannel( outputName ) ),
 							dereference( outputName ) ) ) );
 				
-				buf.append(
-					symlink(
-						dereference( outputName ),
-						dereference( "CFFILENAME" ) ) );
+				// a streamed output's link has been created before the run
+				if( isOutputStream( outputName ) )
+					buf.append(
+						ifNotFileExists(
+							dereference( "CFFILENAME" ),
+							symlink(
+								dereference( outputName ),
+								dereference( "CFFILENAME" ) ) ) );
+				else
+					buf.append(
+						symlink(
+							dereference( outputName ),
+							dereference( "CFFILENAME" ) ) );
 							
 				buf.append(
 					varDef(
@@ -1064,4 +1477,23 @@ public abstract class Invocation implements Computable {
 	public abstract String symlink( String src, String dest );
 	public abstract String comment( String comment );
 	public abstract String copyArray( String from, String to );
+	
+	/** The input bindings of an invocation, dropped as a whole once the
+	 * invocation is computed.
+	 */
+	private static class Binding {
+		
+		int[] singleParamIdArray;
+		Resolveable[] singleParamArray;
+		int[] reduceParamIdArray;
+		DataList[] reduceParamArray;
+		
+		Binding() {
+			
+			singleParamIdArray = NO_ID;
+			singleParamArray = new Resolveable[ 0 ];
+			reduceParamIdArray = NO_ID;
+			reduceParamArray = new DataList[ 0 ];
+		}
+	}
 }
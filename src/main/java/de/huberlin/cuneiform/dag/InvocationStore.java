@@ -0,0 +1,479 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.huberlin.cuneiform.dag;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/** Holds the state of all invocations of a workflow graph in shared arrays.
+ * 
+ * Each invocation occupies a slot. Its id, task name handle, signature,
+ * state flags and parent offset are kept in primitive arrays indexed by
+ * slot. Sizes and bindings of its output channels are kept in tables
+ * shared by all invocations, starting at the slot's channel offset. A bound
+ * output refers to a run in the shared value table holding the length of
+ * the output followed by the symbol table handles of its values. Outputs
+ * spilled to a memory-mapped file are the only ones held as objects.
+ * 
+ * Slots are never freed. Values a rebound output no longer refers to stay
+ * in the value table, which happens only when a streamed output is bound
+ * for good. All methods are synchronized, since invocations are bound by
+ * dispatcher threads while the scheduler reads them.
+ */
+public class InvocationStore {
+	
+	public static final int SIZE_UNKNOWN = -1;
+	
+	private static final int INITIAL_CAPACITY = 256;
+	private static final int UNBOUND = -1;
+	private static final byte STATE_SIGNATURE = 1;
+	private static final byte STATE_RELEASED = 2;
+	
+	private SymbolTable symbolTable;
+	
+	private int n;
+	private Invocation[] invocationArray;
+	private int[] idArray;
+	private int[] taskNameArray;
+	private int[] channelArray;
+	private byte[] stateArray;
+	private long[] signatureArray;
+	private int[] parentArray;
+	
+	private int nChannel;
+	private int[] sizeTable;
+	private int[] outputTable;
+	private boolean[] pendingTable;
+	
+	private int nValue;
+	private int[] valueTable;
+	
+	private int nParent;
+	private int[] parentTable;
+	
+	private List<MappedDataList> spillList;
+	
+	public InvocationStore( SymbolTable symbolTable ) {
+		
+		if( symbolTable == null )
+			throw new NullPointerException( "Symbol table must not be null." );
+		
+		this.symbolTable = symbolTable;
+		
+		invocationArray = new Invocation[ INITIAL_CAPACITY ];
+		idArray = new int[ INITIAL_CAPACITY ];
+		taskNameArray = new int[ INITIAL_CAPACITY ];
+		channelArray = new int[ INITIAL_CAPACITY ];
+		stateArray = new byte[ INITIAL_CAPACITY ];
+		signatureArray = new long[ INITIAL_CAPACITY ];
+		parentArray = new int[ INITIAL_CAPACITY ];
+		
+		sizeTable = new int[ INITIAL_CAPACITY ];
+		outputTable = new int[ INITIAL_CAPACITY ];
+		pendingTable = new boolean[ INITIAL_CAPACITY ];
+		
+		valueTable = new int[ INITIAL_CAPACITY ];
+		parentTable = new int[ INITIAL_CAPACITY ];
+		
+		spillList = new LinkedList<>();
+	}
+	
+	/** Assigns a slot to a new invocation.
+	 * 
+	 * All output channels start unbound and of unknown size.
+	 * 
+	 * @param invocation The invocation.
+	 * @param id The invocation's id.
+	 * @param nOutputChannel The number of the invocation's output channels.
+	 * @return The slot.
+	 */
+	synchronized int add( Invocation invocation, int id, int nOutputChannel ) {
+		
+		int slot, capacity;
+		
+		if( invocation == null )
+			throw new NullPointerException( "Invocation must not be null." );
+		
+		slot = n;
+		
+		if( slot == idArray.length ) {
+			
+			capacity = 2*slot;
+			
+			invocationArray = Arrays.copyOf( invocationArray, capacity );
+			idArray = Arrays.copyOf( idArray, capacity );
+			taskNameArray = Arrays.copyOf( taskNameArray, capacity );
+			channelArray = Arrays.copyOf( channelArray, capacity );
+			stateArray = Arrays.copyOf( stateArray, capacity );
+			signatureArray = Arrays.copyOf( signatureArray, capacity );
+			parentArray = Arrays.copyOf( parentArray, capacity );
+		}
+		
+		if( nChannel+nOutputChannel > sizeTable.length ) {
+			
+			capacity = 2*Math.max( sizeTable.length, nOutputChannel );
+			
+			sizeTable = Arrays.copyOf( sizeTable, capacity );
+			outputTable = Arrays.copyOf( outputTable, capacity );
+			pendingTable = Arrays.copyOf( pendingTable, capacity );
+		}
+		
+		invocationArray[ slot ] = invocation;
+		idArray[ slot ] = id;
+		taskNameArray[ slot ] = SymbolTable.NO_HANDLE;
+		channelArray[ slot ] = nChannel;
+		
+		Arrays.fill( sizeTable, nChannel, nChannel+nOutputChannel, SIZE_UNKNOWN );
+		Arrays.fill( outputTable, nChannel, nChannel+nOutputChannel, UNBOUND );
+		
+		nChannel += nOutputChannel;
+		n = slot+1;
+		
+		return slot;
+	}
+	
+	synchronized int getId( int slot ) {
+		return idArray[ slot ];
+	}
+	
+	synchronized String getTaskName( int slot ) {
+		
+		int handle;
+		
+		handle = taskNameArray[ slot ];
+		
+		if( handle == SymbolTable.NO_HANDLE )
+			return null;
+		
+		return symbolTable.get( handle );
+	}
+	
+	synchronized void setTaskName( int slot, String taskName ) {
+		taskNameArray[ slot ] = symbolTable.intern( taskName );
+	}
+	
+	synchronized int getSize( int slot, int outputChannel ) {
+		return sizeTable[ channelOf( slot, outputChannel ) ];
+	}
+	
+	synchronized void setSize( int slot, int outputChannel, int size ) {
+		sizeTable[ channelOf( slot, outputChannel ) ] = size;
+	}
+	
+	/** Binds an output channel to a list of values.
+	 * 
+	 * @param slot The invocation's slot.
+	 * @param outputChannel The output channel.
+	 * @param handleArray The symbol table handles of the values.
+	 */
+	synchronized void bind( int slot, int outputChannel, int[] handleArray ) {
+		
+		int c;
+		
+		c = channelOf( slot, outputChannel );
+		
+		outputTable[ c ] = append( handleArray );
+		pendingTable[ c ] = false;
+		sizeTable[ c ] = handleArray.length;
+	}
+	
+	/** Binds an output channel to a list of values spilled to a file.
+	 * 
+	 * @param slot The invocation's slot.
+	 * @param outputChannel The output channel.
+	 * @param list The spilled list.
+	 */
+	synchronized void bind( int slot, int outputChannel, MappedDataList list ) {
+		
+		int c;
+		
+		c = channelOf( slot, outputChannel );
+		
+		spillList.add( list );
+		outputTable[ c ] = -2-( spillList.size()-1 );
+		pendingTable[ c ] = false;
+		sizeTable[ c ] = list.size();
+	}
+	
+	/** Binds an output channel to a single value until it is bound for good.
+	 * 
+	 * @param slot The invocation's slot.
+	 * @param outputChannel The output channel.
+	 * @param handle The symbol table handle of the value.
+	 */
+	synchronized void bindPending( int slot, int outputChannel, int handle ) {
+		
+		int c;
+		
+		c = channelOf( slot, outputChannel );
+		
+		outputTable[ c ] = append( new int[] { handle } );
+		pendingTable[ c ] = true;
+	}
+	
+	synchronized void unbindPending( int slot, int outputChannel ) {
+		
+		int c;
+		
+		c = channelOf( slot, outputChannel );
+		
+		if( pendingTable[ c ] ) {
+			
+			outputTable[ c ] = UNBOUND;
+			pendingTable[ c ] = false;
+		}
+	}
+	
+	synchronized boolean isBound( int slot, int outputChannel ) {
+		return outputTable[ channelOf( slot, outputChannel ) ] != UNBOUND;
+	}
+	
+	synchronized boolean isPending( int slot, int outputChannel ) {
+		return pendingTable[ channelOf( slot, outputChannel ) ];
+	}
+	
+	/** Checks whether all output channels are bound for good.
+	 */
+	synchronized boolean isComputed( int slot ) {
+		
+		int c, end;
+		
+		end = slot+1 < n ? channelArray[ slot+1 ] : nChannel;
+		
+		for( c = channelArray[ slot ]; c < end; c++ )
+			if( outputTable[ c ] == UNBOUND || pendingTable[ c ] )
+				return false;
+		
+		return true;
+	}
+	
+	/** Returns the values bound to an output channel.
+	 * 
+	 * The list refers to the shared value table, so it copies nothing.
+	 * 
+	 * @return The list or null if the output channel is unbound.
+	 */
+	synchronized DataList getDataList( int slot, int outputChannel ) {
+		
+		int output;
+		DataList dataList;
+		
+		output = outputTable[ channelOf( slot, outputChannel ) ];
+		
+		if( output == UNBOUND )
+			return null;
+		
+		dataList = new DataList();
+		
+		if( output < UNBOUND )
+			dataList.add( spillList.get( -2-output ) );
+		else
+			dataList.add( new ValueRun( output ) );
+		
+		return dataList;
+	}
+	
+	/** Returns a single value bound to an output channel.
+	 * 
+	 * @return The value or null if the output channel is unbound.
+	 */
+	synchronized Resolveable get( int slot, int outputChannel, int idx ) throws NotDerivableException {
+		
+		int output;
+		
+		output = outputTable[ channelOf( slot, outputChannel ) ];
+		
+		if( output == UNBOUND )
+			return null;
+		
+		if( output < UNBOUND )
+			return spillList.get( -2-output ).get( idx );
+		
+		return getValue( output, idx );
+	}
+	
+	synchronized boolean hasSignature( int slot ) {
+		return ( stateArray[ slot ] & STATE_SIGNATURE ) != 0;
+	}
+	
+	synchronized long getSignature( int slot ) {
+		return signatureArray[ slot ];
+	}
+	
+	synchronized void setSignature( int slot, long signature ) {
+		
+		signatureArray[ slot ] = signature;
+		stateArray[ slot ] |= STATE_SIGNATURE;
+	}
+	
+	synchronized void clearSignature( int slot ) {
+		stateArray[ slot ] &= ~STATE_SIGNATURE;
+	}
+	
+	/** Fixes the parent invocations of an invocation whose input bindings
+	 * are released.
+	 * 
+	 * @param slot The invocation's slot.
+	 * @param parentSet The parent invocations.
+	 */
+	synchronized void release( int slot, Set<Invocation> parentSet ) {
+		
+		int offset;
+		
+		offset = nParent;
+		
+		if( nParent+1+parentSet.size() > parentTable.length )
+			parentTable = Arrays.copyOf( parentTable, 2*Math.max( parentTable.length, 1+parentSet.size() ) );
+		
+		parentTable[ nParent++ ] = parentSet.size();
+		for( Invocation parent : parentSet )
+			parentTable[ nParent++ ] = parent.getSlot();
+		
+		parentArray[ slot ] = offset;
+		stateArray[ slot ] |= STATE_RELEASED;
+	}
+	
+	/** Returns the parent invocations fixed when the input bindings of an
+	 * invocation were released.
+	 */
+	synchronized Set<Invocation> getParentInvocationSet( int slot ) {
+		
+		Set<Invocation> set;
+		int i, offset;
+		
+		if( ( stateArray[ slot ] & STATE_RELEASED ) == 0 )
+			throw new RuntimeException( "Parent invocations have not been fixed." );
+		
+		set = new HashSet<>();
+		offset = parentArray[ slot ];
+		
+		for( i = 1; i <= parentTable[ offset ]; i++ )
+			set.add( invocationArray[ parentTable[ offset+i ] ] );
+		
+		return set;
+	}
+	
+	public synchronized int size() {
+		return n;
+	}
+	
+	private int channelOf( int slot, int outputChannel ) {
+		
+		if( slot < 0 || slot >= n )
+			throw new IndexOutOfBoundsException( "Unknown slot "+slot+"." );
+		
+		return channelArray[ slot ]+outputChannel;
+	}
+	
+	/** Appends the length of a run of values and their handles to the value
+	 * table.
+	 * 
+	 * @return The offset of the run.
+	 */
+	private int append( int[] handleArray ) {
+		
+		int offset;
+		
+		offset = nValue;
+		
+		if( nValue+1+handleArray.length > valueTable.length )
+			valueTable = Arrays.copyOf( valueTable, 2*Math.max( valueTable.length, 1+handleArray.length ) );
+		
+		valueTable[ nValue++ ] = handleArray.length;
+		System.arraycopy( handleArray, 0, valueTable, nValue, handleArray.length );
+		nValue += handleArray.length;
+		
+		return offset;
+	}
+	
+	private synchronized DataItem getValue( int offset, int idx ) {
+		
+		if( idx < 0 || idx >= valueTable[ offset ] )
+			throw new IndexOutOfBoundsException(
+				"Index "+idx+" exceeds size of data list." );
+		
+		return new DataItem( symbolTable, valueTable[ offset+1+idx ] );
+	}
+	
+	private synchronized int getLength( int offset ) {
+		return valueTable[ offset ];
+	}
+	
+	/** A run of values in the shared value table.
+	 */
+	private class ValueRun implements DataListContent, Container {
+		
+		private int offset;
+		
+		public ValueRun( int offset ) {
+			this.offset = offset;
+		}
+		
+		@Override
+		public int size() {
+			return getLength( offset );
+		}
+		
+		@Override
+		public Resolveable get( int idx ) {
+			return getValue( offset, idx );
+		}
+		
+		@Override
+		public Set<Invocation> getInvocationSet() {
+			return new HashSet<>();
+		}
+		
+		@Override
+		public String toString() {
+			
+			StringBuffer buf;
+			int i;
+			
+			buf = new StringBuffer();
+			for( i = 0; i < size(); i++ ) {
+				
+				if( i > 0 )
+					buf.append( ' ' );
+				
+				buf.append( get( i ) );
+			}
+			
+			return buf.toString();
+		}
+	}
+}
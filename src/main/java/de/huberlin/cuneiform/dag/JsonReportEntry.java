@@ -162,6 +162,17 @@ public class JsonReportEntry {
 			key,
 			value );
 	}
+	
+	public JsonReportEntry( Invocation invoc, String key, JSONObject obj ) throws NotDerivableException {		
+		this(
+			UUID.fromString( invoc.getDagId() ),
+			( long )invoc.getTaskNodeId(),
+			invoc.getTaskName(),
+			invoc.getLangLabel(),
+			invoc.getSignature(),
+			key,
+			obj );
+	}
 
 	public UUID getRunId() {
 		return runId;
@@ -267,7 +278,7 @@ public class JsonReportEntry {
 		if( key.contains( "\\" ) )
 			throw new RuntimeException( "Key must not contain backslash character." );
 		
-		this.key = key;
+		this.key = key.intern();
 	}
 	
 	public void setRunId( UUID runId ) {
@@ -307,7 +318,7 @@ public class JsonReportEntry {
 		if( lang.isEmpty() )
 			throw new RuntimeException( "Language string must not be empty." );
 				
-		this.lang = lang;
+		this.lang = lang.intern();
 	}
 	
 	public void setTaskId( Long taskId ) {		
@@ -333,7 +344,7 @@ public class JsonReportEntry {
 		if( taskname.contains( "\\" ) )
 			throw new RuntimeException( "Taskname must not contain backslash character." );
 		
-		this.taskname = taskname;
+		this.taskname = taskname.intern();
 	}
 	
 	public void setTimestamp( long timestamp ) {		
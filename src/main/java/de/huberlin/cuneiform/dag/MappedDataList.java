@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.dag;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/** A list of values held in a memory-mapped file instead of on the heap.
+ * 
+ * The values are stored one after another as length-prefixed UTF-8 strings,
+ * either in a temporary file the list is spilled to or in a file that
+ * already holds them, e.g., a run journal. An index file holds the position
+ * of each value. Both files are mapped read-only and values are decoded only
+ * when they are accessed. Data files are mapped in segments no value
+ * crosses, so lists can grow beyond the size of a single mapping.
+ */
+public class MappedDataList implements DataListContent, Container {
+	
+	private static final int SEGMENT_SIZE = 1 << 30;
+	private static final int OFFSET_LENGTH = 8;
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private int n;
+	private long end;
+	private ByteBuffer indexBuf;
+	private ByteBuffer[] segmentArray;
+	
+	private MappedDataList( int n, File indexFile, File dataFile, List<Long> boundaryList, long end ) throws IOException {
+		
+		int i;
+		long pos;
+		
+		this.n = n;
+		this.end = end;
+		
+		try( RandomAccessFile raf = new RandomAccessFile( indexFile, "r" ) ) {
+			indexBuf = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, ( long )n*OFFSET_LENGTH );
+		}
+		
+		segmentArray = new ByteBuffer[ boundaryList.size() ];
+		
+		try( RandomAccessFile raf = new RandomAccessFile( dataFile, "r" ) ) {
+			
+			for( i = 0; i < segmentArray.length; i++ ) {
+				
+				pos = boundaryList.get( i );
+				segmentArray[ i ] = raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, pos,
+					( i+1 < segmentArray.length ? boundaryList.get( i+1 ) : end )-pos );
+			}
+		}
+	}
+	
+	/** Returns a read-only view of the values in this list.
+	 * 
+	 * Binding an output to the view shares this list instead of spilling the
+	 * values once more.
+	 * 
+	 * @return The view.
+	 */
+	public List<String> asStringList() {
+		return new StringView();
+	}
+	
+	/** Writes the strings of a JSON array to a new memory-mapped list.
+	 * 
+	 * @param array The JSON array of strings.
+	 * @return The mapped list.
+	 */
+	public static MappedDataList create( JSONArray array ) throws IOException, JSONException {
+		
+		File indexFile, dataFile;
+		int i;
+		
+		if( array == null )
+			throw new NullPointerException( "JSON array must not be null." );
+		
+		indexFile = File.createTempFile( "cf-list", ".idx" );
+		dataFile = File.createTempFile( "cf-list", ".dat" );
+		
+		try( Writer writer = new Writer( indexFile, dataFile ) ) {
+			
+			for( i = 0; i < array.length(); i++ )
+				writer.add( array.getString( i ) );
+			
+			return writer.toList();
+		}
+		finally {
+			delete( indexFile, dataFile );
+		}
+	}
+	
+	/** Writes a list of strings to a new memory-mapped list.
+	 * 
+	 * If the list is a view of a memory-mapped list, nothing is written and
+	 * that list is returned.
+	 * 
+	 * @param valueList The strings.
+	 * @return The mapped list.
+	 */
+	public static MappedDataList create( List<String> valueList ) throws IOException {
+		
+		File indexFile, dataFile;
+		
+		if( valueList == null )
+			throw new NullPointerException( "Value list must not be null." );
+		
+		if( valueList instanceof MappedDataList.StringView )
+			return ( ( MappedDataList.StringView )valueList ).getMappedList();
+		
+		indexFile = File.createTempFile( "cf-list", ".idx" );
+		dataFile = File.createTempFile( "cf-list", ".dat" );
+		
+		try( Writer writer = new Writer( indexFile, dataFile ) ) {
+			
+			for( String value : valueList )
+				writer.add( value );
+			
+			return writer.toList();
+		}
+		finally {
+			delete( indexFile, dataFile );
+		}
+	}
+	
+	/** Maps values a file already holds one after another, each as a
+	 * length-prefixed UTF-8 string. Only the index is written.
+	 * 
+	 * The part of the file holding the values must never change while the
+	 * list is in use.
+	 * 
+	 * @param dataFile The file holding the values.
+	 * @param offset The offset of the first value.
+	 * @param n The number of values.
+	 * @return The mapped list.
+	 */
+	public static MappedDataList map( File dataFile, long offset, int n ) throws IOException {
+		
+		File indexFile;
+		FileInputStream file;
+		long pos;
+		int i, length;
+		
+		if( dataFile == null )
+			throw new NullPointerException( "Data file must not be null." );
+		
+		if( n < 0 )
+			throw new RuntimeException( "Number of values must not be negative." );
+		
+		indexFile = File.createTempFile( "cf-list", ".idx" );
+		file = new FileInputStream( dataFile );
+		
+		try( Writer writer = new Writer( indexFile, offset );
+			DataInputStream data = new DataInputStream( new BufferedInputStream( file, BUFFER_SIZE ) ) ) {
+			
+			file.getChannel().position( offset );
+			pos = offset;
+			
+			for( i = 0; i < n; i++ ) {
+				
+				length = data.readInt();
+				writer.addIndex( pos, length );
+				
+				skipFully( data, length );
+				
+				pos += 4+length;
+			}
+			
+			if( pos > dataFile.length() )
+				throw new IOException(
+					"File '"+dataFile.getAbsolutePath()+"' ends before value "+( n-1 )+"." );
+			
+			return writer.toList( dataFile, pos );
+		}
+		finally {
+			delete( indexFile );
+		}
+	}
+	
+	@Override
+	public Resolveable get( int idx ) {
+		return new MappedItem( getValue( idx ) );
+	}
+	
+	/** Returns the offset in the data file right behind the last value.
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	@Override
+	public Set<Invocation> getInvocationSet() {
+		return new HashSet<>();
+	}
+	
+	@Override
+	public int size() {
+		return n;
+	}
+	
+	@Override
+	public String toString() {
+		return "<"+n+" mapped items>";
+	}
+	
+	private String getValue( int idx ) {
+		
+		long entry;
+		ByteBuffer buf;
+		byte[] b;
+		
+		if( idx < 0 || idx >= n )
+			throw new IndexOutOfBoundsException(
+				"Index "+idx+" exceeds size of mapped data list." );
+		
+		// the segment in the upper half, the position within it in the lower
+		entry = indexBuf.getLong( idx*OFFSET_LENGTH );
+		
+		buf = segmentArray[ ( int )( entry >>> 32 ) ].duplicate();
+		buf.position( ( int )entry );
+		
+		b = new byte[ buf.getInt() ];
+		buf.get( b );
+		
+		return new String( b, StandardCharsets.UTF_8 );
+	}
+	
+	private static void skipFully( InputStream in, long n ) throws IOException {
+		
+		long k;
+		
+		while( n > 0 ) {
+			
+			k = in.skip( n );
+			if( k <= 0 )
+				throw new EOFException();
+			
+			n -= k;
+		}
+	}
+	
+	private static void delete( File... fileArray ) {
+		
+		// mappings stay valid after the files are gone
+		for( File file : fileArray )
+			if( !file.delete() )
+				file.deleteOnExit();
+	}
+	
+	/** A value read from a mapped list.
+	 * 
+	 * Unlike a data item, the value is not added to the symbol table, so
+	 * reading through a huge list does not pile up on the heap.
+	 */
+	private static class MappedItem implements Resolveable {
+		
+		private String value;
+		
+		public MappedItem( String value ) {
+			this.value = value;
+		}
+		
+		@Override
+		public Set<Invocation> getInvocationSet() {
+			return new HashSet<>();
+		}
+
+		@Override
+		public String getValue() {
+			return value;
+		}
+
+		@Override
+		public boolean isInvocation() {
+			return false;
+		}
+
+		@Override
+		public Invocation getInvocation() {
+			throw new UnsupportedOperationException( "Operation not supported." );
+		}
+		
+		@Override
+		public String toString() {
+			return "'"+value+"'";
+		}
+	}
+	
+	private class StringView extends AbstractList<String> {
+
+		@Override
+		public String get( int idx ) {
+			return getValue( idx );
+		}
+
+		public MappedDataList getMappedList() {
+			return MappedDataList.this;
+		}
+		
+		@Override
+		public int size() {
+			return n;
+		}
+	}
+	
+	/** Writes the index of a mapped list and, if spilled, its values.
+	 * 
+	 * A new segment starts at the first value that would otherwise cross
+	 * the segment size.
+	 */
+	private static class Writer implements AutoCloseable {
+		
+		private File indexFile;
+		private File dataFile;
+		private DataOutputStream index;
+		private DataOutputStream data;
+		private List<Long> boundaryList;
+		private long pos;
+		private int n;
+		
+		/** Writes the index of values already held in a file.
+		 */
+		public Writer( File indexFile, long start ) throws IOException {
+			
+			this.indexFile = indexFile;
+			
+			index = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( indexFile ), BUFFER_SIZE ) );
+			boundaryList = new ArrayList<>();
+			boundaryList.add( start );
+		}
+		
+		/** Writes values together with their index.
+		 */
+		public Writer( File indexFile, File dataFile ) throws IOException {
+			
+			this( indexFile, 0 );
+			
+			this.dataFile = dataFile;
+			data = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( dataFile ), BUFFER_SIZE ) );
+		}
+		
+		public void add( String value ) throws IOException {
+			
+			byte[] b;
+			
+			b = value.getBytes( StandardCharsets.UTF_8 );
+			
+			addIndex( pos, b.length );
+			data.writeInt( b.length );
+			data.write( b );
+			pos += 4+b.length;
+		}
+		
+		public void addIndex( long offset, int length ) throws IOException {
+			
+			long segmentStart;
+			
+			if( 4L+length > SEGMENT_SIZE )
+				throw new RuntimeException( "Value "+n+" is too long to be mapped." );
+			
+			segmentStart = boundaryList.get( boundaryList.size()-1 );
+			
+			if( offset+4+length-segmentStart > SEGMENT_SIZE ) {
+				
+				segmentStart = offset;
+				boundaryList.add( segmentStart );
+			}
+			
+			index.writeLong( ( ( long )( boundaryList.size()-1 ) << 32 ) | ( offset-segmentStart ) );
+			n++;
+		}
+		
+		@Override
+		public void close() throws IOException {
+			
+			try {
+				index.close();
+			}
+			finally {
+				
+				if( data != null )
+					data.close();
+			}
+		}
+		
+		public MappedDataList toList() throws IOException {
+			return toList( dataFile, pos );
+		}
+		
+		public MappedDataList toList( File file, long end ) throws IOException {
+			
+			close();
+			
+			return new MappedDataList( n, indexFile, file, boundaryList, end );
+		}
+	}
+}
@@ -50,7 +50,13 @@ public class ResolvedInvocationReference implements Resolveable {
 
 	@Override
 	public String getValue() throws NotDerivableException {
-		return invoc.getDataList( outputChannel ).get( idx ).getValue();
+		return resolve().getValue();
+	}
+	
+	/** Returns the item of the invocation's output this reference points to.
+	 */
+	public Resolveable resolve() throws NotDerivableException {
+		return invoc.getOutput( outputChannel, idx );
 	}
 	
 	public int getIndex() {
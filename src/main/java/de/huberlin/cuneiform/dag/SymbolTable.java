@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.dag;
+
+import java.util.Arrays;
+
+/** Maps each distinct value to an int handle.
+ * 
+ * Data items and parameter bindings hold handles instead of strings, so
+ * every distinct value is stored only once, no matter how many data items
+ * refer to it. Path-like values are prefix-compressed: a value containing a
+ * slash is stored as the handle of everything before its last slash and
+ * the remainder. Thus, the directories of many files in the same place are
+ * stored only once, too.
+ * 
+ * Each workflow graph owns a table, which goes away together with the
+ * graph. Adding values is synchronized while reading is not. The arrays are
+ * kept together in a holder behind a volatile reference. A value is written
+ * to the arrays first, the holder is replaced if the arrays had to grow,
+ * and only then is the value published by incrementing the volatile size.
+ * A reader reads the size before the holder and touches no handle beyond
+ * that size, so every array it indexes is at least as long as the size.
+ */
+public class SymbolTable {
+	
+	public static final int NO_HANDLE = -1;
+	
+	private static final int INITIAL_CAPACITY = 256;
+	
+	private volatile int n;
+	private volatile Tables tables;
+	
+	public SymbolTable() {
+		
+		tables = new Tables(
+			new int[ INITIAL_CAPACITY ],
+			new String[ INITIAL_CAPACITY ],
+			new int[ INITIAL_CAPACITY ],
+			new int[ INITIAL_CAPACITY ],
+			new int[ 2*INITIAL_CAPACITY ] );
+	}
+	
+	/** Returns the value a handle stands for.
+	 * 
+	 * @param handle The handle.
+	 * @return The value.
+	 */
+	public String get( int handle ) {
+		
+		StringBuffer buf;
+		Tables t;
+		
+		checkHandle( handle );
+		t = tables;
+		
+		if( t.prefixArray[ handle ] == NO_HANDLE )
+			return t.suffixArray[ handle ];
+		
+		buf = new StringBuffer( t.lengthArray[ handle ] );
+		append( t, buf, handle );
+		
+		return buf.toString();
+	}
+	
+	/** Returns the hash code of the value a handle stands for.
+	 * 
+	 * @param handle The handle.
+	 * @return The same hash code String.hashCode() returns for the value.
+	 */
+	public int getHash( int handle ) {
+		
+		checkHandle( handle );
+		
+		return tables.hashArray[ handle ];
+	}
+	
+	/** Returns the length of the value a handle stands for.
+	 * 
+	 * @param handle The handle.
+	 * @return The number of characters in the value.
+	 */
+	public int getLength( int handle ) {
+		
+		checkHandle( handle );
+		
+		return tables.lengthArray[ handle ];
+	}
+	
+	/** Returns the handle of a value, adding the value if necessary.
+	 * 
+	 * @param value The value.
+	 * @return The handle.
+	 */
+	public synchronized int intern( String value ) {
+		
+		int handle, prefix, idx, i;
+		String suffix;
+		Tables t;
+		int[] slot;
+		
+		if( value == null )
+			throw new NullPointerException( "Value must not be null." );
+		
+		handle = lookup( value );
+		if( handle != NO_HANDLE )
+			return handle;
+		
+		idx = value.lastIndexOf( '/' );
+		if( idx > 0 ) {
+			
+			prefix = intern( value.substring( 0, idx ) );
+			suffix = value.substring( idx+1 );
+		}
+		else {
+			
+			prefix = NO_HANDLE;
+			suffix = value;
+		}
+		
+		handle = n;
+		t = tables;
+		
+		if( handle == t.prefixArray.length )
+			t = new Tables(
+				Arrays.copyOf( t.prefixArray, 2*handle ),
+				Arrays.copyOf( t.suffixArray, 2*handle ),
+				Arrays.copyOf( t.lengthArray, 2*handle ),
+				Arrays.copyOf( t.hashArray, 2*handle ),
+				t.slotArray );
+		
+		t.prefixArray[ handle ] = prefix;
+		t.suffixArray[ handle ] = suffix;
+		t.lengthArray[ handle ] = value.length();
+		t.hashArray[ handle ] = value.hashCode();
+		
+		if( 2*( handle+1 ) > t.slotArray.length ) {
+			
+			slot = new int[ 2*t.slotArray.length ];
+			for( i = 0; i <= handle; i++ )
+				insert( t, slot, i );
+			
+			t = new Tables( t.prefixArray, t.suffixArray, t.lengthArray, t.hashArray, slot );
+		}
+		else
+			insert( t, t.slotArray, handle );
+		
+		// publish the arrays before the value
+		tables = t;
+		n = handle+1;
+		
+		return handle;
+	}
+	
+	/** Returns the handle of a value without adding it.
+	 * 
+	 * @param value The value.
+	 * @return The handle or NO_HANDLE if the value is not in the table.
+	 */
+	public int lookup( String value ) {
+		
+		int hash, i, handle, size;
+		Tables t;
+		int[] slot;
+		
+		if( value == null )
+			throw new NullPointerException( "Value must not be null." );
+		
+		// read the size before the arrays
+		size = n;
+		t = tables;
+		slot = t.slotArray;
+		hash = value.hashCode();
+		
+		for( i = slotOf( slot, hash ); slot[ i ] != 0; i = ( i+1 )%slot.length ) {
+			
+			handle = slot[ i ]-1;
+			
+			// skip values not yet published
+			if( handle >= size )
+				continue;
+			
+			if( t.hashArray[ handle ] == hash && matches( t, handle, value, value.length() ) )
+				return handle;
+		}
+		
+		return NO_HANDLE;
+	}
+	
+	public int size() {
+		return n;
+	}
+	
+	private static void append( Tables t, StringBuffer buf, int handle ) {
+		
+		if( t.prefixArray[ handle ] != NO_HANDLE ) {
+			
+			append( t, buf, t.prefixArray[ handle ] );
+			buf.append( '/' );
+		}
+		
+		buf.append( t.suffixArray[ handle ] );
+	}
+	
+	/** Checks a handle against the size, which is read before the arrays.
+	 */
+	private void checkHandle( int handle ) {
+		
+		if( handle < 0 || handle >= n )
+			throw new IndexOutOfBoundsException( "Unknown handle "+handle+"." );
+	}
+	
+	private static void insert( Tables t, int[] slot, int handle ) {
+		
+		int i;
+		
+		for( i = slotOf( slot, t.hashArray[ handle ] ); slot[ i ] != 0; i = ( i+1 )%slot.length );
+		
+		slot[ i ] = handle+1;
+	}
+	
+	/** Checks whether the first end characters of a value equal the value
+	 * a handle stands for.
+	 */
+	private static boolean matches( Tables t, int handle, String value, int end ) {
+		
+		String suffix;
+		
+		while( true ) {
+			
+			if( t.lengthArray[ handle ] != end )
+				return false;
+			
+			suffix = t.suffixArray[ handle ];
+			if( !value.regionMatches( end-suffix.length(), suffix, 0, suffix.length() ) )
+				return false;
+			
+			if( t.prefixArray[ handle ] == NO_HANDLE )
+				return true;
+			
+			end -= suffix.length()+1;
+			if( value.charAt( end ) != '/' )
+				return false;
+			
+			handle = t.prefixArray[ handle ];
+		}
+	}
+	
+	private static int slotOf( int[] slot, int hash ) {
+		return ( ( hash^( hash >>> 16 ) ) & 0x7fffffff )%slot.length;
+	}
+	
+	/** The arrays of a table, replaced as a whole whenever one of them grows.
+	 */
+	private static class Tables {
+		
+		final int[] prefixArray;
+		final String[] suffixArray;
+		final int[] lengthArray;
+		final int[] hashArray;
+		final int[] slotArray;
+		
+		Tables( int[] prefixArray, String[] suffixArray, int[] lengthArray, int[] hashArray, int[] slotArray ) {
+			
+			this.prefixArray = prefixArray;
+			this.suffixArray = suffixArray;
+			this.lengthArray = lengthArray;
+			this.hashArray = hashArray;
+			this.slotArray = slotArray;
+		}
+	}
+}
@@ -32,6 +32,7 @@
 
 package de.huberlin.cuneiform.dag;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -56,7 +57,7 @@ public class TaskNode extends WfElement {
 		parentMap = new HashMap<>();
 		childList = new LinkedList<>();
 		setDag( dag );
-		invocationList = new LinkedList<>();
+		invocationList = new ArrayList<>();
 		
 	}
 	
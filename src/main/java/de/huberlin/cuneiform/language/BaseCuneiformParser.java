@@ -43,9 +43,13 @@ import java.util.Map;
 import java.util.Set;
 
 import org.antlr.v4.runtime.ANTLRFileStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Token;
 import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 import de.huberlin.cuneiform.common.BaseParser;
 import de.huberlin.cuneiform.common.Constant;
@@ -72,6 +76,7 @@ public abstract class BaseCuneiformParser extends BaseParser {
 	private List<Assign> assignList;
 	private DefMacro curDefMacro;
 	private Map<String,DefMacro> defMacroMap;
+	private List<String> importList;
 	
 	public BaseCuneiformParser( TokenStream input ) {
 		
@@ -84,6 +89,7 @@ public abstract class BaseCuneiformParser extends BaseParser {
 		targetSet = new HashSet<>();
 		assignList = new LinkedList<>();
 		defMacroMap = new HashMap<>();
+		importList = new LinkedList<>();
 		
 		for( String langLabel : ForeignLangCatalog.getLangLabelArray() )
 			labelMap.put( langLabel, new HashSet<String>() );
@@ -269,6 +275,14 @@ public abstract class BaseCuneiformParser extends BaseParser {
 		return defTaskMap.keySet();
 	}
 	
+	/** Returns the files imported while parsing, directly or indirectly.
+	 * 
+	 * @return The list of imported file names.
+	 */
+	public List<String> getImportList() {
+		return Collections.unmodifiableList( importList );
+	}
+	
 	public List<Extend> getExtendList() {
 		
 		List<Extend> set;
@@ -362,6 +376,52 @@ public abstract class BaseCuneiformParser extends BaseParser {
 	}
 	
 
+	/** Parses a Cuneiform script.
+	 * 
+	 * The script is parsed in SLL prediction mode first, which is much faster
+	 * than full LL prediction but may fail on input LL prediction can handle.
+	 * If it fails, the script is parsed again from scratch in LL mode, which
+	 * also reports any syntax errors.
+	 * 
+	 * @param stream The script.
+	 * @param importer The parser importing the script or null. The new
+	 *                 parser starts out with everything known to the
+	 *                 importer.
+	 * @return The parser after parsing.
+	 */
+	public static CuneiformParser parse( CharStream stream, BaseCuneiformParser importer ) {
+		
+		CommonTokenStream tokenStream;
+		CuneiformParser parser;
+		
+		if( stream == null )
+			throw new NullPointerException( "Input stream must not be null." );
+		
+		tokenStream = new CommonTokenStream( new CuneiformLexer( stream ) );
+		
+		parser = createParser( tokenStream, importer );
+		parser.getInterpreter().setPredictionMode( PredictionMode.SLL );
+		parser.removeErrorListeners();
+		parser.setErrorHandler( new BailErrorStrategy() );
+		
+		try {
+			
+			parser.script();
+			return parser;
+		}
+		catch( ParseCancellationException e ) {
+			// retry with full LL prediction
+		}
+		
+		tokenStream.reset();
+		
+		parser = createParser( tokenStream, importer );
+		parser.getInterpreter().setPredictionMode( PredictionMode.LL );
+		parser.script();
+		
+		return parser;
+	}
+	
 	public static String substitute( String orig, String pattern, String replacement ) {
 		
 		String ret;
@@ -948,27 +1008,13 @@ public abstract class BaseCuneiformParser extends BaseParser {
 	
 	protected void importFile( String id ) throws IOException {
 		
-		ANTLRFileStream stream;
-		CuneiformLexer lexer;
 		CuneiformParser parser;
 		String s;
 		
 		try {
-			// create parser
-			stream = new ANTLRFileStream( id );			
-			lexer = new CuneiformLexer( stream );
-			parser = new CuneiformParser( new CommonTokenStream( lexer ) );
 			
-			// copy everything that is relevant into the new parser
-			parser.addLabel( labelMap );
-			parser.addBlackListItem( blackList );
-			parser.addDefTask( defTaskMap );
-			parser.addAssign( assignList );
-			parser.addDefMacro( defMacroMap );
-			parser.addExtend( extendList );
-			
-			// run it
-			parser.script();
+			// run a parser knowing everything we know
+			parser = parse( new ANTLRFileStream( id ), this );
 		
 			if( parser.hasError() ) {
 				
@@ -987,6 +1033,9 @@ public abstract class BaseCuneiformParser extends BaseParser {
 			assignList = parser.getModifiableAssignList();
 			defMacroMap = parser.getModifiableDefMacroMap();
 			extendList = parser.getModifiableExtendList();
+			
+			importList.add( id );
+			importList.addAll( parser.getImportList() );
 		}
 		catch( DuplicateParseException e ) {
 			// Suppressing duplicate parse
@@ -994,6 +1043,26 @@ public abstract class BaseCuneiformParser extends BaseParser {
 
 	}
 	
+	private static CuneiformParser createParser( TokenStream input, BaseCuneiformParser importer ) {
+		
+		CuneiformParser parser;
+		
+		parser = new CuneiformParser( input );
+		
+		if( importer != null ) {
+			
+			// copy everything that is relevant into the new parser
+			parser.addLabel( importer.labelMap );
+			parser.addBlackListItem( importer.blackList );
+			parser.addDefTask( importer.defTaskMap );
+			parser.addAssign( importer.assignList );
+			parser.addDefMacro( importer.defMacroMap );
+			parser.addExtend( importer.extendList );
+		}
+		
+		return parser;
+	}
+	
 	protected void setDeclare( Token idToken ) {
 		
 		String d;
@@ -305,6 +305,19 @@ public class DefTask extends RawBodyContainer {
 		return set;
 	}
 	
+	public Set<String> getStreamOutputNameSet() {
+		
+		Set<String> set;
+		
+		set = new HashSet<>();
+		
+		for( SingleOutput output : getSingleOutputSet() )
+			if( output.isStream() )
+				set.add( output.getValue() );
+		
+		return set;
+	}
+	
 	public int getOutputChannel( String outputName ) {
 		
 		int i;
@@ -394,6 +407,22 @@ public class DefTask extends RawBodyContainer {
 			"Output '"+outputName+"' not contained in deftask parameter set." );
 	}
 	
+	public boolean isOutputStream( String outputName ) {
+		
+		if( outputName == null )
+			throw new NullPointerException( "Output name must not be null." );
+		
+		if( outputName.isEmpty() )
+			throw new RuntimeException( "Output name must not be empty." );
+
+		for( DefTaskOutput output : outputList )
+			if( output.getValue().equals( outputName ) )
+				return output.isStream();
+		
+		throw new RuntimeException(
+			"Output '"+outputName+"' not contained in deftask parameter set." );
+	}
+	
 	public boolean isOutputStage( int outputChannel ) {
 		return outputList.get( outputChannel ).isStage();
 	}
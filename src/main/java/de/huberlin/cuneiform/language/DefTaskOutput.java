@@ -39,6 +39,7 @@ import de.huberlin.cuneiform.dag.ParamItem;
 public abstract class DefTaskOutput extends ParamItem {
 	
 	private int line;
+	private boolean stream;
 	
 	public DefTaskOutput( int line, String id, int type ) {
 		super( id, type );
@@ -53,11 +54,30 @@ public abstract class DefTaskOutput extends ParamItem {
 		return line;
 	}
 	
+	/** Tells whether this output is streamed to its consumer.
+	 * 
+	 * A streamed output is backed by a named pipe if the producing invocation
+	 * has a single consumer. Otherwise it falls back to a regular file.
+	 * 
+	 * @return True if the output is marked for streaming.
+	 */
+	public boolean isStream() {
+		return stream;
+	}
+	
 	public void setLine( int line ) {
 		
 		if( line <= 0 )
 			throw new RuntimeException( "Line number must be greater than zero." );
 		
 		this.line = line;
-	}	
+	}
+	
+	public void setStream( boolean stream ) {
+		
+		if( stream && !isStage() )
+			throw new RuntimeException( "Only staged outputs can be streamed." );
+		
+		this.stream = stream;
+	}
 }
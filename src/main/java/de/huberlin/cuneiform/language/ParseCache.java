@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.language;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.antlr.v4.runtime.ANTLRFileStream;
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+/** Keeps the parse results of Cuneiform scripts across runs.
+ * 
+ * A cache entry holds the parse result in binary form of a script together with
+ * the path, modification time, size, and SHA-256 digest of the script and
+ * of every file it imports. An entry is used only if all of these files
+ * are unchanged. A file whose modification time or size changed still
+ * counts as unchanged if its digest is the same. Scripts not read from a
+ * file are cached by the digest of their content.
+ * 
+ * Entries are written atomically, so several processes can
+ * share a cache directory. Entries that cannot be read, e.g., because they
+ * were written by another version, are ignored and replaced.
+ */
+public class ParseCache {
+	
+	public static final String DEFAULT_DIRNAME = ".cuneiform/parse-cache";
+	
+	private static final int MAGIC = 0x43465043;
+	private static final int VERSION = 2;
+	private static final String SUFFIX_ENTRY = ".bin";
+	
+	private File cacheDir;
+	private boolean warned;
+	
+	public ParseCache( File cacheDir ) {
+		
+		if( cacheDir == null )
+			throw new NullPointerException( "Cache directory must not be null." );
+		
+		this.cacheDir = cacheDir;
+	}
+	
+	public File getCacheDir() {
+		return cacheDir;
+	}
+	
+	/** Parses a Cuneiform file unless an up-to-date parse result is cached.
+	 * 
+	 * @param filename The Cuneiform file.
+	 * @return The parse result.
+	 */
+	public ParseResult parseFile( String filename ) throws IOException {
+		
+		File file;
+		File entryFile;
+		ParseResult result;
+		List<Dependency> dependencyList;
+		
+		if( filename == null )
+			throw new NullPointerException( "File name must not be null." );
+		
+		file = new File( filename );
+		entryFile = new File( cacheDir, digest( file.getCanonicalPath().getBytes( StandardCharsets.UTF_8 ) )+SUFFIX_ENTRY );
+		
+		result = read( entryFile );
+		if( result != null )
+			return result;
+		
+		dependencyList = new ArrayList<>();
+		dependencyList.add( new Dependency( file.getCanonicalPath() ) );
+		
+		result = ParseResult.parse( new ANTLRFileStream( filename ) );
+		
+		write( entryFile, dependencyList, result );
+		
+		return result;
+	}
+	
+	/** Parses a Cuneiform script unless an up-to-date parse result is cached.
+	 * 
+	 * @param content The script.
+	 * @return The parse result.
+	 */
+	public ParseResult parseString( String content ) {
+		
+		File entryFile;
+		ParseResult result;
+		List<Dependency> dependencyList;
+		
+		if( content == null )
+			throw new NullPointerException( "Content must not be null." );
+		
+		entryFile = new File( cacheDir, "content-"+digest( content.getBytes( StandardCharsets.UTF_8 ) )+SUFFIX_ENTRY );
+		
+		result = read( entryFile );
+		if( result != null )
+			return result;
+		
+		result = ParseResult.parse( new ANTLRInputStream( content ) );
+		
+		dependencyList = new ArrayList<>();
+		write( entryFile, dependencyList, result );
+		
+		return result;
+	}
+	
+	/** Reads a cache entry.
+	 * 
+	 * @return The cached parse result or null if there is no usable entry.
+	 */
+	private static ParseResult read( File entryFile ) {
+		
+		int i, n;
+		Dependency dependency;
+		
+		if( !entryFile.exists() )
+			return null;
+		
+		try( DataInputStream in = new DataInputStream(
+			new BufferedInputStream( new FileInputStream( entryFile ) ) ) ) {
+			
+			if( in.readInt() != MAGIC || in.readInt() != VERSION )
+				return null;
+			
+			n = in.readInt();
+			for( i = 0; i < n; i++ ) {
+				
+				dependency = new Dependency( in.readUTF(), in.readLong(), in.readLong(), in.readUTF() );
+				if( !dependency.isUnchanged() )
+					return null;
+			}
+			
+			return ParseResult.read( in );
+		}
+		catch( IOException | RuntimeException e ) {
+			return null;
+		}
+	}
+	
+	/** Writes a cache entry depending on the given files and the files
+	 * imported by the script.
+	 */
+	private void write( File entryFile, List<Dependency> dependencyList, ParseResult result ) {
+		
+		File tmp;
+		
+		tmp = new File( entryFile.getAbsolutePath()+"."+UUID.randomUUID() );
+		
+		try {
+			
+			for( String id : result.getImportList() )
+				dependencyList.add( new Dependency( new File( id ).getCanonicalPath() ) );
+			
+			if( !cacheDir.exists() && !cacheDir.mkdirs() && !cacheDir.exists() )
+				throw new IOException( "Unable to create directory '"+cacheDir.getAbsolutePath()+"'." );
+			
+			try( DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream( new FileOutputStream( tmp ) ) ) ) {
+				
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				
+				out.writeInt( dependencyList.size() );
+				for( Dependency dependency : dependencyList ) {
+					
+					out.writeUTF( dependency.path );
+					out.writeLong( dependency.lastModified );
+					out.writeLong( dependency.length );
+					out.writeUTF( dependency.digest );
+				}
+				
+				result.write( out );
+			}
+			
+			Files.move( tmp.toPath(), entryFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch( IOException e ) {
+			
+			tmp.delete();
+			
+			// the cache is an optimization, so do not fail the run
+			if( !warned ) {
+				
+				System.err.println( "[parse-cache] Could not write cache entry: "+e.getMessage() );
+				warned = true;
+			}
+		}
+	}
+	
+	private static String digest( byte[] content ) {
+		
+		MessageDigest md;
+		StringBuffer buf;
+		
+		try {
+			md = MessageDigest.getInstance( "SHA-256" );
+		}
+		catch( NoSuchAlgorithmException e ) {
+			throw new RuntimeException( e );
+		}
+		
+		buf = new StringBuffer();
+		for( byte b : md.digest( content ) )
+			buf.append( String.format( "%02x", b ) );
+		
+		return buf.toString();
+	}
+	
+	/** A file a parse result depends on.
+	 */
+	private static class Dependency {
+		
+		private String path;
+		private long lastModified;
+		private long length;
+		private String digest;
+		
+		public Dependency( String path ) throws IOException {
+			
+			File file;
+			
+			file = new File( path );
+			
+			this.path = path;
+			lastModified = file.lastModified();
+			length = file.length();
+			digest = digest( Files.readAllBytes( file.toPath() ) );
+		}
+		
+		public Dependency( String path, long lastModified, long length, String digest ) {
+			
+			this.path = path;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.digest = digest;
+		}
+		
+		public boolean isUnchanged() throws IOException {
+			
+			File file;
+			
+			file = new File( path );
+			
+			if( !file.exists() )
+				return false;
+			
+			if( file.lastModified() == lastModified && file.length() == length )
+				return true;
+			
+			return digest( Files.readAllBytes( file.toPath() ) ).equals( digest );
+		}
+	}
+}
@@ -0,0 +1,548 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.language;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.antlr.v4.runtime.CharStream;
+
+import de.huberlin.cuneiform.dag.ParamItem;
+
+/** What a parsed Cuneiform script contributes to a workflow graph.
+ * 
+ * A parse result is detached from the parser and its token stream, so it
+ * can be written to and read from a compact binary form. Task bodies are
+ * stored with all extensions applied and labels are part of the task
+ * definitions, so neither the label map nor the extensions themselves are
+ * kept.
+ */
+public class ParseResult {
+	
+	private static final int EXPR_ID = 1;
+	private static final int EXPR_STRING = 2;
+	private static final int EXPR_APPLY = 3;
+	private static final int EXPR_MACRO = 4;
+	
+	private static final int PARAM_CORREL = 1;
+	private static final int PARAM_REDUCE = 2;
+	
+	private static final int OUTPUT_SINGLE = 1;
+	private static final int OUTPUT_REDUCE = 2;
+	
+	private String declare;
+	private Map<String,DefTask> defTaskMap;
+	private Map<String,String> defTaskBodyMap;
+	private List<Assign> assignList;
+	private Map<String,DefMacro> defMacroMap;
+	private Set<String> targetSet;
+	private List<String> importList;
+	
+	public ParseResult( BaseCuneiformParser parser ) {
+		
+		if( parser == null )
+			throw new NullPointerException( "Parser must not be null." );
+		
+		if( parser.hasError() )
+			throw new RuntimeException( "Parser returned with errors." );
+		
+		declare = parser.getDeclare();
+		
+		defTaskMap = new LinkedHashMap<>();
+		defTaskBodyMap = new LinkedHashMap<>();
+		for( String taskName : parser.getDefTaskNameSet() ) {
+			
+			defTaskMap.put( taskName, parser.getDefTask( taskName ) );
+			defTaskBodyMap.put( taskName, parser.getDefTaskBody( taskName ) );
+		}
+		
+		assignList = new ArrayList<>( parser.getAssignList() );
+		defMacroMap = new LinkedHashMap<>( parser.getDefMacroMap() );
+		targetSet = new HashSet<>( parser.getTargetSet() );
+		importList = new ArrayList<>( parser.getImportList() );
+	}
+	
+	private ParseResult() {
+		
+		defTaskMap = new LinkedHashMap<>();
+		defTaskBodyMap = new LinkedHashMap<>();
+		assignList = new ArrayList<>();
+		defMacroMap = new LinkedHashMap<>();
+		targetSet = new HashSet<>();
+		importList = new ArrayList<>();
+	}
+	
+	public List<Assign> getAssignList() {
+		return Collections.unmodifiableList( assignList );
+	}
+	
+	public String getDeclare() {
+		return declare;
+	}
+	
+	public Map<String,DefMacro> getDefMacroMap() {
+		return Collections.unmodifiableMap( defMacroMap );
+	}
+	
+	public DefTask getDefTask( String taskName ) {
+		
+		DefTask defTask;
+		
+		defTask = defTaskMap.get( taskName );
+		if( defTask == null )
+			throw new NullPointerException(
+				"A task with the specified name '"+taskName
+				+"' does not exist." );
+		
+		return defTask;
+	}
+	
+	/** Returns the body of a task definition. All extensions included.
+	 * 
+	 * @param taskName The name of the task for which to retrieve the body.
+	 * @return The body of the task.
+	 */
+	public String getDefTaskBody( String taskName ) {
+		
+		getDefTask( taskName );
+		
+		return defTaskBodyMap.get( taskName );
+	}
+	
+	public Set<String> getDefTaskNameSet() {
+		return Collections.unmodifiableSet( defTaskMap.keySet() );
+	}
+	
+	/** Returns the files imported by the script, directly or indirectly.
+	 * 
+	 * @return The list of imported file names.
+	 */
+	public List<String> getImportList() {
+		return Collections.unmodifiableList( importList );
+	}
+	
+	public Set<String> getTargetSet() {
+		return Collections.unmodifiableSet( targetSet );
+	}
+	
+	/** Writes this parse result in binary form.
+	 * 
+	 * Every distinct string is written once. Later occurrences refer to it
+	 * by number.
+	 * 
+	 * @param out The output to write to.
+	 */
+	public void write( DataOutput out ) throws IOException {
+		
+		Map<String,Integer> stringMap;
+		DefTask defTask;
+		Set<DefTaskParam> paramSet;
+		
+		if( out == null )
+			throw new NullPointerException( "Output must not be null." );
+		
+		stringMap = new HashMap<>();
+		
+		writeString( out, stringMap, declare );
+		
+		out.writeInt( defTaskMap.size() );
+		for( String taskName : defTaskMap.keySet() ) {
+			
+			defTask = defTaskMap.get( taskName );
+			
+			writeString( out, stringMap, taskName );
+			writeString( out, stringMap, defTask.getBody() );
+			writeString( out, stringMap, defTaskBodyMap.get( taskName ) );
+			
+			writeStringList( out, stringMap, new ArrayList<>( defTask.getLabelSet() ) );
+			
+			// the implicit task parameter is added again on reading
+			paramSet = defTask.getParamSet();
+			if( !defTask.isTaskParamExplicit() )
+				paramSet.remove( defTask.getTaskParam() );
+			
+			out.writeInt( paramSet.size() );
+			for( DefTaskParam param : paramSet ) {
+				
+				out.writeByte( param instanceof ReduceParam ? PARAM_REDUCE : PARAM_CORREL );
+				out.writeInt( param.size() );
+				for( ParamItem item : param ) {
+					
+					writeString( out, stringMap, item.getValue() );
+					out.writeInt( item.getType() );
+				}
+			}
+			
+			out.writeInt( defTask.getOutputList().size() );
+			for( DefTaskOutput output : defTask.getOutputList() ) {
+				
+				out.writeByte( output instanceof ReduceOutput ? OUTPUT_REDUCE : OUTPUT_SINGLE );
+				out.writeInt( output.getLine() );
+				writeString( out, stringMap, output.getValue() );
+				out.writeInt( output.getType() );
+				out.writeBoolean( output.isStream() );
+			}
+		}
+		
+		out.writeInt( assignList.size() );
+		for( Assign assign : assignList )
+			writeAssign( out, stringMap, assign );
+		
+		out.writeInt( defMacroMap.size() );
+		for( DefMacro defMacro : defMacroMap.values() ) {
+			
+			writeString( out, stringMap, defMacro.getMacroName() );
+			writeAssign( out, stringMap, defMacro );
+		}
+		
+		writeStringList( out, stringMap, new ArrayList<>( targetSet ) );
+		writeStringList( out, stringMap, importList );
+	}
+	
+	/** Parses a Cuneiform script.
+	 * 
+	 * @param stream The script.
+	 * @return The parse result.
+	 * @throws RuntimeException if the parser reported errors.
+	 */
+	public static ParseResult parse( CharStream stream ) {
+		return new ParseResult( BaseCuneiformParser.parse( stream, null ) );
+	}
+	
+	/** Reads a parse result written by {@link #write(DataOutput)}.
+	 * 
+	 * @param in The input to read from.
+	 * @return The parse result.
+	 */
+	public static ParseResult read( DataInput in ) throws IOException {
+		
+		ParseResult result;
+		List<String> stringList;
+		int i, j, k, n, m, l;
+		String taskName;
+		DefTask defTask;
+		DefTaskParam param;
+		DefTaskOutput output;
+		DefMacro defMacro;
+		int kind, line, type;
+		String value;
+		boolean stream;
+		
+		if( in == null )
+			throw new NullPointerException( "Input must not be null." );
+		
+		result = new ParseResult();
+		stringList = new ArrayList<>();
+		
+		result.declare = readString( in, stringList );
+		
+		n = in.readInt();
+		for( i = 0; i < n; i++ ) {
+			
+			taskName = readString( in, stringList );
+			defTask = new DefTask( taskName );
+			defTask.setBody( "*{"+readString( in, stringList )+"}*" );
+			result.defTaskBodyMap.put( taskName, readString( in, stringList ) );
+			
+			for( String label : readStringList( in, stringList ) )
+				defTask.addLabel( label );
+			
+			m = in.readInt();
+			for( j = 0; j < m; j++ ) {
+				
+				kind = in.readByte();
+				l = in.readInt();
+				
+				if( kind == PARAM_REDUCE ) {
+					
+					value = readString( in, stringList );
+					param = new ReduceParam( value, in.readInt() );
+				}
+				else {
+					
+					param = new CorrelParam();
+					for( k = 0; k < l; k++ ) {
+						
+						value = readString( in, stringList );
+						param.add( new ParamItem( value, in.readInt() ) );
+					}
+				}
+				
+				defTask.addParam( param );
+			}
+			
+			m = in.readInt();
+			for( j = 0; j < m; j++ ) {
+				
+				kind = in.readByte();
+				line = in.readInt();
+				value = readString( in, stringList );
+				type = in.readInt();
+				stream = in.readBoolean();
+				
+				if( kind == OUTPUT_REDUCE )
+					output = new ReduceOutput( line, value, type );
+				else
+					output = new SingleOutput( line, value, type );
+				
+				if( stream )
+					output.setStream( true );
+				
+				defTask.addOutput( output );
+			}
+			
+			result.defTaskMap.put( taskName, defTask );
+		}
+		
+		n = in.readInt();
+		for( i = 0; i < n; i++ )
+			result.assignList.add( readAssign( in, stringList, new Assign() ) );
+		
+		n = in.readInt();
+		for( i = 0; i < n; i++ ) {
+			
+			defMacro = new DefMacro( readString( in, stringList ) );
+			readAssign( in, stringList, defMacro );
+			result.defMacroMap.put( defMacro.getMacroName(), defMacro );
+		}
+		
+		result.targetSet.addAll( readStringList( in, stringList ) );
+		result.importList.addAll( readStringList( in, stringList ) );
+		
+		return result;
+	}
+	
+	private static Assign readAssign( DataInput in, List<String> stringList, Assign assign )
+	throws IOException {
+		
+		for( String var : readStringList( in, stringList ) )
+			assign.addVar( var );
+		
+		assign.addExpression( readExpressionList( in, stringList ) );
+		
+		return assign;
+	}
+	
+	private static Expression readExpression( DataInput in, List<String> stringList )
+	throws IOException {
+		
+		int kind, i, n;
+		ApplyExpression applyExpr;
+		String param;
+		
+		kind = in.readByte();
+		
+		switch( kind ) {
+		
+			case EXPR_ID :
+				return new IdExpression( readString( in, stringList ) );
+				
+			case EXPR_STRING :
+				param = readString( in, stringList );
+				return new StringExpression( param, in.readBoolean() );
+				
+			case EXPR_APPLY :
+			case EXPR_MACRO :
+				
+				if( kind == EXPR_MACRO )
+					applyExpr = new MacroExpression( readString( in, stringList ) );
+				else
+					applyExpr = new ApplyExpression();
+				
+				n = in.readInt();
+				for( i = 0; i < n; i++ ) {
+					
+					param = readString( in, stringList );
+					applyExpr.addParam( param, readExpressionList( in, stringList ) );
+				}
+				
+				return applyExpr;
+				
+			default :
+				throw new IOException( "Unknown expression kind "+kind+"." );
+		}
+	}
+	
+	private static List<Expression> readExpressionList( DataInput in, List<String> stringList )
+	throws IOException {
+		
+		List<Expression> exprList;
+		int i, n;
+		
+		n = in.readInt();
+		exprList = new ArrayList<>( n );
+		
+		for( i = 0; i < n; i++ )
+			exprList.add( readExpression( in, stringList ) );
+		
+		return exprList;
+	}
+	
+	private static String readString( DataInput in, List<String> stringList ) throws IOException {
+		
+		int ref;
+		byte[] b;
+		String s;
+		
+		ref = in.readInt();
+		
+		if( ref < 0 )
+			return null;
+		
+		if( ref > 0 )
+			return stringList.get( ref-1 );
+		
+		b = new byte[ in.readInt() ];
+		in.readFully( b );
+		
+		s = new String( b, StandardCharsets.UTF_8 );
+		stringList.add( s );
+		
+		return s;
+	}
+	
+	private static List<String> readStringList( DataInput in, List<String> stringList )
+	throws IOException {
+		
+		List<String> list;
+		int i, n;
+		
+		n = in.readInt();
+		list = new ArrayList<>( n );
+		
+		for( i = 0; i < n; i++ )
+			list.add( readString( in, stringList ) );
+		
+		return list;
+	}
+	
+	private static void writeAssign( DataOutput out, Map<String,Integer> stringMap, Assign assign )
+	throws IOException {
+		
+		writeStringList( out, stringMap, assign.getVarList() );
+		writeExpressionList( out, stringMap, assign.getExprList() );
+	}
+	
+	private static void writeExpression( DataOutput out, Map<String,Integer> stringMap, Expression expr )
+	throws IOException {
+		
+		ApplyExpression applyExpr;
+		
+		if( expr instanceof IdExpression ) {
+			
+			out.writeByte( EXPR_ID );
+			writeString( out, stringMap, ( ( IdExpression )expr ).getValue() );
+			return;
+		}
+		
+		if( expr instanceof StringExpression ) {
+			
+			out.writeByte( EXPR_STRING );
+			writeString( out, stringMap, ( ( StringExpression )expr ).getValue() );
+			out.writeBoolean( ( ( StringExpression )expr ).isStage() );
+			return;
+		}
+		
+		if( expr instanceof MacroExpression ) {
+			
+			out.writeByte( EXPR_MACRO );
+			writeString( out, stringMap, ( ( MacroExpression )expr ).getMacroName() );
+		}
+		else if( expr instanceof ApplyExpression )
+			out.writeByte( EXPR_APPLY );
+		else
+			throw new IOException( "Cannot write expression of type "+expr.getClass().getName()+"." );
+		
+		applyExpr = ( ApplyExpression )expr;
+		
+		out.writeInt( applyExpr.paramMapSize() );
+		for( String param : applyExpr.getParamNameSet() ) {
+			
+			writeString( out, stringMap, param );
+			writeExpressionList( out, stringMap, applyExpr.getExprForParam( param ) );
+		}
+	}
+	
+	private static void writeExpressionList( DataOutput out, Map<String,Integer> stringMap, List<Expression> exprList )
+	throws IOException {
+		
+		out.writeInt( exprList.size() );
+		for( Expression expr : exprList )
+			writeExpression( out, stringMap, expr );
+	}
+	
+	private static void writeString( DataOutput out, Map<String,Integer> stringMap, String s )
+	throws IOException {
+		
+		Integer ref;
+		byte[] b;
+		
+		if( s == null ) {
+			
+			out.writeInt( -1 );
+			return;
+		}
+		
+		ref = stringMap.get( s );
+		if( ref != null ) {
+			
+			out.writeInt( ref );
+			return;
+		}
+		
+		stringMap.put( s, stringMap.size()+1 );
+		
+		b = s.getBytes( StandardCharsets.UTF_8 );
+		out.writeInt( 0 );
+		out.writeInt( b.length );
+		out.write( b );
+	}
+	
+	private static void writeStringList( DataOutput out, Map<String,Integer> stringMap, List<String> list )
+	throws IOException {
+		
+		out.writeInt( list.size() );
+		for( String s : list )
+			writeString( out, stringMap, s );
+	}
+}
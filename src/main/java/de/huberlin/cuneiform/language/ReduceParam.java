@@ -44,6 +44,10 @@ public class ReduceParam extends DefTaskParam {
 		setValue( idToken, type );
 	}
 	
+	public ReduceParam( String id, int type ) {
+		setValue( id, type );
+	}
+	
 	public String getValue() {
 		
 		for( ParamItem s : this )
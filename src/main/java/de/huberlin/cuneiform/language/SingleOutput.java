@@ -44,6 +44,11 @@ public class SingleOutput extends DefTaskOutput {
 		super( idToken, type );
 	}
 	
+	public SingleOutput( Token idToken, int type, boolean stream ) {
+		super( idToken, type );
+		setStream( stream );
+	}
+	
 	@Override
 	public String toString() {
 		
@@ -57,6 +62,9 @@ public class SingleOutput extends DefTaskOutput {
 		if( isDefTask() )
 			s = "`";
 		
+		if( isStream() )
+			s = "|";
+		
 		return s+getValue();
 	}
 
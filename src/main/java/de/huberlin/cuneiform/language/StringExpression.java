@@ -48,6 +48,15 @@ public class StringExpression implements Expression {
 		setStage( stage );
 	}
 	
+	public StringExpression( String value, boolean stage ) {
+		
+		if( value == null )
+			throw new NullPointerException( "Value string must not be null." );
+		
+		this.value = value;
+		setStage( stage );
+	}
+	
 	public void setValue( Token valueToken ) {
 		
 		if( valueToken == null )
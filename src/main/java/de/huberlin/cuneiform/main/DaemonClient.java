@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.huberlin.cuneiform.compiler.remote.RemoteConnection;
+
+/** Submits a workflow run to a resident engine and relays its output.
+ */
+public class DaemonClient {
+	
+	private int port;
+	
+	public DaemonClient( int port ) {
+		
+		if( port < 0 )
+			throw new RuntimeException( "Port must not be negative." );
+		
+		this.port = port;
+	}
+	
+	/** Submits a run and waits for it to finish.
+	 * 
+	 * @param argList The command line of the run. File names must be
+	 *        absolute, since the daemon does not share the client's working
+	 *        directory.
+	 * @param input The workflow read from standard input or null.
+	 * @return The exit code of the run.
+	 */
+	public int submit( List<String> argList, String input ) throws IOException, JSONException {
+		
+		File tokenFile;
+		JSONObject msg;
+		String op;
+		
+		if( argList == null )
+			throw new NullPointerException( "Argument list must not be null." );
+		
+		tokenFile = EngineDaemon.getTokenFile( port );
+		if( !tokenFile.exists() )
+			throw new IOException(
+				"No resident engine on port "+port+". Start one with --daemon." );
+		
+		try( RemoteConnection conn = connect() ) {
+			
+			msg = RemoteConnection.createMessage( EngineDaemon.OP_SUBMIT );
+			msg.put( EngineDaemon.ATT_TOKEN, RemoteConnection.readToken( tokenFile ) );
+			msg.put( EngineDaemon.ATT_ARGS, new JSONArray( argList ) );
+			if( input != null )
+				msg.put( EngineDaemon.ATT_INPUT, input );
+			
+			conn.send( msg );
+			
+			while( ( msg = conn.receive() ) != null ) {
+				
+				op = msg.getString( RemoteConnection.ATT_OP );
+				
+				switch( op ) {
+				
+					case EngineDaemon.OP_OUT :
+						System.out.print( msg.getString( EngineDaemon.ATT_TEXT ) );
+						System.out.flush();
+						break;
+						
+					case EngineDaemon.OP_ERR :
+						System.err.print( msg.getString( EngineDaemon.ATT_TEXT ) );
+						System.err.flush();
+						break;
+						
+					case EngineDaemon.OP_EXIT :
+						return msg.getInt( EngineDaemon.ATT_CODE );
+						
+					default :
+						throw new RuntimeException( "Unknown operation '"+op+"'." );
+				}
+			}
+		}
+		
+		throw new IOException( "Connection to resident engine lost." );
+	}
+	
+	private RemoteConnection connect() throws IOException {
+		
+		try {
+			return new RemoteConnection( new Socket( InetAddress.getLoopbackAddress(), port ) );
+		}
+		catch( ConnectException e ) {
+			throw new IOException(
+				"No resident engine on port "+port+". Start one with --daemon.", e );
+		}
+	}
+}
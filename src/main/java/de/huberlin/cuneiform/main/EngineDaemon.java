@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.main;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.huberlin.cuneiform.compiler.remote.RemoteConnection;
+import de.huberlin.cuneiform.dag.CuneiformDag;
+import de.huberlin.cuneiform.dag.Invocation;
+import de.huberlin.cuneiform.language.ParseCache;
+
+/** A resident engine accepting workflow runs from thin clients.
+ * 
+ * Keeping one JVM running spares short workflows the cost of starting a JVM,
+ * loading the parser, and warming up the JIT compiler. Clients connect over
+ * the loopback interface and submit the command line they were started
+ * with. Runs are executed one after the other. While a run executes, its
+ * standard output and error are streamed back to the client.
+ * 
+ * On start, the daemon writes a random token to a file only its owner can
+ * read. Clients have to present the token, so other users of the host
+ * cannot run workflows on the daemon owner's behalf.
+ * 
+ * Settings kept in static fields are reset before and after every run, and
+ * one parse cache serves all runs. Output written by threads a run left
+ * behind goes to the daemon's own console rather than to a later client.
+ */
+public class EngineDaemon {
+	
+	public static final int DEFAULT_PORT = 4178;
+	
+	public static final String OP_SUBMIT = "submit";
+	public static final String OP_OUT = "out";
+	public static final String OP_ERR = "err";
+	public static final String OP_EXIT = "exit";
+	
+	public static final String ATT_TOKEN = RemoteConnection.ATT_TOKEN;
+	public static final String ATT_ARGS = "args";
+	public static final String ATT_INPUT = "input";
+	public static final String ATT_TEXT = "text";
+	public static final String ATT_CODE = "code";
+	
+	private static final int BACKLOG = 16;
+	
+	private int port;
+	private String token;
+	private ParseCache parseCache;
+	
+	public EngineDaemon( int port ) {
+		
+		if( port < 0 )
+			throw new RuntimeException( "Port must not be negative." );
+		
+		this.port = port;
+	}
+	
+	public int getPort() {
+		return port;
+	}
+	
+	/** Returns the file the token of the daemon on a given port is kept in.
+	 * 
+	 * @param port The port.
+	 * @return The token file.
+	 */
+	public static File getTokenFile( int port ) {
+		return new File( System.getProperty( "user.home" ), ".cuneiform/daemon-"+port+".token" );
+	}
+	
+	/** Accepts and executes workflow runs until the process is terminated.
+	 */
+	public void run() throws IOException {
+		
+		File tokenFile;
+		
+		tokenFile = getTokenFile( port );
+		token = RemoteConnection.createToken( tokenFile );
+		tokenFile.deleteOnExit();
+		
+		parseCache = new ParseCache( new File( System.getProperty( "user.home" ), ParseCache.DEFAULT_DIRNAME ) );
+		
+		try( ServerSocket serverSocket = new ServerSocket( port, BACKLOG, InetAddress.getLoopbackAddress() ) ) {
+			
+			System.err.println( "[daemon] Accepting workflow runs on port "+port+"." );
+			
+			while( true )
+				try( Socket socket = serverSocket.accept() ) {
+					serve( socket );
+				}
+				catch( IOException | JSONException e ) {
+					System.err.println( "[daemon] Lost client: "+e.getMessage() );
+				}
+				catch( Throwable e ) {
+					
+					System.err.println( "[daemon] Run aborted: "+e );
+					e.printStackTrace();
+				}
+		}
+		finally {
+			
+			if( !tokenFile.delete() )
+				tokenFile.deleteOnExit();
+		}
+	}
+	
+	private void serve( Socket socket ) throws IOException, JSONException {
+		
+		RemoteConnection conn;
+		JSONObject msg;
+		JSONArray array;
+		String[] args;
+		int i, code;
+		PrintStream out, err;
+		InputStream in;
+		StringWriter trace;
+		Forwarder outForwarder, errForwarder;
+		
+		conn = new RemoteConnection( socket );
+		
+		msg = conn.receive();
+		if( msg == null || !OP_SUBMIT.equals( msg.optString( RemoteConnection.ATT_OP ) ) )
+			return;
+		
+		if( !token.equals( msg.optString( ATT_TOKEN ) ) ) {
+			
+			reply( conn, OP_ERR, "[daemon] Invalid token.\n" );
+			exit( conn, 1 );
+			return;
+		}
+		
+		array = msg.getJSONArray( ATT_ARGS );
+		args = new String[ array.length() ];
+		for( i = 0; i < args.length; i++ )
+			args[ i ] = array.getString( i );
+		
+		System.err.println( "[daemon] Running "+array+" for "+conn.getRemoteName()+"." );
+		
+		out = System.out;
+		err = System.err;
+		in = System.in;
+		
+		outForwarder = new Forwarder( conn, OP_OUT, out );
+		errForwarder = new Forwarder( conn, OP_ERR, err );
+		
+		try {
+			
+			System.setOut( new PrintStream( outForwarder, true, "UTF-8" ) );
+			System.setErr( new PrintStream( errForwarder, true, "UTF-8" ) );
+			System.setIn( new ByteArrayInputStream(
+				msg.optString( ATT_INPUT ).getBytes( StandardCharsets.UTF_8 ) ) );
+			
+			try {
+				
+				reset();
+				Main.main( args );
+				code = 0;
+			}
+			catch( Throwable e ) {
+				
+				trace = new StringWriter();
+				e.printStackTrace( new PrintWriter( trace ) );
+				reply( conn, OP_ERR, trace.toString() );
+				code = 1;
+			}
+			
+			System.out.flush();
+			System.err.flush();
+		}
+		finally {
+			
+			System.setOut( out );
+			System.setErr( err );
+			System.setIn( in );
+			
+			outForwarder.detach();
+			errForwarder.detach();
+			
+			reset();
+		}
+		
+		exit( conn, code );
+		System.err.println( "[daemon] Run finished with exit code "+code+"." );
+	}
+	
+	/** Restores settings a run may have changed in static fields.
+	 */
+	private void reset() {
+		
+		Invocation.setSpillThreshold( Invocation.DEFAULT_SPILL_THRESHOLD );
+		CuneiformDag.setDefaultParseCache( parseCache );
+	}
+	
+	private static void exit( RemoteConnection conn, int code ) throws IOException, JSONException {
+		
+		JSONObject msg;
+		
+		msg = RemoteConnection.createMessage( OP_EXIT );
+		msg.put( ATT_CODE, code );
+		conn.send( msg );
+	}
+	
+	private static void reply( RemoteConnection conn, String op, String text ) throws IOException, JSONException {
+		
+		JSONObject msg;
+		
+		msg = RemoteConnection.createMessage( op );
+		msg.put( ATT_TEXT, text );
+		conn.send( msg );
+	}
+	
+	/** Forwards everything written to it to the client, line by line.
+	 * 
+	 * If the client is gone, output is dropped and the run goes on. Once
+	 * detached, output goes to the daemon's own console.
+	 */
+	private static class Forwarder extends OutputStream {
+		
+		private RemoteConnection conn;
+		private String op;
+		private PrintStream console;
+		private ByteArrayOutputStream buf;
+		private boolean broken;
+		
+		public Forwarder( RemoteConnection conn, String op, PrintStream console ) {
+			
+			this.conn = conn;
+			this.op = op;
+			this.console = console;
+			buf = new ByteArrayOutputStream();
+		}
+		
+		/** Sends what is left and stops forwarding to the client.
+		 */
+		public synchronized void detach() {
+			
+			flush();
+			conn = null;
+		}
+		
+		@Override
+		public synchronized void write( int b ) {
+			
+			if( conn == null ) {
+				
+				console.write( b );
+				return;
+			}
+			
+			buf.write( b );
+			
+			if( b == '\n' )
+				flush();
+		}
+		
+		@Override
+		public synchronized void flush() {
+			
+			if( conn == null || buf.size() == 0 )
+				return;
+			
+			if( !broken )
+				try {
+					reply( conn, op, new String( buf.toByteArray(), StandardCharsets.UTF_8 ) );
+				}
+				catch( IOException | JSONException e ) {
+					broken = true;
+				}
+			
+			buf.reset();
+		}
+	}
+}
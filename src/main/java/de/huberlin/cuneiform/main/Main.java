@@ -35,30 +35,63 @@ package de.huberlin.cuneiform.main;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.GnuParser;
 import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.io.FileUtils;
 import org.json.JSONException;
 
+import de.huberlin.cuneiform.compiler.batch.BatchDispatcher;
 import de.huberlin.cuneiform.compiler.debug.DebugDispatcher;
+import de.huberlin.cuneiform.compiler.local.IntermediateCollector;
 import de.huberlin.cuneiform.compiler.local.LocalDispatcher;
+import de.huberlin.cuneiform.compiler.noop.NoopDispatcher;
+import de.huberlin.cuneiform.compiler.remote.RemoteDispatcher;
+import de.huberlin.cuneiform.compiler.remote.RemoteWorker;
+import de.huberlin.cuneiform.compiler.simulate.SimulationDispatcher;
+import de.huberlin.cuneiform.compiler.simulate.TaskProfile;
 import de.huberlin.cuneiform.dag.CuneiformDag;
+import de.huberlin.cuneiform.dag.ExecDag;
+import de.huberlin.cuneiform.dag.GraphExporter;
+import de.huberlin.cuneiform.dag.Invocation;
 import de.huberlin.cuneiform.dag.NotDerivableException;
+import de.huberlin.cuneiform.language.ParseCache;
 
 public class Main {
 	
 	private static final int PLATFORM_DOT = 0;
 	private static final int PLATFORM_LOCAL = 1;
 	private static final int PLATFORM_DEBUG = 2;
+	private static final int PLATFORM_REMOTE = 3;
+	private static final int PLATFORM_WORKER = 4;
+	private static final int PLATFORM_BATCH = 5;
+	private static final int PLATFORM_NOOP = 6;
+	private static final int PLATFORM_SIMULATE = 7;
+	private static final int GRAPH_BUFFER_SIZE = 1 << 16;
 	private static final String LABEL_VERSION = "version 1.0 build 2014-04-30";
+	private static final Set<String> PATH_OPTION_SET = new HashSet<>( Arrays.asList(
+		"directory", "file", "scratch", "root", "parse-cache", "profile" ) );
 
 	public static void main( String[] args )
 	throws ParseException, IOException, NotDerivableException, InterruptedException, JSONException {
@@ -74,12 +107,14 @@ public class Main {
 		String line;
 		String dagid;
 		File logFile;
+		File scratchDir;
+		File parseCacheDir;
 		
 		opt = new Options();
 		
 		opt.addOption( "p", "platform", true,
 			"The platform to perform the Cuneiform script's interpretation. "
-			+"Possible platforms are: 'dot', 'local', and 'debug'. Default is 'local'." );
+			+"Possible platforms are: 'dot', 'local', 'debug', 'remote', 'worker', 'batch', 'noop', and 'simulate'. Default is 'local'." );
 		
 		opt.addOption( "d", "directory", true,
 			"The output directory, to put the interpretation intermediate and output result as well as the default location to store the log." );
@@ -91,6 +126,66 @@ public class Main {
 		
 		opt.addOption( "f", "file", true, "Override the default location of the log file and use the specified filename instead. If the platform is 'dot', this option sets the name of the output dot-file." );
 		
+		opt.addOption( null, "view", true, "The graph the 'dot' platform writes: 'task' for the workflow graph, 'invocation' for the graph of invocations that can be enumerated without running anything, or 'aggregate' for the invocation graph with the invocations of each task node counted in one node. Default is 'task'." );
+		
+		opt.addOption( null, "graphml", false, "Make the 'dot' platform write GraphML instead of DOT." );
+		
+		opt.addOption( "s", "scratch", true, "If set, intermediate results of the 'local' platform are kept in the specified scratch directory. Results, and outputs of pinned tasks, are promoted to the output directory." );
+		
+		opt.addOption( null, "pin", true, "Promote the outputs of the specified task from the scratch directory to the output directory. Can be given multiple times." );
+		
+		opt.addOption( null, "root", true, "Add a further build root for the 'local' platform, e.g., on a separate disk. New sandboxes are placed on the root holding most of their input data. Can be given multiple times." );
+		
+		opt.addOption( null, "watch", false, "Keep running the workflow on the 'local' platform whenever one of its Cuneiform files changes. Results computed earlier are reused from memory." );
+		
+		opt.addOption( null, "share", false, "Share the workflow's invocations of the 'local' platform with other processes running the same workflow on the same output directory, possibly on other hosts with a shared file system." );
+		
+		opt.addOption( null, "collect", true, "If set, intermediate files of the 'local' platform are removed as soon as all consumers are computed. Possible modes are: 'delete' and 'compress'. Collected invocations are computed again when a later run needs them." );
+		
+		opt.addOption( null, "port", true, "The port the 'remote' platform listens on for workers. Default is "+RemoteDispatcher.DEFAULT_PORT+"." );
+		
+		opt.addOption( null, "bind", true, "The address the 'remote' platform listens on for workers, e.g., '0.0.0.0' to accept workers from other hosts. Default is the loopback address. Workers authenticate with a token the master writes to the output directory." );
+		
+		opt.addOption( null, "master", true, "The host and port of the master a 'worker' connects to, e.g., 'node1:"+RemoteDispatcher.DEFAULT_PORT+"'. The output directory must be shared under the same path." );
+		
+		opt.addOption( null, "workers", true, "The number of workers the 'remote' platform starts on the local host. Default is 0." );
+		
+		opt.addOption( null, "slots", true, "The number of invocations a worker, the queue emulated by the 'batch' platform, or the 'debug' platform runs at once. Default is the number of available processors." );
+		
+		opt.addOption( null, "submit", true, "The command the 'batch' platform submits an array job with. May refer to {first}, {last}, {size}, and {script}. Must print the job id last. Without submit, poll, and cancel commands, a queue is emulated on the local host." );
+		
+		opt.addOption( null, "poll", true, "The command the 'batch' platform checks on a job with. May refer to {job}. Must print something as long as the job is queued or running." );
+		
+		opt.addOption( null, "cancel", true, "The command the 'batch' platform cancels a job with. May refer to {job}." );
+		
+		opt.addOption( null, "array-size", true, "The maximum number of invocations the 'batch' platform submits in one array job. Default is "+BatchDispatcher.DEFAULT_ARRAY_SIZE+"." );
+		
+		opt.addOption( null, "profile", true, "A log file of a previous run the 'simulate' platform takes invocation durations and memory usage from. Can be given multiple times." );
+		
+		opt.addOption( null, "duration", true, "The duration distribution the 'simulate' platform assumes for a task in seconds, e.g., 'align=normal:60:10'. Possible distributions are 'const:d', 'uniform:a:b', 'exp:m', and 'normal:m:s'. The task '*' sets the default. Default is '"+TaskProfile.DEFAULT_DISTRIBUTION+"'. Can be given multiple times." );
+		
+		opt.addOption( null, "demand", true, "The memory in MiB the 'simulate' platform assumes a task's invocations demand if their duration is drawn from a distribution, e.g., 'align=4096'. The task '*' sets the default. Default is 0. Can be given multiple times." );
+		
+		opt.addOption( null, "cores", true, "The number of cores the 'simulate' platform assumes. Default is the number of available processors." );
+		
+		opt.addOption( null, "memory", true, "The memory in MiB the 'simulate' platform assumes the cores share. Default is no limit." );
+		
+		opt.addOption( null, "policy", true, "The scheduling policy of the 'simulate' platform. Possible policies are 'fifo', 'longest', and 'critical'. Default is 'fifo'." );
+		
+		opt.addOption( null, "seed", true, "The seed of the random durations drawn by the 'simulate' platform. Default is 0." );
+		
+		opt.addOption( null, "parse-cache", true, "The directory parse results of Cuneiform files are cached in. Default is '~/"+ParseCache.DEFAULT_DIRNAME+"'." );
+		
+		opt.addOption( null, "no-parse-cache", false, "Always parse Cuneiform files instead of using cached parse results." );
+		
+		opt.addOption( null, "spill", true, "The number of values above which an output list is kept in a memory-mapped file instead of memory. Default is "+Invocation.DEFAULT_SPILL_THRESHOLD+"." );
+		
+		opt.addOption( null, "daemon", false, "Keep a resident engine running that accepts workflow runs from clients started with --connect, sparing each run the startup of a new JVM." );
+		
+		opt.addOption( null, "connect", false, "Run the workflow in the resident engine started with --daemon instead of in this process. Output is streamed back. The 'debug' and 'worker' platforms and --watch are not supported." );
+		
+		opt.addOption( null, "daemon-port", true, "The loopback port the resident engine listens on. Default is "+EngineDaemon.DEFAULT_PORT+"." );
+		
 		opt.addOption( "h", "help", false, "Print help text." );
 		
 		gnuParser = new GnuParser();
@@ -106,6 +201,18 @@ public class Main {
 			return;
 		}
 		
+		if( cmdline.hasOption( "daemon" ) ) {
+			
+			new EngineDaemon( getDaemonPort( cmdline ) ).run();
+			return;
+		}
+		
+		if( cmdline.hasOption( "connect" ) ) {
+			
+			runClient( cmdline );
+			return;
+		}
+		
 		if( cmdline.hasOption( "platform" ) ) {
 			
 			value = cmdline.getOptionValue( "platform" );
@@ -116,6 +223,16 @@ public class Main {
 				platform = PLATFORM_LOCAL;
 			else if( value.equals( "debug" ) )
 				platform = PLATFORM_DEBUG;
+			else if( value.equals( "remote" ) )
+				platform = PLATFORM_REMOTE;
+			else if( value.equals( "worker" ) )
+				platform = PLATFORM_WORKER;
+			else if( value.equals( "batch" ) )
+				platform = PLATFORM_BATCH;
+			else if( value.equals( "noop" ) )
+				platform = PLATFORM_NOOP;
+			else if( value.equals( "simulate" ) )
+				platform = PLATFORM_SIMULATE;
 			else
 				throw new RuntimeException(
 					"Specified platform '"+value+"' not recognized." );
@@ -124,6 +241,12 @@ public class Main {
 		else
 			platform = PLATFORM_LOCAL;
 		
+		if( platform == PLATFORM_WORKER ) {
+			
+			runWorker( cmdline );
+			return;
+		}
+		
 		if( cmdline.hasOption( 'd' ) ) {
 			
 			value = cmdline.getOptionValue( 'd' );
@@ -159,6 +282,18 @@ public class Main {
 					"Could not create output directory '"
 					+outputDir.getAbsolutePath()+"'" );
 		
+		if( cmdline.hasOption( 's' ) ) {
+			
+			scratchDir = new File( cmdline.getOptionValue( 's' ) );
+			
+			if( cmdline.hasOption( 'c' ) && scratchDir.exists() )
+				FileUtils.deleteDirectory( scratchDir );
+		}
+		
+		if( cmdline.hasOption( 'c' ) && cmdline.hasOption( "root" ) )
+			for( String root : cmdline.getOptionValues( "root" ) )
+				FileUtils.deleteDirectory( new File( root ) );
+		
 		if( cmdline.hasOption( 'r' ) )
 			dagid = cmdline.getOptionValue( 'r' );
 		else
@@ -168,6 +303,25 @@ public class Main {
 			logFile = new File( cmdline.getOptionValue( 'f' ) );
 		else
 			logFile = null;
+		
+		// a resident engine runs many workflows, so reset settings every time
+		Invocation.setSpillThreshold( cmdline.hasOption( "spill" )
+			? Integer.parseInt( cmdline.getOptionValue( "spill" ) )
+			: Invocation.DEFAULT_SPILL_THRESHOLD );
+		
+		if( cmdline.hasOption( "no-parse-cache" ) )
+			CuneiformDag.setDefaultParseCache( null );
+		else {
+			
+			parseCacheDir = cmdline.hasOption( "parse-cache" )
+				? new File( cmdline.getOptionValue( "parse-cache" ) )
+				: new File( System.getProperty( "user.home" ), ParseCache.DEFAULT_DIRNAME );
+			
+			// keep the resident engine's parse cache if it is the one asked for
+			if( CuneiformDag.getDefaultParseCache() == null
+				|| !CuneiformDag.getDefaultParseCache().getCacheDir().getAbsoluteFile().equals( parseCacheDir.getAbsoluteFile() ) )
+				CuneiformDag.setDefaultParseCache( new ParseCache( parseCacheDir ) );
+		}
 			
 		
 		fileList = cmdline.getArgs();
@@ -182,9 +336,20 @@ public class Main {
 			
 			switch( platform ) {
 			
-				case PLATFORM_DOT   : createDot( buf.toString(), outputDir, logFile ); break;
-				case PLATFORM_LOCAL : runLocal( buf.toString(), outputDir, logFile, dagid ); break;
-				case PLATFORM_DEBUG : runDebug( buf.toString(), outputDir, logFile, dagid ); break;
+				case PLATFORM_DOT   : createDot( buf.toString(), outputDir, logFile, cmdline ); break;
+				case PLATFORM_LOCAL :
+					
+					if( cmdline.hasOption( "watch" ) )
+						throw new RuntimeException( "Watch mode needs input files." );
+					
+					runLocal( buf.toString(), outputDir, logFile, dagid, cmdline );
+					break;
+					
+				case PLATFORM_DEBUG : runDebug( buf.toString(), outputDir, logFile, dagid, cmdline ); break;
+				case PLATFORM_REMOTE : runRemote( buf.toString(), outputDir, logFile, dagid, cmdline ); break;
+				case PLATFORM_BATCH : runBatch( buf.toString(), outputDir, logFile, dagid, cmdline ); break;
+				case PLATFORM_NOOP  : runNoop( buf.toString(), dagid ); break;
+				case PLATFORM_SIMULATE : runSimulate( buf.toString(), dagid, cmdline ); break;
 				default             : throw new RuntimeException( "Platform not recognized." );
 			}
 		}
@@ -192,95 +357,548 @@ public class Main {
 
 			switch( platform ) {
 			
-				case PLATFORM_DOT   : createDot( fileList, outputDir, logFile ); break;
-				case PLATFORM_LOCAL : runLocal( fileList, outputDir, logFile, dagid ); break;
-				case PLATFORM_DEBUG : runDebug( fileList, outputDir, logFile, dagid ); break;
+				case PLATFORM_DOT   : createDot( fileList, outputDir, logFile, cmdline ); break;
+				case PLATFORM_LOCAL :
+					
+					if( cmdline.hasOption( "watch" ) )
+						runWatch( fileList, outputDir, logFile, dagid, cmdline );
+					else
+						runLocal( fileList, outputDir, logFile, dagid, cmdline );
+					break;
+					
+				case PLATFORM_DEBUG : runDebug( fileList, outputDir, logFile, dagid, cmdline ); break;
+				case PLATFORM_REMOTE : runRemote( fileList, outputDir, logFile, dagid, cmdline ); break;
+				case PLATFORM_BATCH : runBatch( fileList, outputDir, logFile, dagid, cmdline ); break;
+				case PLATFORM_NOOP  : runNoop( fileList, dagid ); break;
+				case PLATFORM_SIMULATE : runSimulate( fileList, dagid, cmdline ); break;
 				default             : throw new RuntimeException( "Platform not recognized." );
 			}
 
 	}
 	
-	private static void createDot( String[] inputFileList, File outputDir, File dotFile ) throws IOException {
+	private static void createDot( String[] inputFileList, File outputDir, File dotFile, CommandLine cmdline ) throws IOException {
 		
-		CuneiformDag dag;
-		File df;
+		ExecDag dag;
 				
-		dag = new CuneiformDag();
+		dag = new ExecDag();
 		for( String inputFile : inputFileList )
 			dag.addInputFile( inputFile );
 
-		if( dotFile == null )
-			df = new File( outputDir.getAbsolutePath()+"/graph_task_"+dag.getDagId()+".dot" );
-		else
-			df = dotFile;
-		
-		try( BufferedWriter writer = new BufferedWriter( new FileWriter( df, false ) ) ) {
-			
-			writer.write( dag.toDot() );
-		}
+		exportGraph( dag, outputDir, dotFile, cmdline );
 	}
 	
-	private static void createDot( String inputString, File outputDir, File dotFile  ) throws IOException {
+	private static void createDot( String inputString, File outputDir, File dotFile, CommandLine cmdline ) throws IOException {
 		
-		CuneiformDag dag;
-		File df;
+		ExecDag dag;
 
-		dag = new CuneiformDag();
+		dag = new ExecDag();
 		dag.addInputString( inputString );
 		
+		exportGraph( dag, outputDir, dotFile, cmdline );
+	}
+	
+	private static void exportGraph( ExecDag dag, File outputDir, File dotFile, CommandLine cmdline ) throws IOException {
+		
+		File df;
+		int view, format;
+		String value, prefix;
+		
+		view = GraphExporter.VIEW_TASK;
+		prefix = "graph_task_";
+		
+		if( cmdline.hasOption( "view" ) ) {
+			
+			value = cmdline.getOptionValue( "view" );
+			
+			if( value.equals( "invocation" ) ) {
+				view = GraphExporter.VIEW_INVOCATION;
+				prefix = "graph_invoc_";
+			}
+			else if( value.equals( "aggregate" ) ) {
+				view = GraphExporter.VIEW_AGGREGATE;
+				prefix = "graph_aggregate_";
+			}
+			else if( !value.equals( "task" ) )
+				throw new RuntimeException( "Graph view '"+value+"' not recognized." );
+		}
+		
+		format = cmdline.hasOption( "graphml" ) ? GraphExporter.FORMAT_GRAPHML : GraphExporter.FORMAT_DOT;
+		
 		if( dotFile == null )
-			df = new File( outputDir.getAbsolutePath()+"/graph_task_"+dag.getDagId()+".dot" );
+			df = new File( outputDir.getAbsolutePath()+"/"+prefix+dag.getDagId()
+				+( format == GraphExporter.FORMAT_GRAPHML ? ".graphml" : ".dot" ) );
 		else
 			df = dotFile;
 		
-		try( BufferedWriter writer = new BufferedWriter( new FileWriter( df, false ) ) ) {
+		try( FileChannel channel = FileChannel.open( df.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING );
+			Writer writer = new BufferedWriter( Channels.newWriter( channel, "UTF-8" ), GRAPH_BUFFER_SIZE ) ) {
 			
-			writer.write( dag.toDot() );
+			new GraphExporter( writer, format ).export( dag, view );
 		}
 	}
 	
-	private static void runLocal( String[] inputFileList, File outputDir, File logFile, String dagid )
+	private static void configureLocal( LocalDispatcher dispatcher, CommandLine cmdline ) {
+		
+		String value;
+		
+		if( cmdline.hasOption( "collect" ) ) {
+			
+			value = cmdline.getOptionValue( "collect" );
+			
+			if( value.equals( "delete" ) )
+				dispatcher.setCollectMode( IntermediateCollector.MODE_DELETE );
+			else if( value.equals( "compress" ) )
+				dispatcher.setCollectMode( IntermediateCollector.MODE_COMPRESS );
+			else
+				throw new RuntimeException(
+					"Specified collection mode '"+value+"' not recognized." );
+		}
+		
+		if( cmdline.hasOption( 's' ) )
+			dispatcher.setScratchDir( new File( cmdline.getOptionValue( 's' ) ) );
+		
+		if( cmdline.hasOption( "pin" ) )
+			for( String taskName : cmdline.getOptionValues( "pin" ) )
+				dispatcher.addPinnedTask( taskName );
+		
+		if( cmdline.hasOption( "root" ) )
+			for( String root : cmdline.getOptionValues( "root" ) )
+				dispatcher.addBuildRoot( new File( root ) );
+		
+		if( cmdline.hasOption( "share" ) )
+			dispatcher.setShared( true );
+	}
+	
+	private static void runLocal( String[] inputFileList, File outputDir, File logFile, String dagid, CommandLine cmdline )
 	throws IOException, NotDerivableException, InterruptedException, JSONException {
 		
 		LocalDispatcher dispatcher;
 		
 		dispatcher = new LocalDispatcher( outputDir, logFile, dagid );
+		configureLocal( dispatcher, cmdline );
 		for( String inputFile : inputFileList )
 			dispatcher.addInputFile( inputFile );
 		dispatcher.run();
 		
 	}
 	
-	private static void runLocal( String inputString, File outputDir, File logFile, String dagid )
+	private static void runLocal( String inputString, File outputDir, File logFile, String dagid, CommandLine cmdline )
 	throws IOException, NotDerivableException, InterruptedException, JSONException {
 		
 		LocalDispatcher dispatcher;
 		
 		dispatcher = new LocalDispatcher( outputDir, logFile, dagid );
+		configureLocal( dispatcher, cmdline );
 		dispatcher.addInputString( inputString );
 		dispatcher.run();
 		
 	}
 	
 	
-	private static void runDebug( String[] inputFileList, File outputDir, File logFile, String dagid )
-	throws IOException, NotDerivableException {
+	/** Runs a workflow on the 'local' platform again whenever one of its
+	 * Cuneiform files changes.
+	 * 
+	 * The outputs of every invocation computed so far are kept in memory.
+	 * After an edit, the workflow is compiled anew and only invocations whose
+	 * signature has not been seen before are run. Unchanged files are taken
+	 * from the parse cache.
+	 */
+	private static void runWatch( String[] inputFileList, File outputDir, File logFile, String dagid, CommandLine cmdline )
+	throws IOException, InterruptedException {
+		
+		LocalDispatcher dispatcher;
+		Map<Long,Map<String,List<String>>> outputCache;
+		Set<String> sourceFileSet;
+		Set<Long> signatureSet, prevSignatureSet;
+		int nNew, nDropped;
+		
+		outputCache = new HashMap<>();
+		sourceFileSet = new LinkedHashSet<>( Arrays.asList( inputFileList ) );
+		prevSignatureSet = new HashSet<>();
+		
+		try( ScriptWatcher watcher = new ScriptWatcher() ) {
+			
+			while( true ) {
+				
+				dispatcher = new LocalDispatcher( outputDir, logFile, dagid );
+				configureLocal( dispatcher, cmdline );
+				dispatcher.setOutputCache( outputCache );
+				
+				try {
+					
+					for( String inputFile : inputFileList )
+						dispatcher.addInputFile( inputFile );
+					
+					// files might be imported only after an edit
+					sourceFileSet.addAll( dispatcher.getSourceFileSet() );
+					
+					dispatcher.run();
+					
+					signatureSet = new HashSet<>();
+					for( Invocation invocation : dispatcher.getInvocationSet() )
+						signatureSet.add( invocation.getSignature() );
+					
+					nNew = 0;
+					for( Long signature : signatureSet )
+						if( !prevSignatureSet.contains( signature ) )
+							nNew++;
+					
+					nDropped = 0;
+					for( Long signature : prevSignatureSet )
+						if( !signatureSet.contains( signature ) )
+							nDropped++;
+					
+					System.out.println(
+						"[watch] "+signatureSet.size()+" invocations, "+nNew+" new, "
+						+nDropped+" dropped since the last run." );
+					
+					prevSignatureSet = signatureSet;
+				}
+				catch( IOException | RuntimeException | NotDerivableException | JSONException e ) {
+					System.err.println( "[watch] Run failed: "+e.getMessage() );
+				}
+				
+				watcher.setFileSet( sourceFileSet );
+				System.out.println( "[watch] Waiting for changes to "+sourceFileSet+"." );
+				
+				System.out.println( "[watch] Changed: "+watcher.await() );
+			}
+		}
+	}
+	
+	private static void configureRemote( RemoteDispatcher dispatcher, CommandLine cmdline )
+	throws UnknownHostException {
+		
+		configureLocal( dispatcher, cmdline );
+		
+		if( cmdline.hasOption( "port" ) )
+			dispatcher.setPort( Integer.parseInt( cmdline.getOptionValue( "port" ) ) );
+		
+		if( cmdline.hasOption( "bind" ) )
+			dispatcher.setBindAddress( InetAddress.getByName( cmdline.getOptionValue( "bind" ) ) );
+		
+		if( cmdline.hasOption( "workers" ) )
+			dispatcher.setLocalWorker(
+				Integer.parseInt( cmdline.getOptionValue( "workers" ) ),
+				getSlots( cmdline ) );
+	}
+	
+	/** Submits the run to a resident engine instead of running it here.
+	 * 
+	 * The command line is passed on with all file names made absolute, since
+	 * the engine does not share this process's working directory.
+	 */
+	private static void runClient( CommandLine cmdline ) throws IOException, JSONException {
+		
+		List<String> argList;
+		String platform, line;
+		StringBuffer buf;
+		String input;
+		int code;
+		
+		platform = cmdline.getOptionValue( "platform", "local" );
+		if( platform.equals( "debug" ) || platform.equals( "worker" ) )
+			throw new RuntimeException(
+				"The '"+platform+"' platform cannot run in a resident engine." );
+		
+		if( cmdline.hasOption( "watch" ) )
+			throw new RuntimeException( "Watch mode cannot run in a resident engine." );
+		
+		argList = new LinkedList<>();
+		
+		for( Option option : cmdline.getOptions() ) {
+			
+			if( option.getLongOpt().equals( "connect" ) || option.getLongOpt().equals( "daemon-port" ) )
+				continue;
+			
+			if( !option.hasArg() ) {
+				
+				argList.add( "--"+option.getLongOpt() );
+				continue;
+			}
+			
+			for( String value : option.getValues() ) {
+				
+				argList.add( "--"+option.getLongOpt() );
+				argList.add( PATH_OPTION_SET.contains( option.getLongOpt() )
+					? new File( value ).getAbsolutePath()
+					: value );
+			}
+		}
+		
+		if( !cmdline.hasOption( 'd' ) ) {
+			
+			argList.add( "--directory" );
+			argList.add( new File( "build" ).getAbsolutePath() );
+		}
+		
+		for( String arg : cmdline.getArgs() )
+			argList.add( new File( arg ).getAbsolutePath() );
+		
+		input = null;
+		if( cmdline.getArgs().length == 0 ) {
+			
+			buf = new StringBuffer();
+			
+			try( BufferedReader reader = new BufferedReader( new InputStreamReader( System.in ) ) ) {
+				
+				while( ( line = reader.readLine() ) != null )
+					buf.append( line ).append( '\n' );
+			}
+			
+			input = buf.toString();
+		}
+		
+		code = new DaemonClient( getDaemonPort( cmdline ) ).submit( argList, input );
+		
+		if( code != 0 )
+			System.exit( code );
+	}
+	
+	private static int getDaemonPort( CommandLine cmdline ) {
+		
+		if( cmdline.hasOption( "daemon-port" ) )
+			return Integer.parseInt( cmdline.getOptionValue( "daemon-port" ) );
+		
+		return EngineDaemon.DEFAULT_PORT;
+	}
+	
+	private static int getSlots( CommandLine cmdline ) {
+		
+		if( cmdline.hasOption( "slots" ) )
+			return Integer.parseInt( cmdline.getOptionValue( "slots" ) );
+		
+		return Runtime.getRuntime().availableProcessors();
+	}
+	
+	private static void runRemote( String[] inputFileList, File outputDir, File logFile, String dagid, CommandLine cmdline )
+	throws IOException, NotDerivableException, InterruptedException, JSONException {
+		
+		RemoteDispatcher dispatcher;
+		
+		dispatcher = new RemoteDispatcher( outputDir, logFile, dagid );
+		configureRemote( dispatcher, cmdline );
+		for( String inputFile : inputFileList )
+			dispatcher.addInputFile( inputFile );
+		dispatcher.run();
+		
+	}
+	
+	private static void runRemote( String inputString, File outputDir, File logFile, String dagid, CommandLine cmdline )
+	throws IOException, NotDerivableException, InterruptedException, JSONException {
+		
+		RemoteDispatcher dispatcher;
+		
+		dispatcher = new RemoteDispatcher( outputDir, logFile, dagid );
+		configureRemote( dispatcher, cmdline );
+		dispatcher.addInputString( inputString );
+		dispatcher.run();
+		
+	}
+	
+	private static void configureBatch( BatchDispatcher dispatcher, CommandLine cmdline ) {
+		
+		configureLocal( dispatcher, cmdline );
+		
+		if( cmdline.hasOption( "submit" ) || cmdline.hasOption( "poll" ) || cmdline.hasOption( "cancel" ) ) {
+			
+			if( !cmdline.hasOption( "submit" ) || !cmdline.hasOption( "poll" ) || !cmdline.hasOption( "cancel" ) )
+				throw new RuntimeException( "Submit, poll, and cancel commands must be given together." );
+			
+			dispatcher.setTemplates(
+				cmdline.getOptionValue( "submit" ),
+				cmdline.getOptionValue( "poll" ),
+				cmdline.getOptionValue( "cancel" ) );
+		}
+		
+		if( cmdline.hasOption( "array-size" ) )
+			dispatcher.setMaxArraySize( Integer.parseInt( cmdline.getOptionValue( "array-size" ) ) );
+		
+		dispatcher.setLocalSlots( getSlots( cmdline ) );
+	}
+	
+	private static void runBatch( String[] inputFileList, File outputDir, File logFile, String dagid, CommandLine cmdline )
+	throws IOException, NotDerivableException, InterruptedException, JSONException {
+		
+		BatchDispatcher dispatcher;
+		
+		dispatcher = new BatchDispatcher( outputDir, logFile, dagid );
+		configureBatch( dispatcher, cmdline );
+		for( String inputFile : inputFileList )
+			dispatcher.addInputFile( inputFile );
+		dispatcher.run();
+		
+	}
+	
+	private static void runBatch( String inputString, File outputDir, File logFile, String dagid, CommandLine cmdline )
+	throws IOException, NotDerivableException, InterruptedException, JSONException {
+		
+		BatchDispatcher dispatcher;
+		
+		dispatcher = new BatchDispatcher( outputDir, logFile, dagid );
+		configureBatch( dispatcher, cmdline );
+		dispatcher.addInputString( inputString );
+		dispatcher.run();
+		
+	}
+	
+	private static void runNoop( String[] inputFileList, String dagid )
+	throws IOException, NotDerivableException, JSONException {
+		
+		NoopDispatcher dispatcher;
+		
+		dispatcher = new NoopDispatcher( dagid );
+		for( String inputFile : inputFileList )
+			dispatcher.addInputFile( inputFile );
+		dispatcher.run();
+	}
+	
+	private static void runNoop( String inputString, String dagid )
+	throws NotDerivableException, JSONException {
+		
+		NoopDispatcher dispatcher;
+		
+		dispatcher = new NoopDispatcher( dagid );
+		dispatcher.addInputString( inputString );
+		dispatcher.run();
+	}
+	
+	private static void configureSimulate( SimulationDispatcher dispatcher, CommandLine cmdline )
+	throws IOException {
+		
+		TaskProfile profile;
+		String value;
+		int pos;
+		
+		profile = dispatcher.getProfile();
+		
+		if( cmdline.hasOption( "profile" ) )
+			for( String logFile : cmdline.getOptionValues( "profile" ) )
+				profile.load( new File( logFile ) );
+		
+		if( cmdline.hasOption( "duration" ) )
+			for( String spec : cmdline.getOptionValues( "duration" ) ) {
+				
+				pos = spec.indexOf( '=' );
+				if( pos <= 0 )
+					throw new RuntimeException( "Duration '"+spec+"' must have the form task=distribution." );
+				
+				if( spec.substring( 0, pos ).equals( "*" ) )
+					profile.setDefaultDistribution( spec.substring( pos+1 ) );
+				else
+					profile.setDistribution( spec.substring( 0, pos ), spec.substring( pos+1 ) );
+			}
+		
+		if( cmdline.hasOption( "demand" ) )
+			for( String spec : cmdline.getOptionValues( "demand" ) ) {
+				
+				pos = spec.indexOf( '=' );
+				if( pos <= 0 )
+					throw new RuntimeException( "Memory demand '"+spec+"' must have the form task=MiB." );
+				
+				if( spec.substring( 0, pos ).equals( "*" ) )
+					profile.setDefaultDemand( Double.parseDouble( spec.substring( pos+1 ) ) );
+				else
+					profile.setDemand( spec.substring( 0, pos ), Double.parseDouble( spec.substring( pos+1 ) ) );
+			}
+		
+		if( cmdline.hasOption( "cores" ) )
+			dispatcher.setCoreCount( Integer.parseInt( cmdline.getOptionValue( "cores" ) ) );
+		
+		if( cmdline.hasOption( "memory" ) )
+			dispatcher.setMemory( Double.parseDouble( cmdline.getOptionValue( "memory" ) ) );
+		
+		if( cmdline.hasOption( "policy" ) ) {
+			
+			value = cmdline.getOptionValue( "policy" );
+			
+			if( value.equals( "fifo" ) )
+				dispatcher.setPolicy( SimulationDispatcher.POLICY_FIFO );
+			else if( value.equals( "longest" ) )
+				dispatcher.setPolicy( SimulationDispatcher.POLICY_LONGEST );
+			else if( value.equals( "critical" ) )
+				dispatcher.setPolicy( SimulationDispatcher.POLICY_CRITICAL );
+			else
+				throw new RuntimeException( "Scheduling policy '"+value+"' not recognized." );
+		}
+		
+		if( cmdline.hasOption( "seed" ) )
+			dispatcher.setSeed( Long.parseLong( cmdline.getOptionValue( "seed" ) ) );
+	}
+	
+	private static void runSimulate( String[] inputFileList, String dagid, CommandLine cmdline )
+	throws IOException, NotDerivableException, JSONException {
+		
+		SimulationDispatcher dispatcher;
+		
+		dispatcher = new SimulationDispatcher( dagid );
+		configureSimulate( dispatcher, cmdline );
+		for( String inputFile : inputFileList )
+			dispatcher.addInputFile( inputFile );
+		dispatcher.run();
+	}
+	
+	private static void runSimulate( String inputString, String dagid, CommandLine cmdline )
+	throws IOException, NotDerivableException, JSONException {
+		
+		SimulationDispatcher dispatcher;
+		
+		dispatcher = new SimulationDispatcher( dagid );
+		configureSimulate( dispatcher, cmdline );
+		dispatcher.addInputString( inputString );
+		dispatcher.run();
+	}
+	
+	private static void runWorker( CommandLine cmdline ) {
+		
+		String value;
+		String host;
+		int port;
+		RemoteWorker worker;
+		
+		if( !cmdline.hasOption( "master" ) )
+			throw new RuntimeException( "A worker needs the address of its master." );
+		
+		value = cmdline.getOptionValue( "master" );
+		
+		if( value.indexOf( ':' ) >= 0 ) {
+			
+			host = value.substring( 0, value.lastIndexOf( ':' ) );
+			port = Integer.parseInt( value.substring( value.lastIndexOf( ':' )+1 ) );
+		}
+		else {
+			
+			host = value;
+			port = RemoteDispatcher.DEFAULT_PORT;
+		}
+		
+		worker = new RemoteWorker( host, port, getSlots( cmdline ) );
+		worker.setTokenFile( new File(
+			cmdline.hasOption( 'd' ) ? cmdline.getOptionValue( 'd' ) : "build",
+			RemoteDispatcher.TOKEN_FILENAME ) );
+		worker.run();
+	}
+	
+	private static void runDebug( String[] inputFileList, File outputDir, File logFile, String dagid, CommandLine cmdline )
+	throws IOException {
 		
 		DebugDispatcher dispatcher;
 		
 		dispatcher = new DebugDispatcher( outputDir, logFile, dagid );
+		dispatcher.setThreads( getSlots( cmdline ) );
 		for( String inputFile : inputFileList )
 			dispatcher.addInputFile( inputFile );
 		dispatcher.run();
 		
 	}
 	
-	private static void runDebug( String inputString, File outputDir, File logFile, String dagid )
-	throws NotDerivableException {
+	private static void runDebug( String inputString, File outputDir, File logFile, String dagid, CommandLine cmdline ) {
 		
 		DebugDispatcher dispatcher;
 		
 		dispatcher = new DebugDispatcher( outputDir, logFile, dagid );
+		dispatcher.setThreads( getSlots( cmdline ) );
 		dispatcher.addInputString( inputString );
 		dispatcher.run();
 		
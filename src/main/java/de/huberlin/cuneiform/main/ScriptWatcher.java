@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.main;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/** Waits for changes to a set of Cuneiform files.
+ * 
+ * The directories holding the files are watched, so files replaced by an
+ * editor are noticed as well. Since saving a file may take several steps,
+ * changes are collected until no further change has been seen for a short
+ * while.
+ */
+public class ScriptWatcher implements AutoCloseable {
+	
+	private static final long SETTLE_INTERVAL = 200;
+	
+	private WatchService watchService;
+	private Set<Path> fileSet;
+	private Set<Path> dirSet;
+	
+	public ScriptWatcher() throws IOException {
+		
+		watchService = FileSystems.getDefault().newWatchService();
+		fileSet = new HashSet<>();
+		dirSet = new HashSet<>();
+	}
+	
+	/** Waits until at least one of the watched files changes.
+	 * 
+	 * @return The names of the changed files.
+	 */
+	public Set<String> await() throws InterruptedException {
+		
+		Set<String> changeSet;
+		WatchKey key;
+		
+		changeSet = new TreeSet<>();
+		
+		do {
+			
+			key = watchService.take();
+			poll( key, changeSet );
+			
+		} while( changeSet.isEmpty() );
+		
+		// let the editor finish writing
+		while( ( key = watchService.poll( SETTLE_INTERVAL, TimeUnit.MILLISECONDS ) ) != null )
+			poll( key, changeSet );
+		
+		return changeSet;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+	
+	/** Sets the files to watch.
+	 * 
+	 * @param filenameSet The names of the files to watch.
+	 */
+	public void setFileSet( Collection<String> filenameSet ) throws IOException {
+		
+		Path file, dir;
+		
+		if( filenameSet == null )
+			throw new NullPointerException( "File name set must not be null." );
+		
+		fileSet.clear();
+		
+		for( String filename : filenameSet ) {
+			
+			file = FileSystems.getDefault().getPath( filename ).toAbsolutePath().normalize();
+			fileSet.add( file );
+			
+			dir = file.getParent();
+			if( dirSet.add( dir ) )
+				dir.register( watchService,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY,
+					StandardWatchEventKinds.ENTRY_DELETE );
+		}
+	}
+	
+	/** Adds the watched files a watch key reports changes for.
+	 */
+	private void poll( WatchKey key, Set<String> changeSet ) {
+		
+		Path dir, file;
+		
+		dir = ( Path )key.watchable();
+		
+		for( WatchEvent<?> event : key.pollEvents() ) {
+			
+			if( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+				
+				// events got lost, assume everything changed
+				for( Path f : fileSet )
+					changeSet.add( f.toString() );
+				
+				continue;
+			}
+			
+			file = dir.resolve( ( Path )event.context() );
+			if( fileSet.contains( file ) )
+				changeSet.add( file.toString() );
+		}
+		
+		key.reset();
+	}
+}
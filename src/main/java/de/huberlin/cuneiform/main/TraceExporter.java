@@ -0,0 +1,428 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.main;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import de.huberlin.cuneiform.dag.JsonReportEntry;
+
+/** Turns the logs of workflow runs into a timeline in the Chrome trace
+ * event format, which can be opened in Perfetto or chrome://tracing.
+ * 
+ * Every invocation with an invoc-time entry becomes a span named after its
+ * task, starting at the entry's timestamp and lasting its real time. Its
+ * arguments are the invocation signature, the language, the summed
+ * stage-in and stage-out file sizes, and the peak resident set size.
+ * 
+ * Spans are laid out on lanes so that no two overlapping spans share a
+ * lane. By default each run is a process whose lanes stand for the worker
+ * slots in use, which makes parallelism gaps and stragglers stand out.
+ * Grouped by task, each task of each run is a process of its own, e.g.,
+ * 
+ *   java -cp cuneiform.jar de.huberlin.cuneiform.main.TraceExporter \
+ *     --by-task -o trace.json build/log_*.txt
+ */
+public class TraceExporter {
+	
+	private static final String ATT_REALTIME = "realTime";
+	private static final String ATT_MAXRSS = "maxResidentSetSize";
+	
+	private Map<String,Span> spanMap;
+	private boolean byTask;
+	
+	public TraceExporter() {
+		spanMap = new LinkedHashMap<>();
+	}
+	
+	/** Records a report entry. Entries without an invocation are ignored.
+	 * 
+	 * @param entry The report entry.
+	 */
+	public void addReportEntry( JsonReportEntry entry ) throws JSONException {
+		
+		Span span;
+		String key;
+		JSONObject value;
+		
+		if( !entry.hasInvocId() )
+			return;
+		
+		key = entry.getRunId()+"/"+entry.getInvocId();
+		
+		span = spanMap.get( key );
+		if( span == null ) {
+			
+			span = new Span( entry.getRunId().toString(), entry.getInvocId() );
+			spanMap.put( key, span );
+		}
+		
+		if( entry.hasTaskname() )
+			span.taskName = entry.getTaskName();
+		
+		if( entry.hasLang() )
+			span.lang = entry.getLang();
+		
+		switch( entry.getKey() ) {
+		
+			case JsonReportEntry.KEY_INVOC_TIME :
+				
+				value = entry.getValueJsonObj();
+				span.start = entry.getTimestamp();
+				span.duration = value.getDouble( ATT_REALTIME );
+				span.maxRss = value.optLong( ATT_MAXRSS, 0 );
+				break;
+				
+			case JsonReportEntry.KEY_FILE_SIZE_STAGEIN :
+				
+				if( entry.isValueJson() )
+					span.stageIn = sum( entry.getValueJsonObj() );
+				break;
+				
+			case JsonReportEntry.KEY_FILE_SIZE_STAGEOUT :
+				
+				if( entry.isValueJson() )
+					span.stageOut = sum( entry.getValueJsonObj() );
+				break;
+				
+			default :
+				// not part of the timeline
+		}
+	}
+	
+	public int getSpanCount() {
+		
+		int n;
+		
+		n = 0;
+		for( Span span : spanMap.values() )
+			if( span.duration >= 0 )
+				n++;
+		
+		return n;
+	}
+	
+	/** Reads all report entries of a log file.
+	 * 
+	 * @param logFile The log file.
+	 */
+	public void load( File logFile ) throws IOException {
+		
+		String line;
+		
+		try( BufferedReader reader = new BufferedReader( new FileReader( logFile ) ) ) {
+			
+			while( ( line = reader.readLine() ) != null ) {
+				
+				line = line.trim();
+				if( line.isEmpty() )
+					continue;
+				
+				try {
+					addReportEntry( new JsonReportEntry( line ) );
+				}
+				catch( JSONException e ) {
+					// not a report entry
+				}
+			}
+		}
+	}
+	
+	/** Lays out each task of each run as a process of its own.
+	 * 
+	 * @param byTask True to group by task, false to group by run only.
+	 */
+	public void setByTask( boolean byTask ) {
+		this.byTask = byTask;
+	}
+	
+	/** Writes the timeline as a trace event JSON object.
+	 * 
+	 * Timestamps are relative to the earliest span, which is given as
+	 * epoch milliseconds in the trace's metadata.
+	 * 
+	 * @param writer The writer to write to. It is not closed.
+	 */
+	public void write( Writer writer ) throws IOException {
+		
+		Map<String,List<Span>> groupMap;
+		List<Span> group;
+		String groupName;
+		long origin;
+		int pid, nLane;
+		boolean comma;
+		
+		groupMap = new LinkedHashMap<>();
+		origin = Long.MAX_VALUE;
+		
+		for( Span span : spanMap.values() ) {
+			
+			if( span.duration < 0 )
+				continue;
+			
+			origin = Math.min( origin, span.start );
+			
+			groupName = byTask ? span.taskName+" "+span.runId : span.runId;
+			group = groupMap.get( groupName );
+			if( group == null ) {
+				
+				group = new ArrayList<>();
+				groupMap.put( groupName, group );
+			}
+			
+			group.add( span );
+		}
+		
+		if( origin == Long.MAX_VALUE )
+			origin = 0;
+		
+		writer.write( "{\"displayTimeUnit\":\"ms\",\"otherData\":{\"origin\":" );
+		writer.write( String.valueOf( origin ) );
+		writer.write( "},\"traceEvents\":[\n" );
+		
+		comma = false;
+		pid = 0;
+		
+		for( String name : groupMap.keySet() ) {
+			
+			group = groupMap.get( name );
+			nLane = assignLanes( group );
+			pid++;
+			
+			comma = writeMeta( writer, comma, "process_name", pid, 0, name );
+			comma = writeMeta( writer, comma, "process_sort_index", pid, 0, pid );
+			
+			for( int lane = 0; lane < nLane; lane++ )
+				comma = writeMeta( writer, comma, "thread_name", pid, lane, "slot "+( lane+1 ) );
+			
+			for( Span span : group ) {
+				
+				if( comma )
+					writer.write( ",\n" );
+				
+				comma = true;
+				
+				writer.write( "{\"ph\":\"X\",\"name\":" );
+				writer.write( JSONObject.quote( String.valueOf( span.taskName ) ) );
+				writer.write( ",\"cat\":" );
+				writer.write( JSONObject.quote( String.valueOf( span.lang ) ) );
+				writer.write( ",\"pid\":" );
+				writer.write( String.valueOf( pid ) );
+				writer.write( ",\"tid\":" );
+				writer.write( String.valueOf( span.lane ) );
+				writer.write( ",\"ts\":" );
+				writer.write( String.valueOf( ( span.start-origin )*1000 ) );
+				writer.write( ",\"dur\":" );
+				writer.write( String.valueOf( Math.round( span.duration*1e6 ) ) );
+				writer.write( ",\"args\":{\"invocId\":" );
+				writer.write( String.valueOf( span.invocId ) );
+				writer.write( ",\"stageInBytes\":" );
+				writer.write( String.valueOf( span.stageIn ) );
+				writer.write( ",\"stageOutBytes\":" );
+				writer.write( String.valueOf( span.stageOut ) );
+				writer.write( ",\"maxRssKiB\":" );
+				writer.write( String.valueOf( span.maxRss ) );
+				writer.write( "}}" );
+			}
+		}
+		
+		writer.write( "\n]}\n" );
+		writer.flush();
+	}
+	
+	/** Assigns each span of a group the lowest lane free at its start.
+	 * 
+	 * @return The number of lanes used.
+	 */
+	private static int assignLanes( List<Span> group ) {
+		
+		PriorityQueue<Span> busyQueue;
+		PriorityQueue<Integer> freeQueue;
+		int nLane;
+		
+		Collections.sort( group, new Comparator<Span>() {
+			
+			@Override
+			public int compare( Span a, Span b ) {
+				return Long.compare( a.start, b.start );
+			}
+		} );
+		
+		busyQueue = new PriorityQueue<>( 11, new Comparator<Span>() {
+			
+			@Override
+			public int compare( Span a, Span b ) {
+				return Double.compare( a.getEnd(), b.getEnd() );
+			}
+		} );
+		freeQueue = new PriorityQueue<>();
+		nLane = 0;
+		
+		for( Span span : group ) {
+			
+			while( !busyQueue.isEmpty() && busyQueue.peek().getEnd() <= span.start )
+				freeQueue.add( busyQueue.poll().lane );
+			
+			span.lane = freeQueue.isEmpty() ? nLane++ : freeQueue.poll();
+			busyQueue.add( span );
+		}
+		
+		return nLane;
+	}
+	
+	private static long sum( JSONObject obj ) throws JSONException {
+		
+		long sum;
+		
+		sum = 0;
+		if( obj.length() > 0 )
+			for( String name : JSONObject.getNames( obj ) )
+				sum += obj.optLong( name, 0 );
+		
+		return sum;
+	}
+	
+	private static boolean writeMeta( Writer writer, boolean comma, String name, int pid, int tid, Object value )
+	throws IOException {
+		
+		if( comma )
+			writer.write( ",\n" );
+		
+		writer.write( "{\"ph\":\"M\",\"name\":\"" );
+		writer.write( name );
+		writer.write( "\",\"pid\":" );
+		writer.write( String.valueOf( pid ) );
+		writer.write( ",\"tid\":" );
+		writer.write( String.valueOf( tid ) );
+		writer.write( ",\"args\":{\"" );
+		writer.write( name.equals( "process_sort_index" ) ? "sort_index" : "name" );
+		writer.write( "\":" );
+		writer.write( value instanceof String ? JSONObject.quote( ( String )value ) : String.valueOf( value ) );
+		writer.write( "}}" );
+		
+		return true;
+	}
+	
+	public static void main( String[] args ) throws ParseException, IOException {
+		
+		Options opt;
+		CommandLine cmdline;
+		TraceExporter exporter;
+		Writer writer;
+		
+		opt = new Options();
+		
+		opt.addOption( "o", "output", true, "The trace file to write. Default is standard output." );
+		opt.addOption( null, "by-task", false, "Show each task of each run as a process of its own instead of each run." );
+		opt.addOption( "h", "help", false, "Print help text." );
+		
+		cmdline = new GnuParser().parse( opt, args );
+		
+		if( cmdline.hasOption( "help" ) || cmdline.getArgs().length == 0 ) {
+			
+			new HelpFormatter().printHelp(
+				"java -cp cuneiform.jar "+TraceExporter.class.getName()+" [OPTION]* LOGFILE+", opt );
+			
+			return;
+		}
+		
+		exporter = new TraceExporter();
+		exporter.setByTask( cmdline.hasOption( "by-task" ) );
+		
+		for( String logFile : cmdline.getArgs() )
+			exporter.load( new File( logFile ) );
+		
+		if( cmdline.hasOption( "output" ) )
+			writer = new BufferedWriter( new FileWriter( cmdline.getOptionValue( "output" ) ) );
+		else
+			writer = new BufferedWriter( new OutputStreamWriter( System.out ) );
+		
+		try {
+			exporter.write( writer );
+		}
+		finally {
+			
+			if( cmdline.hasOption( "output" ) )
+				writer.close();
+		}
+		
+		if( cmdline.hasOption( "output" ) )
+			System.err.println( "[trace] Wrote "+exporter.getSpanCount()+" span(s) to '"+cmdline.getOptionValue( "output" )+"'." );
+	}
+	
+	private static class Span {
+		
+		private String runId;
+		private long invocId;
+		private String taskName;
+		private String lang;
+		private long start;
+		private double duration;
+		private long stageIn;
+		private long stageOut;
+		private long maxRss;
+		private int lane;
+		
+		public Span( String runId, long invocId ) {
+			
+			this.runId = runId;
+			this.invocId = invocId;
+			duration = -1;
+		}
+		
+		public double getEnd() {
+			return start+duration*1000;
+		}
+	}
+}
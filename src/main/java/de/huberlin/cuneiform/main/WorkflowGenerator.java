@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.main;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/** Generates synthetic Cuneiform scripts for scale testing.
+ * 
+ * A generated workflow starts with a list of width file names. Each task
+ * application consumes the output of an earlier application, and each
+ * application is consumed by fan-out later applications, breadth first.
+ * The parameter shape decides how an application consumes its input:
+ * 
+ *   map    one invocation per item,
+ *   cross  the cross product with the initial list, so the number of
+ *          invocations grows by a factor of width with every level,
+ *   dot    the dot product of the input with itself.
+ * 
+ * Every application passes its own name as a string parameter. Otherwise
+ * applications consuming the same input would be identical and computed only
+ * once.
+ * 
+ * The outputs of all applications nobody consumes are merged by a tree of
+ * reducing applications concatenating fan-in lists each. The reducing
+ * applications come on top of the given number of tasks.
+ * 
+ * The generated tasks do nothing useful. The script is meant to be run on
+ * the 'noop' platform, e.g.,
+ * 
+ *   java -cp cuneiform.jar de.huberlin.cuneiform.main.WorkflowGenerator -t 10000 \
+ *     | java -jar cuneiform.jar -p noop
+ */
+public class WorkflowGenerator {
+	
+	public static final int SHAPE_MAP = 0;
+	public static final int SHAPE_CROSS = 1;
+	public static final int SHAPE_DOT = 2;
+	
+	private int nTask;
+	private int width;
+	private int fanOut;
+	private int fanIn;
+	private int shape;
+	
+	public WorkflowGenerator() {
+		
+		setTaskCount( 100 );
+		setWidth( 10 );
+		setFanOut( 2 );
+		setFanIn( 4 );
+		setShape( SHAPE_MAP );
+	}
+	
+	public String generate() {
+		
+		StringBuffer buf;
+		LinkedList<String> parentQueue;
+		List<String> leafList;
+		List<String> nextList;
+		String parent;
+		String name;
+		int i, j, k, nReduce;
+		
+		buf = new StringBuffer();
+		
+		buf.append( "declare synthetic;\n\n" );
+		buf.append( "deftask map( out : ~id inp ) *{\n  out=out.txt\n}*\n\n" );
+		buf.append( "deftask cross( out : ~id a b ) *{\n  out=out.txt\n}*\n\n" );
+		buf.append( "deftask dot( out : ~id [a b] ) *{\n  out=out.txt\n}*\n\n" );
+		buf.append( "deftask reduce( out : <inp> ) *{\n  out=out.txt\n}*\n\n" );
+		
+		buf.append( "v0 =" );
+		for( i = 0; i < width; i++ )
+			buf.append( " 'in_" ).append( i ).append( ".txt'" );
+		buf.append( ";\n\n" );
+		
+		// expand breadth first
+		parentQueue = new LinkedList<>();
+		parentQueue.add( "v0" );
+		
+		i = 0;
+		while( i < nTask ) {
+			
+			parent = parentQueue.poll();
+			
+			for( j = 0; j < fanOut && i < nTask; j++ ) {
+				
+				name = "t"+( ++i );
+				
+				buf.append( name ).append( " = " );
+				
+				switch( shape ) {
+				
+					case SHAPE_MAP :
+						buf.append( "map( id: ~'" ).append( name ).append( "' inp: " ).append( parent ).append( " );\n" );
+						break;
+						
+					case SHAPE_CROSS :
+						buf.append( "cross( id: ~'" ).append( name ).append( "' a: " ).append( parent ).append( " b: v0 );\n" );
+						break;
+						
+					case SHAPE_DOT :
+						buf.append( "dot( id: ~'" ).append( name ).append( "' a: " ).append( parent ).append( " b: " ).append( parent ).append( " );\n" );
+						break;
+						
+					default :
+						throw new RuntimeException( "Parameter shape not recognized." );
+				}
+				
+				parentQueue.add( name );
+			}
+		}
+		
+		// applications still waiting to become parents are the leaves
+		leafList = new ArrayList<>( parentQueue );
+		
+		buf.append( '\n' );
+		
+		// merge the leaves in a reduction tree
+		nReduce = 0;
+		while( leafList.size() > 1 ) {
+			
+			nextList = new ArrayList<>();
+			
+			for( k = 0; k < leafList.size(); k += fanIn ) {
+				
+				if( k+1 == leafList.size() ) {
+					
+					nextList.add( leafList.get( k ) );
+					continue;
+				}
+				
+				name = "r"+( ++nReduce );
+				
+				buf.append( name ).append( " = reduce( inp:" );
+				for( j = k; j < Math.min( leafList.size(), k+fanIn ); j++ )
+					buf.append( ' ' ).append( leafList.get( j ) );
+				buf.append( " );\n" );
+				
+				nextList.add( name );
+			}
+			
+			leafList = nextList;
+		}
+		
+		buf.append( "\ntarget " ).append( leafList.get( 0 ) ).append( ";\n" );
+		
+		return buf.toString();
+	}
+	
+	public void setFanIn( int fanIn ) {
+		
+		if( fanIn < 2 )
+			throw new RuntimeException( "Fan-in must be at least 2." );
+		
+		this.fanIn = fanIn;
+	}
+	
+	public void setFanOut( int fanOut ) {
+		
+		if( fanOut < 1 )
+			throw new RuntimeException( "Fan-out must be a positive number." );
+		
+		this.fanOut = fanOut;
+	}
+	
+	public void setShape( int shape ) {
+		
+		if( shape < SHAPE_MAP || shape > SHAPE_DOT )
+			throw new RuntimeException( "Parameter shape not recognized." );
+		
+		this.shape = shape;
+	}
+	
+	public void setTaskCount( int nTask ) {
+		
+		if( nTask < 0 )
+			throw new RuntimeException( "Number of tasks must not be negative." );
+		
+		this.nTask = nTask;
+	}
+	
+	public void setWidth( int width ) {
+		
+		if( width < 1 )
+			throw new RuntimeException( "Width must be a positive number." );
+		
+		this.width = width;
+	}
+	
+	public static void main( String[] args ) throws ParseException {
+		
+		Options opt;
+		CommandLine cmdline;
+		WorkflowGenerator generator;
+		String value;
+		
+		opt = new Options();
+		
+		opt.addOption( "t", "tasks", true, "The number of task applications. Default is 100." );
+		opt.addOption( "w", "width", true, "The number of items in the initial list. Default is 10." );
+		opt.addOption( null, "fan-out", true, "The number of applications consuming each application. Default is 2." );
+		opt.addOption( null, "fan-in", true, "The number of lists a reducing application concatenates. Default is 4." );
+		opt.addOption( null, "shape", true, "The parameter shape of the applications. Possible shapes are: 'map', 'cross', and 'dot'. Default is 'map'." );
+		opt.addOption( "h", "help", false, "Print help text." );
+		
+		cmdline = new GnuParser().parse( opt, args );
+		
+		if( cmdline.hasOption( "help" ) ) {
+			
+			new HelpFormatter().printHelp(
+				"java -cp cuneiform.jar "+WorkflowGenerator.class.getName()+" [OPTION]*", opt );
+			
+			return;
+		}
+		
+		generator = new WorkflowGenerator();
+		
+		if( cmdline.hasOption( "tasks" ) )
+			generator.setTaskCount( Integer.parseInt( cmdline.getOptionValue( "tasks" ) ) );
+		
+		if( cmdline.hasOption( "width" ) )
+			generator.setWidth( Integer.parseInt( cmdline.getOptionValue( "width" ) ) );
+		
+		if( cmdline.hasOption( "fan-out" ) )
+			generator.setFanOut( Integer.parseInt( cmdline.getOptionValue( "fan-out" ) ) );
+		
+		if( cmdline.hasOption( "fan-in" ) )
+			generator.setFanIn( Integer.parseInt( cmdline.getOptionValue( "fan-in" ) ) );
+		
+		if( cmdline.hasOption( "shape" ) ) {
+			
+			value = cmdline.getOptionValue( "shape" );
+			
+			if( value.equals( "map" ) )
+				generator.setShape( SHAPE_MAP );
+			else if( value.equals( "cross" ) )
+				generator.setShape( SHAPE_CROSS );
+			else if( value.equals( "dot" ) )
+				generator.setShape( SHAPE_DOT );
+			else
+				throw new RuntimeException(
+					"Specified shape '"+value+"' not recognized." );
+		}
+		
+		System.out.print( generator.generate() );
+	}
+}
@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.monitor;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Counts what the scheduler of a workflow run is doing.
+ * 
+ * Every workflow graph has a monitor. Enumeration is always accounted for.
+ * Once the monitor is registered with the platform MBean server, which
+ * dispatchers do for the duration of a run, it also tracks the ready queue
+ * and the latency from an invocation becoming ready to its process being
+ * spawned. The monitor is registered under the name
+ * 
+ *   de.huberlin.cuneiform:type=Engine,runid=<runid>
+ * 
+ * and can be inspected with any JMX client, e.g., jconsole.
+ */
+public class EngineMonitor implements EngineMonitorMBean {
+	
+	public static final String DOMAIN = "de.huberlin.cuneiform";
+	
+	private String runId;
+	private ObjectName objectName;
+	private AtomicInteger readyQueueLength;
+	private AtomicInteger runningCount;
+	private AtomicLong completedCount;
+	private AtomicLong cacheHitCount;
+	private AtomicLong enumerationCount;
+	private AtomicLong enumerationNanos;
+	private AtomicLong dispatchCount;
+	private AtomicLong dispatchLatencyNanos;
+	private AtomicLong maxDispatchLatencyNanos;
+	private Map<Long,Long> readySinceMap;
+	
+	public EngineMonitor( String runId ) {
+		
+		if( runId == null )
+			throw new NullPointerException( "Run id must not be null." );
+		
+		this.runId = runId;
+		
+		readyQueueLength = new AtomicInteger();
+		runningCount = new AtomicInteger();
+		completedCount = new AtomicLong();
+		cacheHitCount = new AtomicLong();
+		enumerationCount = new AtomicLong();
+		enumerationNanos = new AtomicLong();
+		dispatchCount = new AtomicLong();
+		dispatchLatencyNanos = new AtomicLong();
+		maxDispatchLatencyNanos = new AtomicLong();
+		readySinceMap = new HashMap<>();
+	}
+	
+	public void addCacheHit() {
+		cacheHitCount.incrementAndGet();
+	}
+	
+	public void addCompleted() {
+		completedCount.incrementAndGet();
+	}
+	
+	/** Accounts for one pass of invocation enumeration.
+	 * 
+	 * @param nanos The time the pass took in nanoseconds.
+	 */
+	public void addEnumeration( long nanos ) {
+		
+		enumerationCount.incrementAndGet();
+		enumerationNanos.addAndGet( nanos );
+	}
+	
+	@Override
+	public long getCacheHitCount() {
+		return cacheHitCount.get();
+	}
+	
+	@Override
+	public long getCompletedCount() {
+		return completedCount.get();
+	}
+	
+	@Override
+	public long getDispatchCount() {
+		return dispatchCount.get();
+	}
+	
+	@Override
+	public long getEnumerationCount() {
+		return enumerationCount.get();
+	}
+	
+	@Override
+	public double getEnumerationTimeMillis() {
+		return enumerationNanos.get()/1e6;
+	}
+	
+	@Override
+	public double getMaxDispatchLatencyMillis() {
+		return maxDispatchLatencyNanos.get()/1e6;
+	}
+	
+	@Override
+	public double getMeanDispatchLatencyMillis() {
+		
+		long n;
+		
+		n = dispatchCount.get();
+		if( n == 0 )
+			return 0;
+		
+		return dispatchLatencyNanos.get()/1e6/n;
+	}
+	
+	@Override
+	public int getReadyQueueLength() {
+		return readyQueueLength.get();
+	}
+	
+	@Override
+	public String getRunId() {
+		return runId;
+	}
+	
+	@Override
+	public int getRunningCount() {
+		return runningCount.get();
+	}
+	
+	public synchronized boolean isRegistered() {
+		return objectName != null;
+	}
+	
+	public void setReadyQueueLength( int n ) {
+		readyQueueLength.set( n );
+	}
+	
+	/** Notes the time an invocation was first seen ready.
+	 * 
+	 * Nothing is noted unless the monitor is registered.
+	 * 
+	 * @param signature The invocation signature.
+	 */
+	public synchronized void noteReady( long signature ) {
+		
+		if( objectName != null && !readySinceMap.containsKey( signature ) )
+			readySinceMap.put( signature, System.nanoTime() );
+	}
+	
+	/** Notes that the process of an invocation is about to be spawned.
+	 * 
+	 * @param signature The invocation signature.
+	 */
+	public void noteSpawn( long signature ) {
+		
+		Long since;
+		long latency, max;
+		
+		runningCount.incrementAndGet();
+		
+		synchronized( this ) {
+			since = readySinceMap.remove( signature );
+		}
+		
+		if( since == null )
+			return;
+		
+		latency = System.nanoTime()-since;
+		
+		dispatchCount.incrementAndGet();
+		dispatchLatencyNanos.addAndGet( latency );
+		
+		do
+			max = maxDispatchLatencyNanos.get();
+		while( latency > max && !maxDispatchLatencyNanos.compareAndSet( max, latency ) );
+	}
+	
+	/** Notes that the process of an invocation has exited.
+	 */
+	public void noteExit() {
+		runningCount.decrementAndGet();
+	}
+	
+	/** Registers the monitor with the platform MBean server.
+	 * 
+	 * Failure to register is reported but does not affect the run.
+	 */
+	public synchronized void register() {
+		
+		MBeanServer server;
+		ObjectName name;
+		
+		if( objectName != null )
+			return;
+		
+		try {
+			
+			name = new ObjectName( DOMAIN+":type=Engine,runid="+ObjectName.quote( runId ) );
+			server = ManagementFactory.getPlatformMBeanServer();
+			
+			server.registerMBean( this, name );
+			
+			objectName = name;
+		}
+		catch( JMException e ) {
+			System.err.println( "[monitor] Could not register MBean: "+e.getMessage() );
+		}
+	}
+	
+	public synchronized void unregister() {
+		
+		if( objectName == null )
+			return;
+		
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+		}
+		catch( JMException e ) {
+			System.err.println( "[monitor] Could not unregister MBean: "+e.getMessage() );
+		}
+		finally {
+			
+			objectName = null;
+			readySinceMap.clear();
+		}
+	}
+}
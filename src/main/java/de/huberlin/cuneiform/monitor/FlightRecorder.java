@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.monitor;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Records engine phases as Flight Recorder events.
+ * 
+ * This class refers to the Flight Recorder API and is only loaded by Probe
+ * if that API is present.
+ */
+class FlightRecorder implements Probe.Recorder {
+	
+	@Override
+	public Object begin( int phase ) {
+		
+		PhaseEvent event;
+		
+		switch( phase ) {
+		
+			case Probe.PHASE_PARSE :        event = new ParseEvent(); break;
+			case Probe.PHASE_ENUMERATE :    event = new EnumerateEvent(); break;
+			case Probe.PHASE_SCRIPT :       event = new ScriptEvent(); break;
+			case Probe.PHASE_SPAWN :        event = new SpawnEvent(); break;
+			case Probe.PHASE_WAIT :         event = new WaitEvent(); break;
+			case Probe.PHASE_REPORT_PARSE : event = new ReportParseEvent(); break;
+			case Probe.PHASE_EVAL_REPORT :  event = new EvalReportEvent(); break;
+			default : throw new RuntimeException( "Phase "+phase+" not recognized." );
+		}
+		
+		if( !event.isEnabled() )
+			return null;
+		
+		event.begin();
+		
+		return event;
+	}
+	
+	@Override
+	public void end( Object span, String detail ) {
+		
+		PhaseEvent event;
+		
+		event = ( PhaseEvent )span;
+		event.end();
+		
+		if( event.shouldCommit() ) {
+			
+			event.detail = detail;
+			event.commit();
+		}
+	}
+	
+	@Category( "Cuneiform" )
+	abstract static class PhaseEvent extends Event {
+		
+		@Label( "Detail" )
+		String detail;
+	}
+	
+	@Name( "de.huberlin.cuneiform.Parse" )
+	@Label( "Parse" )
+	@Description( "Parsing a Cuneiform script and assembling the workflow graph." )
+	static class ParseEvent extends PhaseEvent {}
+	
+	@Name( "de.huberlin.cuneiform.Enumerate" )
+	@Label( "Enumerate" )
+	@Description( "Enumerating the invocations of task nodes." )
+	static class EnumerateEvent extends PhaseEvent {}
+	
+	@Name( "de.huberlin.cuneiform.Script" )
+	@Label( "Script Generation" )
+	@Description( "Generating the script of an invocation." )
+	static class ScriptEvent extends PhaseEvent {}
+	
+	@Name( "de.huberlin.cuneiform.Spawn" )
+	@Label( "Spawn" )
+	@Description( "Starting the process of an invocation." )
+	static class SpawnEvent extends PhaseEvent {}
+	
+	@Name( "de.huberlin.cuneiform.Wait" )
+	@Label( "Wait" )
+	@Description( "Waiting for the process of an invocation to exit." )
+	static class WaitEvent extends PhaseEvent {}
+	
+	@Name( "de.huberlin.cuneiform.ReportParse" )
+	@Label( "Report Parse" )
+	@Description( "Reading the report of an invocation." )
+	static class ReportParseEvent extends PhaseEvent {}
+	
+	@Name( "de.huberlin.cuneiform.EvalReport" )
+	@Label( "Evaluate Report" )
+	@Description( "Binding the outputs of an invocation from its report." )
+	static class EvalReportEvent extends PhaseEvent {}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.monitor;
+
+/** Marks the phases of the engine for the JDK Flight Recorder.
+ * 
+ * Each phase is recorded as an event of its own in the category
+ * "Cuneiform", so that standard JVM tooling can attribute engine overhead
+ * to parsing, enumeration, script generation, spawning, waiting, report
+ * parsing, and report evaluation. On JVMs without the Flight Recorder all
+ * methods do nothing.
+ * 
+ *   Object span = Probe.begin( Probe.PHASE_ENUMERATE );
+ *   ...
+ *   Probe.end( span, detail );
+ */
+public class Probe {
+	
+	public static final int PHASE_PARSE = 0;
+	public static final int PHASE_ENUMERATE = 1;
+	public static final int PHASE_SCRIPT = 2;
+	public static final int PHASE_SPAWN = 3;
+	public static final int PHASE_WAIT = 4;
+	public static final int PHASE_REPORT_PARSE = 5;
+	public static final int PHASE_EVAL_REPORT = 6;
+	
+	private static final String RECORDER_CLASSNAME = "de.huberlin.cuneiform.monitor.FlightRecorder";
+	
+	private static final Recorder recorder = createRecorder();
+	
+	private Probe() {}
+	
+	/** Marks the beginning of a phase.
+	 * 
+	 * @param phase One of the PHASE constants.
+	 * @return The span to hand to end or null if nothing is recorded.
+	 */
+	public static Object begin( int phase ) {
+		
+		if( recorder == null )
+			return null;
+		
+		return recorder.begin( phase );
+	}
+	
+	/** Marks the end of a phase.
+	 * 
+	 * @param span The span returned by begin. May be null.
+	 * @param detail A short description, e.g., the task name. May be null.
+	 */
+	public static void end( Object span, String detail ) {
+		
+		if( span != null )
+			recorder.end( span, detail );
+	}
+	
+	public static boolean isAvailable() {
+		return recorder != null;
+	}
+	
+	private static Recorder createRecorder() {
+		
+		try {
+			
+			// the Flight Recorder API is only present from Java 11 on
+			Class.forName( "jdk.jfr.Event" );
+			
+			return ( Recorder )Class.forName( RECORDER_CLASSNAME ).getDeclaredConstructor().newInstance();
+		}
+		catch( ReflectiveOperationException | LinkageError e ) {
+			return null;
+		}
+	}
+	
+	interface Recorder {
+		
+		public Object begin( int phase );
+		public void end( Object span, String detail );
+	}
+}
@@ -0,0 +1,61 @@
+#!/bin/sh
+#
+# Emulates a batch queue with array jobs on the local host.
+#
+#   cf-queue.sh submit <first> <last> <script>
+#       Runs <script> once for each index from <first> to <last>, passing
+#       the index in CF_ARRAY_INDEX. Prints the job id.
+#
+#   cf-queue.sh poll <job>
+#       Prints the job id while the job is queued or running.
+#
+#   cf-queue.sh cancel <job>
+#       Stops the job.
+#
+# At most CF_QUEUE_SLOTS array elements run at once. The default is the
+# number of processors. Job state is kept in CF_QUEUE_DIR, which defaults to
+# a directory next to this script. Every job gets a directory of its own,
+# whose name is the job id. The job marks its end with a file 'done' there,
+# so a job finishing before its pid has been recorded is not mistaken for
+# one still starting.
+
+QDIR=${CF_QUEUE_DIR:-`dirname "$0"`/queue}
+SLOTS=${CF_QUEUE_SLOTS:-`nproc 2>/dev/null || echo 1`}
+
+case "$1" in
+
+	submit)
+		mkdir -p "$QDIR" || exit 1
+		JDIR=`mktemp -d "$QDIR/XXXXXXXX"` || exit 1
+		seq "$2" "$3" > "$JDIR/idx" || exit 1
+		setsid sh -c "xargs -P $SLOTS -I{} env CF_ARRAY_INDEX={} sh '$4' < '$JDIR/idx'; touch '$JDIR/done'" \
+			< /dev/null > "$JDIR/log" 2>&1 &
+		echo $! > "$JDIR/pid.tmp" && mv "$JDIR/pid.tmp" "$JDIR/pid"
+		basename "$JDIR"
+		;;
+
+	poll)
+		[ -d "$QDIR/$2" ] || exit 0
+		if [ -f "$QDIR/$2/done" ]
+		then
+			rm -rf "$QDIR/$2"
+		elif [ ! -f "$QDIR/$2/pid" ] || kill -0 `cat "$QDIR/$2/pid"` 2>/dev/null
+		then
+			echo "$2"
+		else
+			# the job died without marking its end
+			rm -rf "$QDIR/$2"
+		fi
+		;;
+
+	cancel)
+		[ -d "$QDIR/$2" ] || exit 0
+		[ -f "$QDIR/$2/pid" ] && kill -TERM -`cat "$QDIR/$2/pid"` 2>/dev/null
+		rm -rf "$QDIR/$2"
+		;;
+
+	*)
+		echo "usage: $0 submit <first> <last> <script> | poll <job> | cancel <job>" >&2
+		exit 2
+		;;
+esac
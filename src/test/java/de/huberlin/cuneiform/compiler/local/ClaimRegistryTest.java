@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class ClaimRegistryTest extends TestCase {
+	
+	private static final long SIGNATURE = 4181889339L;
+	
+	private File claimDir;
+	private File claimFile;
+	private ClaimRegistry a;
+	private ClaimRegistry b;
+	
+	@Override
+	protected void setUp() throws IOException {
+		
+		claimDir = new File( Files.createTempDirectory( "cf-claim" ).toFile(), ClaimRegistry.CLAIM_DIRNAME );
+		claimFile = new File( claimDir, String.valueOf( SIGNATURE ) );
+		
+		a = new ClaimRegistry( claimDir );
+		b = new ClaimRegistry( claimDir );
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		
+		a.close();
+		b.close();
+		FileUtils.deleteDirectory( claimDir.getParentFile() );
+	}
+	
+	public void testCompetingClaims() throws IOException {
+		
+		assertTrue( a.claim( SIGNATURE ) );
+		assertFalse( b.claim( SIGNATURE ) );
+		assertTrue( a.claim( SIGNATURE ) );
+		assertTrue( b.claim( SIGNATURE+1 ) );
+		
+		assertTrue( a.isHeld( SIGNATURE ) );
+		assertFalse( b.isHeld( SIGNATURE ) );
+		assertEquals( a.getOwner(), FileUtils.readFileToString( claimFile ) );
+		
+		a.release( SIGNATURE );
+		
+		assertFalse( claimFile.exists() );
+		assertTrue( b.claim( SIGNATURE ) );
+		assertFalse( a.claim( SIGNATURE ) );
+		
+		// no temporary claim files are left behind
+		assertEquals( 2, claimDir.list().length );
+	}
+	
+	public void testExpiredClaimTakenOver() throws IOException {
+		
+		assertTrue( a.claim( SIGNATURE ) );
+		
+		b.setLease( 1000 );
+		assertFalse( b.claim( SIGNATURE ) );
+		
+		assertTrue( claimFile.setLastModified( System.currentTimeMillis()-10000 ) );
+		
+		assertTrue( b.claim( SIGNATURE ) );
+		assertEquals( b.getOwner(), FileUtils.readFileToString( claimFile ) );
+		assertEquals( 1, claimDir.list().length );
+		
+		// releasing a lost claim leaves the new owner's claim in place
+		a.release( SIGNATURE );
+		
+		assertFalse( a.isHeld( SIGNATURE ) );
+		assertTrue( claimFile.exists() );
+		assertEquals( b.getOwner(), FileUtils.readFileToString( claimFile ) );
+	}
+	
+	public void testLostClaimKillsScript() throws IOException, InterruptedException {
+		
+		ScriptProcess process;
+		int i;
+		
+		a.setLease( 300 );
+		b.setLease( 1000 );
+		
+		assertTrue( a.claim( SIGNATURE ) );
+		
+		process = new ScriptProcess( new String[] { "sleep", "30" }, claimDir );
+		assertTrue( a.attach( SIGNATURE, process ) );
+		
+		// the holder keeps renewing, so its claim must be aged right before
+		for( i = 0; i < 10; i++ ) {
+			
+			claimFile.setLastModified( System.currentTimeMillis()-10000 );
+			
+			if( b.claim( SIGNATURE ) )
+				break;
+		}
+		
+		assertTrue( b.isHeld( SIGNATURE ) );
+		
+		for( i = 0; i < 50 && ( a.isHeld( SIGNATURE ) || process.isAlive() ); i++ )
+			Thread.sleep( 100 );
+		
+		assertFalse( a.isHeld( SIGNATURE ) );
+		assertFalse( process.isAlive() );
+		
+		// a script attached to a claim lost already is killed right away
+		process = new ScriptProcess( new String[] { "sleep", "30" }, claimDir );
+		assertFalse( a.attach( SIGNATURE, process ) );
+		process.waitFor();
+		assertFalse( process.isAlive() );
+	}
+}
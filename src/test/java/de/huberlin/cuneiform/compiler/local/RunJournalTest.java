@@ -0,0 +1,248 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.huberlin.cuneiform.compiler.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+public class RunJournalTest extends TestCase {
+	
+	private File buildDir;
+	private File journalFile;
+	
+	@Override
+	protected void setUp() throws IOException {
+		
+		buildDir = Files.createTempDirectory( "cf-journal" ).toFile();
+		journalFile = new File( buildDir, RunJournal.JOURNAL_FILENAME );
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		FileUtils.deleteDirectory( buildDir );
+	}
+	
+	public void testReplay() throws IOException {
+		
+		RunJournal journal;
+		
+		journal = new RunJournal( journalFile );
+		journal.append( 1, outputMap( "a.txt", "b.txt" ) );
+		journal.append( 2, outputMap( "c.txt" ) );
+		journal.close();
+		
+		journal = new RunJournal( journalFile );
+		
+		try {
+			
+			assertEquals( 2, journal.size() );
+			assertEquals( outputMap( "a.txt", "b.txt" ), journal.getOutputMap( 1 ) );
+			assertEquals( outputMap( "c.txt" ), journal.getOutputMap( 2 ) );
+			assertNull( journal.getOutputMap( 3 ) );
+		}
+		finally {
+			journal.close();
+		}
+	}
+	
+	public void testTornRecordTruncated() throws IOException {
+		
+		RunJournal journal;
+		long length;
+		
+		journal = new RunJournal( journalFile );
+		journal.append( 1, outputMap( "a.txt" ) );
+		journal.close();
+		
+		length = journalFile.length();
+		
+		journal = new RunJournal( journalFile );
+		journal.append( 2, outputMap( "b.txt" ) );
+		journal.close();
+		
+		// a crash tore the last record
+		try( RandomAccessFile raf = new RandomAccessFile( journalFile, "rw" ) ) {
+			raf.setLength( journalFile.length()-5 );
+		}
+		
+		journal = new RunJournal( journalFile );
+		
+		try {
+			
+			assertEquals( length, journalFile.length() );
+			assertEquals( 1, journal.size() );
+			assertFalse( journal.containsSignature( 2 ) );
+			
+			// appends continue right after the last intact record
+			journal.append( 3, outputMap( "c.txt" ) );
+		}
+		finally {
+			journal.close();
+		}
+		
+		journal = new RunJournal( journalFile );
+		
+		try {
+			
+			assertEquals( 2, journal.size() );
+			assertEquals( outputMap( "c.txt" ), journal.getOutputMap( 3 ) );
+		}
+		finally {
+			journal.close();
+		}
+	}
+	
+	public void testTombstoneHidesRecord() throws IOException {
+		
+		RunJournal journal;
+		
+		journal = new RunJournal( journalFile );
+		journal.append( 1, outputMap( "a.txt" ) );
+		journal.append( 2, outputMap( "b.txt" ) );
+		journal.remove( 1 );
+		
+		assertFalse( journal.containsSignature( 1 ) );
+		journal.close();
+		
+		journal = new RunJournal( journalFile );
+		
+		try {
+			
+			assertEquals( 1, journal.size() );
+			assertFalse( journal.containsSignature( 1 ) );
+			assertNull( journal.getOutputMap( 1 ) );
+			assertEquals( outputMap( "b.txt" ), journal.getOutputMap( 2 ) );
+			
+			// the invocation is journaled anew after it has run again
+			journal.append( 1, outputMap( "d.txt" ) );
+		}
+		finally {
+			journal.close();
+		}
+		
+		journal = new RunJournal( journalFile );
+		
+		try {
+			assertEquals( outputMap( "d.txt" ), journal.getOutputMap( 1 ) );
+		}
+		finally {
+			journal.close();
+		}
+	}
+	
+	public void testLookupScansAfterConcurrentAppend() throws IOException {
+		
+		RunJournal journal;
+		final RunJournal other;
+		List<String> valueList;
+		
+		journal = new RunJournal( journalFile, true );
+		other = new RunJournal( journalFile );
+		
+		try {
+			
+			journal.append( 1, outputMap( "a.txt" ) );
+			
+			// the other journal appends without taking the lock while the
+			// record is being streamed, i.e., on the second pass over the
+			// values, so the record's offset is unknown
+			valueList = new AbstractList<String>() {
+				
+				private int nPass;
+				
+				@Override
+				public Iterator<String> iterator() {
+					
+					if( ++nPass == 2 )
+						try {
+							other.append( 3, outputMap( "c.txt" ) );
+						}
+						catch( IOException e ) {
+							throw new RuntimeException( e );
+						}
+					
+					return super.iterator();
+				}
+				
+				@Override
+				public String get( int idx ) {
+					return "b.txt";
+				}
+				
+				@Override
+				public int size() {
+					return 1;
+				}
+			};
+			
+			journal.append( 2, Collections.singletonMap( "out", valueList ) );
+			
+			assertTrue( journal.containsSignature( 2 ) );
+			assertEquals( outputMap( "b.txt" ), journal.getOutputMap( 2 ) );
+			assertEquals( outputMap( "a.txt" ), journal.getOutputMap( 1 ) );
+		}
+		finally {
+			
+			journal.close();
+			other.close();
+		}
+		
+		journal = new RunJournal( journalFile, true );
+		
+		try {
+			
+			assertEquals( 3, journal.size() );
+			assertEquals( outputMap( "c.txt" ), journal.getOutputMap( 3 ) );
+		}
+		finally {
+			journal.close();
+		}
+	}
+	
+	private static Map<String,List<String>> outputMap( String... value ) {
+		return Collections.singletonMap( "out", Arrays.asList( value ) );
+	}
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.compiler.remote;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+
+public class RemoteDispatcherTest extends TestCase {
+	
+	private static final String WORKFLOW =
+		"declare test;\n"
+		+"deftask greet( out : ~name ) *{\n"
+		+"  out=greeting.txt\n"
+		+"  echo \"hello $name\" > $out\n"
+		+"}*\n"
+		+"deftask upper( out : inp ) *{\n"
+		+"  out=up.txt\n"
+		+"  tr a-z A-Z < $inp > $out\n"
+		+"}*\n"
+		+"deftask concat( <out> : <inp> ) *{\n"
+		+"  cat ${inp[@]} > all.txt\n"
+		+"  out=( all.txt )\n"
+		+"}*\n"
+		+"g = greet( name: ~'alice' ~'bob' ~'carol' ~'dave' );\n"
+		+"c = concat( inp: upper( inp: g ) );\n"
+		+"target c;\n";
+	
+	private static final String SINGLE =
+		"declare test;\n"
+		+"deftask greet( out : ~name ) *{\n"
+		+"  out=greeting.txt\n"
+		+"  echo \"hello $name\" > $out\n"
+		+"}*\n"
+		+"g = greet( name: ~'alice' );\n"
+		+"target g;\n";
+	
+	private static final long TIMEOUT = 60000;
+	
+	private File buildDir;
+	
+	@Override
+	protected void setUp() throws IOException {
+		buildDir = Files.createTempDirectory( "cf-remote" ).toFile();
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		FileUtils.deleteDirectory( buildDir );
+	}
+	
+	public void testSeveralLocalWorkers() throws Throwable {
+		
+		RemoteDispatcher dispatcher;
+		
+		dispatcher = createDispatcher( WORKFLOW );
+		dispatcher.setLocalWorker( 3, 2 );
+		
+		await( start( dispatcher ) );
+		
+		assertEquals( "HELLO ALICE\nHELLO BOB\nHELLO CAROL\nHELLO DAVE\n", readResult( dispatcher ) );
+		assertFalse( new File( buildDir, RemoteDispatcher.TOKEN_FILENAME ).exists() );
+		assertNoAttempt();
+	}
+	
+	public void testInvalidTokenRejected() throws Throwable {
+		
+		RemoteDispatcher dispatcher;
+		Run run;
+		JSONObject msg;
+		
+		dispatcher = createDispatcher( SINGLE );
+		run = start( dispatcher );
+		
+		try( RemoteConnection conn = new RemoteConnection( new Socket( "localhost", awaitPort( dispatcher ) ) ) ) {
+			
+			msg = RemoteConnection.createMessage( RemoteConnection.OP_HELLO );
+			msg.put( RemoteConnection.ATT_WORKER, "intruder" );
+			msg.put( RemoteConnection.ATT_SLOTS, 1 );
+			msg.put( RemoteConnection.ATT_TOKEN, "0123456789abcdef" );
+			conn.send( msg );
+			
+			assertNull( conn.receive() );
+		}
+		
+		startWorker( dispatcher );
+		await( run );
+		
+		assertEquals( "hello alice\n", readResult( dispatcher ) );
+	}
+	
+	public void testRedispatchAfterHeartbeatTimeout() throws Throwable {
+		runLostWorker( false );
+	}
+	
+	public void testRedispatchAfterConnectionLoss() throws Throwable {
+		runLostWorker( true );
+	}
+	
+	/** Lets a fake worker accept an invocation and then fall silent or hang
+	 * up. A real worker joining later has to compute the invocation without
+	 * seeing anything the fake worker left behind.
+	 */
+	private void runLostWorker( boolean hangUp ) throws Throwable {
+		
+		RemoteDispatcher dispatcher;
+		Run run;
+		JSONObject msg;
+		File attempt;
+		
+		dispatcher = createDispatcher( SINGLE );
+		dispatcher.setHeartbeatTimeout( 3*RemoteWorker.HEARTBEAT_INTERVAL );
+		run = start( dispatcher );
+		
+		try( RemoteConnection conn = new RemoteConnection( new Socket( "localhost", awaitPort( dispatcher ) ) ) ) {
+			
+			msg = RemoteConnection.createMessage( RemoteConnection.OP_HELLO );
+			msg.put( RemoteConnection.ATT_WORKER, "fake" );
+			msg.put( RemoteConnection.ATT_SLOTS, 1 );
+			msg.put( RemoteConnection.ATT_TOKEN, RemoteConnection.readToken(
+				new File( buildDir, RemoteDispatcher.TOKEN_FILENAME ) ) );
+			conn.send( msg );
+			
+			msg = conn.receive();
+			assertEquals( RemoteConnection.OP_RUN, msg.getString( RemoteConnection.ATT_OP ) );
+			
+			// the fake worker starts writing garbage into its sandbox
+			attempt = new File( msg.getString( RemoteConnection.ATT_LOCATION ) );
+			assertTrue( attempt.mkdirs() );
+			write( new File( attempt, "greeting.txt" ), "garbage\n" );
+			
+			if( hangUp )
+				conn.close();
+			
+			startWorker( dispatcher );
+			await( run );
+		}
+		
+		assertEquals( "hello alice\n", readResult( dispatcher ) );
+		assertFalse( attempt.exists() );
+		assertNoAttempt();
+	}
+	
+	private RemoteDispatcher createDispatcher( String workflow ) {
+		
+		RemoteDispatcher dispatcher;
+		
+		dispatcher = new RemoteDispatcher( buildDir, null, UUID.randomUUID().toString() );
+		dispatcher.setPort( 0 );
+		dispatcher.addInputString( workflow );
+		
+		return dispatcher;
+	}
+	
+	private void startWorker( RemoteDispatcher dispatcher ) throws InterruptedException {
+		
+		RemoteWorker worker;
+		Thread thread;
+		
+		worker = new RemoteWorker( "localhost", awaitPort( dispatcher ), 1 );
+		worker.setTokenFile( new File( buildDir, RemoteDispatcher.TOKEN_FILENAME ) );
+		
+		thread = new Thread( worker );
+		thread.setDaemon( true );
+		thread.start();
+	}
+	
+	private String readResult( RemoteDispatcher dispatcher ) throws Exception {
+		
+		Set<String> resultSet;
+		String result;
+		
+		resultSet = dispatcher.getComputationResultSet();
+		assertEquals( 1, resultSet.size() );
+		
+		result = resultSet.iterator().next();
+		
+		// sandboxes are named after the producer's signature
+		return new String( Files.readAllBytes( new File(
+			new File( buildDir, result.substring( 0, result.indexOf( '_' ) ) ),
+			result ).toPath() ), StandardCharsets.UTF_8 );
+	}
+	
+	private void assertNoAttempt() {
+		
+		for( String name : buildDir.list() )
+			assertFalse( name, name.contains( ".attempt" ) );
+	}
+	
+	private static Run start( RemoteDispatcher dispatcher ) {
+		
+		Run run;
+		
+		run = new Run( dispatcher );
+		run.setDaemon( true );
+		run.start();
+		
+		return run;
+	}
+	
+	private static void await( Run run ) throws Throwable {
+		
+		run.join( TIMEOUT );
+		assertFalse( "Run did not finish in time.", run.isAlive() );
+		
+		if( run.getError() != null )
+			throw run.getError();
+	}
+	
+	private static int awaitPort( RemoteDispatcher dispatcher ) throws InterruptedException {
+		
+		long deadline;
+		
+		deadline = System.currentTimeMillis()+TIMEOUT;
+		
+		while( dispatcher.getPort() == 0 ) {
+			
+			assertTrue( "Master did not start listening.", System.currentTimeMillis() < deadline );
+			Thread.sleep( 10 );
+		}
+		
+		return dispatcher.getPort();
+	}
+	
+	private static void write( File file, String content ) throws IOException {
+		
+		try( Writer writer = new FileWriter( file ) ) {
+			writer.write( content );
+		}
+	}
+	
+	private static class Run extends Thread {
+		
+		private RemoteDispatcher dispatcher;
+		private volatile Throwable error;
+		
+		public Run( RemoteDispatcher dispatcher ) {
+			this.dispatcher = dispatcher;
+		}
+		
+		public Throwable getError() {
+			return error;
+		}
+		
+		@Override
+		public void run() {
+			
+			try {
+				dispatcher.run();
+			}
+			catch( Throwable e ) {
+				error = e;
+			}
+		}
+	}
+}
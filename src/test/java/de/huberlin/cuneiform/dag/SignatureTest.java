@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+
+package de.huberlin.cuneiform.dag;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public class SignatureTest extends TestCase {
+	
+	private static final String WORKFLOW =
+		"declare sig;\n"
+		+"deftask prep( out : inp ~mode ) *{\n"
+		+"  out=prep.txt\n"
+		+"}*\n"
+		+"deftask split( <part> log : inp ) *{\n"
+		+"  part=( a b )\n"
+		+"  log=split.log\n"
+		+"}*\n"
+		+"deftask join( out : <part> ~sep ) *{\n"
+		+"  out=join.txt\n"
+		+"}*\n"
+		+"a = prep( inp: 'data/in/a.txt' 'data/in/b.txt' mode: ~'fast' ~'exact' );\n"
+		+"s = split( inp: a );\n"
+		+"j = join( part: s sep: ~',' );\n"
+		+"target j;\n";
+	
+	// derived by the engine as it was before invocations were stored
+	// compactly and values were interned
+	private static final String[] SIGNATURE = {
+		"join 10175424604",
+		"prep 2785060856",
+		"prep 2785984377",
+		"prep 4181889339",
+		"prep 4182812860",
+		"split 1902516739",
+		"split 2516337664",
+		"split 537119882",
+		"split 751539844"
+	};
+	
+	public void testSignaturesUnchanged() throws NotDerivableException, JSONException {
+		
+		ExecDag dag;
+		Set<Invocation> readySet;
+		List<String> signatureList;
+		
+		dag = new ExecDag();
+		dag.addInputString( WORKFLOW );
+		
+		signatureList = new ArrayList<>();
+		
+		while( !( readySet = dag.getReadyInvocationSet() ).isEmpty() )
+			for( Invocation invocation : readySet ) {
+				
+				signatureList.add( invocation.getTaskName()+" "+invocation.getSignature() );
+				complete( dag, invocation );
+			}
+		
+		Collections.sort( signatureList );
+		assertEquals( Arrays.asList( SIGNATURE ), signatureList );
+		
+		// computed invocations answer from the store after releasing their inputs
+		signatureList.clear();
+		for( Invocation invocation : dag.getInvocationSet() ) {
+			
+			assertTrue( invocation.isComputed() );
+			signatureList.add( invocation.getTaskName()+" "+invocation.getSignature() );
+		}
+		
+		Collections.sort( signatureList );
+		assertEquals( Arrays.asList( SIGNATURE ), signatureList );
+	}
+	
+	/** Binds every output to values derived from the signature, reduce
+	 * outputs to two path-like values.
+	 */
+	private static void complete( ExecDag dag, Invocation invocation )
+	throws NotDerivableException, JSONException {
+		
+		JSONObject obj;
+		JSONArray array;
+		Set<JsonReportEntry> report;
+		long signature;
+		
+		signature = invocation.getSignature();
+		obj = new JSONObject();
+		
+		for( String outputName : invocation.getOutputNameList() ) {
+			
+			array = new JSONArray();
+			
+			if( invocation.isOutputReduce( outputName ) ) {
+				
+				array.put( signature+"/"+outputName+"_0" );
+				array.put( signature+"/"+outputName+"_1" );
+			}
+			else
+				array.put( signature+"_"+invocation.getOutputChannel( outputName )+"_"+outputName );
+			
+			obj.put( outputName, array );
+		}
+		
+		report = new HashSet<>();
+		report.add( new JsonReportEntry(
+			UUID.fromString( dag.getDagId() ), ( long )invocation.getTaskNodeId(),
+			invocation.getTaskName(), invocation.getLangLabel(), signature,
+			JsonReportEntry.KEY_INVOC_OUTPUT, obj ) );
+		
+		invocation.evalReport( report );
+	}
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * In the Hi-WAY project we propose a novel approach of executing scientific
+ * workflows processing Big Data, as found in NGS applications, on distributed
+ * computational infrastructures. The Hi-WAY software stack comprises the func-
+ * tional workflow language Cuneiform as well as the Hi-WAY ApplicationMaster
+ * for Apache Hadoop 2.x (YARN).
+ *
+ * List of Contributors:
+ *
+ * Jörgen Brandt (HU Berlin)
+ * Marc Bux (HU Berlin)
+ * Ulf Leser (HU Berlin)
+ *
+ * Jörgen Brandt is funded by the European Commission through the BiobankCloud
+ * project. Marc Bux is funded by the Deutsche Forschungsgemeinschaft through
+ * research training group SOAMED (GRK 1651).
+ *
+ * Copyright 2014 Humboldt-Universität zu Berlin
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package de.huberlin.cuneiform.language;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.apache.commons.io.FileUtils;
+
+public class ParseCacheTest extends TestCase {
+	
+	private static final long PAST = 1000000000000L;
+	
+	private static final String LIBRARY =
+		"declare lib;\n"
+		+"deftask greet( out : name ) *{\n"
+		+"  out=hello.txt\n"
+		+"}*\n";
+	
+	private static final String WORKFLOW =
+		"declare codec;\n"
+		+"deftask split( <part> log : inp ) *{\n"
+		+"  part=( a b )\n"
+		+"  log=split.log\n"
+		+"}*\n"
+		+"deftask join( out : <part> ~sep ) *{\n"
+		+"  out=join.txt\n"
+		+"}*\n"
+		+"s = split( inp: 'data/in/a.txt' 'data/in/b.txt' );\n"
+		+"j = join( part: s sep: ~',' );\n"
+		+"target j;\n";
+	
+	private File dir;
+	private File cacheDir;
+	private File scriptFile;
+	private File libraryFile;
+	private ParseCache cache;
+	
+	@Override
+	protected void setUp() throws IOException {
+		
+		dir = Files.createTempDirectory( "cf-parse" ).toFile();
+		cacheDir = new File( dir, "cache" );
+		scriptFile = new File( dir, "main.cf" );
+		libraryFile = new File( dir, "lib.cf" );
+		
+		FileUtils.writeStringToFile( libraryFile, LIBRARY );
+		FileUtils.writeStringToFile( scriptFile, script( "a" ) );
+		
+		cache = new ParseCache( cacheDir );
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		FileUtils.deleteDirectory( dir );
+	}
+	
+	public void testCodecRoundTrip() throws IOException {
+		
+		ParseResult result, copy;
+		byte[] content;
+		
+		result = ParseResult.parse( new ANTLRInputStream( WORKFLOW ) );
+		content = encode( result );
+		
+		copy = ParseResult.read( new DataInputStream( new ByteArrayInputStream( content ) ) );
+		
+		assertEquals( result.getDeclare(), copy.getDeclare() );
+		assertEquals( result.getDefTaskNameSet(), copy.getDefTaskNameSet() );
+		assertEquals( result.getDefTaskBody( "split" ), copy.getDefTaskBody( "split" ) );
+		assertEquals( result.getDefTaskBody( "join" ), copy.getDefTaskBody( "join" ) );
+		assertEquals( result.getTargetSet(), copy.getTargetSet() );
+		assertEquals( result.getAssignList().size(), copy.getAssignList().size() );
+		assertTrue( Arrays.equals( content, encode( copy ) ) );
+	}
+	
+	public void testFileEntryReused() throws IOException {
+		
+		File entryFile;
+		ParseResult result;
+		
+		result = cache.parseFile( scriptFile.getPath() );
+		
+		assertEquals( "a", result.getTargetSet().iterator().next() );
+		assertEquals( Arrays.asList( libraryFile.getCanonicalPath() ), result.getImportList() );
+		
+		entryFile = getEntryFile();
+		assertTrue( entryFile.setLastModified( PAST ) );
+		
+		// a touched script with the same content still counts as unchanged
+		assertTrue( scriptFile.setLastModified( PAST ) );
+		
+		result = cache.parseFile( scriptFile.getPath() );
+		
+		assertEquals( PAST, entryFile.lastModified() );
+		assertEquals( "a", result.getTargetSet().iterator().next() );
+		assertTrue( result.getDefTaskNameSet().contains( "greet" ) );
+	}
+	
+	public void testFileEntryInvalidated() throws IOException {
+		
+		File entryFile;
+		ParseResult result;
+		
+		cache.parseFile( scriptFile.getPath() );
+		
+		entryFile = getEntryFile();
+		assertTrue( entryFile.setLastModified( PAST ) );
+		
+		FileUtils.writeStringToFile( scriptFile, script( "bb" ) );
+		
+		result = cache.parseFile( scriptFile.getPath() );
+		
+		assertFalse( entryFile.lastModified() == PAST );
+		assertEquals( "bb", result.getTargetSet().iterator().next() );
+		assertEquals( 1, cacheDir.list().length );
+	}
+	
+	public void testImportInvalidates() throws IOException {
+		
+		ParseResult result;
+		
+		cache.parseFile( scriptFile.getPath() );
+		
+		FileUtils.writeStringToFile( libraryFile, LIBRARY.replace( "hello.txt", "goodbye.txt" ) );
+		
+		result = cache.parseFile( scriptFile.getPath() );
+		
+		assertTrue( result.getDefTaskBody( "greet" ).contains( "goodbye.txt" ) );
+	}
+	
+	public void testCorruptEntryReplaced() throws IOException {
+		
+		File entryFile;
+		ParseResult result;
+		
+		cache.parseFile( scriptFile.getPath() );
+		
+		entryFile = getEntryFile();
+		FileUtils.writeStringToFile( entryFile, "garbage" );
+		
+		result = cache.parseFile( scriptFile.getPath() );
+		
+		assertEquals( "a", result.getTargetSet().iterator().next() );
+		assertTrue( entryFile.length() > "garbage".length() );
+	}
+	
+	public void testStringEntry() throws IOException {
+		
+		File entryFile;
+		ParseResult result;
+		
+		cache.parseString( script( "a" ) );
+		
+		entryFile = getEntryFile();
+		assertTrue( entryFile.getName().startsWith( "content-" ) );
+		assertTrue( entryFile.setLastModified( PAST ) );
+		
+		result = cache.parseString( script( "a" ) );
+		
+		assertEquals( PAST, entryFile.lastModified() );
+		assertEquals( "a", result.getTargetSet().iterator().next() );
+		
+		cache.parseString( script( "bb" ) );
+		
+		assertEquals( 2, cacheDir.list().length );
+	}
+	
+	private File getEntryFile() {
+		
+		File[] entryArray;
+		
+		entryArray = cacheDir.listFiles();
+		
+		assertEquals( 1, entryArray.length );
+		
+		return entryArray[ 0 ];
+	}
+	
+	private String script( String target ) throws IOException {
+		
+		return "declare main;\n"
+			+"import "+libraryFile.getCanonicalPath()+";\n"
+			+target+" = greet( name: 'world' );\n"
+			+"target "+target+";\n";
+	}
+	
+	private static byte[] encode( ParseResult result ) throws IOException {
+		
+		ByteArrayOutputStream buf;
+		
+		buf = new ByteArrayOutputStream();
+		
+		try( DataOutputStream out = new DataOutputStream( buf ) ) {
+			result.write( out );
+		}
+		
+		return buf.toByteArray();
+	}
+}